@@ -21,11 +21,15 @@ import org.cytoscape.application.swing.CytoPanelComponent;
 import org.cytoscape.service.util.CyServiceRegistrar;
 import org.cytoscape.diffusion.internal.rest.RemoteLogger;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
+import org.cytoscape.diffusion.internal.engine.ColumnStorage;
 import org.cytoscape.diffusion.internal.rest.DiffusionResource;
+import org.cytoscape.diffusion.internal.task.DiffusionBatchTaskFactory;
 import org.cytoscape.diffusion.internal.task.DiffusionContextMenuTaskFactory;
 import org.cytoscape.diffusion.internal.task.EdgeContextMenuTaskFactory;
+import org.cytoscape.diffusion.internal.task.HttpClientFactoryImpl;
 import org.cytoscape.diffusion.internal.ui.OutputPanel;
 import org.cytoscape.diffusion.internal.util.DiffusionTableManager;
+import org.cytoscape.diffusion.internal.util.NetworkSnapshotCache;
 import org.cytoscape.io.write.CyNetworkViewWriterFactory;
 import org.cytoscape.model.CyNetworkManager;
 import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
@@ -34,6 +38,7 @@ import org.cytoscape.model.events.NetworkDestroyedEvent;
 import org.cytoscape.model.events.NetworkDestroyedListener;
 import org.cytoscape.property.CyProperty;
 import org.cytoscape.service.util.AbstractCyActivator;
+import org.cytoscape.task.NetworkTaskFactory;
 import org.cytoscape.task.create.NewNetworkSelectedNodesOnlyTaskFactory;
 import org.cytoscape.task.read.LoadVizmapFileTaskFactory;
 import org.cytoscape.view.model.CyNetworkViewManager;
@@ -53,6 +58,8 @@ public class CyActivator extends AbstractCyActivator {
 	private ServiceTracker ciExceptionFactoryTracker = null;
 	private ServiceTracker ciErrorFactoryTracker = null;
 	
+	private DiffusionServiceClient client = null;
+	
 	@Override
 	public void start(BundleContext context) throws Exception {
 		CyServiceRegistrar registrar = getService(context, CyServiceRegistrar.class);
@@ -88,7 +95,14 @@ public class CyActivator extends AbstractCyActivator {
 		final DiffusionTableManager tableManager = new DiffusionTableManager();
 		registerAllServices(context, tableManager, new Properties());
 
-		final DiffusionServiceClient client = new DiffusionServiceClient(props);
+		// Network snapshots for local diffusions and cache keys, edited in place
+		// as nodes and edges change. Registered whatever the engine, which can
+		// be switched at runtime, events of networks without one return early
+		final NetworkSnapshotCache snapshotCache = new NetworkSnapshotCache(
+				new ColumnStorage(props == null ? null : props.getProperties()));
+		registerAllServices(context, snapshotCache, new Properties());
+
+		client = new DiffusionServiceClient(props, snapshotCache);
 
 		OutputPanel outputPanel = new OutputPanel(registrar, tableManager, vizmapLoader, cyApplicationManagerService, vmm,
 				createSubnetworkFactory, renderingEngineMgr, swingApplication);
@@ -151,7 +165,7 @@ public class CyActivator extends AbstractCyActivator {
 		
 		DiffusionResource diffusionResource = new DiffusionResource(cyApplicationManagerService, synchronousTaskManager,
 				cyNetworkManager, cyNetworkViewManager, diffusionContextMenuTaskFactory, withOptionsTaskFactory,
-				ciResponseFactoryTracker, ciExceptionFactoryTracker, ciErrorFactoryTracker);
+				ciResponseFactoryTracker, ciExceptionFactoryTracker, ciErrorFactoryTracker, client);
 		registerService(context, diffusionResource, DiffusionResource.class, new Properties());
 
 		wOptsProps.setProperty(ENABLE_FOR, ENABLE_FOR_SELECTED_NODES);
@@ -200,6 +214,20 @@ public class CyActivator extends AbstractCyActivator {
 		diffusionTaskFactoryPropsTool2.setProperty("title", "Selected Nodes with Options");
 		diffusionTaskFactoryPropsTool2.setProperty(ENABLE_FOR, ENABLE_FOR_SELECTED_NODES);
 
+		/////////////////////// Batch command //////////////////////////////
+
+		final DiffusionBatchTaskFactory batchTaskFactory = new DiffusionBatchTaskFactory(tableManager, outputPanel,
+				viewWriterManager, swingApplication, cyApplicationManagerService, client, tunableSetterServiceRef);
+		Properties batchProps = new Properties();
+		batchProps.setProperty(COMMAND_NAMESPACE, "diffusion");
+		batchProps.setProperty(COMMAND, "diffuse_batch");
+		batchProps.setProperty(COMMAND_DESCRIPTION, "Execute Diffusion for several Heat Columns");
+		batchProps.setProperty(COMMAND_LONG_DESCRIPTION, DiffusionDocumentation.GENERIC_SWAGGER_NOTES
+				+ DiffusionDocumentation.BATCH_SWAGGER_NOTES);
+		batchProps.setProperty(COMMAND_SUPPORTS_JSON, "true");
+		batchProps.setProperty(COMMAND_EXAMPLE_JSON, DiffusionDocumentation.BATCH_COMMAND_EXAMPLE_JSON);
+		registerService(context, batchTaskFactory, NetworkTaskFactory.class, batchProps);
+
 		// For Context
 		registerAllServices(context, diffusionContextMenuTaskFactory, diffusionTaskFactoryProps);
 		registerAllServices(context, withOptionsTaskFactory, wOptsProps);
@@ -223,6 +251,10 @@ public class CyActivator extends AbstractCyActivator {
 		if (ciErrorFactoryTracker != null) {
 			ciErrorFactoryTracker.close();
 		}
+		if (client != null) {
+			client.shutdown();
+		}
+		HttpClientFactoryImpl.shutdownDefault();
 		super.shutDown();
 	}
 	
@@ -13,8 +13,33 @@ public class DiffusionDocumentation {
 
 	public static final String HEAT_COLUMN_NAME_LONG_DESCRIPTION =  "A node column name intended to override the default table column 'diffusion_input'. This represents the query vector and corresponds to h in the diffusion equation.";
 			
+	public static final String HEAT_COLUMN_NAMES_LONG_DESCRIPTION =  "Node columns holding the query vectors, one diffusion is run for each column. The network is sent to the service only once for all of them.";
+
+	public static final String BATCH_SWAGGER_NOTES = "Runs one diffusion for each of the given heat columns. The network is encoded once and "
+			+ "a pair of heat and rank columns is created for each heat column, in the order given."  + '\n' + '\n';
+
+	public static final String BATCH_COMMAND_EXAMPLE_JSON = "[{\n" + 
+			"    \"heatColumn\": \"diffusion_output_heat\",\n" + 
+			"    \"rankColumn\": \"diffusion_output_rank\"\n" + 
+			"}, {\n" + 
+			"    \"heatColumn\": \"diffusion_output_1_heat\",\n" + 
+			"    \"rankColumn\": \"diffusion_output_1_rank\"\n" + 
+			"}]";
+
 	public static final String TIME_LONG_DESCRIPTION = "The extent of spread over the network. This corresponds to t in the diffusion equation.";
 
+	public static final String TIMES_LONG_DESCRIPTION = "Comma separated list of times, overrides time if set. One diffusion is run for each time and "
+			+ "a pair of heat and rank columns is created for each, in the order given. All times are computed together, "
+			+ "which costs little more than the largest time alone. The response data is then the list of the columns of each time.";
+
+	public static final String RESTART_PROBABILITY_LONG_DESCRIPTION = "Restart probability of a random walk with restart (personalized PageRank), "
+			+ "which replaces the heat diffusion when above 0. At each step the walk returns to the query vector with this probability, "
+			+ "higher values keep the heat closer to it. Computed in Cytoscape, time is ignored and times must not be set.";
+
+	public static final String TOP_K_LONG_DESCRIPTION = "Number of best ranks to compute, 0 for all of them. If above 0 only the nodes ranked "
+			+ "this number or better get heat and rank values. The local engine stops the diffusion as soon as the order of these nodes is certain, "
+			+ "their heats are then only as accurate as needed for that order.";
+
 	public static final String COMMAND_EXAMPLE_JSON = "{\n" + 
 			"    \"heatColumn\": \"diffusion_output_heat\",\n" + 
 			"    \"rankColumn\": \"diffusion_output_rank\"\n" + 
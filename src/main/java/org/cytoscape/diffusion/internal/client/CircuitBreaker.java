@@ -0,0 +1,243 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.util.Properties;
+import java.util.function.LongSupplier;
+
+import org.cytoscape.diffusion.internal.util.Props;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Stops calls to the diffusion service while it is failing or too slow.
+ * <p>
+ * The outcomes of the most recent calls are kept in a window. Once the
+ * window holds enough calls and the rate of failed or slow calls reaches its
+ * threshold the breaker opens and rejects calls right away. After the open
+ * duration it lets a few probe calls through (half open), closing again if
+ * they all succeed or opening again as soon as one fails.
+ */
+public class CircuitBreaker {
+
+	public enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	public static final String ENABLED_PROP = "diffusion.breaker.enabled";
+	public static final String WINDOW_PROP = "diffusion.breaker.window";
+	public static final String MINIMUM_CALLS_PROP = "diffusion.breaker.minimumCalls";
+	public static final String FAILURE_RATE_PROP = "diffusion.breaker.failureRate";
+	public static final String SLOW_CALL_RATE_PROP = "diffusion.breaker.slowCallRate";
+	public static final String SLOW_CALL_DURATION_PROP = "diffusion.breaker.slowCallDuration";
+	public static final String OPEN_DURATION_PROP = "diffusion.breaker.openDuration";
+	public static final String HALF_OPEN_CALLS_PROP = "diffusion.breaker.halfOpenCalls";
+
+	public static final int DEFAULT_WINDOW = 20;
+	public static final int DEFAULT_MINIMUM_CALLS = 5;
+	public static final int DEFAULT_FAILURE_RATE = 50;
+	public static final int DEFAULT_SLOW_CALL_RATE = 100;
+	public static final long DEFAULT_SLOW_CALL_DURATION = 60000;
+	public static final long DEFAULT_OPEN_DURATION = 30000;
+	public static final int DEFAULT_HALF_OPEN_CALLS = 1;
+
+	private final static Logger logger = LoggerFactory.getLogger(CircuitBreaker.class);
+
+	private final boolean enabled;
+	private final int minimumCalls;
+	private final int failureRateThreshold;
+	private final int slowCallRateThreshold;
+	private final long slowCallDuration;
+	private final long openDuration;
+	private final int halfOpenCalls;
+	private final LongSupplier clock;
+
+	// outcomes of the most recent calls, a ring buffer
+	private final boolean[] failed;
+	private final boolean[] slow;
+	private int next = 0;
+	private int count = 0;
+	private int failures = 0;
+	private int slowCalls = 0;
+
+	private State state = State.CLOSED;
+	private long openedAt = 0;
+	private int probesStarted = 0;
+	private int probesSucceeded = 0;
+
+	/**
+	 * Creates breaker configured from properties, any property not set or
+	 * not parseable falls back to its default
+	 *
+	 * @param props Properties to read, can be {@code null}
+	 */
+	public CircuitBreaker(final Properties props) {
+		this(Props.getBoolean(props, ENABLED_PROP, true), Props.getInt(props, WINDOW_PROP, DEFAULT_WINDOW),
+				Props.getInt(props, MINIMUM_CALLS_PROP, DEFAULT_MINIMUM_CALLS),
+				Props.getInt(props, FAILURE_RATE_PROP, DEFAULT_FAILURE_RATE),
+				Props.getInt(props, SLOW_CALL_RATE_PROP, DEFAULT_SLOW_CALL_RATE),
+				Props.getLong(props, SLOW_CALL_DURATION_PROP, DEFAULT_SLOW_CALL_DURATION),
+				Props.getLong(props, OPEN_DURATION_PROP, DEFAULT_OPEN_DURATION),
+				Props.getInt(props, HALF_OPEN_CALLS_PROP, DEFAULT_HALF_OPEN_CALLS), System::currentTimeMillis);
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param enabled If {@code false} the breaker never opens
+	 * @param window Number of most recent calls rates are computed from
+	 * @param minimumCalls Calls needed in the window before the breaker can open
+	 * @param failureRateThreshold Percentage of failed calls that opens the breaker
+	 * @param slowCallRateThreshold Percentage of slow calls that opens the breaker
+	 * @param slowCallDuration Duration in milliseconds above which a call is slow
+	 * @param openDuration Time in milliseconds calls are rejected once opened
+	 * @param halfOpenCalls Probe calls that must succeed to close the breaker again
+	 * @param clock Current time in milliseconds
+	 */
+	public CircuitBreaker(final boolean enabled, final int window, final int minimumCalls,
+			final int failureRateThreshold, final int slowCallRateThreshold, final long slowCallDuration,
+			final long openDuration, final int halfOpenCalls, final LongSupplier clock) {
+		this.enabled = enabled;
+		this.failed = new boolean[Math.max(1, window)];
+		this.slow = new boolean[failed.length];
+		this.minimumCalls = Math.max(1, Math.min(minimumCalls, failed.length));
+		this.failureRateThreshold = failureRateThreshold;
+		this.slowCallRateThreshold = slowCallRateThreshold;
+		this.slowCallDuration = slowCallDuration;
+		this.openDuration = openDuration;
+		this.halfOpenCalls = Math.max(1, halfOpenCalls);
+		this.clock = clock;
+	}
+
+	/**
+	 * Asks to make a call. Every permitted call must be followed by
+	 * {@link #onSuccess}, {@link #onFailure} or {@link #onIgnored}.
+	 *
+	 * @return {@code true} if the call may be made, {@code false} if the
+	 *         breaker is open
+	 */
+	public synchronized boolean tryAcquire() {
+		if (state == State.OPEN) {
+			if (clock.getAsLong() - openedAt < openDuration) {
+				return false;
+			}
+			logger.info("Diffusion service circuit breaker is half open, probing the service");
+			state = State.HALF_OPEN;
+			probesStarted = 0;
+			probesSucceeded = 0;
+		}
+		if (state == State.HALF_OPEN) {
+			if (probesStarted >= halfOpenCalls) {
+				return false;
+			}
+			probesStarted++;
+		}
+		return true;
+	}
+
+	/**
+	 * Records a call that got a response
+	 *
+	 * @param durationMillis time the call took
+	 */
+	public synchronized void onSuccess(final long durationMillis) {
+		final boolean isSlow = durationMillis > slowCallDuration;
+		if (state == State.HALF_OPEN) {
+			if (isSlow) {
+				open();
+			} else if (++probesSucceeded >= halfOpenCalls) {
+				close();
+			}
+			return;
+		}
+		record(false, isSlow);
+	}
+
+	/**
+	 * Records a call that failed to get a response
+	 */
+	public synchronized void onFailure() {
+		if (state == State.HALF_OPEN) {
+			open();
+			return;
+		}
+		record(true, false);
+	}
+
+	/**
+	 * Records a permitted call that was canceled before its outcome was known
+	 */
+	public synchronized void onIgnored() {
+		if (state == State.HALF_OPEN && probesStarted > 0) {
+			probesStarted--;
+		}
+	}
+
+	public synchronized State getState() {
+		if (state == State.OPEN && clock.getAsLong() - openedAt >= openDuration) {
+			// next call is let through as probe
+			return State.HALF_OPEN;
+		}
+		return state;
+	}
+
+	/**
+	 * @return percentage of failed calls in the window, or -1 if the window
+	 *         holds fewer calls than needed to open the breaker
+	 */
+	public synchronized float getFailureRate() {
+		return count < minimumCalls ? -1 : 100f * failures / count;
+	}
+
+	/**
+	 * @return percentage of slow calls in the window, or -1 if the window
+	 *         holds fewer calls than needed to open the breaker
+	 */
+	public synchronized float getSlowCallRate() {
+		return count < minimumCalls ? -1 : 100f * slowCalls / count;
+	}
+
+	public synchronized int getBufferedCalls() {
+		return count;
+	}
+
+	private void record(final boolean isFailure, final boolean isSlow) {
+		if (count == failed.length) {
+			if (failed[next]) {
+				failures--;
+			}
+			if (slow[next]) {
+				slowCalls--;
+			}
+		} else {
+			count++;
+		}
+		failed[next] = isFailure;
+		slow[next] = isSlow;
+		if (isFailure) {
+			failures++;
+		}
+		if (isSlow) {
+			slowCalls++;
+		}
+		next = (next + 1) % failed.length;
+
+		if (enabled && state == State.CLOSED && count >= minimumCalls
+				&& (getFailureRate() >= failureRateThreshold || getSlowCallRate() >= slowCallRateThreshold)) {
+			open();
+		}
+	}
+
+	private void open() {
+		logger.warn("Diffusion service is failing or too slow, circuit breaker opened for " + openDuration + " ms");
+		state = State.OPEN;
+		openedAt = clock.getAsLong();
+	}
+
+	private void close() {
+		logger.info("Diffusion service recovered, circuit breaker closed");
+		state = State.CLOSED;
+		count = 0;
+		next = 0;
+		failures = 0;
+		slowCalls = 0;
+	}
+}
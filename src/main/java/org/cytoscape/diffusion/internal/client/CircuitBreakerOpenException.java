@@ -0,0 +1,14 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.io.IOException;
+
+/**
+ * Thrown instead of calling the diffusion service while its
+ * {@link CircuitBreaker} is open
+ */
+public class CircuitBreakerOpenException extends IOException {
+
+	public CircuitBreakerOpenException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,114 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Properties;
+
+import org.cytoscape.diffusion.internal.util.Props;
+
+/**
+ * Keeps the outputs of recent diffusions so exact repeats are not sent to
+ * the service again. Bounded by number of entries and by bytes, the least
+ * recently used entries are evicted first.
+ */
+public class DiffusionCache {
+
+	public static final String MAX_ENTRIES_PROP = "diffusion.cache.maxEntries";
+	public static final String MAX_BYTES_PROP = "diffusion.cache.maxBytes";
+
+	public static final int DEFAULT_MAX_ENTRIES = 64;
+	public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+	private final int maxEntries;
+	private final long maxBytes;
+
+	// access ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<DiffusionCacheKey, DiffusionOutput> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * Creates cache configured from properties, any property not set or not
+	 * parseable falls back to its default
+	 *
+	 * @param props Properties to read, can be {@code null}
+	 */
+	public DiffusionCache(final Properties props) {
+		this(Props.getInt(props, MAX_ENTRIES_PROP, DEFAULT_MAX_ENTRIES),
+				Props.getLong(props, MAX_BYTES_PROP, DEFAULT_MAX_BYTES));
+	}
+
+	/**
+	 * Constructor
+	 *
+	 * @param maxEntries Maximum number of outputs kept, 0 or less disables the cache
+	 * @param maxBytes Maximum approximate bytes held by the outputs kept
+	 */
+	public DiffusionCache(final int maxEntries, final long maxBytes) {
+		this.maxEntries = maxEntries;
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Looks up the output of one diffusion, which may be kept under any of
+	 * {@code keys}. Counts one hit or one miss however many keys are tried.
+	 *
+	 * @param keys tried in order
+	 * @return cached output of the first key found or {@code null}
+	 */
+	public synchronized DiffusionOutput get(final DiffusionCacheKey... keys) {
+		for (DiffusionCacheKey key : keys) {
+			final DiffusionOutput output = entries.get(key);
+			if (output != null) {
+				hits++;
+				return output;
+			}
+		}
+		misses++;
+		return null;
+	}
+
+	/**
+	 * Caches {@code output}, evicting least recently used outputs as
+	 * needed. Outputs larger than the whole cache are not kept.
+	 */
+	public synchronized void put(final DiffusionCacheKey key, final DiffusionOutput output) {
+		final long size = output.getMemorySize();
+		if (maxEntries <= 0 || size > maxBytes) {
+			return;
+		}
+		final DiffusionOutput old = entries.put(key, output);
+		if (old != null) {
+			bytes -= old.getMemorySize();
+		}
+		bytes += size;
+
+		final Iterator<DiffusionOutput> eldest = entries.values().iterator();
+		while ((entries.size() > maxEntries || bytes > maxBytes) && eldest.hasNext()) {
+			bytes -= eldest.next().getMemorySize();
+			eldest.remove();
+		}
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized long getHits() {
+		return hits;
+	}
+
+	public synchronized long getMisses() {
+		return misses;
+	}
+}
@@ -0,0 +1,246 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.util.Objects;
+
+import org.cytoscape.diffusion.internal.engine.NetworkSnapshot;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+
+/**
+ * Identifies a diffusion by what its result depends on: the network
+ * topology, the non zero input heats and the time, or the restart
+ * probability of a random walk with restart, the number of top ranks if
+ * only those were computed, and the engine and precision that computed it.
+ * The {@link Topology} is hashed once for all diffusions on a network and is
+ * kept by its {@link NetworkSnapshot} if there is one, a key then only
+ * reads the input heats.
+ */
+public class DiffusionCacheKey {
+
+	private final long topologyHash;
+	private final long heatHash;
+	private final int nodeCount;
+	private final int edgeCount;
+	private final double time;
+	private final double restart;
+	private final int top;
+	private final String engine;
+	private final String precision;
+
+	public DiffusionCacheKey(final long topologyHash, final long heatHash, final int nodeCount,
+			final int edgeCount, final Double time) {
+		this(topologyHash, heatHash, nodeCount, edgeCount, time, null);
+	}
+
+	/**
+	 * @param restart restart probability of a random walk with restart,
+	 *                {@code null} for a heat diffusion
+	 */
+	public DiffusionCacheKey(final long topologyHash, final long heatHash, final int nodeCount,
+			final int edgeCount, final Double time, final Double restart) {
+		this(topologyHash, heatHash, nodeCount, edgeCount, time == null ? Double.NaN : time,
+				restart == null ? Double.NaN : restart, 0, null, null);
+	}
+
+	private DiffusionCacheKey(final long topologyHash, final long heatHash, final int nodeCount,
+			final int edgeCount, final double time, final double restart, final int top, final String engine,
+			final String precision) {
+		this.topologyHash = topologyHash;
+		this.heatHash = heatHash;
+		this.nodeCount = nodeCount;
+		this.edgeCount = edgeCount;
+		this.time = time;
+		this.restart = restart;
+		this.top = top;
+		this.engine = engine;
+		this.precision = precision;
+	}
+
+	/**
+	 * @param k number of top ranks computed, 0 for all of them
+	 * @return key of the same diffusion computing only the {@code k} best
+	 *         ranks
+	 */
+	public DiffusionCacheKey top(final int k) {
+		return new DiffusionCacheKey(topologyHash, heatHash, nodeCount, edgeCount, time, restart, k, engine,
+				precision);
+	}
+
+	/**
+	 * @param time diffusion time, {@code null} for the service default
+	 * @return key of diffusing the same input heats for {@code time}
+	 */
+	public DiffusionCacheKey time(final Double time) {
+		return new DiffusionCacheKey(topologyHash, heatHash, nodeCount, edgeCount,
+				time == null ? Double.NaN : time, restart, top, engine, precision);
+	}
+
+	/**
+	 * @param engine engine computing the diffusion, the service or the local
+	 *               engine
+	 * @param precision precision of the local engine, {@code null} for the
+	 *                  service
+	 * @return key of the same diffusion computed by {@code engine}
+	 */
+	public DiffusionCacheKey engine(final String engine, final String precision) {
+		return new DiffusionCacheKey(topologyHash, heatHash, nodeCount, edgeCount, time, restart, top, engine,
+				precision);
+	}
+
+	/**
+	 * Creates key of diffusing the heats in {@code inputHeatColumn} of
+	 * {@code network} for {@code time}. Hashes are order independent, so they
+	 * do not change with the order nodes and edges are listed in.
+	 *
+	 * @param time diffusion time, {@code null} for the service default
+	 */
+	public static DiffusionCacheKey create(final CyNetwork network, final String inputHeatColumn,
+			final Double time) {
+		return create(network, inputHeatColumn, time, null);
+	}
+
+	/**
+	 * Creates key of propagating the heats in {@code inputHeatColumn} of
+	 * {@code network} by a random walk with {@code restart}
+	 *
+	 * @param restart restart probability, {@code null} for a heat diffusion
+	 *                for {@code time}
+	 */
+	public static DiffusionCacheKey create(final CyNetwork network, final String inputHeatColumn,
+			final Double time, final Double restart) {
+		return create(Topology.of(network), network, inputHeatColumn, time, restart);
+	}
+
+	/**
+	 * Creates key of a diffusion on {@code network} whose topology was hashed
+	 * already, only the input heats are read
+	 *
+	 * @param topology topology of {@code network}, shared by the keys of all
+	 *                 diffusions on it
+	 */
+	public static DiffusionCacheKey create(final Topology topology, final CyNetwork network,
+			final String inputHeatColumn, final Double time, final Double restart) {
+		final CyTable table = network.getDefaultNodeTable();
+		final CyColumn column = table == null || inputHeatColumn == null ? null : table.getColumn(inputHeatColumn);
+		final Class<?> type = column == null || !Number.class.isAssignableFrom(column.getType()) ? null
+				: column.getType();
+
+		long heatHash = 0;
+		if (type != null) {
+			for (CyNode node : network.getNodeList()) {
+				final Number value = (Number) network.getRow(node).get(inputHeatColumn, type);
+				if (value != null && value.doubleValue() != 0.0) {
+					heatHash += mix(mix(node.getSUID()) ^ Double.doubleToLongBits(value.doubleValue()));
+				}
+			}
+		}
+		return new DiffusionCacheKey(topology.hash, heatHash, topology.nodeCount, topology.edgeCount, time,
+				restart);
+	}
+
+	/**
+	 * @return term of the node with {@code suid} in a topology hash
+	 */
+	public static long nodeHash(final long suid) {
+		return mix(suid);
+	}
+
+	/**
+	 * @return term of the undirected edge between the nodes with
+	 *         {@code source} and {@code target} in a topology hash, the same
+	 *         in either direction
+	 */
+	public static long edgeHash(final long source, final long target) {
+		return mix(mix(source) + mix(target));
+	}
+
+	/**
+	 * Finalizer of SplitMix64, spreads every input bit over the whole hash
+	 */
+	private static long mix(long z) {
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+	/**
+	 * Order independent hash of the nodes and edges of a network, the sum of
+	 * {@link #nodeHash(long)} of its nodes and {@link #edgeHash(long, long)}
+	 * of its edges. The diffusion only depends on which nodes are neighbors,
+	 * so self loops are left out and edge SUIDs are not hashed.
+	 */
+	public static class Topology {
+
+		private final long hash;
+		private final int nodeCount;
+		private final int edgeCount;
+
+		public Topology(final long hash, final int nodeCount, final int edgeCount) {
+			this.hash = hash;
+			this.nodeCount = nodeCount;
+			this.edgeCount = edgeCount;
+		}
+
+		/**
+		 * Walks nodes and edges of {@code network}. Parallel edges are hashed
+		 * each, so a network with them gets another topology than its
+		 * {@link NetworkSnapshot}, which only costs cache misses.
+		 */
+		public static Topology of(final CyNetwork network) {
+			long hash = 0;
+			int nodeCount = 0;
+			int edgeCount = 0;
+			for (CyNode node : network.getNodeList()) {
+				hash += nodeHash(node.getSUID());
+				nodeCount++;
+			}
+			for (CyEdge edge : network.getEdgeList()) {
+				final long source = edge.getSource().getSUID();
+				final long target = edge.getTarget().getSUID();
+				if (source != target) {
+					hash += edgeHash(source, target);
+					edgeCount++;
+				}
+			}
+			return new Topology(hash, nodeCount, edgeCount);
+		}
+
+		/**
+		 * Reads the hash kept by {@code snapshot} without walking it
+		 */
+		public static Topology of(final NetworkSnapshot snapshot) {
+			return new Topology(snapshot.getTopologyHash(), snapshot.getNodeCount(), snapshot.getEntryCount() / 2);
+		}
+	}
+
+	@Override
+	public boolean equals(final Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof DiffusionCacheKey)) {
+			return false;
+		}
+		final DiffusionCacheKey other = (DiffusionCacheKey) obj;
+		return topologyHash == other.topologyHash && heatHash == other.heatHash && nodeCount == other.nodeCount
+				&& edgeCount == other.edgeCount && Double.compare(time, other.time) == 0
+				&& Double.compare(restart, other.restart) == 0 && top == other.top
+				&& Objects.equals(engine, other.engine) && Objects.equals(precision, other.precision);
+	}
+
+	@Override
+	public int hashCode() {
+		return Long.hashCode(mix(topologyHash ^ mix(heatHash)) + Double.hashCode(time) + 31 * Double.hashCode(restart))
+				+ 961 * top + 29791 * Objects.hash(engine, precision);
+	}
+
+	@Override
+	public String toString() {
+		return String.format(
+				"DiffusionCacheKey[topology=%016x, heat=%016x, nodes=%d, edges=%d, time=%s, restart=%s, top=%d, engine=%s, precision=%s]",
+				topologyHash, heatHash, nodeCount, edgeCount, time, restart, top, engine, precision);
+	}
+}
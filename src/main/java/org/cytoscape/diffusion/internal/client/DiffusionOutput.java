@@ -0,0 +1,177 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.util.Arrays;
+
+import org.cytoscape.diffusion.internal.util.SuidIndexMap;
+
+/**
+ * Output heat and rank of a diffusion, held in primitive arrays. Entry
+ * {@code i} holds heat and rank of the node with SUID {@code getSUID(i)}.
+ */
+public class DiffusionOutput {
+
+	/** Rank of a node the output has no rank for */
+	public static final int NO_RANK = 0;
+
+	private final long[] suids;
+	private final double[] heats;
+	private final int[] ranks;
+	private final int size;
+	private final String engine;
+	private final String precision;
+
+	public DiffusionOutput(final long[] suids, final double[] heats, final int[] ranks, final int size) {
+		this(suids, heats, ranks, size, null, null);
+	}
+
+	private DiffusionOutput(final long[] suids, final double[] heats, final int[] ranks, final int size,
+			final String engine, final String precision) {
+		if (suids.length < size || heats.length < size || ranks.length < size) {
+			throw new IllegalArgumentException("Arrays are shorter than size " + size);
+		}
+		this.suids = suids;
+		this.heats = heats;
+		this.ranks = ranks;
+		this.size = size;
+		this.engine = engine;
+		this.precision = precision;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public long getSUID(final int i) {
+		return suids[i];
+	}
+
+	/**
+	 * @return heat of entry {@code i} or {@code NaN} if the output has none
+	 */
+	public double getHeat(final int i) {
+		return heats[i];
+	}
+
+	/**
+	 * @return rank of entry {@code i}, 1 being the hottest, or
+	 *         {@link #NO_RANK}
+	 */
+	public int getRank(final int i) {
+		return ranks[i];
+	}
+
+	/**
+	 * @return engine that computed this output, {@code null} if it was
+	 *         computed by the one that was asked for
+	 */
+	public String getEngine() {
+		return engine;
+	}
+
+	/**
+	 * @return precision of the local engine that computed this output,
+	 *         {@code null} for the service or if not labeled
+	 */
+	public String getPrecision() {
+		return precision;
+	}
+
+	/**
+	 * @return the same output labeled as computed by {@code engine}, the
+	 *         arrays are shared
+	 */
+	public DiffusionOutput computedBy(final String engine, final String precision) {
+		return new DiffusionOutput(suids, heats, ranks, size, engine, precision);
+	}
+
+	/**
+	 * @return output of the entries ranked {@code k} or better, the others
+	 *         are left out
+	 */
+	public DiffusionOutput top(final int k) {
+		int count = 0;
+		for (int i = 0; i < size; i++) {
+			if (ranks[i] != NO_RANK && ranks[i] <= k) {
+				count++;
+			}
+		}
+		if (count == size) {
+			return this;
+		}
+		final long[] topSuids = new long[count];
+		final double[] topHeats = new double[count];
+		final int[] topRanks = new int[count];
+		for (int i = 0, j = 0; i < size; i++) {
+			if (ranks[i] != NO_RANK && ranks[i] <= k) {
+				topSuids[j] = suids[i];
+				topHeats[j] = heats[i];
+				topRanks[j++] = ranks[i];
+			}
+		}
+		return new DiffusionOutput(topSuids, topHeats, topRanks, count, engine, precision);
+	}
+
+	/**
+	 * @return approximate number of bytes held by this output
+	 */
+	public long getMemorySize() {
+		return 64L + 8L * suids.length + 8L * heats.length + 4L * ranks.length;
+	}
+
+	/**
+	 * Collects heat and rank values by SUID in any order
+	 */
+	public static class Builder {
+
+		private final SuidIndexMap index;
+		private long[] suids;
+		private double[] heats;
+		private int[] ranks;
+		private int size;
+
+		public Builder() {
+			this(1024);
+		}
+
+		public Builder(final int expectedSize) {
+			final int capacity = Math.max(16, expectedSize);
+			index = new SuidIndexMap(capacity);
+			suids = new long[capacity];
+			heats = new double[capacity];
+			ranks = new int[capacity];
+		}
+
+		public Builder setHeat(final long suid, final double heat) {
+			heats[slot(suid)] = heat;
+			return this;
+		}
+
+		public Builder setRank(final long suid, final int rank) {
+			ranks[slot(suid)] = rank;
+			return this;
+		}
+
+		public DiffusionOutput build() {
+			return new DiffusionOutput(suids, heats, ranks, size);
+		}
+
+		private int slot(final long suid) {
+			int slot = index.get(suid);
+			if (slot != SuidIndexMap.NOT_FOUND) {
+				return slot;
+			}
+			if (size == suids.length) {
+				final int capacity = size * 2;
+				suids = Arrays.copyOf(suids, capacity);
+				heats = Arrays.copyOf(heats, capacity);
+				ranks = Arrays.copyOf(ranks, capacity);
+			}
+			slot = size++;
+			index.put(suid, slot);
+			suids[slot] = suid;
+			heats[slot] = Double.NaN;
+			ranks[slot] = NO_RANK;
+			return slot;
+		}
+	}
+}
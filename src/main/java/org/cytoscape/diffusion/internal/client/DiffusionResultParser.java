@@ -1,28 +1,47 @@
 package org.cytoscape.diffusion.internal.client;
 
-import java.io.ByteArrayOutputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import org.cxio.core.CxReader;
-import org.cxio.core.interfaces.AspectElement;
-import org.cxio.util.CxioUtil;
+import org.apache.http.entity.ContentProducer;
 import org.cytoscape.ci.model.CIError;
-import org.cytoscape.ci.model.CIResponse;
 
 import org.cytoscape.io.write.CyNetworkViewWriterFactory;
 import org.cytoscape.io.write.CyWriter;
 import org.cytoscape.model.CyNetwork;
 import org.cytoscape.work.TunableSetter;
 
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationFeature;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 public class DiffusionResultParser {
 
+	/** Node attribute holding the output heat in the service response */
+	public static final String HEAT_ATTRIBUTE = "diffusion_output_heat";
+	/** Node attribute holding the output rank in the service response */
+	public static final String RANK_ATTRIBUTE = "diffusion_output_rank";
+
+	private static final String DATA_FIELD = "data";
+	private static final String ERRORS_FIELD = "errors";
+	private static final String NODE_ATTRIBUTES_ASPECT = "nodeAttributes";
+	private static final String PROPERTY_OF_FIELD = "po";
+	private static final String NAME_FIELD = "n";
+	private static final String VALUE_FIELD = "v";
+
+	private static final ObjectMapper objectMapper = new ObjectMapper()
+			.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+
 	private CyNetworkViewWriterFactory writerFactory;
 	private final TunableSetter tunableSetter;
 
@@ -31,9 +50,50 @@ public class DiffusionResultParser {
 		this.tunableSetter = setter;
 	}
 
-	public String encode(final CyNetwork network, final String inputHeatColumn) throws IOException {
+	/**
+	 * Creates producer that writes the CX of {@code network} straight to the
+	 * request body each time the body is sent, so the CX never has to be held
+	 * in memory.
+	 * 
+	 * @param network network to encode
+	 * @param inputHeatColumn node column holding the input heat
+	 * @return producer for a streaming request entity
+	 */
+	public ContentProducer getCxProducer(final CyNetwork network, final String inputHeatColumn) {
+		return getCxProducer(network, Collections.singletonList(inputHeatColumn));
+	}
+
+	/**
+	 * Creates producer that writes the CX of {@code network} with all of the
+	 * given input heat columns, so one encoding can serve several diffusions.
+	 * 
+	 * @param network network to encode
+	 * @param inputHeatColumns node columns holding input heats
+	 * @return producer for a streaming request entity
+	 */
+	public ContentProducer getCxProducer(final CyNetwork network, final List<String> inputHeatColumns) {
+		return (out) -> encode(network, inputHeatColumns, out);
+	}
+
+	/**
+	 * Writes the nodes, edges and the name and input heat node attributes of
+	 * {@code network} as CX (UTF-8) to {@code out}. {@code out} is flushed but
+	 * not closed.
+	 */
+	public void encode(final CyNetwork network, final String inputHeatColumn, final OutputStream out)
+			throws IOException {
+		encode(network, Collections.singletonList(inputHeatColumn), out);
+	}
+
+	/**
+	 * Writes the nodes, edges, the name and every input heat node attribute in
+	 * {@code inputHeatColumns} of {@code network} as CX (UTF-8) to
+	 * {@code out}. {@code out} is flushed but not closed.
+	 */
+	public void encode(final CyNetwork network, final List<String> inputHeatColumns, final OutputStream out)
+			throws IOException {
 
-		final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		final OutputStream stream = new NonClosingOutputStream(out);
 
 		// This is a CXWriter object
 		final CyWriter writer = this.writerFactory.createWriter(stream, network);
@@ -43,10 +103,10 @@ public class DiffusionResultParser {
 
 		final Class<? extends CyWriter> cxWriterClass = writer.getClass();
 
-		// Node column filter. Add only name and input heat
+		// Node column filter. Add only name and input heats
 		final List<String> nodeFilter = new ArrayList<>();
 		nodeFilter.add(CyNetwork.NAME);
-		nodeFilter.add(inputHeatColumn);
+		nodeFilter.addAll(inputHeatColumns);
 
 		// Specify aspect name to be written in the CX
 		final List<String> aspects = new ArrayList<>();
@@ -83,32 +143,139 @@ public class DiffusionResultParser {
 
 		this.tunableSetter.applyTunables(writer, m);
 
-		String jsonString = null;
 		try {
 			writer.run(null);
-			jsonString = stream.toString("UTF-8");
-			stream.close();
+			stream.flush();
+		} catch (IOException e) {
+			throw e;
 		} catch (Exception e) {
-			throw new IOException();
+			throw new IOException("Could not write network as CX", e);
 		}
-		return jsonString;
 	}
 
-	public Map<String, List<AspectElement>> decode(String response) throws IOException, DiffusionServiceException {
-		
-		ObjectMapper objectMapper = new ObjectMapper();
-		CIResponse<?> res = objectMapper.readValue(response, CIResponse.class);
-		
-		if(res.errors.size()!= 0) {
+	/**
+	 * Reads the diffusion service response in a single streaming pass. Only
+	 * the output heat and rank node attributes are kept, everything else in
+	 * the CX is skipped without being materialized.
+	 * 
+	 * @param response response body, it is read but not closed
+	 * @return output heat and rank by node SUID
+	 * @throws IOException If the response could not be read or is not valid JSON
+	 * @throws DiffusionServiceException If the service reported errors
+	 */
+	public static DiffusionOutput decode(final InputStream response) throws IOException, DiffusionServiceException {
+
+		final DiffusionOutput.Builder output = new DiffusionOutput.Builder();
+		final List<CIError> errors = new ArrayList<>();
+
+		final JsonParser parser = objectMapper.getFactory().createParser(response);
+		try {
+			if (parser.nextToken() != JsonToken.START_OBJECT) {
+				throw new JsonParseException(parser, "Expected a diffusion service response object");
+			}
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				final JsonToken token = parser.nextToken();
+				if (DATA_FIELD.equals(field) && token == JsonToken.START_ARRAY) {
+					readAspects(parser, output);
+				} else if (ERRORS_FIELD.equals(field) && token == JsonToken.START_ARRAY) {
+					while (parser.nextToken() == JsonToken.START_OBJECT) {
+						errors.add(parser.readValueAs(CIError.class));
+					}
+				} else {
+					parser.skipChildren();
+				}
+			}
+		} finally {
+			parser.close();
+		}
+
+		if (errors.size() != 0) {
 			String errStrings = "";
-			for (CIError err : res.errors){
+			for (CIError err : errors) {
 				errStrings += err.type + ":\n  " + err.message;
 			}
-			throw new DiffusionServiceException("Diffusion Service returned errors:\n" + errStrings + "\n", res.errors);
+			throw new DiffusionServiceException("Diffusion Service returned errors:\n" + errStrings + "\n", errors);
+		}
+		return output.build();
+	}
+
+	private static void readAspects(final JsonParser parser, final DiffusionOutput.Builder output)
+			throws IOException {
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String aspect = parser.getCurrentName();
+				if (parser.nextToken() == JsonToken.START_ARRAY && NODE_ATTRIBUTES_ASPECT.equals(aspect)) {
+					readNodeAttributes(parser, output);
+				} else {
+					parser.skipChildren();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads elements like {"po":[1234],"n":"diffusion_output_heat","v":"0.5","d":"double"}
+	 */
+	private static void readNodeAttributes(final JsonParser parser, final DiffusionOutput.Builder output)
+			throws IOException {
+		while (parser.nextToken() == JsonToken.START_OBJECT) {
+			long suid = -1;
+			String name = null;
+			double value = Double.NaN;
+			while (parser.nextToken() == JsonToken.FIELD_NAME) {
+				final String field = parser.getCurrentName();
+				final JsonToken token = parser.nextToken();
+				if (PROPERTY_OF_FIELD.equals(field)) {
+					if (token == JsonToken.START_ARRAY) {
+						if (parser.nextToken() != JsonToken.END_ARRAY) {
+							suid = parser.getValueAsLong(-1);
+							parser.skipChildren();
+							while (parser.nextToken() != JsonToken.END_ARRAY) {
+								parser.skipChildren();
+							}
+						}
+					} else {
+						suid = parser.getValueAsLong(-1);
+					}
+				} else if (NAME_FIELD.equals(field)) {
+					name = parser.getValueAsString();
+				} else if (VALUE_FIELD.equals(field) && token.isScalarValue()) {
+					value = parser.getValueAsDouble(Double.NaN);
+				} else {
+					parser.skipChildren();
+				}
+			}
+			if (suid < 0 || name == null) {
+				continue;
+			}
+			if (name.equals(HEAT_ATTRIBUTE)) {
+				output.setHeat(suid, value);
+			} else if (name.equals(RANK_ATTRIBUTE) && !Double.isNaN(value)) {
+				output.setRank(suid, (int) Math.round(value));
+			}
+		}
+	}
+
+	/**
+	 * Keeps the CX writer from closing the stream it writes to, the stream
+	 * belongs to the caller, for example an http connection
+	 */
+	private static class NonClosingOutputStream extends FilterOutputStream {
+
+		NonClosingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+		}
+
+		@Override
+		public void close() throws IOException {
+			flush();
 		}
-		
-		final CxReader reader = CxReader.createInstance(objectMapper.writeValueAsString(res.data), CxioUtil.getAllAvailableAspectFragmentReaders());
-		return CxReader.parseAsMap(reader);
 	}
 
 }
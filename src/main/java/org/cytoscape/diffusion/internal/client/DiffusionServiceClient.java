@@ -1,14 +1,43 @@
 package org.cytoscape.diffusion.internal.client;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import org.apache.http.entity.ContentProducer;
+import org.cytoscape.diffusion.internal.engine.LocalDiffusionEngine;
+import org.cytoscape.diffusion.internal.engine.NetworkSnapshot;
+import org.cytoscape.diffusion.internal.rest.DiffusionServiceStatus;
 import org.cytoscape.diffusion.internal.task.DiffuseSelectedTask;
+import org.cytoscape.diffusion.internal.task.DiffusionCallable;
 import org.cytoscape.diffusion.internal.task.DiffusionCallableFactory;
+import org.cytoscape.diffusion.internal.task.HttpClientFactoryImpl;
+import org.cytoscape.diffusion.internal.util.NetworkSnapshotCache;
+import org.cytoscape.diffusion.internal.util.Props;
+import org.cytoscape.model.CyNetwork;
 import org.cytoscape.property.CyProperty;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -20,71 +49,836 @@ public class DiffusionServiceClient {
 
         private static final String BASE_URL = "http://v3.heat-diffusion.cytoscape.io/";
 
+        /**
+         * Property with the comma separated endpoints of the service
+         */
+        public static final String URL_PROP = "diffusion.url";
+
+        /**
+         * Property with the time in milliseconds after which a diffusion
+         * is aborted
+         */
+        public static final String TIMEOUT_PROP = "diffusion.timeout";
+
+        /**
+         * Property with how often a request failing with an I/O error is retried
+         */
+        public static final String RETRIES_PROP = "diffusion.retries";
+
+        /**
+         * Property with the base delay in milliseconds before a retry
+         */
+        public static final String RETRY_BACKOFF_PROP = "diffusion.retryBackoff";
+
+        /**
+         * Property with the maximum delay in milliseconds before a retry
+         */
+        public static final String RETRY_MAX_BACKOFF_PROP = "diffusion.retryMaxBackoff";
+
+        /**
+         * Property with the percentile of recent latencies, between 0 and
+         * 100, after which a duplicate request is sent. Unset disables hedging.
+         */
+        public static final String HEDGE_PERCENTILE_PROP = "diffusion.hedgePercentile";
+
+        /**
+         * Property with the minimum time in milliseconds before a request is hedged
+         */
+        public static final String HEDGE_MIN_DELAY_PROP = "diffusion.hedgeMinDelay";
+
+        /**
+         * Property with the bytes of the CX of a batch kept in memory, a
+         * larger CX is spooled to a temporary file
+         */
+        public static final String BATCH_MEMORY_PROP = "diffusion.batchMemory";
+
+        /**
+         * Property selecting where diffusions are computed, {@value #ENGINE_REMOTE}
+         * (the default) or {@value #ENGINE_LOCAL}
+         */
+        public static final String ENGINE_PROP = "diffusion.engine";
+
+        public static final String ENGINE_REMOTE = "remote";
+        public static final String ENGINE_LOCAL = "local";
+
+        /**
+         * Diffusions never time out by default
+         */
+        public static final long DEFAULT_TIMEOUT = 0;
+        public static final int DEFAULT_RETRIES = 2;
+        public static final long DEFAULT_RETRY_BACKOFF = 500;
+        public static final long DEFAULT_RETRY_MAX_BACKOFF = 10000;
+        public static final long DEFAULT_HEDGE_MIN_DELAY = 1000;
+        public static final long DEFAULT_BATCH_MEMORY = 16L * 1024 * 1024;
+
+        public static final String SERVED_BY_REMOTE = "remote";
+        public static final String SERVED_BY_FALLBACK = "fallback";
+        public static final String SERVED_BY_NONE = "rejected";
+        public static final String SERVED_BY_LOCAL = "local";
+
+        private static final String BREAKER_OPEN_MESSAGE = "The heat diffusion service is failing or too slow, "
+                + "it is not called again for a while. Try again later.";
+
+        /**
+         * Number of recent request latencies hedging is based on
+         */
+        private static final int LATENCY_SAMPLES = 200;
+
 	private final CyProperty<Properties> props;
 	private final static Logger logger = LoggerFactory.getLogger(DiffusionServiceClient.class);
 	private DiffusionCallableFactory _dcf;
-        
+
+        /**
+         * Runs the blocking service calls. Shared by all diffusions and
+         * shut down with the bundle, see {@link #shutdown()}
+         */
+        private final ExecutorService _executor;
+
+        private final LatencyTracker _latencies = new LatencyTracker(LATENCY_SAMPLES);
+
+        private final CircuitBreaker _breaker;
+
+        private final DiffusionCache _cache;
+
+        private final LocalDiffusionEngine _engine;
+
+        private final NetworkSnapshotCache _snapshots;
+
         /**
-	 * Time to sleep in milliseconds while waiting for index
-	 * building and search query threads to complete
-	 */
-	private static final long SLEEP_TIME = 1000;
+         * Batch CX spooled to files whose queries did not complete yet,
+         * deleted by {@link #shutdown()} if they are still there
+         */
+        private final Set<SpooledContent> _spooled = ConcurrentHashMap.newKeySet();
+
+        private final AtomicLong _remoteCalls = new AtomicLong();
+        private final AtomicLong _fallbackCalls = new AtomicLong();
+        private final AtomicLong _rejectedCalls = new AtomicLong();
+        private final AtomicLong _localCalls = new AtomicLong();
+        private volatile String _lastServedBy = null;
 
 	public DiffusionServiceClient(CyProperty<Properties> props) {
+		this(props, null);
+	}
+
+        /**
+         * @param props
+         * @param snapshots Snapshots of networks reused by local diffusions,
+         *                  if {@code null} each local diffusion walks the network
+         */
+	public DiffusionServiceClient(CyProperty<Properties> props, NetworkSnapshotCache snapshots) {
 		this.props = props;
-                _dcf = new DiffusionCallableFactory();
+                _snapshots = snapshots;
+                _engine = new LocalDiffusionEngine(getProperties(), snapshots);
+                // one pooled http client is shared by all diffusions for
+                // the lifetime of the bundle, see shutdown()
+                _dcf = new DiffusionCallableFactory(new HttpClientFactoryImpl(getProperties()));
+                _executor = Executors.newCachedThreadPool(new DiffusionThreadFactory());
+                _breaker = new CircuitBreaker(getProperties());
+                _cache = new DiffusionCache(getProperties());
 	}
-        
+
         /**
-         * For testing, this method lets one set an alternate Factory for 
-         * {@link org.cytoscape.diffusion.internal.task.DiffusionCallable} 
+         * @return the app properties, {@code null} if there are none
+         */
+        private Properties getProperties() {
+            return props == null ? null : props.getProperties();
+        }
+
+        /**
+         * Closes the shared http client and its pooled connections and
+         * stops the threads running service calls and computing
+         * spectral bases. Deletes spooled batch CX left by queries that did
+         * not complete.
+         * Called when the bundle is stopped.
+         */
+        public void shutdown() {
+            _executor.shutdownNow();
+            _dcf.shutdown();
+            _engine.shutdown();
+            _cache.clear();
+            for (SpooledContent spooled : _spooled) {
+                _spooled.remove(spooled);
+                spooled.delete();
+            }
+        }
+
+        /**
+         * @param keys Identify network topology, input heats and time of one
+         *             diffusion, tried in order
+         * @return Output of an earlier diffusion with one of the keys or {@code null}
+         */
+        public DiffusionOutput getCachedOutput(final DiffusionCacheKey... keys) {
+            return _cache.get(keys);
+        }
+
+        /**
+         * Keeps {@code output} so a later diffusion with the same key is not
+         * sent to the service again
+         * @param key Identifies network topology, input heats and time of the diffusion
+         * @param output Output of the diffusion, ignored if {@code null}
+         */
+        public void cacheOutput(final DiffusionCacheKey key, final DiffusionOutput output) {
+            if (output != null) {
+                _cache.put(key, output);
+            }
+        }
+
+        /**
+         * For testing, this method lets one set an alternate Factory for
+         * {@link org.cytoscape.diffusion.internal.task.DiffusionCallable}
          * objects which actually submit the diffusion task
          * to the service
-         * @param dcf 
+         * @param dcf
          */
         protected void setAlternateDiffusionCallableFactory(DiffusionCallableFactory dcf){
             _dcf = dcf;
         }
-        
+
+        /**
+         * @return whether {@value #ENGINE_PROP} selects the in process
+         *         engine instead of the service
+         */
+        public boolean isLocalEngine() {
+            final String engine = Props.getString(getProperties(), ENGINE_PROP, ENGINE_REMOTE);
+            return ENGINE_LOCAL.equalsIgnoreCase(engine.trim());
+        }
+
+        /**
+         * @return {@value #ENGINE_LOCAL} or {@value #ENGINE_REMOTE}, as
+         *         selected by {@value #ENGINE_PROP}
+         */
+        public String getEngine() {
+            return isLocalEngine() ? ENGINE_LOCAL : ENGINE_REMOTE;
+        }
+
+        /**
+         * @return Precision of the local engine if it is selected, {@code null}
+         *         for the service
+         */
+        public String getPrecision() {
+            return isLocalEngine() ? _engine.getPrecision() : null;
+        }
+
+        /**
+         * Topology hashed for the cache keys of diffusions on {@code network},
+         * compute it once for all diffusions of a run
+         * @param network
+         * @return Topology of the snapshot the local engine diffuses on, or of
+         *         a snapshot kept already, walking the network only if there
+         *         is none
+         */
+        public DiffusionCacheKey.Topology getTopology(final CyNetwork network) {
+            if (_snapshots == null) {
+                return DiffusionCacheKey.Topology.of(network);
+            }
+            final NetworkSnapshot snapshot = isLocalEngine() ? _snapshots.get(network) : _snapshots.find(network);
+            return snapshot == null ? DiffusionCacheKey.Topology.of(network) : DiffusionCacheKey.Topology.of(snapshot);
+        }
+
+        /**
+         * Computes a diffusion in process without calling the service
+         * @param network
+         * @param inputHeatCol Input heat column, {@code null} for
+         *                     {@value DiffuseSelectedTask#DIFFUSION_INPUT_COL_NAME}
+         * @param time Diffusion time, {@code null} for the service default
+         * @param task The invoking task, a cancel of it stops the diffusion.
+         *             Can be {@code null}.
+         * @return Output heat and rank of every node
+         * @throws CancellationException If the task was canceled
+         */
+        public DiffusionOutput diffuseLocally(final CyNetwork network, final String inputHeatCol,
+                final Double time, final DiffuseSelectedTask task) {
+            return diffuseLocally(network, inputHeatCol, Collections.singletonList(time), task).get(0);
+        }
+
+        /**
+         * Computes diffusions of one input heat column to several times in
+         * process, the solver steps through all times together
+         * @param network
+         * @param inputHeatCol Input heat column, {@code null} for
+         *                     {@value DiffuseSelectedTask#DIFFUSION_INPUT_COL_NAME}
+         * @param times Diffusion times, {@code null} entries for the service default
+         * @param task The invoking task, a cancel of it stops the diffusion.
+         *             Can be {@code null}.
+         * @return Output heat and rank of every node for each of {@code times}
+         * @throws CancellationException If the task was canceled
+         */
+        public List<DiffusionOutput> diffuseLocally(final CyNetwork network, final String inputHeatCol,
+                final List<Double> times, final DiffuseSelectedTask task) {
+            final List<DiffusionOutput> outputs = _engine.diffuse(network,
+                    inputHeatCol == null ? DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME : inputHeatCol, times,
+                    canceled(task));
+            _localCalls.addAndGet(outputs.size());
+            _lastServedBy = SERVED_BY_LOCAL;
+            return outputs;
+        }
+
+        /**
+         * Computes diffusions of several input heat columns to the same time
+         * in process, all columns share every pass over the network
+         * @param network
+         * @param inputHeatCols Input heat columns
+         * @param time Diffusion time, {@code null} for the service default
+         * @param task The invoking task, a cancel of it stops the diffusion.
+         *             Can be {@code null}.
+         * @return Output heat and rank of every node for each of {@code inputHeatCols}
+         * @throws CancellationException If the task was canceled
+         */
+        public List<DiffusionOutput> diffuseColumnsLocally(final CyNetwork network,
+                final List<String> inputHeatCols, final Double time, final DiffuseSelectedTask task) {
+            final List<DiffusionOutput> outputs = _engine.diffuseColumns(network, inputHeatCols, time,
+                    canceled(task));
+            _localCalls.addAndGet(outputs.size());
+            _lastServedBy = SERVED_BY_LOCAL;
+            return outputs;
+        }
+
+        /**
+         * Computes a diffusion in process for callers that read only the
+         * best ranks, the solver stops once their order is certified
+         * @param network
+         * @param inputHeatCol Input heat column, {@code null} for
+         *                     {@value DiffuseSelectedTask#DIFFUSION_INPUT_COL_NAME}
+         * @param time Diffusion time, {@code null} for the service default
+         * @param k Number of ranks, above 0
+         * @param task The invoking task, a cancel of it stops the diffusion.
+         *             Can be {@code null}.
+         * @return Output heat and rank of the {@code k} hottest nodes
+         * @throws CancellationException If the task was canceled
+         */
+        public DiffusionOutput diffuseTopLocally(final CyNetwork network, final String inputHeatCol,
+                final Double time, final int k, final DiffuseSelectedTask task) {
+            final DiffusionOutput output = _engine.diffuseTop(network,
+                    inputHeatCol == null ? DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME : inputHeatCol, time, k,
+                    canceled(task));
+            _localCalls.incrementAndGet();
+            _lastServedBy = SERVED_BY_LOCAL;
+            return output;
+        }
+
+        /**
+         * Propagates an input heat column by a random walk with restart in
+         * process, the service only computes heat diffusions so this never
+         * calls it
+         * @param network
+         * @param inputHeatCol Input heat column, {@code null} for
+         *                     {@value DiffuseSelectedTask#DIFFUSION_INPUT_COL_NAME}
+         * @param restart Restart probability, above 0 and at most 1
+         * @param task The invoking task, a cancel of it stops the walk.
+         *             Can be {@code null}.
+         * @return Output heat and rank of every node
+         * @throws CancellationException If the task was canceled
+         */
+        public DiffusionOutput diffuseWithRestartLocally(final CyNetwork network, final String inputHeatCol,
+                final double restart, final DiffuseSelectedTask task) {
+            final DiffusionOutput output = _engine.diffuseWithRestart(network,
+                    inputHeatCol == null ? DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME : inputHeatCol, restart,
+                    canceled(task));
+            _localCalls.incrementAndGet();
+            _lastServedBy = SERVED_BY_LOCAL;
+            return output;
+        }
+
+        private static BooleanSupplier canceled(final DiffuseSelectedTask task) {
+            return task == null ? () -> false : task::isCanceled;
+        }
+
         /**
          * Submit diffusion task to service
-         * @param cx
+         * @param cx Writes the network in CX format, it is streamed to the service
          * @param inputHeatCol
          * @param time
-         * @param task The invoking task. If not {@code null} this method checks if parent canceled the
-         *             task and if yes, the {@link org.cytoscape.diffusion.internal.task.DiffusionCallable} 
-         *             is killed and the method returns.
-         * @return String with response from call to service or {@code null} if service was canceled
+         * @param task The invoking task. If not {@code null} a cancel of the task
+         *             aborts the in flight request right away and this method returns.
+         *             While the circuit breaker is open the diffusion is computed
+         *             in process on the network of the task.
+         * @return Output heat and rank from the service or {@code null} if service was canceled.
+         *         Output computed in process instead is labeled with
+         *         {@link DiffusionOutput#getEngine()}.
+         * @throws IOException If there was an error of some type with request
+         *                     or the request timed out
+         * @throws DiffusionServiceException If the service reported errors
+         */
+        public DiffusionOutput diffuse(final ContentProducer cx, final String inputHeatCol, final Double time, DiffuseSelectedTask task)
+                throws IOException, DiffusionServiceException {
+            final CompletableFuture<DiffusionOutput> result = diffuseAsync(cx, inputHeatCol, time, getTimeout(),
+                    task == null ? null : () -> _engine.diffuse(task.getNetwork(),
+                            inputHeatCol == null ? DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME : inputHeatCol,
+                            Collections.singletonList(time), task::isCanceled).get(0)
+                            .computedBy(ENGINE_LOCAL, _engine.getPrecision()));
+
+            if (task != null) {
+                task.setCancelHook(() -> result.cancel(true));
+                if (task.isCanceled()) {
+                    result.cancel(true);
+                }
+            }
+            try {
+                return await(result);
+            } finally {
+                if (task != null) {
+                    task.setCancelHook(null);
+                }
+            }
+        }
+
+        /**
+         * Runs several diffusions on the same network. The CX is encoded only
+         * once and then sent with each query, so the network topology is
+         * written just one time no matter how many heat vectors are diffused.
+         * Up to {@value #BATCH_MEMORY_PROP} bytes of it are kept in memory, a
+         * larger CX is spooled to a temporary file that is deleted once all
+         * queries completed, or by {@link #shutdown()}. Queries are sent right away and run
+         * concurrently, up to the connections allowed per route.
+         * @param cx Writes the network in CX format with all input heat columns
+         * @param inputHeatCols Input heat column of each query
+         * @param times Time of each query, same size as {@code inputHeatCols}
+         * @return Future result of each query in the order of {@code inputHeatCols}
+         * @throws IOException If the network could not be encoded
+         */
+        public List<CompletableFuture<DiffusionOutput>> diffuseBatch(final ContentProducer cx,
+                final List<String> inputHeatCols, final List<Double> times) throws IOException {
+            if (inputHeatCols.size() != times.size()) {
+                throw new IllegalArgumentException("Got " + inputHeatCols.size()
+                        + " input heat columns but " + times.size() + " times");
+            }
+            final SpooledContent encodedCx = SpooledContent.write(cx,
+                    Props.getLong(getProperties(), BATCH_MEMORY_PROP, DEFAULT_BATCH_MEMORY));
+            if (encodedCx.isSpooled()) {
+                _spooled.add(encodedCx);
+            }
+
+            final long timeout = getTimeout();
+            final List<CompletableFuture<DiffusionOutput>> results = new ArrayList<>(inputHeatCols.size());
+            for (int i = 0; i < inputHeatCols.size(); i++) {
+                results.add(diffuseAsync(encodedCx, inputHeatCols.get(i), times.get(i), timeout));
+            }
+            CompletableFuture.allOf(results.toArray(new CompletableFuture<?>[0]))
+                    .whenComplete((done, error) -> {
+                        _spooled.remove(encodedCx);
+                        encodedCx.delete();
+                    });
+            return results;
+        }
+
+        /**
+         * Waits for a diffusion submitted with {@link #diffuseAsync} or
+         * {@link #diffuseBatch}
+         * @param result
+         * @return Output heat and rank from the service or {@code null} if
+         *         {@code result} was canceled
          * @throws IOException If there was an error of some type with request
+         *                     or the request timed out
+         * @throws DiffusionServiceException If the service reported errors
+         */
+        public DiffusionOutput await(final CompletableFuture<DiffusionOutput> result)
+                throws IOException, DiffusionServiceException {
+            try {
+                return result.get();
+            } catch(CancellationException ce) {
+                return null;
+            } catch(InterruptedException ie) {
+                result.cancel(true);
+                Thread.currentThread().interrupt();
+                throw new IOException("Diffusion interrupted");
+            } catch(ExecutionException ee) {
+                final Throwable cause = ee.getCause();
+                if (cause instanceof DiffusionServiceException) {
+                    throw (DiffusionServiceException) cause;
+                }
+                if (cause instanceof CircuitBreakerOpenException) {
+                    throw (CircuitBreakerOpenException) cause;
+                }
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof TimeoutException) {
+                    throw new IOException("Diffusion timed out after "
+                            + getTimeout() + " ms", cause);
+                }
+                throw new IOException("Error running diffusion: " + cause.getMessage(), cause);
+            }
+        }
+
+        /**
+         * Submits diffusion task to service without blocking the caller.
+         * The request times out after the milliseconds set in the
+         * {@value #TIMEOUT_PROP} property, if it is greater than 0.
+         * @param cx Writes the network in CX format, it is streamed to the service
+         * @param inputHeatCol
+         * @param time
+         * @return Future completed with the output heat and rank.
+         *         Cancelling it aborts the in flight request.
+         */
+        public CompletableFuture<DiffusionOutput> diffuseAsync(final ContentProducer cx,
+                final String inputHeatCol, final Double time) {
+            return diffuseAsync(cx, inputHeatCol, time, getTimeout());
+        }
+
+        /**
+         * Submits diffusion task to service without blocking the caller.
+         * <p>
+         * {@value #URL_PROP} can list several comma separated endpoints.
+         * A request failing with an I/O error, including a 5xx response,
+         * is retried up to {@value #RETRIES_PROP} times on the next endpoint
+         * after a jittered exponential backoff, unless the failures opened the
+         * {@link CircuitBreaker}. If {@value #HEDGE_PERCENTILE_PROP}
+         * is set, a request still running after that percentile of recent
+         * latencies is duplicated to the next endpoint and whichever
+         * response arrives first is used, the other request is aborted.
+         * @param cx Writes the network in CX format, it is streamed to the service
+         * @param inputHeatCol
+         * @param time
+         * @param timeoutMillis Time after which the request is aborted and the
+         *                      future completes with a {@link TimeoutException},
+         *                      0 or less means no timeout. Covers all retries.
+         * @return Future completed with the output heat and rank, or exceptionally
+         *         with {@link DiffusionServiceException} if the service reported errors.
+         *         Cancelling it aborts the in flight request.
+         */
+        public CompletableFuture<DiffusionOutput> diffuseAsync(final ContentProducer cx,
+                final String inputHeatCol, final Double time, final long timeoutMillis) {
+            return diffuseAsync(cx, inputHeatCol, time, timeoutMillis, null);
+        }
+
+        /**
+         * Submits diffusion task to service without blocking the caller, like
+         * {@link #diffuseAsync(ContentProducer, String, Double, long)}.
+         * While the {@link CircuitBreaker} guarding the service is open the
+         * service is not called, {@code fallback} computes the result instead.
+         * @param cx Writes the network in CX format, it is streamed to the service
+         * @param inputHeatCol
+         * @param time
+         * @param timeoutMillis Time after which the request is aborted, 0 or
+         *                      less means no timeout
+         * @param fallback Computes the diffusion without the service, if
+         *                 {@code null} the future fails right away with a
+         *                 {@link CircuitBreakerOpenException}
+         * @return Future completed with the output heat and rank
+         */
+        public CompletableFuture<DiffusionOutput> diffuseAsync(final ContentProducer cx,
+                final String inputHeatCol, final Double time, final long timeoutMillis,
+                final Callable<DiffusionOutput> fallback) {
+            final List<String> endpoints = getEndpoints();
+            final int retries = Props.getInt(getProperties(), RETRIES_PROP, DEFAULT_RETRIES);
+            final CompletableFuture<DiffusionOutput> result = new CompletableFuture<>();
+            final AtomicReference<CompletableFuture<DiffusionOutput>> inFlight = new AtomicReference<>();
+            result.whenComplete((output, error) -> {
+                final CompletableFuture<DiffusionOutput> request = inFlight.get();
+                if (request != null) {
+                    request.cancel(true);
+                }
+            });
+            attempt(result, inFlight, endpoints, 0, retries, cx, inputHeatCol, time, fallback);
+            if (timeoutMillis > 0) {
+                result.orTimeout(timeoutMillis, TimeUnit.MILLISECONDS);
+            }
+            return result;
+        }
+
+        /**
+         * Sends one attempt of a diffusion and schedules the next one if it
+         * fails with an error worth retrying
+         * @param result Completed once the diffusion succeeded or finally failed
+         * @param inFlight Holds the request of the current attempt
+         * @param attempt Number of the attempt, starting at 0
+         */
+        private void attempt(final CompletableFuture<DiffusionOutput> result,
+                final AtomicReference<CompletableFuture<DiffusionOutput>> inFlight,
+                final List<String> endpoints, final int attempt, final int retries,
+                final ContentProducer cx, final String inputHeatCol, final Double time,
+                final Callable<DiffusionOutput> fallback) {
+            if (result.isDone()) {
+                return;
+            }
+            if (!_breaker.tryAcquire()) {
+                fallBack(result, fallback);
+                return;
+            }
+            final CompletableFuture<DiffusionOutput> request = hedge(endpoints, attempt, cx, inputHeatCol, time);
+            inFlight.set(request);
+            if (result.isDone()) {
+                request.cancel(true);
+                return;
+            }
+            request.whenComplete((output, error) -> {
+                if (error == null) {
+                    _remoteCalls.incrementAndGet();
+                    _lastServedBy = SERVED_BY_REMOTE;
+                    result.complete(output);
+                    return;
+                }
+                final Throwable cause = unwrap(error);
+                final boolean retryable = attempt < retries && cause instanceof IOException && !result.isDone();
+                if (cause instanceof CircuitBreakerOpenException
+                        || (retryable && _breaker.getState() == CircuitBreaker.State.OPEN)) {
+                    // the retry would be rejected after its backoff
+                    fallBack(result, fallback);
+                } else if (retryable) {
+                    final long delay = getBackoff(attempt);
+                    logger.warn("Diffusion request failed, retrying in " + delay + " ms: " + cause.getMessage());
+                    CompletableFuture.delayedExecutor(delay, TimeUnit.MILLISECONDS).execute(() ->
+                            attempt(result, inFlight, endpoints, attempt + 1, retries, cx, inputHeatCol, time, fallback));
+                } else {
+                    result.completeExceptionally(cause);
+                }
+            });
+        }
+
+        /**
+         * Sends the request of {@code attempt} to its endpoint. If hedging is
+         * enabled and the request is slower than the configured percentile a
+         * duplicate is sent to the next endpoint.
+         * @return Future completed by the first successful request, or by the
+         *         error of the last one to fail. Completing it aborts the
+         *         requests still running.
+         */
+        private CompletableFuture<DiffusionOutput> hedge(final List<String> endpoints, final int attempt,
+                final ContentProducer cx, final String inputHeatCol, final Double time) {
+            final CompletableFuture<DiffusionOutput> primary = send(endpoints.get(attempt % endpoints.size()),
+                    cx, inputHeatCol, time);
+            final long hedgeDelay = getHedgeDelay();
+            if (hedgeDelay < 0) {
+                return primary;
+            }
+            final CompletableFuture<DiffusionOutput> result = new CompletableFuture<>();
+            final List<CompletableFuture<DiffusionOutput>> requests = new CopyOnWriteArrayList<>();
+            // requests that have neither succeeded nor failed yet
+            final AtomicInteger pending = new AtomicInteger(1);
+            final BiConsumer<DiffusionOutput, Throwable> onDone = (output, error) -> {
+                if (error == null) {
+                    result.complete(output);
+                } else if (pending.decrementAndGet() == 0) {
+                    result.completeExceptionally(error);
+                }
+            };
+            requests.add(primary);
+            primary.whenComplete(onDone);
+            result.whenComplete((output, error) -> requests.forEach(request -> request.cancel(true)));
+
+            CompletableFuture.delayedExecutor(hedgeDelay, TimeUnit.MILLISECONDS).execute(() -> {
+                int count;
+                do {
+                    count = pending.get();
+                    if (count == 0 || result.isDone()) {
+                        return;
+                    }
+                } while (!pending.compareAndSet(count, count + 1));
+                if (!_breaker.tryAcquire()) {
+                    onDone.accept(null, new CircuitBreakerOpenException(BREAKER_OPEN_MESSAGE));
+                    return;
+                }
+                logger.info("Diffusion request is slower than " + hedgeDelay + " ms, sending hedged request");
+                final CompletableFuture<DiffusionOutput> hedged = send(
+                        endpoints.get((attempt + 1) % endpoints.size()), cx, inputHeatCol, time);
+                requests.add(hedged);
+                hedged.whenComplete(onDone);
+                if (result.isDone()) {
+                    hedged.cancel(true);
+                }
+            });
+            return result;
+        }
+
+        /**
+         * Sends a request to {@code url} that was permitted by the circuit
+         * breaker and records its outcome and latency
+         * @return Future completed once the outcome is recorded, so callers
+         *         see the state of the breaker after it. Cancelling it aborts
+         *         the request.
+         */
+        private CompletableFuture<DiffusionOutput> send(final String url, final ContentProducer cx,
+                final String inputHeatCol, final Double time) {
+            final long start = System.nanoTime();
+            final CompletableFuture<DiffusionOutput> request = submit(
+                    _dcf.getDiffusionCallable(cx, inputHeatCol, time, url));
+            final CompletableFuture<DiffusionOutput> recorded = new CompletableFuture<>();
+            recorded.whenComplete((output, error) -> request.cancel(true));
+            request.whenComplete((output, error) -> {
+                final long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+                final Throwable cause = error == null ? null : unwrap(error);
+                if (cause == null) {
+                    _latencies.record(millis);
+                    _breaker.onSuccess(millis);
+                } else if (cause instanceof DiffusionServiceException) {
+                    // the service is up, it just did not like the request
+                    _breaker.onSuccess(millis);
+                } else if (cause instanceof CancellationException
+                        || cause instanceof RejectedExecutionException) {
+                    _breaker.onIgnored();
+                } else {
+                    _breaker.onFailure();
+                }
+                if (error == null) {
+                    recorded.complete(output);
+                } else {
+                    recorded.completeExceptionally(error);
+                }
+            });
+            return recorded;
+        }
+
+        /**
+         * Completes {@code result} without calling the service, which is
+         * guarded by an open circuit breaker
+         */
+        private void fallBack(final CompletableFuture<DiffusionOutput> result,
+                final Callable<DiffusionOutput> fallback) {
+            if (fallback == null) {
+                _rejectedCalls.incrementAndGet();
+                _lastServedBy = SERVED_BY_NONE;
+                result.completeExceptionally(new CircuitBreakerOpenException(BREAKER_OPEN_MESSAGE));
+                return;
+            }
+            _fallbackCalls.incrementAndGet();
+            _lastServedBy = SERVED_BY_FALLBACK;
+            try {
+                _executor.execute(() -> {
+                    try {
+                        result.complete(fallback.call());
+                    } catch(Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+            } catch(RejectedExecutionException ree) {
+                result.completeExceptionally(ree);
+            }
+        }
+
+        /**
+         * @return State of the circuit breaker guarding the service and which
+         *         path served the diffusions
+         */
+        public DiffusionServiceStatus getStatus() {
+            final DiffusionServiceStatus status = new DiffusionServiceStatus();
+            status.state = _breaker.getState().name();
+            status.failureRate = _breaker.getFailureRate();
+            status.slowCallRate = _breaker.getSlowCallRate();
+            status.bufferedCalls = _breaker.getBufferedCalls();
+            status.remoteCalls = _remoteCalls.get();
+            status.fallbackCalls = _fallbackCalls.get();
+            status.rejectedCalls = _rejectedCalls.get();
+            status.localCalls = _localCalls.get();
+            status.lastServedBy = _lastServedBy;
+            status.cachedOutputs = _cache.size();
+            status.cacheHits = _cache.getHits();
+            return status;
+        }
+
+        /**
+         * Gets endpoints from the comma separated {@value #URL_PROP} property
+         * @return endpoints in the order to try them, never empty
+         */
+        private List<String> getEndpoints() {
+            final List<String> endpoints = new ArrayList<>();
+            for (String url : Props.getString(getProperties(), URL_PROP, BASE_URL).split(",")) {
+                if (!url.trim().isEmpty()) {
+                    endpoints.add(url.trim());
+                }
+            }
+            if (endpoints.isEmpty()) {
+                endpoints.add(BASE_URL);
+            }
+            return endpoints;
+        }
+
+        /**
+         * Full jitter exponential backoff, a random delay up to
+         * base * 2^attempt capped at {@value #RETRY_MAX_BACKOFF_PROP}
+         * @param attempt Number of the attempt that failed, starting at 0
+         * @return delay in milliseconds before the next attempt
+         */
+        private long getBackoff(final int attempt) {
+            final long base = Math.max(1, Props.getLong(getProperties(), RETRY_BACKOFF_PROP, DEFAULT_RETRY_BACKOFF));
+            final long max = Math.max(base, Props.getLong(getProperties(), RETRY_MAX_BACKOFF_PROP, DEFAULT_RETRY_MAX_BACKOFF));
+            final long ceiling = attempt >= 30 ? max : Math.min(max, base << attempt);
+            return ThreadLocalRandom.current().nextLong(ceiling + 1);
+        }
+
+        /**
+         * @return time in milliseconds after which a request is hedged, or -1
+         *         if hedging is disabled or too few latencies were recorded yet
+         */
+        private long getHedgeDelay() {
+            final double percentile = Props.getDouble(getProperties(), HEDGE_PERCENTILE_PROP, -1);
+            if (percentile <= 0 || percentile >= 100) {
+                return -1;
+            }
+            final long latency = _latencies.getPercentile(percentile);
+            if (latency < 0) {
+                return -1;
+            }
+            return Math.max(latency, Props.getLong(getProperties(), HEDGE_MIN_DELAY_PROP, DEFAULT_HEDGE_MIN_DELAY));
+        }
+
+        /**
+         * For testing, gives access to the latencies hedging is based on
+         */
+        protected LatencyTracker getLatencyTracker() {
+            return _latencies;
+        }
+
+        /**
+         * Gets timeout of a diffusion from {@value #TIMEOUT_PROP}
+         * @return timeout in milliseconds, 0 means no timeout
+         */
+        private long getTimeout() {
+            return Props.getLong(getProperties(), TIMEOUT_PROP, DEFAULT_TIMEOUT);
+        }
+
+        private static Throwable unwrap(final Throwable error) {
+            if (error instanceof CompletionException && error.getCause() != null) {
+                return error.getCause();
+            }
+            return error;
+        }
+
+        /**
+         * Runs {@code callable} on the shared executor. Cancelling the returned
+         * future, or a timeout, aborts the http request and interrupts the
+         * thread running it.
+         * @param callable
+         * @return Future completed with the decoded service response
          */
-        public String diffuse(final String cx, final String inputHeatCol, final Double time, DiffuseSelectedTask task) throws IOException {
-            // put long running tasks in another thread so we can continue to monitor if 
-		// user called cancel
-                ExecutorService executor = Executors.newSingleThreadExecutor();
-                try {
-                    String theURL = props.getProperties().getProperty("diffusion.url", BASE_URL);
-                    Future<String> futureTask = executor.submit(_dcf.getDiffusionCallable(cx, inputHeatCol, time, theURL));
+        private CompletableFuture<DiffusionOutput> submit(final DiffusionCallable callable) {
+            final CompletableFuture<DiffusionOutput> result = new CompletableFuture<>();
+            final Future<?> running;
+            try {
+                running = _executor.submit(() -> {
                     try {
-			while(futureTask.isDone() == false) {
-				if (task != null && task.isCanceled()) {
-					futureTask.cancel(true);
-					return null;
-				}
-				try {
-					Thread.sleep(SLEEP_TIME);
-				} catch(InterruptedException ie) {
-					// do nothing
-				}
-			}
-			return futureTask.get();
-		} catch(InterruptedException ie) {
-			throw new IOException("Diffusion interrupted");
-		} catch(ExecutionException ee) {
-			throw new IOException("Error running diffusion: " + ee.getMessage());
-		} 
-                } finally {
-                    executor.shutdownNow();
-                }
-        }
-        
+                        result.complete(callable.call());
+                    } catch(Throwable t) {
+                        result.completeExceptionally(t);
+                    }
+                });
+            } catch(RejectedExecutionException ree) {
+                // client was shut down
+                result.completeExceptionally(ree);
+                return result;
+            }
+            result.whenComplete((response, error) -> {
+                if (error instanceof CancellationException || error instanceof TimeoutException) {
+                    callable.abort();
+                    running.cancel(true);
+                }
+            });
+            return result;
+        }
+
+        /**
+         * Creates named daemon threads so pending diffusions never keep
+         * Cytoscape from exiting
+         */
+        private static class DiffusionThreadFactory implements ThreadFactory {
+
+            private final AtomicInteger _count = new AtomicInteger();
+
+            @Override
+            public Thread newThread(Runnable r) {
+                Thread t = new Thread(r, "diffusion-client-" + _count.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            }
+        }
+
 }
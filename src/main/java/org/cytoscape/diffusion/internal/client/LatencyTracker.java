@@ -0,0 +1,55 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the latencies of the most recent diffusion requests so a percentile
+ * of them can be used to decide when a request is slow.
+ */
+public class LatencyTracker {
+
+	/** Fewer samples than this do not give a percentile */
+	public static final int MIN_SAMPLES = 20;
+
+	private final long[] samples;
+	private int count = 0;
+	private int next = 0;
+
+	/**
+	 * @param capacity number of most recent latencies kept
+	 */
+	public LatencyTracker(final int capacity) {
+		if (capacity < MIN_SAMPLES) {
+			throw new IllegalArgumentException("Capacity must be at least " + MIN_SAMPLES);
+		}
+		samples = new long[capacity];
+	}
+
+	public synchronized void record(final long millis) {
+		samples[next] = millis;
+		next = (next + 1) % samples.length;
+		if (count < samples.length) {
+			count++;
+		}
+	}
+
+	public synchronized int getCount() {
+		return count;
+	}
+
+	/**
+	 * @param percentile percentile between 0 and 100
+	 * @return latency in milliseconds below which {@code percentile} percent
+	 *         of the recent requests completed, or -1 if there are fewer than
+	 *         {@link #MIN_SAMPLES} samples
+	 */
+	public synchronized long getPercentile(final double percentile) {
+		if (count < MIN_SAMPLES) {
+			return -1;
+		}
+		final long[] sorted = Arrays.copyOf(samples, count);
+		Arrays.sort(sorted);
+		final int rank = (int) Math.ceil(percentile / 100.0 * count);
+		return sorted[Math.min(count, Math.max(1, rank)) - 1];
+	}
+}
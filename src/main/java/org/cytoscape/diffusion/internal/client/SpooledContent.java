@@ -0,0 +1,147 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import org.apache.http.entity.ContentProducer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Content written once and sent several times. It is kept in memory up to a
+ * threshold and spooled to a temporary file beyond it, so a large network
+ * is not held in the heap while the requests sending it run. The file is
+ * deleted by {@link #delete()}, whoever spools content makes sure it is
+ * called, also when the app stops.
+ */
+public class SpooledContent implements ContentProducer {
+
+	private final static Logger logger = LoggerFactory.getLogger(SpooledContent.class);
+
+	private final byte[] bytes;
+	private final Path file;
+
+	private SpooledContent(final byte[] bytes, final Path file) {
+		this.bytes = bytes;
+		this.file = file;
+	}
+
+	/**
+	 * Writes {@code content} once
+	 *
+	 * @param threshold bytes kept in memory, more are spooled to a file
+	 * @throws IOException if {@code content} or the file could not be written
+	 */
+	public static SpooledContent write(final ContentProducer content, final long threshold) throws IOException {
+		final Spool spool = new Spool(threshold);
+		try {
+			try (OutputStream out = spool) {
+				content.writeTo(out);
+			}
+		} catch (IOException | RuntimeException e) {
+			spool.delete();
+			throw e;
+		}
+		return spool.file == null ? new SpooledContent(spool.memory.toByteArray(), null)
+				: new SpooledContent(null, spool.file);
+	}
+
+	@Override
+	public void writeTo(final OutputStream out) throws IOException {
+		if (file == null) {
+			out.write(bytes);
+		} else {
+			Files.copy(file, out);
+		}
+	}
+
+	/**
+	 * @return {@code true} if the content was spooled to a file
+	 */
+	public boolean isSpooled() {
+		return file != null;
+	}
+
+	/**
+	 * Deletes the file, if any. The content cannot be written afterwards.
+	 */
+	public void delete() {
+		if (file != null) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				logger.warn("Could not delete " + file, e);
+			}
+		}
+	}
+
+	/**
+	 * Writes to memory until more than the threshold was written, then
+	 * moves what was written to a file and goes on there
+	 */
+	private static class Spool extends OutputStream {
+
+		private final long threshold;
+		private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+		private OutputStream out = memory;
+		private long count = 0;
+		private Path file = null;
+
+		Spool(final long threshold) {
+			this.threshold = threshold;
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			spill(1);
+			out.write(b);
+			count++;
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			spill(len);
+			out.write(b, off, len);
+			count += len;
+		}
+
+		private void spill(final int len) throws IOException {
+			if (file != null || count + len <= threshold) {
+				return;
+			}
+			file = Files.createTempFile("diffusion-batch", ".cx");
+			out = new BufferedOutputStream(Files.newOutputStream(file));
+			memory.writeTo(out);
+			memory = null;
+		}
+
+		@Override
+		public void flush() throws IOException {
+			out.flush();
+		}
+
+		@Override
+		public void close() throws IOException {
+			out.close();
+		}
+
+		void delete() {
+			try {
+				out.close();
+			} catch (IOException e) {
+				// deleted anyway
+			}
+			if (file != null) {
+				try {
+					Files.deleteIfExists(file);
+				} catch (IOException e) {
+					logger.warn("Could not delete " + file, e);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package org.cytoscape.diffusion.internal.engine;
+
+/**
+ * Heat kernel action by a Chebyshev expansion of exp(-tL) over the spectral
+ * interval [0, b] of L. With S = 2L/b - I and a = tb/2,
+ * exp(-tL) = e^-a I_0(a) + 2 sum_k (-1)^k e^-a I_k(a) T_k(S), where I_k are
+ * modified Bessel functions. The degree is the smallest one whose dropped
+ * coefficients sum to less than the tolerance, so it grows with t and with
+ * a smaller tolerance. T_k(S) h is evaluated by the three-term recurrence
+ * T_(k+1) = 2S T_k - T_(k-1), which needs no inner products.
+ */
+public class ChebyshevHeatKernel implements HeatKernel {
+
+	private static final double RESCALE_ABOVE = 1e150;
+
+	private final double tolerance;
+
+	public ChebyshevHeatKernel() {
+		this(1e-8);
+	}
+
+	/**
+	 * @param tolerance error allowed in the output heat relative to the norm
+	 *                  of the input heat
+	 */
+	public ChebyshevHeatKernel(final double tolerance) {
+		if (tolerance <= 0) {
+			throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+		}
+		this.tolerance = tolerance;
+	}
+
+	@Override
+	public double[] apply(final SparseLaplacian laplacian, final double[] heats, final double time) {
+		return apply(laplacian, heats, new double[] { time })[0];
+	}
+
+	/**
+	 * Runs the recurrence once up to the degree of the largest of
+	 * {@code times}, each time sums the same T_k(S) h with its own
+	 * coefficients
+	 */
+	@Override
+	public double[][] apply(final SparseLaplacian laplacian, final double[] heats, final double[] times) {
+		final int n = laplacian.size();
+		final double bound = laplacian.getNormBound();
+		final double[][] coefficients = new double[times.length][];
+		final double[][] results = new double[times.length][];
+		int degree = 0;
+		for (int t = 0; t < times.length; t++) {
+			if (times[t] <= 0 || bound == 0) {
+				coefficients[t] = new double[] { 1.0 };
+			} else {
+				coefficients[t] = getCoefficients(times[t] * bound / 2, tolerance);
+			}
+			degree = Math.max(degree, coefficients[t].length - 1);
+			results[t] = new double[n];
+			final double c = coefficients[t][0];
+			for (int i = 0; i < n; i++) {
+				results[t][i] = c * heats[i];
+			}
+		}
+		if (degree == 0) {
+			return results;
+		}
+
+		// S x = (2 / b) L x - x
+		final double scale = 2.0 / bound;
+		double[] previous = heats.clone();
+		double[] current = new double[n];
+		double[] next = new double[n];
+		laplacian.multiply(previous, current);
+		for (int i = 0; i < n; i++) {
+			current[i] = scale * current[i] - previous[i];
+		}
+		accumulate(coefficients, 1, current, results);
+		for (int k = 2; k <= degree; k++) {
+			laplacian.multiply(current, next);
+			for (int i = 0; i < n; i++) {
+				next[i] = 2 * (scale * next[i] - current[i]) - previous[i];
+			}
+			accumulate(coefficients, k, next, results);
+			final double[] swap = previous;
+			previous = current;
+			current = next;
+			next = swap;
+		}
+		return results;
+	}
+
+	/**
+	 * Runs the recurrence on the whole block, every product with L reads each
+	 * row once for all vectors. The degree depends only on the time, so it is
+	 * the same for all of them.
+	 */
+	@Override
+	public double[] applyBlock(final SparseLaplacian laplacian, final double[] block, final int width,
+			final double time) {
+		final int size = block.length;
+		final double bound = laplacian.getNormBound();
+		if (time <= 0 || bound == 0) {
+			return block.clone();
+		}
+		final double[] coefficients = getCoefficients(time * bound / 2, tolerance);
+		final double[] result = new double[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = coefficients[0] * block[i];
+		}
+		if (coefficients.length == 1) {
+			return result;
+		}
+
+		// S X = (2 / b) L X - X
+		final double scale = 2.0 / bound;
+		double[] previous = block.clone();
+		double[] current = new double[size];
+		double[] next = new double[size];
+		laplacian.multiply(previous, current, width);
+		for (int i = 0; i < size; i++) {
+			current[i] = scale * current[i] - previous[i];
+			result[i] += coefficients[1] * current[i];
+		}
+		for (int k = 2; k < coefficients.length; k++) {
+			laplacian.multiply(current, next, width);
+			final double c = coefficients[k];
+			for (int i = 0; i < size; i++) {
+				next[i] = 2 * (scale * next[i] - current[i]) - previous[i];
+				result[i] += c * next[i];
+			}
+			final double[] swap = previous;
+			previous = current;
+			current = next;
+			next = swap;
+		}
+		return result;
+	}
+
+	/**
+	 * Adds term {@code k} of each expansion that has one
+	 */
+	private static void accumulate(final double[][] coefficients, final int k, final double[] term,
+			final double[][] results) {
+		for (int t = 0; t < results.length; t++) {
+			if (k < coefficients[t].length) {
+				final double c = coefficients[t][k];
+				final double[] result = results[t];
+				for (int i = 0; i < term.length; i++) {
+					result[i] += c * term[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return number of sparse matrix-vector products the expansion for
+	 *         {@code time} needs on {@code laplacian}
+	 */
+	public int getDegree(final SparseLaplacian laplacian, final double time) {
+		if (time <= 0 || laplacian.getNormBound() == 0) {
+			return 0;
+		}
+		return getCoefficients(time * laplacian.getNormBound() / 2, tolerance).length - 1;
+	}
+
+	/**
+	 * Coefficients of the expansion of exp(-a(s + 1)) in Chebyshev
+	 * polynomials of s, truncated where the rest sums to less than
+	 * {@code tolerance}
+	 */
+	static double[] getCoefficients(final double a, final double tolerance) {
+		final double[] scaled = scaledBessel(a, tolerance);
+		int degree = scaled.length - 1;
+		double tail = 0;
+		while (degree > 0 && tail + 2 * scaled[degree] <= tolerance) {
+			tail += 2 * scaled[degree];
+			degree--;
+		}
+		final double[] coefficients = new double[degree + 1];
+		coefficients[0] = scaled[0];
+		for (int k = 1; k <= degree; k++) {
+			coefficients[k] = (k % 2 == 0 ? 2 : -2) * scaled[k];
+		}
+		return coefficients;
+	}
+
+	/**
+	 * Computes e^-a I_k(a) by Miller's backward recurrence
+	 * I_(k-1) = I_(k+1) + (2k / a) I_k, normalized with
+	 * I_0 + 2 sum_k I_k = e^a
+	 *
+	 * @return scaled Bessel values up to an order far past the tolerance
+	 */
+	static double[] scaledBessel(final double a, final double tolerance) {
+		if (a < 1e-30) {
+			// exp(-tL) is the identity far below any tolerance
+			return new double[] { 1.0 };
+		}
+		// e^-a I_k(a) decays like exp(-k^2 / 2a) for large a and
+		// like (a / 2)^k / k! for small a
+		final double digits = Math.log(1 / Math.min(tolerance, 0.1));
+		final int order = (int) Math.ceil(2 * Math.sqrt(2 * (a + 1) * (digits + 5)) + digits + 30);
+		final double[] values = new double[order + 2];
+		values[order] = 1e-200;
+		for (int k = order; k >= 1; k--) {
+			values[k - 1] = values[k + 1] + (2 * k / a) * values[k];
+			if (values[k - 1] > RESCALE_ABOVE) {
+				for (int j = k - 1; j <= order; j++) {
+					values[j] /= RESCALE_ABOVE;
+				}
+			}
+		}
+		double sum = values[0];
+		for (int k = 1; k <= order; k++) {
+			sum += 2 * values[k];
+		}
+		final double[] scaled = new double[order + 1];
+		for (int k = 0; k <= order; k++) {
+			scaled[k] = values[k] / sum;
+		}
+		return scaled;
+	}
+}
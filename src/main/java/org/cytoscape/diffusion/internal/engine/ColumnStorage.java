@@ -0,0 +1,144 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Properties;
+
+import org.cytoscape.diffusion.internal.util.Props;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decides where the neighbor lists of a {@link NetworkSnapshot} are kept,
+ * they take 4 bytes per entry, two entries per edge. Small networks keep
+ * them in an array on the heap. From {@link #OFF_HEAP_ENTRIES_PROP} entries
+ * on they go to a direct buffer outside of the heap, which the collector
+ * never copies or scans. Direct buffers are capped by
+ * {@code -XX:MaxDirectMemorySize}, by default as large as the heap, so with
+ * {@link #OFF_HEAP_DIR_PROP} set they are mapped from a temporary file in
+ * that directory instead and paged by the operating system. A direct buffer
+ * that does not fit falls back to a file in the default temporary directory.
+ */
+public class ColumnStorage {
+
+	/**
+	 * Property with the number of entries from which neighbor lists are kept
+	 * off the heap, 0 keeps all of them off the heap
+	 */
+	public static final String OFF_HEAP_ENTRIES_PROP = "diffusion.engine.offHeapEntries";
+
+	/**
+	 * Property with the directory of the files off-heap neighbor lists are
+	 * mapped from, if not set they are kept in direct buffers
+	 */
+	public static final String OFF_HEAP_DIR_PROP = "diffusion.engine.offHeapDir";
+
+	/**
+	 * 64 MB of neighbor lists, about 8 million edges
+	 */
+	public static final long DEFAULT_OFF_HEAP_ENTRIES = 1L << 24;
+
+	/**
+	 * Keeps everything on the heap
+	 */
+	static final ColumnStorage HEAP = new ColumnStorage(Long.MAX_VALUE, null);
+
+	private final static Logger logger = LoggerFactory.getLogger(ColumnStorage.class);
+
+	private final long offHeapEntries;
+	private final File directory;
+
+	/**
+	 * Creates storage configured from properties, any property not set or
+	 * not parseable falls back to its default
+	 *
+	 * @param props Properties to read, can be {@code null}
+	 */
+	public ColumnStorage(final Properties props) {
+		this(Props.getLong(props, OFF_HEAP_ENTRIES_PROP, DEFAULT_OFF_HEAP_ENTRIES), getDirectory(props));
+	}
+
+	/**
+	 * @param directory where files are mapped from, {@code null} for direct
+	 *                  buffers
+	 */
+	ColumnStorage(final long offHeapEntries, final File directory) {
+		this.offHeapEntries = offHeapEntries;
+		this.directory = directory;
+	}
+
+	/**
+	 * @return {@code true} if {@code entries} entries are kept off the heap
+	 */
+	public boolean isOffHeap(final long entries) {
+		return entries >= offHeapEntries;
+	}
+
+	/**
+	 * @return buffer of {@code entries} ints, backed by an array if they are
+	 *         kept on the heap
+	 */
+	IntBuffer allocate(final int entries) {
+		if (!isOffHeap(entries)) {
+			return IntBuffer.wrap(new int[entries]);
+		}
+		if (entries > Integer.MAX_VALUE / Integer.BYTES) {
+			throw new IllegalArgumentException("Too many edges for off-heap storage: " + entries / 2);
+		}
+		final int bytes = entries * Integer.BYTES;
+		if (directory != null) {
+			try {
+				return map(directory, bytes);
+			} catch (IOException e) {
+				logger.warn("Could not map neighbor lists in " + directory + ", using direct memory", e);
+			}
+		}
+		try {
+			return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+		} catch (OutOfMemoryError e) {
+			logger.warn("No direct memory left for " + bytes + " bytes of neighbor lists, mapping a temporary file");
+			try {
+				return map(null, bytes);
+			} catch (IOException ioe) {
+				throw new IllegalStateException("Could not store neighbor lists of " + entries / 2 + " edges", ioe);
+			}
+		}
+	}
+
+	/**
+	 * Maps a new temporary file of {@code bytes} bytes. The file is deleted
+	 * once its channel is closed, the mapping stays valid until it is
+	 * collected.
+	 *
+	 * @param directory where to create the file, {@code null} for the
+	 *                  default temporary directory
+	 */
+	private static IntBuffer map(final File directory, final int bytes) throws IOException {
+		final Path path = directory == null ? Files.createTempFile("diffusion-network-", ".bin")
+				: Files.createTempFile(directory.toPath(), "diffusion-network-", ".bin");
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE,
+				StandardOpenOption.DELETE_ON_CLOSE)) {
+			return channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+		}
+	}
+
+	private static File getDirectory(final Properties props) {
+		final String value = props == null ? null : props.getProperty(OFF_HEAP_DIR_PROP);
+		if (value == null || value.trim().isEmpty()) {
+			return null;
+		}
+		final File directory = new File(value.trim());
+		if (!directory.isDirectory()) {
+			logger.warn("Invalid value for " + OFF_HEAP_DIR_PROP + ": " + value + ", using direct memory");
+			return null;
+		}
+		return directory;
+	}
+}
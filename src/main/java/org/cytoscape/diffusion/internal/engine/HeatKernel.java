@@ -0,0 +1,71 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Computes the action of the heat kernel, exp(-tL) h, without ever forming
+ * the dense matrix exponential
+ */
+public interface HeatKernel {
+
+	/**
+	 * @param laplacian Laplacian L of the network
+	 * @param heats input heat h of each row of {@code laplacian}
+	 * @param time diffusion time t, not negative
+	 * @return output heat of each row
+	 */
+	double[] apply(SparseLaplacian laplacian, double[] heats, double time);
+
+	/**
+	 * Computes exp(-tL) h for several times at once. By default the times are
+	 * taken in increasing order and each result is diffused on to the next
+	 * time, so a sweep costs about as much as its largest time alone. The
+	 * errors of the steps add up.
+	 *
+	 * @param times diffusion times, not negative, in any order
+	 * @return output heat of each row for each of {@code times}
+	 */
+	default double[][] apply(final SparseLaplacian laplacian, final double[] heats, final double[] times) {
+		final Integer[] order = new Integer[times.length];
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(times[a], times[b]));
+
+		final double[][] results = new double[times.length][];
+		double[] current = heats;
+		double done = 0;
+		for (int i : order) {
+			current = apply(laplacian, current, Math.max(0.0, times[i] - done));
+			results[i] = current;
+			done = Math.max(done, times[i]);
+		}
+		return results;
+	}
+
+	/**
+	 * Computes exp(-tL) H for a block H of {@code width} input heats stored
+	 * row by row, entry {@code j} of row {@code i} at {@code i * width + j}.
+	 * By default each vector is diffused on its own, kernels that can run on
+	 * the whole block read L once per product for all vectors.
+	 *
+	 * @param block input heats, {@code laplacian.size() * width} entries
+	 * @return output heats in the same layout
+	 */
+	default double[] applyBlock(final SparseLaplacian laplacian, final double[] block, final int width,
+			final double time) {
+		final int n = laplacian.size();
+		final double[] result = new double[block.length];
+		final double[] heats = new double[n];
+		for (int j = 0; j < width; j++) {
+			for (int i = 0; i < n; i++) {
+				heats[i] = block[i * width + j];
+			}
+			final double[] diffused = apply(laplacian, heats, time);
+			for (int i = 0; i < n; i++) {
+				result[i * width + j] = diffused[i];
+			}
+		}
+		return result;
+	}
+}
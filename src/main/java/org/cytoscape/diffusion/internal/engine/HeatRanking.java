@@ -0,0 +1,111 @@
+package org.cytoscape.diffusion.internal.engine;
+
+/**
+ * Ranks nodes by output heat, 1 being the hottest. Equal heats keep the
+ * order of their nodes.
+ */
+public final class HeatRanking {
+
+	private HeatRanking() {
+	}
+
+	/**
+	 * @return rank of each entry of {@code heats}
+	 */
+	public static int[] rank(final double[] heats) {
+		final int n = heats.length;
+		int[] order = new int[n];
+		int[] buffer = new int[n];
+		for (int i = 0; i < n; i++) {
+			order[i] = i;
+		}
+		// Bottom up merge sort on indices, stable and without boxing
+		for (int width = 1; width < n; width *= 2) {
+			for (int low = 0; low < n; low += 2 * width) {
+				final int middle = Math.min(low + width, n);
+				final int high = Math.min(low + 2 * width, n);
+				int left = low;
+				int right = middle;
+				for (int k = low; k < high; k++) {
+					if (left < middle && (right >= high || !hotter(heats[order[right]], heats[order[left]]))) {
+						buffer[k] = order[left++];
+					} else {
+						buffer[k] = order[right++];
+					}
+				}
+			}
+			final int[] swap = order;
+			order = buffer;
+			buffer = swap;
+		}
+		final int[] ranks = new int[n];
+		for (int k = 0; k < n; k++) {
+			ranks[order[k]] = k + 1;
+		}
+		return ranks;
+	}
+
+	/**
+	 * Selects the {@code k} hottest entries with a heap of {@code k} of
+	 * them, so the others are never sorted
+	 *
+	 * @return indices of the {@code k} hottest entries of {@code heats} in
+	 *         rank order, the same as ranks 1 to {@code k} of
+	 *         {@link #rank(double[])}
+	 */
+	public static int[] top(final double[] heats, final int k) {
+		final int size = Math.min(k, heats.length);
+		// the root of the heap ranks last of its entries
+		final int[] heap = new int[size];
+		for (int i = 0; i < size; i++) {
+			heap[i] = i;
+		}
+		for (int i = size / 2 - 1; i >= 0; i--) {
+			siftDown(heats, heap, i, size);
+		}
+		for (int i = size; i < heats.length && size > 0; i++) {
+			// an equal heat of a later entry ranks after the root
+			if (hotter(heats[i], heats[heap[0]])) {
+				heap[0] = i;
+				siftDown(heats, heap, 0, size);
+			}
+		}
+		for (int end = size - 1; end > 0; end--) {
+			final int last = heap[0];
+			heap[0] = heap[end];
+			heap[end] = last;
+			siftDown(heats, heap, 0, end);
+		}
+		return heap;
+	}
+
+	private static void siftDown(final double[] heats, final int[] heap, int parent, final int size) {
+		while (2 * parent + 1 < size) {
+			int child = 2 * parent + 1;
+			if (child + 1 < size && before(heats, heap[child], heap[child + 1])) {
+				child++;
+			}
+			if (!before(heats, heap[parent], heap[child])) {
+				return;
+			}
+			final int swap = heap[parent];
+			heap[parent] = heap[child];
+			heap[child] = swap;
+			parent = child;
+		}
+	}
+
+	/**
+	 * @return whether entry {@code a} ranks before entry {@code b}
+	 */
+	private static boolean before(final double[] heats, final int a, final int b) {
+		return hotter(heats[a], heats[b]) || (!hotter(heats[b], heats[a]) && a < b);
+	}
+
+	/**
+	 * @return whether {@code a} ranks before {@code b}, NaN ranks last
+	 */
+	static boolean hotter(final double a, final double b) {
+		return a > b || (!Double.isNaN(a) && Double.isNaN(b));
+	}
+}
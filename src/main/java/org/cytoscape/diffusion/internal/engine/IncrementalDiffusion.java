@@ -0,0 +1,309 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.BooleanSupplier;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Re-diffuses an input heat that differs from the last one diffused on the
+ * same network to the same time in a few nodes. Diffusion is linear, so the
+ * new output is the last one plus exp(-tL) e_j times the change of each
+ * changed node j. These columns are kept per node, a node added and removed
+ * again costs nothing the second time. Missing columns are solved together
+ * as one block, or over the region their heat reaches if local diffusion
+ * is on. Runs and columns belong to a {@link NetworkSnapshot}, a new
+ * snapshot of the network makes them stale. Bounded by bytes, the least
+ * recently used entries are evicted first. Off by default: each step adds
+ * the errors of the columns it used to the output, up to
+ * {@value #MAX_STEPS} steps in a row.
+ */
+public class IncrementalDiffusion {
+
+	/**
+	 * Property with the bytes of runs and columns kept, 0 disables
+	 * incremental diffusion, the default
+	 */
+	public static final String MAX_BYTES_PROP = "diffusion.engine.incremental.maxBytes";
+
+	/**
+	 * Property with the most nodes whose input heat may have changed
+	 */
+	public static final String MAX_CHANGES_PROP = "diffusion.engine.incremental.maxChanges";
+
+	public static final long DEFAULT_MAX_BYTES = 0;
+	public static final int DEFAULT_MAX_CHANGES = 8;
+
+	/**
+	 * Incremental steps in a row before a full solve, the errors of the
+	 * columns add up with each step
+	 */
+	static final int MAX_STEPS = 32;
+
+	private final static Logger logger = LoggerFactory.getLogger(IncrementalDiffusion.class);
+
+	private final HeatKernel kernel;
+	private final LocalHeatKernel local;
+	private final long maxBytes;
+	private final int maxChanges;
+
+	// access ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+
+	/**
+	 * @param local    solves missing columns, can be {@code null}
+	 * @param maxBytes bytes of runs and columns kept, 0 disables incremental
+	 *                 diffusion
+	 */
+	IncrementalDiffusion(final HeatKernel kernel, final LocalHeatKernel local, final long maxBytes,
+			final int maxChanges) {
+		this.kernel = kernel;
+		this.local = local;
+		this.maxBytes = maxBytes;
+		this.maxChanges = maxChanges;
+	}
+
+	/**
+	 * @return {@code false} if nothing is kept
+	 */
+	public boolean isEnabled() {
+		return maxBytes > 0 && maxChanges > 0;
+	}
+
+	/**
+	 * Computes exp(-time L) h from the last run on the same snapshot of the
+	 * network if {@code input} differs from its input in few nodes
+	 *
+	 * @param suid SUID of the network {@code laplacian} was taken of
+	 * @return output heat of each row or {@code null} if it has to be solved
+	 *         in full
+	 */
+	public double[] apply(final Long suid, final SparseLaplacian laplacian, final double[] input, final double time,
+			final BooleanSupplier canceled) {
+		if (!isEnabled()) {
+			return null;
+		}
+		final NetworkSnapshot snapshot = laplacian.getSnapshot();
+		final Entry last = get(new Key(suid, time, -1), snapshot);
+		if (last == null || last.steps >= MAX_STEPS) {
+			return null;
+		}
+		final List<Integer> changed = new ArrayList<>();
+		for (int i = 0; i < input.length; i++) {
+			if (input[i] != last.input[i]) {
+				if (changed.size() == maxChanges) {
+					return null;
+				}
+				changed.add(i);
+			}
+		}
+
+		final Entry[] columns = new Entry[changed.size()];
+		final List<Integer> missing = new ArrayList<>();
+		for (int c = 0; c < columns.length; c++) {
+			columns[c] = get(new Key(suid, time, changed.get(c)), snapshot);
+			if (columns[c] == null) {
+				missing.add(c);
+			}
+		}
+		solve(suid, laplacian, time, changed, columns, missing, canceled);
+
+		final double[] output = last.heats.clone();
+		for (int c = 0; c < columns.length; c++) {
+			final int node = changed.get(c);
+			columns[c].addTo(output, input[node] - last.input[node]);
+		}
+		logger.debug("Re-diffused network " + suid + " from " + changed.size() + " changed nodes, " + missing.size()
+				+ " solved");
+		put(new Key(suid, time, -1), new Entry(snapshot, input, null, output, last.steps + 1));
+		return output;
+	}
+
+	/**
+	 * Solves the missing columns, each over the region its heat reaches if
+	 * possible and the others as one block
+	 */
+	private void solve(final Long suid, final SparseLaplacian laplacian, final double time,
+			final List<Integer> changed, final Entry[] columns, final List<Integer> missing,
+			final BooleanSupplier canceled) {
+		final NetworkSnapshot snapshot = laplacian.getSnapshot();
+		final int n = laplacian.size();
+		final List<Integer> global = new ArrayList<>();
+		for (int c : missing) {
+			final int node = changed.get(c);
+			LocalHeatKernel.Region region = null;
+			if (local != null) {
+				final LocalHeatKernel.Seeds unit = new LocalHeatKernel.Seeds(1);
+				unit.add(node, 1.0);
+				region = local.apply(snapshot, unit, time, canceled);
+			}
+			if (region == null) {
+				global.add(c);
+				continue;
+			}
+			final int[] nodes = new int[region.size()];
+			final double[] heats = new double[region.size()];
+			for (int r = 0; r < nodes.length; r++) {
+				nodes[r] = region.getNode(r);
+				heats[r] = region.getHeat(r);
+			}
+			columns[c] = new Entry(snapshot, null, nodes, heats, 0);
+			put(new Key(suid, time, node), columns[c]);
+		}
+		if (global.isEmpty()) {
+			return;
+		}
+		final int width = global.size();
+		final double[] block = new double[n * width];
+		for (int j = 0; j < width; j++) {
+			block[changed.get(global.get(j)) * width + j] = 1.0;
+		}
+		final double[] diffused = kernel.applyBlock(laplacian, block, width, time);
+		for (int j = 0; j < width; j++) {
+			final double[] heats = new double[n];
+			for (int i = 0; i < n; i++) {
+				heats[i] = diffused[i * width + j];
+			}
+			final int c = global.get(j);
+			columns[c] = new Entry(snapshot, null, null, heats, 0);
+			put(new Key(suid, time, changed.get(c)), columns[c]);
+		}
+	}
+
+	/**
+	 * Keeps a full solve as the last run of the network for {@code time}.
+	 * The arrays are kept as they are and must not be modified.
+	 */
+	public void record(final Long suid, final SparseLaplacian laplacian, final double[] input, final double time,
+			final double[] output) {
+		if (isEnabled()) {
+			put(new Key(suid, time, -1), new Entry(laplacian.getSnapshot(), input, null, output, 0));
+		}
+	}
+
+	private synchronized Entry get(final Key key, final NetworkSnapshot snapshot) {
+		final Entry entry = entries.get(key);
+		if (entry == null || entry.snapshot == snapshot) {
+			return entry;
+		}
+		remove(key);
+		return null;
+	}
+
+	private synchronized void put(final Key key, final Entry entry) {
+		if (entry.bytes > maxBytes) {
+			remove(key);
+			return;
+		}
+		remove(key);
+		entries.put(key, entry);
+		bytes += entry.bytes;
+		final Iterator<Map.Entry<Key, Entry>> eldest = entries.entrySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			bytes -= eldest.next().getValue().bytes;
+			eldest.remove();
+		}
+	}
+
+	private void remove(final Key key) {
+		final Entry entry = entries.remove(key);
+		if (entry != null) {
+			bytes -= entry.bytes;
+		}
+	}
+
+	/**
+	 * Drops runs and columns of the network with {@code suid}
+	 */
+	public synchronized void invalidate(final Long suid) {
+		entries.keySet().removeIf(key -> key.suid.equals(suid));
+		bytes = entries.values().stream().mapToLong(entry -> entry.bytes).sum();
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized void clear() {
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Run of a network to a time, node -1, or column of a node
+	 */
+	private static class Key {
+
+		final Long suid;
+		final double time;
+		final int node;
+
+		Key(final Long suid, final double time, final int node) {
+			this.suid = suid;
+			this.time = time;
+			this.node = node;
+		}
+
+		@Override
+		public boolean equals(final Object obj) {
+			if (!(obj instanceof Key)) {
+				return false;
+			}
+			final Key other = (Key) obj;
+			return suid.equals(other.suid) && Double.compare(time, other.time) == 0 && node == other.node;
+		}
+
+		@Override
+		public int hashCode() {
+			return Objects.hash(suid, time, node);
+		}
+	}
+
+	/**
+	 * Input and output heats of a run, or output heats of a column, sparse
+	 * if only the nodes its heat reached are listed
+	 */
+	private static class Entry {
+
+		final NetworkSnapshot snapshot;
+		final double[] input;
+		final int[] nodes;
+		final double[] heats;
+		final int steps;
+		final long bytes;
+
+		Entry(final NetworkSnapshot snapshot, final double[] input, final int[] nodes, final double[] heats,
+				final int steps) {
+			this.snapshot = snapshot;
+			this.input = input;
+			this.nodes = nodes;
+			this.heats = heats;
+			this.steps = steps;
+			this.bytes = 64L + 8L * heats.length + (input == null ? 0 : 8L * input.length)
+					+ (nodes == null ? 0 : 4L * nodes.length);
+		}
+
+		void addTo(final double[] output, final double weight) {
+			if (nodes == null) {
+				for (int i = 0; i < heats.length; i++) {
+					output[i] += weight * heats[i];
+				}
+			} else {
+				for (int r = 0; r < nodes.length; r++) {
+					output[nodes[r]] += weight * heats[r];
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,224 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Heat kernel action by restarted Lanczos. Each restart builds an
+ * orthonormal basis V of the Krylov space of L and the current heat w, so
+ * that exp(-tau L) w is approximated by |w| V exp(-tau T) e1 with the small
+ * tridiagonal T = V^T L V. The step tau is chosen such that the a posteriori
+ * error estimate |w| beta_m |e_m^T exp(-tau T) e1| of the step stays below
+ * its share of the tolerance, the remaining time is covered by restarting
+ * from the result. Sparse matrix-vector products with L are the only costly
+ * operations, memory is that of {@code dimension + 1} heat vectors.
+ */
+public class KrylovHeatKernel implements HeatKernel {
+
+	public static final int DEFAULT_DIMENSION = 30;
+
+	private static final int MAX_STEPS = 100000;
+
+	private final double tolerance;
+	private final int dimension;
+
+	public KrylovHeatKernel() {
+		this(1e-8, DEFAULT_DIMENSION);
+	}
+
+	/**
+	 * @param tolerance error allowed in the output heat relative to the
+	 *                  2-norm of the input heat
+	 * @param dimension largest dimension of the Krylov space built before
+	 *                  a restart
+	 */
+	public KrylovHeatKernel(final double tolerance, final int dimension) {
+		if (tolerance <= 0) {
+			throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+		}
+		this.tolerance = tolerance;
+		this.dimension = Math.max(2, dimension);
+	}
+
+	@Override
+	public double[] apply(final SparseLaplacian laplacian, final double[] heats, final double time) {
+		return apply(laplacian, heats, new double[] { time })[0];
+	}
+
+	/**
+	 * Steps to the largest of {@code times} once. A time that falls within a
+	 * step is evaluated from the basis of that step, which costs no further
+	 * products with L, so a sweep costs about as much as its largest time.
+	 */
+	@Override
+	public double[][] apply(final SparseLaplacian laplacian, final double[] heats, final double[] times) {
+		final int n = laplacian.size();
+		final Integer[] order = new Integer[times.length];
+		double end = 0;
+		for (int i = 0; i < order.length; i++) {
+			order[i] = i;
+			end = Math.max(end, times[i]);
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(times[a], times[b]));
+
+		final double[][] results = new double[times.length][];
+		final double[] w = heats.clone();
+		final double normBound = laplacian.getNormBound();
+		final double inputNorm = norm(w);
+		int next = 0;
+		while (next < order.length && times[order[next]] <= 0) {
+			results[order[next++]] = w.clone();
+		}
+		if (normBound == 0 || inputNorm == 0) {
+			end = 0;
+		}
+		final int m = Math.min(dimension, n);
+		final double[][] basis = new double[m + 1][];
+		final double[] alpha = new double[m];
+		final double[] beta = new double[m];
+		final double[] y = new double[m];
+
+		double done = 0;
+		// Start with a step a few Lanczos steps can resolve
+		double tau = Math.min(end, 10.0 * m / normBound);
+		for (int step = 0; done < end; step++) {
+			if (step == MAX_STEPS) {
+				throw new IllegalStateException("Krylov heat kernel did not converge in " + MAX_STEPS + " steps");
+			}
+			final double wNorm = norm(w);
+			if (wNorm == 0) {
+				break;
+			}
+			final int k = lanczos(laplacian, w, wNorm, basis, alpha, beta, m);
+			// invariant subspace, the step is exact for any tau
+			final boolean exact = k < m || beta[k - 1] <= Math.ulp(normBound) * n;
+			final TridiagonalEigen eigen = new TridiagonalEigen(alpha, beta, k);
+
+			tau = Math.min(tau, end - done);
+			if (exact) {
+				tau = end - done;
+			}
+			while (true) {
+				eigen.expFirstColumn(tau, y);
+				final double error = exact ? 0.0 : wNorm * beta[k - 1] * Math.abs(y[k - 1]);
+				final double allowed = tolerance * inputNorm * tau / end;
+				if (error <= allowed || tau <= end * 1e-12) {
+					break;
+				}
+				// Error of a Krylov step grows like tau^k, shrink accordingly
+				tau *= Math.max(0.1, 0.9 * Math.pow(allowed / error, 1.0 / k));
+			}
+
+			// Times within this step, the error of a shorter step is smaller
+			final boolean last = tau >= end - done;
+			while (next < order.length && (last || times[order[next]] - done < tau)) {
+				final double[] result = new double[n];
+				final double[] z = new double[k];
+				eigen.expFirstColumn(times[order[next]] - done, z);
+				combine(basis, wNorm, z, k, result);
+				results[order[next++]] = result;
+			}
+			if (last) {
+				break;
+			}
+			// w = |w| V y
+			combine(basis, wNorm, y, k, w);
+			done += tau;
+			tau *= 2;
+		}
+		// Nothing left to diffuse
+		while (next < order.length) {
+			results[order[next++]] = w.clone();
+		}
+		return results;
+	}
+
+	/**
+	 * Blocks are diffused by a Chebyshev expansion with the same tolerance,
+	 * it needs no inner products, so all vectors share every product with L,
+	 * while each vector would need its own Krylov space
+	 */
+	@Override
+	public double[] applyBlock(final SparseLaplacian laplacian, final double[] block, final int width,
+			final double time) {
+		if (width == 1) {
+			return apply(laplacian, block, time);
+		}
+		return new ChebyshevHeatKernel(tolerance).applyBlock(laplacian, block, width, time);
+	}
+
+	/**
+	 * Sets {@code result = scale V y} for the first {@code k} basis vectors,
+	 * {@code result} must not be one of them
+	 */
+	private static void combine(final double[][] basis, final double scale, final double[] y, final int k,
+			final double[] result) {
+		final int n = result.length;
+		Arrays.fill(result, 0.0);
+		for (int j = 0; j < k; j++) {
+			final double[] v = basis[j];
+			final double weight = scale * y[j];
+			for (int i = 0; i < n; i++) {
+				result[i] += weight * v[i];
+			}
+		}
+	}
+
+	/**
+	 * Builds an orthonormal basis of the Krylov space of {@code w} by the
+	 * three-term Lanczos recurrence
+	 *
+	 * @return dimension of the space built, less than {@code m} if it is
+	 *         invariant under L
+	 */
+	private static int lanczos(final SparseLaplacian laplacian, final double[] w, final double wNorm,
+			final double[][] basis, final double[] alpha, final double[] beta, final int m) {
+		final int n = w.length;
+		basis[0] = allocate(basis[0], n);
+		for (int i = 0; i < n; i++) {
+			basis[0][i] = w[i] / wNorm;
+		}
+		final double breakdown = Math.ulp(laplacian.getNormBound()) * n;
+		for (int j = 0; j < m; j++) {
+			final double[] v = basis[j];
+			final double[] p = basis[j + 1] = allocate(basis[j + 1], n);
+			laplacian.multiply(v, p);
+			if (j > 0) {
+				final double[] previous = basis[j - 1];
+				final double b = beta[j - 1];
+				for (int i = 0; i < n; i++) {
+					p[i] -= b * previous[i];
+				}
+			}
+			final double a = dot(p, v);
+			for (int i = 0; i < n; i++) {
+				p[i] -= a * v[i];
+			}
+			alpha[j] = a;
+			beta[j] = norm(p);
+			if (beta[j] <= breakdown) {
+				return j + 1;
+			}
+			final double scale = 1.0 / beta[j];
+			for (int i = 0; i < n; i++) {
+				p[i] *= scale;
+			}
+		}
+		return m;
+	}
+
+	private static double[] allocate(final double[] vector, final int n) {
+		return vector == null ? new double[n] : vector;
+	}
+
+	private static double dot(final double[] a, final double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	private static double norm(final double[] a) {
+		return Math.sqrt(dot(a, a));
+	}
+}
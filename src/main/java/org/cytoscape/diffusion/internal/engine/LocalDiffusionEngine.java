@@ -0,0 +1,565 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.function.BooleanSupplier;
+
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
+import org.cytoscape.diffusion.internal.util.NetworkSnapshotCache;
+import org.cytoscape.diffusion.internal.util.Props;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyTable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes heat diffusion in process, the same way the diffusion service
+ * does: the output heat is exp(-tL) h for the Laplacian L of the network
+ * and the input heat h, nodes are ranked by output heat.
+ */
+public class LocalDiffusionEngine {
+
+	/**
+	 * Time used when a diffusion does not set one, same as the service
+	 */
+	public static final double DEFAULT_TIME = 0.1;
+
+	/**
+	 * Property selecting the solver, {@value #SOLVER_KRYLOV} (the default),
+	 * {@value #SOLVER_CHEBYSHEV} or {@value #SOLVER_TAYLOR}
+	 */
+	public static final String SOLVER_PROP = "diffusion.engine.solver";
+
+	/**
+	 * Property with the error allowed in the output heat, relative to the
+	 * 2-norm of the input heat
+	 */
+	public static final String TOLERANCE_PROP = "diffusion.engine.tolerance";
+
+	/**
+	 * Property with the largest Krylov space built before the Krylov solver
+	 * restarts
+	 */
+	public static final String KRYLOV_DIMENSION_PROP = "diffusion.engine.krylovDimension";
+
+	/**
+	 * Property with the most input heat columns diffused together as one
+	 * block, the memory of a block is that of four heat vectors per column
+	 */
+	public static final String BLOCK_WIDTH_PROP = "diffusion.engine.blockWidth";
+
+	public static final int DEFAULT_BLOCK_WIDTH = 16;
+
+	/**
+	 * Property with the number of threads products with the Laplacian run
+	 * on, 1 runs them on the calling thread. Defaults to the number of
+	 * processors.
+	 */
+	public static final String THREADS_PROP = "diffusion.engine.threads";
+
+	/**
+	 * Property selecting the precision of diffusions of single columns,
+	 * {@value #PRECISION_DOUBLE} (the default) or {@value #PRECISION_SINGLE},
+	 * see {@link SinglePrecisionHeatKernel}
+	 */
+	public static final String PRECISION_PROP = "diffusion.engine.precision";
+
+	/**
+	 * Property with the largest error bound of a single precision
+	 * diffusion, relative to the 2-norm of the input heat, before falling
+	 * back to double precision
+	 */
+	public static final String SINGLE_MAX_ERROR_PROP = "diffusion.engine.single.maxError";
+
+	/**
+	 * Property with the heat a diffusion of a few seeds may lose relative to
+	 * the 1-norm of the input heat, see {@link LocalHeatKernel}. 0 (the
+	 * default) always diffuses over the whole network.
+	 */
+	public static final String LOCAL_EPSILON_PROP = "diffusion.engine.local.epsilon";
+
+	/**
+	 * Property with the most seeds, nodes with non-zero input heat, a
+	 * diffusion may have to be solved locally
+	 */
+	public static final String LOCAL_MAX_SEEDS_PROP = "diffusion.engine.local.maxSeeds";
+
+	public static final int DEFAULT_LOCAL_MAX_SEEDS = 100;
+
+	public static final String PRECISION_DOUBLE = "double";
+	public static final String PRECISION_SINGLE = "single";
+
+	public static final double DEFAULT_SINGLE_MAX_ERROR = 1e-4;
+
+	public static final String SOLVER_KRYLOV = "krylov";
+	public static final String SOLVER_CHEBYSHEV = "chebyshev";
+	public static final String SOLVER_TAYLOR = "taylor";
+
+	public static final double DEFAULT_TOLERANCE = 1e-8;
+
+	private final static Logger logger = LoggerFactory.getLogger(LocalDiffusionEngine.class);
+
+	private final HeatKernel kernel;
+	private final RandomWalkWithRestart walk;
+	private final TopKHeatKernel top;
+	private final LocalHeatKernel local;
+	private final int localMaxSeeds;
+	private final IncrementalDiffusion incremental;
+	private final NetworkSnapshotCache snapshots;
+	private final SpectralBasisCache bases;
+	private final double tolerance;
+	private final int blockWidth;
+	private final ForkJoinPool pool;
+
+	public LocalDiffusionEngine() {
+		this(new KrylovHeatKernel(), null);
+	}
+
+	/**
+	 * Creates engine with the solver configured from properties, any
+	 * property not set or not parseable falls back to its default
+	 *
+	 * @param props Properties to read, can be {@code null}
+	 * @param snapshots cache of network snapshots kept up to date by network
+	 *                  events, if {@code null} every diffusion walks the network
+	 *                  and no spectral bases are kept
+	 */
+	public LocalDiffusionEngine(final Properties props, final NetworkSnapshotCache snapshots) {
+		this(createKernel(props), snapshots, snapshots == null ? null : new SpectralBasisCache(props),
+				getTolerance(props), Props.getInt(props, BLOCK_WIDTH_PROP, DEFAULT_BLOCK_WIDTH),
+				Props.getInt(props, THREADS_PROP, Runtime.getRuntime().availableProcessors()),
+				Props.getDouble(props, LOCAL_EPSILON_PROP, 0),
+				Props.getInt(props, LOCAL_MAX_SEEDS_PROP, DEFAULT_LOCAL_MAX_SEEDS),
+				snapshots == null ? 0 : Props.getLong(props, IncrementalDiffusion.MAX_BYTES_PROP,
+						IncrementalDiffusion.DEFAULT_MAX_BYTES),
+				Props.getInt(props, IncrementalDiffusion.MAX_CHANGES_PROP, IncrementalDiffusion.DEFAULT_MAX_CHANGES));
+	}
+
+	public LocalDiffusionEngine(final HeatKernel kernel, final NetworkSnapshotCache snapshots) {
+		this(kernel, snapshots, null, DEFAULT_TOLERANCE, DEFAULT_BLOCK_WIDTH, 1, 0, 0, 0, 0);
+	}
+
+	/**
+	 * @param bases spectral bases of the snapshots, used instead of
+	 *              {@code kernel} when their error estimate is below
+	 *              {@code tolerance}, can be {@code null}
+	 * @param blockWidth most input heat columns diffused together
+	 * @param threads threads of the pool running products with the
+	 *                Laplacian, no pool if 1 or less
+	 * @param localEpsilon heat diffusions of up to {@code localMaxSeeds}
+	 *                     seeds may lose, see {@link LocalHeatKernel}, they
+	 *                     are not solved locally if not above 0
+	 * @param incrementalBytes bytes of earlier diffusions kept to re-diffuse
+	 *                         inputs that changed in up to
+	 *                         {@code incrementalChanges} nodes, see
+	 *                         {@link IncrementalDiffusion}, none if 0
+	 */
+	LocalDiffusionEngine(final HeatKernel kernel, final NetworkSnapshotCache snapshots,
+			final SpectralBasisCache bases, final double tolerance, final int blockWidth, final int threads,
+			final double localEpsilon, final int localMaxSeeds, final long incrementalBytes,
+			final int incrementalChanges) {
+		this.kernel = kernel;
+		this.walk = new RandomWalkWithRestart(tolerance);
+		this.top = new TopKHeatKernel(tolerance);
+		this.local = localEpsilon > 0 ? new LocalHeatKernel(kernel, localEpsilon) : null;
+		this.localMaxSeeds = localMaxSeeds;
+		this.incremental = new IncrementalDiffusion(kernel, local, incrementalBytes, incrementalChanges);
+		this.snapshots = snapshots;
+		this.bases = bases;
+		this.tolerance = tolerance;
+		this.blockWidth = Math.max(1, blockWidth);
+		this.pool = threads <= 1 ? null : new ForkJoinPool(threads, pool -> {
+			final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			t.setName("diffusion-engine-" + t.getPoolIndex());
+			t.setDaemon(true);
+			return t;
+		}, null, false);
+		if (snapshots != null) {
+			snapshots.addDestroyListener(this::invalidate);
+		}
+	}
+
+	/**
+	 * Drops what is kept for the network with {@code suid}, called when it
+	 * is destroyed
+	 */
+	void invalidate(final Long suid) {
+		if (bases != null) {
+			bases.invalidate(suid);
+		}
+		incremental.invalidate(suid);
+	}
+
+	/**
+	 * @return solver selected by {@value #SOLVER_PROP}, in single precision
+	 *         if selected by {@value #PRECISION_PROP}
+	 */
+	static HeatKernel createKernel(final Properties props) {
+		final HeatKernel kernel = createSolver(props);
+		final String precision = props == null ? null : props.getProperty(PRECISION_PROP);
+		if (precision != null && PRECISION_SINGLE.equalsIgnoreCase(precision.trim())) {
+			return new SinglePrecisionHeatKernel(kernel, getTolerance(props),
+					Props.getDouble(props, SINGLE_MAX_ERROR_PROP, DEFAULT_SINGLE_MAX_ERROR));
+		}
+		if (precision != null && !PRECISION_DOUBLE.equalsIgnoreCase(precision.trim())) {
+			logger.warn("Invalid value for " + PRECISION_PROP + ": " + precision + ", using " + PRECISION_DOUBLE);
+		}
+		return kernel;
+	}
+
+	private static HeatKernel createSolver(final Properties props) {
+		final String solver = props == null ? null : props.getProperty(SOLVER_PROP);
+		final double tolerance = getTolerance(props);
+		if (solver != null && SOLVER_TAYLOR.equalsIgnoreCase(solver.trim())) {
+			return new TaylorHeatKernel(tolerance);
+		}
+		if (solver != null && SOLVER_CHEBYSHEV.equalsIgnoreCase(solver.trim())) {
+			return new ChebyshevHeatKernel(tolerance);
+		}
+		if (solver != null && !SOLVER_KRYLOV.equalsIgnoreCase(solver.trim())) {
+			logger.warn("Invalid value for " + SOLVER_PROP + ": " + solver + ", using " + SOLVER_KRYLOV);
+		}
+		return new KrylovHeatKernel(tolerance,
+				Props.getInt(props, KRYLOV_DIMENSION_PROP, KrylovHeatKernel.DEFAULT_DIMENSION));
+	}
+
+	private static double getTolerance(final Properties props) {
+		final double tolerance = Props.getDouble(props, TOLERANCE_PROP, DEFAULT_TOLERANCE);
+		if (tolerance <= 0) {
+			logger.warn("Invalid value for " + TOLERANCE_PROP + ": " + tolerance + ", using " + DEFAULT_TOLERANCE);
+			return DEFAULT_TOLERANCE;
+		}
+		return tolerance;
+	}
+
+	/**
+	 * @return {@value #PRECISION_SINGLE} if diffusions run in single
+	 *         precision, {@value #PRECISION_DOUBLE} otherwise
+	 */
+	public String getPrecision() {
+		return kernel instanceof SinglePrecisionHeatKernel ? PRECISION_SINGLE : PRECISION_DOUBLE;
+	}
+
+	HeatKernel getKernel() {
+		return kernel;
+	}
+
+	IncrementalDiffusion getIncremental() {
+		return incremental;
+	}
+
+	/**
+	 * Stops computing spectral bases and drops them, stops the threads
+	 * running products with the Laplacian
+	 */
+	public void shutdown() {
+		if (bases != null) {
+			bases.shutdown();
+		}
+		if (pool != null) {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Diffuses the heats in {@code inputHeatColumn} of {@code network}
+	 * 
+	 * @param time diffusion time, {@code null} for {@link #DEFAULT_TIME}
+	 * @return output heat and rank of every node
+	 * @throws IllegalArgumentException if the column does not exist or is not numeric
+	 */
+	public DiffusionOutput diffuse(final CyNetwork network, final String inputHeatColumn, final Double time) {
+		return diffuse(network, inputHeatColumn, Collections.singletonList(time), () -> false).get(0);
+	}
+
+	/**
+	 * Diffuses the heats in {@code inputHeatColumn} of {@code network} to
+	 * several times at once. The network is read once and the solver steps
+	 * through all times together, which costs little more than diffusing to
+	 * the largest time alone.
+	 * 
+	 * @param times diffusion times, {@code null} entries for {@link #DEFAULT_TIME}
+	 * @param canceled checked while the diffusion runs
+	 * @return output heat and rank of every node for each of {@code times}
+	 * @throws IllegalArgumentException if the column does not exist or is not
+	 *                                  numeric, or a time is negative
+	 * @throws CancellationException if {@code canceled} turned true
+	 */
+	public List<DiffusionOutput> diffuse(final CyNetwork network, final String inputHeatColumn,
+			final List<Double> times, final BooleanSupplier canceled) {
+		final double[] t = new double[times.size()];
+		for (int i = 0; i < t.length; i++) {
+			t[i] = times.get(i) == null ? DEFAULT_TIME : times.get(i);
+			if (t[i] < 0 || Double.isNaN(t[i])) {
+				throw new IllegalArgumentException("Diffusion time must not be negative: " + times.get(i));
+			}
+		}
+		final NetworkSnapshot snapshot = snapshots == null ? NetworkSnapshot.create(network) : snapshots.get(network);
+		final SparseLaplacian laplacian = new SparseLaplacian(snapshot, pool, canceled);
+		final LocalHeatKernel.Seeds seeds = local == null ? null : new LocalHeatKernel.Seeds(localMaxSeeds);
+		final double[] input = getInputHeats(network, laplacian, inputHeatColumn, seeds);
+		final double[][] heats = new double[t.length][];
+		final DiffusionOutput[] outputs = new DiffusionOutput[t.length];
+		int unsolved = t.length;
+
+		// A few seeds are diffused over the region the heat reaches
+		if (seeds != null && seeds.isComplete()) {
+			for (int i = 0; i < t.length; i++) {
+				final LocalHeatKernel.Region region = local.apply(snapshot, seeds, t[i], canceled);
+				if (region != null) {
+					outputs[i] = toOutput(snapshot, region);
+					unsolved--;
+				}
+			}
+		}
+
+		// Inputs that changed in a few nodes since the last diffusion to a time
+		for (int i = 0; i < t.length; i++) {
+			if (outputs[i] == null) {
+				heats[i] = incremental.apply(network.getSUID(), laplacian, input, t[i], canceled);
+				if (heats[i] != null) {
+					unsolved--;
+				}
+			}
+		}
+
+		// Times the spectral basis is accurate enough for, the others are solved.
+		// Its error is an estimate, the heats left out of the basis are taken
+		// to decay at half the estimated rate, see SpectralBasis.
+		final SpectralBasis basis = bases == null ? null : bases.get(network.getSUID(), snapshot);
+		if (basis != null) {
+			final double allowed = tolerance * norm(input);
+			for (int i = 0; i < t.length; i++) {
+				if (outputs[i] != null || heats[i] != null) {
+					continue;
+				}
+				final double[] result = new double[input.length];
+				final double error = basis.apply(input, t[i], result);
+				if (error <= allowed) {
+					heats[i] = result;
+					incremental.record(network.getSUID(), laplacian, input, t[i], result);
+					unsolved--;
+				} else {
+					logger.debug("Spectral basis of network " + network.getSUID() + " too small for time " + t[i]
+							+ ", error estimate " + error + ", solving in full");
+				}
+			}
+		}
+		if (unsolved > 0) {
+			final double[] rest = new double[unsolved];
+			for (int i = 0, j = 0; i < t.length; i++) {
+				if (heats[i] == null && outputs[i] == null) {
+					rest[j++] = t[i];
+				}
+			}
+			final double[][] solved = kernel.apply(laplacian, input, rest);
+			for (int i = 0, j = 0; i < t.length; i++) {
+				if (heats[i] == null && outputs[i] == null) {
+					heats[i] = solved[j++];
+					incremental.record(network.getSUID(), laplacian, input, t[i], heats[i]);
+				}
+			}
+		}
+
+		for (int i = 0; i < t.length; i++) {
+			if (outputs[i] == null) {
+				outputs[i] = toOutput(laplacian, heats[i]);
+			}
+		}
+		return Arrays.asList(outputs);
+	}
+
+	/**
+	 * Diffuses the heats in each of {@code inputHeatColumns} of
+	 * {@code network} to the same time. Columns are diffused in blocks, see
+	 * {@link #BLOCK_WIDTH_PROP}, each product with the Laplacian reads the
+	 * network once for all columns of a block.
+	 * 
+	 * @param time diffusion time, {@code null} for {@link #DEFAULT_TIME}
+	 * @param canceled checked while the diffusion runs
+	 * @return output heat and rank of every node for each of {@code inputHeatColumns}
+	 * @throws IllegalArgumentException if a column does not exist or is not numeric
+	 * @throws CancellationException if {@code canceled} turned true
+	 */
+	public List<DiffusionOutput> diffuseColumns(final CyNetwork network, final List<String> inputHeatColumns,
+			final Double time, final BooleanSupplier canceled) {
+		final double t = time == null ? DEFAULT_TIME : time;
+		if (t < 0 || Double.isNaN(t)) {
+			throw new IllegalArgumentException("Diffusion time must not be negative: " + time);
+		}
+		final NetworkSnapshot snapshot = snapshots == null ? NetworkSnapshot.create(network) : snapshots.get(network);
+		final SparseLaplacian laplacian = new SparseLaplacian(snapshot, pool, canceled);
+		final int n = laplacian.size();
+		final List<DiffusionOutput> outputs = new ArrayList<>(inputHeatColumns.size());
+		for (int first = 0; first < inputHeatColumns.size(); first += blockWidth) {
+			final int width = Math.min(blockWidth, inputHeatColumns.size() - first);
+			final double[] block = new double[n * width];
+			for (int j = 0; j < width; j++) {
+				final double[] input = getInputHeats(network, laplacian, inputHeatColumns.get(first + j));
+				for (int i = 0; i < n; i++) {
+					block[i * width + j] = input[i];
+				}
+			}
+			final double[] diffused = kernel.applyBlock(laplacian, block, width, t);
+			for (int j = 0; j < width; j++) {
+				final double[] heats = new double[n];
+				for (int i = 0; i < n; i++) {
+					heats[i] = diffused[i * width + j];
+				}
+				outputs.add(toOutput(laplacian, heats));
+			}
+		}
+		return outputs;
+	}
+
+	/**
+	 * Diffuses the heats in {@code inputHeatColumn} of {@code network} for
+	 * callers that read only the {@code k} best ranks. The expansion stops
+	 * once their order is certified, see {@link TopKHeatKernel}, and only
+	 * their nodes are ranked. Their heats are within the bound that
+	 * certified the order, which may be above the tolerance.
+	 * 
+	 * @param time diffusion time, {@code null} for {@link #DEFAULT_TIME}
+	 * @param k number of ranks, above 0
+	 * @param canceled checked while the diffusion runs
+	 * @return output heat and rank of the {@code k} hottest nodes
+	 * @throws IllegalArgumentException if the column does not exist or is not
+	 *                                  numeric, the time is negative or
+	 *                                  {@code k} is not above 0
+	 * @throws CancellationException if {@code canceled} turned true
+	 */
+	public DiffusionOutput diffuseTop(final CyNetwork network, final String inputHeatColumn, final Double time,
+			final int k, final BooleanSupplier canceled) {
+		final double t = time == null ? DEFAULT_TIME : time;
+		if (t < 0 || Double.isNaN(t)) {
+			throw new IllegalArgumentException("Diffusion time must not be negative: " + time);
+		}
+		if (k <= 0) {
+			throw new IllegalArgumentException("Number of ranks must be above 0: " + k);
+		}
+		final NetworkSnapshot snapshot = snapshots == null ? NetworkSnapshot.create(network) : snapshots.get(network);
+		final SparseLaplacian laplacian = new SparseLaplacian(snapshot, pool, canceled);
+		final LocalHeatKernel.Seeds seeds = local == null ? null : new LocalHeatKernel.Seeds(localMaxSeeds);
+		final double[] input = getInputHeats(network, laplacian, inputHeatColumn, seeds);
+		if (seeds != null && seeds.isComplete()) {
+			final LocalHeatKernel.Region region = local.apply(snapshot, seeds, t, canceled);
+			if (region != null) {
+				return toOutput(snapshot, region).top(k);
+			}
+		}
+		final TopKHeatKernel.Top hottest = top.apply(laplacian, input, t, k);
+		logger.debug("Top " + hottest.size() + " of network " + network.getSUID() + " after "
+				+ hottest.getProducts() + " products, error bound " + hottest.getError());
+		return toOutput(laplacian, hottest);
+	}
+
+	/**
+	 * Propagates the heats in {@code inputHeatColumn} of {@code network} by
+	 * a random walk with restart instead of the heat kernel, see
+	 * {@link RandomWalkWithRestart}
+	 * 
+	 * @param restart restart probability, above 0 and at most 1
+	 * @param canceled checked while the walk runs
+	 * @return output heat and rank of every node
+	 * @throws IllegalArgumentException if the column does not exist or is not
+	 *                                  numeric, or the restart probability is
+	 *                                  out of range
+	 * @throws CancellationException if {@code canceled} turned true
+	 */
+	public DiffusionOutput diffuseWithRestart(final CyNetwork network, final String inputHeatColumn,
+			final double restart, final BooleanSupplier canceled) {
+		if (!(restart > 0 && restart <= 1)) {
+			throw new IllegalArgumentException("Restart probability must be above 0 and at most 1: " + restart);
+		}
+		final NetworkSnapshot snapshot = snapshots == null ? NetworkSnapshot.create(network) : snapshots.get(network);
+		final SparseLaplacian laplacian = new SparseLaplacian(snapshot, pool, canceled);
+		final double[] input = getInputHeats(network, laplacian, inputHeatColumn);
+		return toOutput(laplacian, walk.apply(laplacian, input, restart));
+	}
+
+	private static double norm(final double[] a) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * a[i];
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * @return input heat of each row of {@code laplacian}, missing values are 0
+	 */
+	static double[] getInputHeats(final CyNetwork network, final SparseLaplacian laplacian,
+			final String inputHeatColumn) {
+		return getInputHeats(network, laplacian, inputHeatColumn, null);
+	}
+
+	/**
+	 * @param seeds collects the nodes with non-zero input heat as they are
+	 *              read, can be {@code null}
+	 * @return input heat of each row of {@code laplacian}, missing values are 0
+	 */
+	static double[] getInputHeats(final CyNetwork network, final SparseLaplacian laplacian,
+			final String inputHeatColumn, final LocalHeatKernel.Seeds seeds) {
+		final CyTable table = network.getDefaultNodeTable();
+		final CyColumn column = table.getColumn(inputHeatColumn);
+		if (column == null || !Number.class.isAssignableFrom(column.getType())) {
+			throw new IllegalArgumentException("No numeric input heat column: " + inputHeatColumn);
+		}
+		final Class<?> type = column.getType();
+		final double[] heats = new double[laplacian.size()];
+		for (int i = 0; i < heats.length; i++) {
+			final Number value = (Number) table.getRow(laplacian.getSUID(i)).get(inputHeatColumn, type);
+			heats[i] = value == null ? 0.0 : value.doubleValue();
+			if (seeds != null) {
+				seeds.add(i, heats[i]);
+			}
+		}
+		return heats;
+	}
+
+	/**
+	 * @return heat and rank of the nodes of {@code region} only, the others
+	 *         are left out of the output
+	 */
+	static DiffusionOutput toOutput(final NetworkSnapshot snapshot, final LocalHeatKernel.Region region) {
+		final int size = region.size();
+		final long[] suids = new long[size];
+		final double[] heats = new double[size];
+		for (int r = 0; r < size; r++) {
+			suids[r] = snapshot.getSUID(region.getNode(r));
+			heats[r] = region.getHeat(r);
+		}
+		return new DiffusionOutput(suids, heats, HeatRanking.rank(heats), size);
+	}
+
+	/**
+	 * @return heat and rank of the nodes of {@code hottest} only
+	 */
+	static DiffusionOutput toOutput(final SparseLaplacian laplacian, final TopKHeatKernel.Top hottest) {
+		final int size = hottest.size();
+		final long[] suids = new long[size];
+		final double[] heats = new double[size];
+		final int[] ranks = new int[size];
+		for (int r = 0; r < size; r++) {
+			suids[r] = laplacian.getSUID(hottest.getNode(r));
+			heats[r] = hottest.getHeat(r);
+			ranks[r] = r + 1;
+		}
+		return new DiffusionOutput(suids, heats, ranks, size);
+	}
+
+	static DiffusionOutput toOutput(final SparseLaplacian laplacian, final double[] heats) {
+		final long[] suids = new long[heats.length];
+		for (int i = 0; i < suids.length; i++) {
+			suids[i] = laplacian.getSUID(i);
+		}
+		return new DiffusionOutput(suids, heats, HeatRanking.rank(heats), heats.length);
+	}
+}
@@ -0,0 +1,341 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Arrays;
+import java.util.function.BooleanSupplier;
+
+import org.cytoscape.diffusion.internal.util.SuidIndexMap;
+
+/**
+ * Heat diffusion of a few seeds that only looks at the region the heat
+ * reaches. Heat is diffused on a region R with the full degree of each
+ * node, so heat flowing to a node outside of R is lost instead of coming
+ * back. For non-negative input heat the result is below the exact one on
+ * R and the heat lost is exactly the 1-norm of the error, including the
+ * nodes outside of R. While more than epsilon of the input heat is lost, R
+ * grows by the neighbors that took the most of it and then breadth first
+ * until its size at least doubled, so a diffusion takes a logarithmic
+ * number of rounds and all rounds together cost about twice the last one.
+ * The rows of R are kept from round to round, each node's neighbors are
+ * looked up once. The work depends on the neighborhood of the seeds and
+ * not on the size of the network. Heat spreads over about t times the
+ * degree of a node hops, networks with a small t d stay local.
+ */
+public class LocalHeatKernel {
+
+	/**
+	 * Largest region as a fraction of the network, beyond it the global
+	 * solve is about as fast
+	 */
+	static final double MAX_REGION_FRACTION = 0.125;
+
+	private final HeatKernel kernel;
+	private final double epsilon;
+
+	/**
+	 * @param kernel solver used on the region
+	 * @param epsilon heat allowed to be lost relative to the 1-norm of the
+	 *                input heat
+	 */
+	public LocalHeatKernel(final HeatKernel kernel, final double epsilon) {
+		if (epsilon <= 0) {
+			throw new IllegalArgumentException("Epsilon must be positive: " + epsilon);
+		}
+		this.kernel = kernel;
+		this.epsilon = epsilon;
+	}
+
+	/**
+	 * @param heats input heat of each node of {@code snapshot}
+	 * @param canceled checked before each product on the region
+	 * @return heats of the region or {@code null}, see
+	 *         {@link #apply(NetworkSnapshot, Seeds, double, BooleanSupplier)}
+	 */
+	public Region apply(final NetworkSnapshot snapshot, final double[] heats, final double time,
+			final BooleanSupplier canceled) {
+		final Seeds seeds = new Seeds(Integer.MAX_VALUE);
+		for (int i = 0; i < heats.length; i++) {
+			seeds.add(i, heats[i]);
+		}
+		return apply(snapshot, seeds, time, canceled);
+	}
+
+	/**
+	 * @param seeds nodes with non-zero input heat
+	 * @param canceled checked before each product on the region
+	 * @return heats of the region or {@code null} if the input has negative
+	 *         heats, more seeds than were kept, or the region grew past
+	 *         {@value #MAX_REGION_FRACTION} of the network
+	 */
+	public Region apply(final NetworkSnapshot snapshot, final Seeds seeds, final double time,
+			final BooleanSupplier canceled) {
+		final int maxNodes = (int) Math.max(1, snapshot.getNodeCount() * MAX_REGION_FRACTION);
+		if (!seeds.isComplete() || seeds.size > maxNodes) {
+			return null;
+		}
+		final Region region = new Region(snapshot);
+		double norm = 0;
+		for (int s = 0; s < seeds.size; s++) {
+			norm += seeds.heats[s];
+			region.add(seeds.nodes[s], seeds.heats[s]);
+		}
+		if (region.size == 0) {
+			return region;
+		}
+		final double allowed = epsilon * norm;
+		while (true) {
+			region.solve(kernel, time, canceled);
+			region.rounds++;
+			double mass = 0;
+			for (int r = 0; r < region.size; r++) {
+				mass += region.heats[r];
+			}
+			region.lost = Math.max(0, norm - mass);
+			if (region.lost <= allowed) {
+				return region;
+			}
+			if (region.size >= maxNodes) {
+				return null;
+			}
+			if (!region.grow(allowed / 2, maxNodes)) {
+				// the region holds its whole component, the rest is rounding
+				return region;
+			}
+		}
+	}
+
+	/**
+	 * Nodes with non-zero input heat, collected while the input is read so
+	 * the input is not scanned again. Up to a maximum number of seeds are
+	 * kept, the input has to be diffused over the whole network if there
+	 * are more.
+	 */
+	public static class Seeds {
+
+		private final int max;
+		private int[] nodes = new int[16];
+		private double[] heats = new double[16];
+		private int size = 0;
+		private boolean complete = true;
+
+		/**
+		 * @param max most seeds kept
+		 */
+		public Seeds(final int max) {
+			this.max = max;
+		}
+
+		/**
+		 * Keeps node {@code node} of the snapshot if {@code heat} is not 0
+		 */
+		public void add(final int node, final double heat) {
+			if (heat == 0) {
+				return;
+			}
+			if (heat < 0 || size == max) {
+				complete = false;
+				return;
+			}
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * size);
+				heats = Arrays.copyOf(heats, 2 * size);
+			}
+			nodes[size] = node;
+			heats[size++] = heat;
+		}
+
+		/**
+		 * @return {@code false} if a heat was negative or there were more
+		 *         seeds than kept
+		 */
+		public boolean isComplete() {
+			return complete;
+		}
+
+		public int size() {
+			return size;
+		}
+	}
+
+	/**
+	 * Nodes the heat reached and their heats
+	 */
+	public static class Region {
+
+		private final NetworkSnapshot snapshot;
+		private final SuidIndexMap local;
+		private int[] nodes = new int[16];
+		private double[] input = new double[16];
+		private double[] heats = new double[0];
+		private int size = 0;
+		private double lost = 0;
+		private int rounds = 0;
+
+		// neighbors in the region of each node of the region, in increasing order
+		private int[][] rows = new int[16][];
+		private int[] lengths = new int[16];
+		private int entries = 0;
+
+		Region(final NetworkSnapshot snapshot) {
+			this.snapshot = snapshot;
+			this.local = new SuidIndexMap();
+		}
+
+		/**
+		 * Adds {@code node} and links it to its neighbors in the region.
+		 * Nodes are added in increasing order of their index in the region,
+		 * so appending keeps the rows of the neighbors sorted.
+		 */
+		private void add(final int node, final double heat) {
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * size);
+				input = Arrays.copyOf(input, 2 * size);
+				rows = Arrays.copyOf(rows, 2 * size);
+				lengths = Arrays.copyOf(lengths, 2 * size);
+			}
+			final int r = size++;
+			local.put(node, r);
+			nodes[r] = node;
+			input[r] = heat;
+			rows[r] = new int[4];
+			final int degree = (int) snapshot.getDegree(node);
+			for (int k = 0; k < degree; k++) {
+				final int neighbor = local.get(snapshot.getNeighbor(node, k));
+				if (neighbor != SuidIndexMap.NOT_FOUND && neighbor != r) {
+					append(r, neighbor);
+					append(neighbor, r);
+				}
+			}
+			Arrays.sort(rows[r], 0, lengths[r]);
+		}
+
+		private void append(final int r, final int neighbor) {
+			if (lengths[r] == rows[r].length) {
+				rows[r] = Arrays.copyOf(rows[r], 2 * lengths[r]);
+			}
+			rows[r][lengths[r]++] = neighbor;
+			entries++;
+		}
+
+		/**
+		 * Diffuses the input on the region, the heat leaving it is lost
+		 */
+		private void solve(final HeatKernel kernel, final double time, final BooleanSupplier canceled) {
+			final long[] suids = new long[size];
+			final SuidIndexMap index = new SuidIndexMap(size);
+			final int[] rowPointers = new int[size + 1];
+			final double[] degrees = new double[size];
+			final int[] columns = new int[entries];
+			for (int r = 0; r < size; r++) {
+				suids[r] = snapshot.getSUID(nodes[r]);
+				index.put(suids[r], r);
+				degrees[r] = snapshot.getDegree(nodes[r]);
+				System.arraycopy(rows[r], 0, columns, rowPointers[r], lengths[r]);
+				rowPointers[r + 1] = rowPointers[r] + lengths[r];
+			}
+			final NetworkSnapshot inner = new NetworkSnapshot(suids, index, rowPointers, columns, null, degrees, 0);
+			heats = kernel.apply(new SparseLaplacian(inner, null, canceled), Arrays.copyOf(input, size), time);
+		}
+
+		/**
+		 * Adds the neighbors outside of the region that took the most heat,
+		 * split in proportion to the heat of their neighbors in the region,
+		 * until those left out took at most {@code allowed}. Then adds nodes
+		 * breadth first from those added until the region at least doubled
+		 * or holds {@code maxNodes}.
+		 *
+		 * @return {@code false} if no node was added
+		 */
+		private boolean grow(final double allowed, final int maxNodes) {
+			final int before = size;
+			final int target = Math.min(maxNodes, 2 * before);
+			final SuidIndexMap boundary = new SuidIndexMap();
+			int[] candidates = new int[16];
+			double[] scores = new double[16];
+			int count = 0;
+			double total = 0;
+			for (int r = 0; r < before; r++) {
+				final double heat = Math.max(0, heats[r]);
+				final int node = nodes[r];
+				final int degree = (int) snapshot.getDegree(node);
+				for (int k = 0; k < degree; k++) {
+					final int neighbor = snapshot.getNeighbor(node, k);
+					if (local.get(neighbor) != SuidIndexMap.NOT_FOUND) {
+						continue;
+					}
+					int slot = boundary.get(neighbor);
+					if (slot == SuidIndexMap.NOT_FOUND) {
+						if (count == candidates.length) {
+							candidates = Arrays.copyOf(candidates, 2 * count);
+							scores = Arrays.copyOf(scores, 2 * count);
+						}
+						slot = count++;
+						boundary.put(neighbor, slot);
+						candidates[slot] = neighbor;
+					}
+					scores[slot] += heat;
+					total += heat;
+				}
+			}
+			if (count == 0) {
+				return false;
+			}
+			final double[] score = scores;
+			final Integer[] order = new Integer[count];
+			for (int b = 0; b < count; b++) {
+				order[b] = b;
+			}
+			Arrays.sort(order, (a, b) -> Double.compare(score[b], score[a]));
+
+			// Heat lost through a node, estimated from the heat next to it
+			final double lostPerScore = total > 0 ? (lost / total) : 0;
+			double left = lost;
+			for (int b = 0; b < count && (size < target || left > allowed) && size < maxNodes; b++) {
+				add(candidates[order[b]], 0.0);
+				left -= score[order[b]] * lostPerScore;
+			}
+
+			// The rest of the doubling, breadth first from the nodes just added
+			for (int r = before; r < size && size < target; r++) {
+				final int node = nodes[r];
+				final int degree = (int) snapshot.getDegree(node);
+				for (int k = 0; k < degree && size < target; k++) {
+					final int neighbor = snapshot.getNeighbor(node, k);
+					if (local.get(neighbor) == SuidIndexMap.NOT_FOUND) {
+						add(neighbor, 0.0);
+					}
+				}
+			}
+			return true;
+		}
+
+		public int size() {
+			return size;
+		}
+
+		/**
+		 * @return index in the snapshot of node {@code r} of the region
+		 */
+		public int getNode(final int r) {
+			return nodes[r];
+		}
+
+		public double getHeat(final int r) {
+			return heats[r];
+		}
+
+		/**
+		 * @return heat lost to nodes outside of the region, the 1-norm of the
+		 *         error
+		 */
+		public double getLost() {
+			return lost;
+		}
+
+		/**
+		 * @return number of solves on the region as it grew
+		 */
+		int getRounds() {
+			return rounds;
+		}
+	}
+}
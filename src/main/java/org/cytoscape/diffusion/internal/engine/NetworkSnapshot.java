@@ -0,0 +1,374 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import org.cytoscape.diffusion.internal.client.DiffusionCacheKey;
+import org.cytoscape.diffusion.internal.util.SuidIndexMap;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+
+/**
+ * Immutable adjacency of a network in compressed sparse row form. Nodes get
+ * dense indices, the neighbors of node {@code i} are entries
+ * {@code getRowPointers()[i] .. getRowPointers()[i + 1] - 1} of the
+ * columns. Edges are undirected and unweighted like in the diffusion
+ * service: each edge is listed in the rows of both of its nodes, parallel
+ * edges count once and self loops are ignored. The columns of large
+ * networks are kept off the heap, see {@link ColumnStorage}. A snapshot
+ * edited by a {@link SnapshotEditor} shares the rows of the one it was
+ * edited from, the rows it changed are patched: they are listed in rows
+ * of their own, their slot is given by {@link #getSlots()}.
+ */
+public class NetworkSnapshot {
+
+	private final long[] suids;
+	private final SuidIndexMap index;
+	private final int[] rowPointers;
+	private final int[] columns;
+	private final IntBuffer columnBuffer;
+	private final double[] degrees;
+	private final int entries;
+	private final int[] slots;
+	private final int[] patchPointers;
+	private final int[] patchColumns;
+	private final long topologyHash;
+
+	/**
+	 * @param columns on the heap, or {@code null} if they are in
+	 *                {@code columnBuffer}
+	 */
+	NetworkSnapshot(final long[] suids, final SuidIndexMap index, final int[] rowPointers, final int[] columns,
+			final IntBuffer columnBuffer, final double[] degrees, final long topologyHash) {
+		this.suids = suids;
+		this.index = index;
+		this.rowPointers = rowPointers;
+		this.columns = columns;
+		this.columnBuffer = columnBuffer;
+		this.degrees = degrees;
+		this.entries = rowPointers[suids.length];
+		this.slots = null;
+		this.patchPointers = null;
+		this.patchColumns = null;
+		this.topologyHash = topologyHash;
+	}
+
+	/**
+	 * Snapshot sharing the rows of {@code base} that are not patched, nodes
+	 * from the node count of {@code base} on are all patched
+	 *
+	 * @param slots slot of the patched row of each node or -1, slots of
+	 *              patched nodes increase with the node
+	 * @param patchPointers first entry of each slot and the number of
+	 *                      patched entries
+	 */
+	NetworkSnapshot(final NetworkSnapshot base, final long[] suids, final SuidIndexMap index, final double[] degrees,
+			final int entries, final int[] slots, final int[] patchPointers, final int[] patchColumns,
+			final long topologyHash) {
+		this.suids = suids;
+		this.index = index;
+		this.rowPointers = base.rowPointers;
+		this.columns = base.columns;
+		this.columnBuffer = base.columnBuffer;
+		this.degrees = degrees;
+		this.entries = entries;
+		this.slots = slots;
+		this.patchPointers = patchPointers;
+		this.patchColumns = patchColumns;
+		this.topologyHash = topologyHash;
+	}
+
+	/**
+	 * Walks nodes and edges of {@code network}, keeping all columns on the
+	 * heap. Node {@code i} is the {@code i}th node of
+	 * {@link CyNetwork#getNodeList()}.
+	 */
+	public static NetworkSnapshot create(final CyNetwork network) {
+		return create(network, ColumnStorage.HEAP);
+	}
+
+	/**
+	 * Walks the edges of {@code network} twice, once to count the neighbors
+	 * of each node and once to store them in {@code storage}, so no
+	 * temporary array as large as the network is needed
+	 */
+	public static NetworkSnapshot create(final CyNetwork network, final ColumnStorage storage) {
+		final List<CyNode> nodes = network.getNodeList();
+		final int n = nodes.size();
+		final long[] suids = new long[n];
+		final SuidIndexMap index = new SuidIndexMap(n);
+		for (int i = 0; i < n; i++) {
+			suids[i] = nodes.get(i).getSUID();
+			index.put(suids[i], i);
+		}
+
+		final List<CyEdge> edges = network.getEdgeList();
+		final Builder builder = new Builder(suids, index);
+		for (CyEdge edge : edges) {
+			final int source = index.get(edge.getSource().getSUID());
+			final int target = index.get(edge.getTarget().getSUID());
+			if (source != SuidIndexMap.NOT_FOUND && target != SuidIndexMap.NOT_FOUND && source != target) {
+				builder.count(source);
+				builder.count(target);
+			}
+		}
+		builder.allocate(storage);
+		for (CyEdge edge : edges) {
+			final int source = index.get(edge.getSource().getSUID());
+			final int target = index.get(edge.getTarget().getSUID());
+			if (source != SuidIndexMap.NOT_FOUND && target != SuidIndexMap.NOT_FOUND && source != target) {
+				builder.add(source, target);
+				builder.add(target, source);
+			}
+		}
+		return builder.build();
+	}
+
+	/**
+	 * Builds the snapshot from {@code count} directed entries
+	 * {@code sources[k] -> targets[k]}, duplicates and self loops are dropped
+	 */
+	static NetworkSnapshot create(final long[] suids, final int[] sources, final int[] targets, final int count) {
+		return create(suids, sources, targets, count, ColumnStorage.HEAP);
+	}
+
+	static NetworkSnapshot create(final long[] suids, final int[] sources, final int[] targets, final int count,
+			final ColumnStorage storage) {
+		final SuidIndexMap index = new SuidIndexMap(suids.length);
+		for (int i = 0; i < suids.length; i++) {
+			index.put(suids[i], i);
+		}
+		final Builder builder = new Builder(suids, index);
+		for (int k = 0; k < count; k++) {
+			builder.count(sources[k]);
+		}
+		builder.allocate(storage);
+		for (int k = 0; k < count; k++) {
+			builder.add(sources[k], targets[k]);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return number of nodes
+	 */
+	public int getNodeCount() {
+		return suids.length;
+	}
+
+	/**
+	 * @return number of entries, twice the number of distinct edges
+	 */
+	public int getEntryCount() {
+		return entries;
+	}
+
+	/**
+	 * @return hash of the nodes and distinct edges, see
+	 *         {@link DiffusionCacheKey.Topology}. Kept up to date by a
+	 *         {@link SnapshotEditor}, reading it does not walk the rows.
+	 */
+	public long getTopologyHash() {
+		return topologyHash;
+	}
+
+	public long getSUID(final int i) {
+		return suids[i];
+	}
+
+	/**
+	 * Shared, must not be modified
+	 */
+	long[] getSuids() {
+		return suids;
+	}
+
+	/**
+	 * Shared, must not be modified
+	 */
+	SuidIndexMap getIndexMap() {
+		return index;
+	}
+
+	/**
+	 * @return index of the node with {@code suid} or
+	 *         {@link SuidIndexMap#NOT_FOUND}
+	 */
+	public int getIndex(final long suid) {
+		return index.get(suid);
+	}
+
+	/**
+	 * @return number of distinct neighbors of node {@code i}
+	 */
+	public double getDegree(final int i) {
+		return degrees[i];
+	}
+
+	/**
+	 * @return neighbor {@code k} of node {@code i}, {@code k} below its
+	 *         degree, neighbors are sorted
+	 */
+	public int getNeighbor(final int i, final int k) {
+		if (slots != null && slots[i] >= 0) {
+			return patchColumns[patchPointers[slots[i]] + k];
+		}
+		return getColumn(rowPointers[i] + k);
+	}
+
+	/**
+	 * Shared, must not be modified. Rows of patched nodes are not valid.
+	 */
+	int[] getRowPointers() {
+		return rowPointers;
+	}
+
+	/**
+	 * @return {@code true} if the columns are kept off the heap
+	 */
+	public boolean isOffHeap() {
+		return columns == null;
+	}
+
+	/**
+	 * Shared, must not be modified
+	 *
+	 * @return columns or {@code null} if they are kept off the heap
+	 */
+	int[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Shared, must not be modified. Its position and limit are not used,
+	 * readers index it absolutely or read from a duplicate.
+	 *
+	 * @return columns kept off the heap or {@code null}
+	 */
+	IntBuffer getColumnBuffer() {
+		return columnBuffer;
+	}
+
+	/**
+	 * @return column of entry {@code k}, from either storage
+	 */
+	int getColumn(final int k) {
+		return columns != null ? columns[k] : columnBuffer.get(k);
+	}
+
+	/**
+	 * Shared, must not be modified
+	 */
+	double[] getDegrees() {
+		return degrees;
+	}
+
+	/**
+	 * Shared, must not be modified
+	 *
+	 * @return slot of the patched row of each node or -1, {@code null} if
+	 *         no row is patched
+	 */
+	int[] getSlots() {
+		return slots;
+	}
+
+	/**
+	 * Shared, must not be modified
+	 *
+	 * @return first entry of each slot in {@link #getPatchColumns()} and the
+	 *         number of patched entries, {@code null} if no row is patched
+	 */
+	int[] getPatchPointers() {
+		return patchPointers;
+	}
+
+	/**
+	 * Shared, must not be modified
+	 */
+	int[] getPatchColumns() {
+		return patchColumns;
+	}
+
+	/**
+	 * Fills the rows in two passes, {@link #count(int)} for every entry
+	 * first, then {@link #add(int, int)} for the same entries
+	 */
+	static class Builder {
+
+		private final long[] suids;
+		private final SuidIndexMap index;
+		private final int[] rowPointers;
+		private int[] next;
+		private IntBuffer buffer;
+
+		Builder(final long[] suids, final SuidIndexMap index) {
+			this.suids = suids;
+			this.index = index;
+			this.rowPointers = new int[suids.length + 1];
+		}
+
+		void count(final int source) {
+			rowPointers[source + 1]++;
+		}
+
+		void allocate(final ColumnStorage storage) {
+			final int n = suids.length;
+			for (int i = 0; i < n; i++) {
+				rowPointers[i + 1] += rowPointers[i];
+			}
+			next = Arrays.copyOf(rowPointers, n);
+			buffer = storage.allocate(rowPointers[n]);
+		}
+
+		void add(final int source, final int target) {
+			buffer.put(next[source]++, target);
+		}
+
+		/**
+		 * Sorts each row and drops parallel edges and self loops in place,
+		 * hashing the nodes and edges that are left
+		 */
+		NetworkSnapshot build() {
+			final int n = suids.length;
+			final double[] degrees = new double[n];
+			long topologyHash = 0;
+			int[] row = new int[16];
+			int write = 0;
+			int start = 0;
+			for (int i = 0; i < n; i++) {
+				final int end = rowPointers[i + 1];
+				final int length = end - start;
+				if (length > row.length) {
+					row = new int[Math.max(length, 2 * row.length)];
+				}
+				for (int k = 0; k < length; k++) {
+					row[k] = buffer.get(start + k);
+				}
+				Arrays.sort(row, 0, length);
+				rowPointers[i] = write;
+				topologyHash += DiffusionCacheKey.nodeHash(suids[i]);
+				for (int k = 0; k < length; k++) {
+					if (row[k] != i && (k == 0 || row[k] != row[k - 1])) {
+						buffer.put(write++, row[k]);
+						if (row[k] > i) {
+							topologyHash += DiffusionCacheKey.edgeHash(suids[i], suids[row[k]]);
+						}
+					}
+				}
+				degrees[i] = write - rowPointers[i];
+				start = end;
+			}
+			rowPointers[n] = write;
+			if (buffer.hasArray()) {
+				final int[] columns = buffer.array();
+				return new NetworkSnapshot(suids, index, rowPointers,
+						write == columns.length ? columns : Arrays.copyOf(columns, write), null, degrees, topologyHash);
+			}
+			buffer.limit(write);
+			return new NetworkSnapshot(suids, index, rowPointers, null, buffer.slice(), degrees, topologyHash);
+		}
+	}
+}
@@ -0,0 +1,99 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Random walk with restart, also known as personalized PageRank. A walker
+ * starts at a node drawn from the input heat h, at every step it restarts
+ * with probability r and otherwise moves to a uniformly chosen neighbor.
+ * The output heat is the stationary distribution
+ * p = r h + (1 - r) A D^-1 p, scaled like h. A walker on a node without
+ * neighbors stays where it is, so no heat is lost. Power iteration converges
+ * like (1 - r)^k, A D^-1 p is computed as D x - L x with x = D^-1 p so it
+ * shares the parallel products of the Laplacian.
+ */
+public class RandomWalkWithRestart {
+
+	public static final double DEFAULT_RESTART = 0.15;
+
+	static final int MAX_ITERATIONS = 10000;
+
+	private final static Logger logger = LoggerFactory.getLogger(RandomWalkWithRestart.class);
+
+	private final double tolerance;
+
+	public RandomWalkWithRestart() {
+		this(1e-8);
+	}
+
+	/**
+	 * @param tolerance error allowed in the output heat relative to the
+	 *                  1-norm of the input heat
+	 */
+	public RandomWalkWithRestart(final double tolerance) {
+		if (tolerance <= 0) {
+			throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+		}
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * Iterates until the distance to the stationary distribution, at most
+	 * (1 - r) / r times the last change, is below the tolerance
+	 *
+	 * @param heats input heat h of each row of {@code laplacian}
+	 * @param restart restart probability r, above 0 and at most 1
+	 * @return output heat of each row
+	 */
+	public double[] apply(final SparseLaplacian laplacian, final double[] heats, final double restart) {
+		if (!(restart > 0 && restart <= 1)) {
+			throw new IllegalArgumentException("Restart probability must be above 0 and at most 1: " + restart);
+		}
+		final int n = laplacian.size();
+		double norm = 0;
+		for (int i = 0; i < n; i++) {
+			norm += Math.abs(heats[i]);
+		}
+		final double allowed = tolerance * norm * restart / (1 - restart);
+		double[] p = heats.clone();
+		double[] next = new double[n];
+		final double[] x = new double[n];
+		for (int k = 0; k < getIterations(restart); k++) {
+			for (int i = 0; i < n; i++) {
+				final double degree = laplacian.getDegree(i);
+				x[i] = degree == 0 ? 0 : p[i] / degree;
+			}
+			laplacian.multiply(x, next);
+			double change = 0;
+			for (int i = 0; i < n; i++) {
+				final double degree = laplacian.getDegree(i);
+				// A x = D x - L x, a node without neighbors keeps its heat
+				final double walked = degree == 0 ? p[i] : degree * x[i] - next[i];
+				next[i] = restart * heats[i] + (1 - restart) * walked;
+				change += Math.abs(next[i] - p[i]);
+			}
+			final double[] swap = p;
+			p = next;
+			next = swap;
+			if (change <= allowed) {
+				return p;
+			}
+		}
+		logger.warn("Random walk with restart " + restart + " did not converge in " + getIterations(restart)
+				+ " iterations");
+		return p;
+	}
+
+	/**
+	 * @return most iterations for {@code restart}, enough for the tolerance
+	 *         to be reached from any input
+	 */
+	int getIterations(final double restart) {
+		if (restart >= 1) {
+			return 1;
+		}
+		final double needed = Math.log(tolerance * restart / 2) / Math.log(1 - restart);
+		return (int) Math.min(MAX_ITERATIONS, Math.ceil(needed) + 1);
+	}
+}
@@ -0,0 +1,264 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Heat kernel action in single precision. Products with the Laplacian are
+ * bound by memory bandwidth, float vectors halve the bytes they move and
+ * the rankings derived from the heats hardly ever change. The Chebyshev
+ * recurrence is used whatever the configured solver, it needs no inner
+ * products and does not lose orthogonality like Krylov bases do in single
+ * precision.
+ * <p>
+ * Each diffusion bounds its own rounding error: one product in double
+ * precision measures how far the last float term is off the recurrence,
+ * and with the norm of the Chebyshev polynomials of the second kind as the
+ * growth of such an error the bound costs about one of the products of the
+ * diffusion. A diffusion whose bound is above {@code maxError} is solved
+ * again in double precision, so are the diffusions of at least its degree
+ * on the same snapshot of the network, a new snapshot tries single
+ * precision again.
+ * <p>
+ * {@link #applyBlock} always runs in double precision, the block product
+ * already reads the network once for all of its vectors.
+ */
+public class SinglePrecisionHeatKernel implements HeatKernel {
+
+	/**
+	 * Error of single precision arithmetic, no point truncating the
+	 * expansion far below it
+	 */
+	static final double FLOAT_TOLERANCE = 1e-6;
+
+	/**
+	 * Unit roundoff of float
+	 */
+	private static final double FLOAT_EPSILON = Math.ulp(1.0f) / 2;
+
+	private final static Logger logger = LoggerFactory.getLogger(SinglePrecisionHeatKernel.class);
+
+	private final HeatKernel reference;
+	private final double tolerance;
+	private final double maxError;
+	private volatile Fallback fallback = null;
+	private volatile double lastError = Double.NaN;
+
+	/**
+	 * @param reference double precision solver of fallbacks and blocks
+	 * @param tolerance error allowed in the output heat relative to the norm
+	 *                  of the input heat, not below {@value #FLOAT_TOLERANCE}
+	 * @param maxError largest error bound relative to the norm of the input
+	 *                 heat before falling back
+	 */
+	public SinglePrecisionHeatKernel(final HeatKernel reference, final double tolerance, final double maxError) {
+		this.reference = reference;
+		this.tolerance = Math.max(tolerance, FLOAT_TOLERANCE);
+		this.maxError = maxError;
+	}
+
+	@Override
+	public double[] apply(final SparseLaplacian laplacian, final double[] heats, final double time) {
+		return apply(laplacian, heats, new double[] { time })[0];
+	}
+
+	@Override
+	public double[][] apply(final SparseLaplacian laplacian, final double[] heats, final double[] times) {
+		final double bound = laplacian.getNormBound();
+		final double[][] coefficients = new double[times.length][];
+		int degree = 0;
+		for (int t = 0; t < times.length; t++) {
+			coefficients[t] = times[t] <= 0 || bound == 0 ? new double[] { 1.0 }
+					: ChebyshevHeatKernel.getCoefficients(times[t] * bound / 2, tolerance);
+			degree = Math.max(degree, coefficients[t].length - 1);
+		}
+		final Fallback current = fallback;
+		if (current != null && current.snapshot == laplacian.getSnapshot() && degree >= current.degree) {
+			return reference.apply(laplacian, heats, times);
+		}
+
+		final double[] defect = new double[1];
+		final float[][] results = applyFloat(laplacian, heats, coefficients, degree, defect);
+		final double norm = norm(heats);
+		double error = 0;
+		for (int t = 0; t < times.length; t++) {
+			// an error d injected at step j adds U_(k-j)(S) d to term k,
+			// the norm of U_m is at most m + 1
+			double growth = 0;
+			double sum = 0;
+			for (int k = 0; k < coefficients[t].length; k++) {
+				growth += Math.abs(coefficients[t][k]) * k * (k + 1) / 2.0;
+				sum += Math.abs(coefficients[t][k]);
+			}
+			error = Math.max(error, defect[0] * growth + FLOAT_EPSILON * norm * (2 + degree) * sum);
+		}
+		lastError = norm == 0 ? 0 : error / norm;
+		if (lastError > maxError) {
+			fallback = new Fallback(laplacian.getSnapshot(), degree);
+			logger.warn("Single precision diffusion error bound " + lastError + " above " + maxError
+					+ ", using double precision on this network up to degree " + degree);
+			return reference.apply(laplacian, heats, times);
+		}
+		logger.debug("Single precision diffusion error bound " + lastError);
+		final double[][] output = new double[times.length][];
+		for (int t = 0; t < times.length; t++) {
+			output[t] = toDouble(results[t]);
+		}
+		return output;
+	}
+
+	/**
+	 * Always diffuses in double precision with the reference solver
+	 */
+	@Override
+	public double[] applyBlock(final SparseLaplacian laplacian, final double[] block, final int width,
+			final double time) {
+		return reference.applyBlock(laplacian, block, width, time);
+	}
+
+	/**
+	 * The recurrence of {@link ChebyshevHeatKernel} on float vectors, the
+	 * coefficients are computed in double precision
+	 *
+	 * @param defect set to a bound of the error a step of the recurrence
+	 *               makes, from the last step recomputed in double precision
+	 */
+	private float[][] applyFloat(final SparseLaplacian laplacian, final double[] heats,
+			final double[][] coefficients, final int degree, final double[] defect) {
+		final int n = laplacian.size();
+		final float[][] c = new float[coefficients.length][];
+		final float[][] results = new float[coefficients.length][];
+		final float[] input = new float[n];
+		for (int i = 0; i < n; i++) {
+			input[i] = (float) heats[i];
+		}
+		for (int t = 0; t < coefficients.length; t++) {
+			c[t] = new float[coefficients[t].length];
+			for (int k = 0; k < c[t].length; k++) {
+				c[t][k] = (float) coefficients[t][k];
+			}
+			results[t] = new float[n];
+			for (int i = 0; i < n; i++) {
+				results[t][i] = c[t][0] * input[i];
+			}
+		}
+		if (degree == 0) {
+			return results;
+		}
+
+		// S x = (2 / b) L x - x
+		final float scale = (float) (2.0 / laplacian.getNormBound());
+		float[] previous = input;
+		float[] current = new float[n];
+		float[] next = new float[n];
+		laplacian.multiply(previous, current);
+		for (int i = 0; i < n; i++) {
+			current[i] = scale * current[i] - previous[i];
+		}
+		accumulate(c, 1, current, results);
+		for (int k = 2; k <= degree; k++) {
+			laplacian.multiply(current, next);
+			for (int i = 0; i < n; i++) {
+				next[i] = 2 * (scale * next[i] - current[i]) - previous[i];
+			}
+			accumulate(c, k, next, results);
+			final float[] swap = previous;
+			previous = current;
+			current = next;
+			next = swap;
+		}
+
+		// T_d - (2 S T_(d-1) - T_(d-2)), or T_1 - S T_0, in double precision.
+		// The error of a step scales with the terms it reads, which are at
+		// most the input heat in norm.
+		final double[] last = new double[n];
+		final double[] product = new double[n];
+		for (int i = 0; i < n; i++) {
+			last[i] = previous[i];
+		}
+		laplacian.multiply(last, product);
+		final double s = 2.0 / laplacian.getNormBound();
+		double sum = 0;
+		for (int i = 0; i < n; i++) {
+			final double step = s * product[i] - last[i];
+			final double expected = degree == 1 ? step : 2 * step - next[i];
+			sum += (current[i] - expected) * (current[i] - expected);
+		}
+		final double termNorm = Math.max(norm(current), norm(last));
+		defect[0] = termNorm == 0 ? 0 : Math.sqrt(sum) * norm(heats) / termNorm;
+		return results;
+	}
+
+	private static void accumulate(final float[][] coefficients, final int k, final float[] term,
+			final float[][] results) {
+		for (int t = 0; t < results.length; t++) {
+			if (k < coefficients[t].length) {
+				final float c = coefficients[t][k];
+				final float[] result = results[t];
+				for (int i = 0; i < term.length; i++) {
+					result[i] += c * term[i];
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return {@code true} if diffusions of degree {@code degree} on
+	 *         {@code snapshot} run in double precision
+	 */
+	public boolean isFallenBack(final NetworkSnapshot snapshot, final int degree) {
+		final Fallback current = fallback;
+		return current != null && current.snapshot == snapshot && degree >= current.degree;
+	}
+
+	/**
+	 * @return error bound relative to the norm of the input heat of the last
+	 *         single precision diffusion, NaN before the first one
+	 */
+	public double getLastError() {
+		return lastError;
+	}
+
+	HeatKernel getReference() {
+		return reference;
+	}
+
+	private static double[] toDouble(final float[] values) {
+		final double[] result = new double[values.length];
+		for (int i = 0; i < values.length; i++) {
+			result[i] = values[i];
+		}
+		return result;
+	}
+
+	private static double norm(final float[] a) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += (double) a[i] * a[i];
+		}
+		return Math.sqrt(sum);
+	}
+
+	private static double norm(final double[] a) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * a[i];
+		}
+		return Math.sqrt(sum);
+	}
+
+	/**
+	 * Snapshot whose diffusions of at least a degree fell back to double
+	 * precision
+	 */
+	private static class Fallback {
+
+		final NetworkSnapshot snapshot;
+		final int degree;
+
+		Fallback(final NetworkSnapshot snapshot, final int degree) {
+			this.snapshot = snapshot;
+			this.degree = degree;
+		}
+	}
+}
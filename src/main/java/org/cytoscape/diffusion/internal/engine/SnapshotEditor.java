@@ -0,0 +1,393 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Arrays;
+
+import org.cytoscape.diffusion.internal.client.DiffusionCacheKey;
+import org.cytoscape.diffusion.internal.util.SuidIndexMap;
+
+/**
+ * Applies node and edge edits to a {@link NetworkSnapshot} without walking
+ * the network again. A changed row is kept as a patch of its own in an
+ * array with room to grow, and the degree of its node is updated in place.
+ * An edit shifts the entries after it within the row, so an edge costs the
+ * degrees of its nodes and a node the degrees of its neighbors, but a row
+ * is only copied when it is first patched or outgrows its array. The
+ * removed node takes the
+ * index of the last node, so indices stay dense. Snapshots taken share the
+ * rows that were not patched. Once patches hold more than
+ * {@value #COMPACT_FRACTION} of the nodes or entries, the next snapshot is
+ * compacted into new rows. The topology hash of the snapshot is updated
+ * with each edit. Not thread safe.
+ */
+public class SnapshotEditor {
+
+	static final double COMPACT_FRACTION = 0.25;
+
+	private static final int[] EMPTY = new int[0];
+
+	private final ColumnStorage storage;
+
+	// rows not patched are those of base
+	private NetworkSnapshot base;
+
+	// snapshot of the current edits or null
+	private NetworkSnapshot snapshot;
+
+	// arrays of the last snapshot, copied once they are edited
+	private long[] sharedSuids;
+	private SuidIndexMap sharedIndex;
+	private double[] sharedDegrees;
+
+	private long[] suids;
+	private SuidIndexMap index;
+	private double[] degrees;
+	private int[][] rows;
+	// entries used in each patched row
+	private int[] lengths;
+	private int nodes;
+	private int entries;
+	private int patched;
+	private int patchedEntries;
+	private long topologyHash;
+	private long compactions = 0;
+
+	/**
+	 * @param storage where the rows of compacted snapshots are kept
+	 */
+	public SnapshotEditor(final NetworkSnapshot snapshot, final ColumnStorage storage) {
+		this.storage = storage;
+		reset(snapshot);
+	}
+
+	private void reset(final NetworkSnapshot snapshot) {
+		this.base = snapshot;
+		this.snapshot = snapshot;
+		this.sharedSuids = snapshot.getSuids();
+		this.sharedIndex = snapshot.getIndexMap();
+		this.sharedDegrees = snapshot.getDegrees();
+		this.suids = null;
+		this.index = null;
+		this.degrees = null;
+		this.rows = null;
+		this.lengths = null;
+		this.nodes = snapshot.getNodeCount();
+		this.entries = snapshot.getEntryCount();
+		this.patched = 0;
+		this.patchedEntries = 0;
+		this.topologyHash = snapshot.getTopologyHash();
+	}
+
+	/**
+	 * @return snapshot of the current edits, the same one until the next
+	 *         edit
+	 */
+	public NetworkSnapshot getSnapshot() {
+		if (snapshot != null) {
+			return snapshot;
+		}
+		if (patched > COMPACT_FRACTION * nodes || patchedEntries > COMPACT_FRACTION * entries) {
+			compact();
+			return snapshot;
+		}
+		// the snapshot takes the edited arrays, the next edit copies them
+		if (suids != null) {
+			sharedSuids = suids.length == nodes ? suids : Arrays.copyOf(suids, nodes);
+			sharedIndex = index;
+			suids = null;
+			index = null;
+		}
+		sharedDegrees = degrees.length == nodes ? degrees : Arrays.copyOf(degrees, nodes);
+		degrees = null;
+		final int[] slots = new int[nodes];
+		final int[] patchPointers = new int[patched + 1];
+		final int[] patchColumns = new int[patchedEntries];
+		int slot = 0;
+		for (int i = 0; i < nodes; i++) {
+			if (rows[i] == null) {
+				slots[i] = -1;
+				continue;
+			}
+			System.arraycopy(rows[i], 0, patchColumns, patchPointers[slot], lengths[i]);
+			patchPointers[slot + 1] = patchPointers[slot] + lengths[i];
+			slots[i] = slot++;
+		}
+		snapshot = new NetworkSnapshot(base, sharedSuids, sharedIndex, sharedDegrees, entries, slots, patchPointers,
+				patchColumns, topologyHash);
+		return snapshot;
+	}
+
+	/**
+	 * Builds new rows from the shared and the patched ones
+	 */
+	private void compact() {
+		final long[] compactSuids = suids == null ? sharedSuids : Arrays.copyOf(suids, nodes);
+		final SuidIndexMap compactIndex = index == null ? sharedIndex : index;
+		final NetworkSnapshot.Builder builder = new NetworkSnapshot.Builder(compactSuids, compactIndex);
+		for (int i = 0; i < nodes; i++) {
+			for (int k = 0; k < degrees[i]; k++) {
+				builder.count(i);
+			}
+		}
+		builder.allocate(storage);
+		for (int i = 0; i < nodes; i++) {
+			final int[] row = row(i);
+			final int length = length(i);
+			for (int k = 0; k < length; k++) {
+				builder.add(i, row[k]);
+			}
+		}
+		compactions++;
+		reset(builder.build());
+	}
+
+	/**
+	 * Adds an edge between the nodes with {@code source} and {@code target},
+	 * unless they are already neighbors or the same node
+	 *
+	 * @return {@code false} if nothing changed or a node is missing
+	 */
+	public boolean addEdge(final long source, final long target) {
+		final int i = getIndex(source);
+		final int j = getIndex(target);
+		if (i == SuidIndexMap.NOT_FOUND || j == SuidIndexMap.NOT_FOUND || i == j) {
+			return false;
+		}
+		final int position = search(i, j);
+		if (position >= 0) {
+			return false;
+		}
+		insert(i, -position - 1, j);
+		insert(j, -search(j, i) - 1, i);
+		entries += 2;
+		topologyHash += DiffusionCacheKey.edgeHash(source, target);
+		return true;
+	}
+
+	/**
+	 * Removes the edge between the nodes with {@code source} and
+	 * {@code target}, parallel edges are one
+	 *
+	 * @return {@code false} if they were not neighbors
+	 */
+	public boolean removeEdge(final long source, final long target) {
+		final int i = getIndex(source);
+		final int j = getIndex(target);
+		if (i == SuidIndexMap.NOT_FOUND || j == SuidIndexMap.NOT_FOUND || i == j) {
+			return false;
+		}
+		final int position = search(i, j);
+		if (position < 0) {
+			return false;
+		}
+		delete(i, position);
+		delete(j, search(j, i));
+		entries -= 2;
+		topologyHash -= DiffusionCacheKey.edgeHash(source, target);
+		return true;
+	}
+
+	/**
+	 * Adds a node with {@code suid} without neighbors
+	 *
+	 * @return {@code false} if there is one already
+	 */
+	public boolean addNode(final long suid) {
+		if (getIndex(suid) != SuidIndexMap.NOT_FOUND) {
+			return false;
+		}
+		editNodes();
+		final int capacity = Math.max(16, 2 * nodes);
+		if (nodes == suids.length) {
+			suids = Arrays.copyOf(suids, capacity);
+		}
+		if (nodes == degrees.length) {
+			degrees = Arrays.copyOf(degrees, capacity);
+		}
+		if (nodes == rows.length) {
+			rows = Arrays.copyOf(rows, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+		}
+		suids[nodes] = suid;
+		index.put(suid, nodes);
+		patch(nodes++, EMPTY, 0);
+		topologyHash += DiffusionCacheKey.nodeHash(suid);
+		return true;
+	}
+
+	/**
+	 * Removes the node with {@code suid} and its edges, the last node takes
+	 * its index
+	 *
+	 * @return {@code false} if there is none
+	 */
+	public boolean removeNode(final long suid) {
+		final int i = getIndex(suid);
+		if (i == SuidIndexMap.NOT_FOUND) {
+			return false;
+		}
+		editNodes();
+		final int[] row = row(i);
+		final int length = length(i);
+		for (int k = 0; k < length; k++) {
+			delete(row[k], search(row[k], i));
+			topologyHash -= DiffusionCacheKey.edgeHash(suid, suids[row[k]]);
+		}
+		entries -= 2 * length;
+		topologyHash -= DiffusionCacheKey.nodeHash(suid);
+		unpatch(i);
+		final int last = nodes - 1;
+		if (i != last) {
+			final int[] moved = row(last);
+			final int movedLength = length(last);
+			for (int k = 0; k < movedLength; k++) {
+				final int neighbor = moved[k];
+				delete(neighbor, search(neighbor, last));
+				insert(neighbor, -search(neighbor, i) - 1, i);
+			}
+			patch(i, moved, movedLength);
+			suids[i] = suids[last];
+			index.put(suids[i], i);
+		}
+		unpatch(last);
+		index.remove(suid);
+		nodes--;
+		return true;
+	}
+
+	/**
+	 * @return number of nodes with the current edits
+	 */
+	public int getNodeCount() {
+		return nodes;
+	}
+
+	/**
+	 * @return number of rows patched since the last compaction
+	 */
+	public int getPatchedCount() {
+		return patched;
+	}
+
+	/**
+	 * @return number of times the rows were compacted
+	 */
+	public long getCompactions() {
+		return compactions;
+	}
+
+	private int getIndex(final long suid) {
+		return index == null ? sharedIndex.get(suid) : index.get(suid);
+	}
+
+	/**
+	 * Copies the degrees to edit them in place
+	 */
+	private void editEdges() {
+		snapshot = null;
+		if (degrees == null) {
+			degrees = Arrays.copyOf(sharedDegrees, nodes);
+		}
+		if (rows == null) {
+			rows = new int[nodes][];
+			lengths = new int[nodes];
+		}
+	}
+
+	/**
+	 * Copies the SUIDs and their index to edit them in place
+	 */
+	private void editNodes() {
+		editEdges();
+		if (suids == null) {
+			suids = Arrays.copyOf(sharedSuids, nodes);
+			index = new SuidIndexMap(sharedIndex);
+		}
+	}
+
+	/**
+	 * @return array with the neighbors of node {@code i} in its first
+	 *         {@link #length(int)} entries, must not be modified
+	 */
+	private int[] row(final int i) {
+		if (rows != null && rows[i] != null) {
+			return rows[i];
+		}
+		final int[] row = new int[(int) base.getDegree(i)];
+		for (int k = 0; k < row.length; k++) {
+			row[k] = base.getNeighbor(i, k);
+		}
+		return row;
+	}
+
+	private int length(final int i) {
+		return rows != null && rows[i] != null ? lengths[i] : (int) base.getDegree(i);
+	}
+
+	/**
+	 * @return position of {@code neighbor} in the row of node {@code i} like
+	 *         {@link Arrays#binarySearch(int[], int)}, the row is not copied
+	 */
+	private int search(final int i, final int neighbor) {
+		if (rows != null && rows[i] != null) {
+			return Arrays.binarySearch(rows[i], 0, lengths[i], neighbor);
+		}
+		int low = 0;
+		int high = (int) base.getDegree(i) - 1;
+		while (low <= high) {
+			final int middle = (low + high) >>> 1;
+			final int value = base.getNeighbor(i, middle);
+			if (value < neighbor) {
+				low = middle + 1;
+			} else if (value > neighbor) {
+				high = middle - 1;
+			} else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	/**
+	 * Makes the row of node {@code i} the owner of {@code row}
+	 */
+	private void patch(final int i, final int[] row, final int length) {
+		editEdges();
+		if (rows[i] == null) {
+			patched++;
+		} else {
+			patchedEntries -= lengths[i];
+		}
+		rows[i] = row;
+		lengths[i] = length;
+		patchedEntries += length;
+		degrees[i] = length;
+	}
+
+	private void unpatch(final int i) {
+		if (rows[i] != null) {
+			patched--;
+			patchedEntries -= lengths[i];
+			rows[i] = null;
+			lengths[i] = 0;
+		}
+		degrees[i] = 0;
+	}
+
+	private void insert(final int i, final int position, final int neighbor) {
+		final int length = length(i);
+		int[] row = rows == null || rows[i] == null ? Arrays.copyOf(row(i), Math.max(4, 2 * length)) : rows[i];
+		if (length == row.length) {
+			row = Arrays.copyOf(row, Math.max(4, 2 * length));
+		}
+		System.arraycopy(row, position, row, position + 1, length - position);
+		row[position] = neighbor;
+		patch(i, row, length + 1);
+	}
+
+	private void delete(final int i, final int position) {
+		final int length = length(i);
+		final int[] row = rows == null || rows[i] == null ? row(i) : rows[i];
+		System.arraycopy(row, position + 1, row, position, length - position - 1);
+		patch(i, row, length - 1);
+	}
+}
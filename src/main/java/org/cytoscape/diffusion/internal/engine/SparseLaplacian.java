@@ -0,0 +1,435 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.function.BooleanSupplier;
+
+import org.cytoscape.model.CyNetwork;
+
+/**
+ * Graph Laplacian L = D - A of a network, a view over the compressed sparse
+ * rows of a {@link NetworkSnapshot}. Edges are undirected and unweighted
+ * like in the diffusion service: parallel edges count once and self loops
+ * are ignored. Only the neighbor columns of a snapshot may be off the heap,
+ * its row pointers and degrees are always on it. Off-heap columns are read
+ * through one reusable chunk array per part of a product, so products run
+ * one at a time on a Laplacian.
+ */
+public class SparseLaplacian {
+
+	/**
+	 * Least entries a part of a parallel product gets, smaller parts cost
+	 * more to schedule than they save
+	 */
+	static final int MIN_PART_WORK = 1 << 15;
+
+	/**
+	 * Parts per thread, so a thread that finishes early takes over parts
+	 */
+	static final int PARTS_PER_THREAD = 4;
+
+	static final int ALIGN_ROWS = 8;
+
+	/**
+	 * Entries of off-heap columns copied at a time, small enough to stay in
+	 * the first level cache
+	 */
+	static final int CHUNK_ENTRIES = 1 << 12;
+
+	private final NetworkSnapshot snapshot;
+	private final int[] rowPointers;
+	private final int[] columns;
+	private final IntBuffer columnBuffer;
+	private final double[] degrees;
+	private final int[] slots;
+	private final int[] patchPointers;
+	private final int[] patchColumns;
+	private final ForkJoinPool pool;
+	private final BooleanSupplier canceled;
+	private volatile int[] partition;
+	// chunk of off-heap columns of each part, grown to fit a hub row
+	private int[][] chunks;
+
+	public SparseLaplacian(final NetworkSnapshot snapshot) {
+		this(snapshot, null, () -> false);
+	}
+
+	/**
+	 * @param pool runs products on large networks in parallel, if
+	 *             {@code null} they run on the calling thread
+	 * @param canceled checked before each product
+	 */
+	public SparseLaplacian(final NetworkSnapshot snapshot, final ForkJoinPool pool, final BooleanSupplier canceled) {
+		this.snapshot = snapshot;
+		this.rowPointers = snapshot.getRowPointers();
+		this.columns = snapshot.getColumns();
+		this.columnBuffer = snapshot.getColumnBuffer();
+		this.degrees = snapshot.getDegrees();
+		this.slots = snapshot.getSlots();
+		this.patchPointers = snapshot.getPatchPointers();
+		this.patchColumns = snapshot.getPatchColumns();
+		this.pool = pool;
+		this.canceled = canceled;
+	}
+
+	/**
+	 * Builds the Laplacian of {@code network} from a fresh snapshot
+	 */
+	public static SparseLaplacian create(final CyNetwork network) {
+		return new SparseLaplacian(NetworkSnapshot.create(network));
+	}
+
+	/**
+	 * Builds the Laplacian from {@code count} directed entries
+	 * {@code sources[k] -> targets[k]}, duplicates are dropped
+	 */
+	static SparseLaplacian create(final long[] suids, final int[] sources, final int[] targets, final int count) {
+		return new SparseLaplacian(NetworkSnapshot.create(suids, sources, targets, count));
+	}
+
+	public NetworkSnapshot getSnapshot() {
+		return snapshot;
+	}
+
+	/**
+	 * @return number of rows, one per node
+	 */
+	public int size() {
+		return degrees.length;
+	}
+
+	public long getSUID(final int i) {
+		return snapshot.getSUID(i);
+	}
+
+	public double getDegree(final int i) {
+		return degrees[i];
+	}
+
+	/**
+	 * @return upper bound of the 1-norm and the largest eigenvalue of L
+	 */
+	public double getNormBound() {
+		double max = 0;
+		for (double degree : degrees) {
+			max = Math.max(max, degree);
+		}
+		return 2 * max;
+	}
+
+	/**
+	 * Computes {@code y = L x}
+	 */
+	public void multiply(final double[] x, final double[] y) {
+		multiply(x, y, 1);
+	}
+
+	/**
+	 * Computes {@code Y = L X} for a block of {@code width} vectors stored
+	 * row by row, entry {@code j} of row {@code i} at {@code i * width + j}.
+	 * With a pool the rows are split into parts of about the same number of
+	 * entries, which are multiplied in parallel.
+	 *
+	 * @throws CancellationException if the diffusion was canceled
+	 */
+	public void multiply(final double[] x, final double[] y, final int width) {
+		multiply((from, to, pointers, base, chunk, offset) -> multiplyRows(x, y, width, from, to, pointers, base, chunk,
+				offset));
+	}
+
+	/**
+	 * Computes {@code y = L x} in single precision, reads half the bytes of
+	 * the vectors of a product in double precision
+	 *
+	 * @throws CancellationException if the diffusion was canceled
+	 */
+	public void multiply(final float[] x, final float[] y) {
+		multiply((from, to, pointers, base, chunk, offset) -> multiplyRows(x, y, from, to, pointers, base, chunk,
+				offset));
+	}
+
+	private void multiply(final Rows rows) {
+		if (canceled.getAsBoolean()) {
+			throw new CancellationException("Diffusion canceled");
+		}
+		final int[] parts = getPartition();
+		if (columns == null && chunks == null) {
+			chunks = new int[parts.length - 1][];
+		}
+		if (parts.length <= 2) {
+			multiplyPart(rows, 0, 0, degrees.length);
+		} else {
+			pool.invoke(new MultiplyAction(rows, parts, 0, parts.length - 1));
+		}
+	}
+
+	/**
+	 * @return first row of each part and the number of rows, the rows of a
+	 *         part hold about the same number of entries as those of any
+	 *         other part
+	 */
+	int[] getPartition() {
+		int[] parts = partition;
+		if (parts == null) {
+			parts = partition = partition(slots == null ? rowPointers : getWorkPointers(),
+					pool == null ? 1 : pool.getParallelism() * PARTS_PER_THREAD);
+		}
+		return parts;
+	}
+
+	/**
+	 * @return row pointers of the rows as they would be without patches,
+	 *         the neighbors of a row are as many as its degree
+	 */
+	private int[] getWorkPointers() {
+		final int[] pointers = new int[degrees.length + 1];
+		for (int i = 0; i < degrees.length; i++) {
+			pointers[i + 1] = pointers[i] + (int) degrees[i];
+		}
+		return pointers;
+	}
+
+	/**
+	 * Splits rows into at most {@code count} parts by their entries plus one
+	 * for the diagonal, no smaller than {@value #MIN_PART_WORK}. Boundaries
+	 * fall on multiples of {@value #ALIGN_ROWS} rows, so neighboring parts
+	 * write to different cache lines of the output except at most one.
+	 */
+	static int[] partition(final int[] rowPointers, final int count) {
+		final int n = rowPointers.length - 1;
+		final long work = (long) rowPointers[n] + n;
+		final int parts = (int) Math.max(1, Math.min(count, work / MIN_PART_WORK));
+		final int[] bounds = new int[parts + 1];
+		int size = 1;
+		for (int p = 1; p < parts; p++) {
+			final long target = work * p / parts;
+			// first row whose work before it reaches the target
+			int low = bounds[size - 1];
+			int high = n;
+			while (low < high) {
+				final int middle = (low + high) >>> 1;
+				if ((long) rowPointers[middle] + middle < target) {
+					low = middle + 1;
+				} else {
+					high = middle;
+				}
+			}
+			final int bound = Math.min(n, (low + ALIGN_ROWS - 1) / ALIGN_ROWS * ALIGN_ROWS);
+			if (bound > bounds[size - 1] && bound < n) {
+				bounds[size++] = bound;
+			}
+		}
+		bounds[size++] = n;
+		return Arrays.copyOf(bounds, size);
+	}
+
+	/**
+	 * Multiplies rows {@code from} to {@code to - 1}, runs of patched rows
+	 * from the patched entries and the others from the shared ones
+	 */
+	private void multiplyPart(final Rows rows, final int part, final int from, final int to) {
+		if (slots == null) {
+			multiplyShared(rows, part, from, to);
+			return;
+		}
+		int first = from;
+		while (first < to) {
+			final boolean patched = slots[first] >= 0;
+			int last = first + 1;
+			while (last < to && (slots[last] >= 0) == patched) {
+				last++;
+			}
+			if (patched) {
+				// slots of a run of patched rows are consecutive
+				rows.multiply(first, last, patchPointers, first - slots[first], patchColumns, 0);
+			} else {
+				multiplyShared(rows, part, first, last);
+			}
+			first = last;
+		}
+	}
+
+	/**
+	 * Multiplies rows {@code from} to {@code to - 1} that are not patched.
+	 * Off-heap columns are copied a chunk of rows at a time to the array of
+	 * {@code part}, so the loops over the entries are the same for both and
+	 * read no buffer per entry. The array is kept for the next product.
+	 */
+	private void multiplyShared(final Rows rows, final int part, final int from, final int to) {
+		if (columns != null) {
+			rows.multiply(from, to, rowPointers, 0, columns, 0);
+			return;
+		}
+		final IntBuffer buffer = columnBuffer.duplicate();
+		int[] chunk = chunks[part];
+		if (chunk == null) {
+			chunk = chunks[part] = new int[CHUNK_ENTRIES];
+		}
+		int first = from;
+		while (first < to) {
+			final int offset = rowPointers[first];
+			int last = first + 1;
+			while (last < to && rowPointers[last + 1] - offset <= chunk.length) {
+				last++;
+			}
+			final int length = rowPointers[last] - offset;
+			if (length > chunk.length) {
+				chunk = chunks[part] = new int[length];
+			}
+			buffer.position(offset);
+			buffer.get(chunk, 0, length);
+			rows.multiply(first, last, rowPointers, 0, chunk, offset);
+			first = last;
+		}
+	}
+
+	/**
+	 * Multiplies rows {@code from} to {@code to - 1} whose entries start at
+	 * {@code chunk[pointers[i - base] - offset]}. Vectors are taken eight,
+	 * four, two or one at a time with the sums kept in locals, the neighbors
+	 * of a row are read once for all of them.
+	 */
+	private void multiplyRows(final double[] x, final double[] y, final int width, final int from, final int to,
+			final int[] pointers, final int base, final int[] chunk, final int offset) {
+		if (width == 1) {
+			for (int i = from; i < to; i++) {
+				double sum = degrees[i] * x[i];
+				final int end = pointers[i - base + 1] - offset;
+				for (int k = pointers[i - base] - offset; k < end; k++) {
+					sum -= x[chunk[k]];
+				}
+				y[i] = sum;
+			}
+			return;
+		}
+		for (int i = from; i < to; i++) {
+			final int row = i * width;
+			final int start = pointers[i - base] - offset;
+			final int end = pointers[i - base + 1] - offset;
+			final double degree = degrees[i];
+			int j = 0;
+			for (; j + 8 <= width; j += 8) {
+				double s0 = degree * x[row + j];
+				double s1 = degree * x[row + j + 1];
+				double s2 = degree * x[row + j + 2];
+				double s3 = degree * x[row + j + 3];
+				double s4 = degree * x[row + j + 4];
+				double s5 = degree * x[row + j + 5];
+				double s6 = degree * x[row + j + 6];
+				double s7 = degree * x[row + j + 7];
+				for (int k = start; k < end; k++) {
+					final int column = chunk[k] * width + j;
+					s0 -= x[column];
+					s1 -= x[column + 1];
+					s2 -= x[column + 2];
+					s3 -= x[column + 3];
+					s4 -= x[column + 4];
+					s5 -= x[column + 5];
+					s6 -= x[column + 6];
+					s7 -= x[column + 7];
+				}
+				y[row + j] = s0;
+				y[row + j + 1] = s1;
+				y[row + j + 2] = s2;
+				y[row + j + 3] = s3;
+				y[row + j + 4] = s4;
+				y[row + j + 5] = s5;
+				y[row + j + 6] = s6;
+				y[row + j + 7] = s7;
+			}
+			for (; j + 4 <= width; j += 4) {
+				double s0 = degree * x[row + j];
+				double s1 = degree * x[row + j + 1];
+				double s2 = degree * x[row + j + 2];
+				double s3 = degree * x[row + j + 3];
+				for (int k = start; k < end; k++) {
+					final int column = chunk[k] * width + j;
+					s0 -= x[column];
+					s1 -= x[column + 1];
+					s2 -= x[column + 2];
+					s3 -= x[column + 3];
+				}
+				y[row + j] = s0;
+				y[row + j + 1] = s1;
+				y[row + j + 2] = s2;
+				y[row + j + 3] = s3;
+			}
+			for (; j + 2 <= width; j += 2) {
+				double s0 = degree * x[row + j];
+				double s1 = degree * x[row + j + 1];
+				for (int k = start; k < end; k++) {
+					final int column = chunk[k] * width + j;
+					s0 -= x[column];
+					s1 -= x[column + 1];
+				}
+				y[row + j] = s0;
+				y[row + j + 1] = s1;
+			}
+			if (j < width) {
+				double s0 = degree * x[row + j];
+				for (int k = start; k < end; k++) {
+					s0 -= x[chunk[k] * width + j];
+				}
+				y[row + j] = s0;
+			}
+		}
+	}
+
+	/**
+	 * Single precision version of the rows of a product of width 1
+	 */
+	private void multiplyRows(final float[] x, final float[] y, final int from, final int to, final int[] pointers,
+			final int base, final int[] chunk, final int offset) {
+		for (int i = from; i < to; i++) {
+			float sum = (float) degrees[i] * x[i];
+			final int end = pointers[i - base + 1] - offset;
+			for (int k = pointers[i - base] - offset; k < end; k++) {
+				sum -= x[chunk[k]];
+			}
+			y[i] = sum;
+		}
+	}
+
+	/**
+	 * Rows {@code from} to {@code to - 1} of a product, the entries of row
+	 * {@code i} are {@code chunk[pointers[i - base] - offset]} up to
+	 * {@code chunk[pointers[i - base + 1] - offset]}
+	 */
+	private interface Rows {
+
+		void multiply(int from, int to, int[] pointers, int base, int[] chunk, int offset);
+	}
+
+	/**
+	 * Splits a range of parts in halves until one part is left
+	 */
+	private class MultiplyAction extends RecursiveAction {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Rows rows;
+		private final int[] parts;
+		private final int from;
+		private final int to;
+
+		MultiplyAction(final Rows rows, final int[] parts, final int from, final int to) {
+			this.rows = rows;
+			this.parts = parts;
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected void compute() {
+			if (to - from == 1) {
+				multiplyPart(rows, from, parts[from], parts[to]);
+				return;
+			}
+			final int middle = (from + to) >>> 1;
+			invokeAll(new MultiplyAction(rows, parts, from, middle), new MultiplyAction(rows, parts, middle, to));
+		}
+	}
+}
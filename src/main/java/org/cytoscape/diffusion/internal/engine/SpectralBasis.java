@@ -0,0 +1,306 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.function.BooleanSupplier;
+
+/**
+ * The k smallest eigenpairs of a Laplacian. With them exp(-tL) h is
+ * sum_j e^(-t lambda_j) (v_j . h) v_j for the part of h in their span, for
+ * any t at O(nk). The rest r of h decays at least like e^(-t mu), mu being
+ * the smallest eigenvalue of L on the complement of the basis. Ritz values
+ * less their residuals only estimate mu: a Ritz value has some eigenvalue
+ * within its residual, not necessarily the smallest one, and a lower bound
+ * would need a gap to the next eigenvalue that is not known. The rest is
+ * therefore taken to decay at {@value #REMAINDER_MARGIN} of the estimated
+ * rate, the error estimate is e^(-t mu / 2) |r|, which still holds if mu
+ * is overestimated by up to a factor 2. A pair with residual
+ * rho = |L v - lambda v| adds at most rho min(t, 1 / lambda) per unit of
+ * heat projected on it.
+ */
+public class SpectralBasis {
+
+	private static final int MAX_RESTARTS = 200;
+	private static final int MIN_STEPS = 40;
+	private static final int PROBE_STEPS = 30;
+
+	/**
+	 * Fraction of the estimated decay rate the heats outside of the basis
+	 * are assumed to decay at
+	 */
+	static final double REMAINDER_MARGIN = 0.5;
+
+	private final double[] values;
+	private final double[][] vectors;
+	private final double[] residuals;
+	private final double remainderEstimate;
+
+	SpectralBasis(final double[] values, final double[][] vectors, final double[] residuals,
+			final double remainderEstimate) {
+		this.values = values;
+		this.vectors = vectors;
+		this.residuals = residuals;
+		this.remainderEstimate = remainderEstimate;
+	}
+
+	/**
+	 * Computes the {@code k} smallest eigenpairs of {@code laplacian} by
+	 * Lanczos with full reorthogonalization and locking. Converged Ritz
+	 * pairs are locked from the smallest up, each restart starts from the
+	 * smallest unconverged Ritz vector plus a random part, so that further
+	 * copies of repeated eigenvalues are found as well.
+	 *
+	 * @param tolerance residual |L v - lambda v| allowed relative to the norm of L
+	 * @param canceled checked between restarts, stops the computation early
+	 * @return basis, possibly with fewer than {@code k} pairs if they did
+	 *         not converge in time
+	 */
+	public static SpectralBasis compute(final SparseLaplacian laplacian, final int k, final double tolerance,
+			final BooleanSupplier canceled) {
+		final int n = laplacian.size();
+		final int wanted = Math.min(k, n);
+		final double normBound = Math.max(laplacian.getNormBound(), Double.MIN_NORMAL);
+		final Random random = new Random(n);
+
+		final double[][] locked = new double[wanted][];
+		final double[] lockedValues = new double[wanted];
+		final double[] lockedResiduals = new double[wanted];
+		int lockedCount = 0;
+
+		double[] start = randomVector(random, n);
+		for (int restart = 0; restart < MAX_RESTARTS && lockedCount < wanted; restart++) {
+			if (canceled.getAsBoolean()) {
+				break;
+			}
+			final int m = Math.min(n - lockedCount, Math.max(MIN_STEPS, 2 * (wanted - lockedCount)));
+			final Lanczos lanczos = new Lanczos(laplacian, locked, lockedCount, start, m);
+			if (lanczos.steps == 0) {
+				break;
+			}
+			final TridiagonalEigen eigen = new TridiagonalEigen(lanczos.alpha, lanczos.beta, lanczos.steps);
+			final Integer[] order = ascending(eigen);
+
+			int next = -1;
+			for (int r = 0; r < order.length && lockedCount < wanted; r++) {
+				final int l = order[r];
+				final double residual = lanczos.lastBeta * Math.abs(eigen.getVector(lanczos.steps - 1, l));
+				if (residual > tolerance * normBound) {
+					next = l;
+					break;
+				}
+				locked[lockedCount] = lanczos.ritzVector(eigen, l);
+				lockedResiduals[lockedCount] = residual;
+				lockedValues[lockedCount++] = eigen.getValue(l);
+			}
+			if (next >= 0) {
+				start = lanczos.ritzVector(eigen, next);
+				final double[] noise = randomVector(random, n);
+				for (int i = 0; i < n; i++) {
+					start[i] += 1e-3 * noise[i];
+				}
+			} else {
+				start = randomVector(random, n);
+			}
+		}
+
+		// Sort pairs by eigenvalue, later restarts may find smaller copies
+		final double[] values = Arrays.copyOf(lockedValues, lockedCount);
+		final double[][] vectors = new double[lockedCount][];
+		final double[] residuals = new double[lockedCount];
+		final Integer[] order = new Integer[lockedCount];
+		for (int j = 0; j < lockedCount; j++) {
+			order[j] = j;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(lockedValues[a], lockedValues[b]));
+		for (int j = 0; j < lockedCount; j++) {
+			values[j] = lockedValues[order[j]];
+			vectors[j] = locked[order[j]];
+			residuals[j] = lockedResiduals[order[j]];
+		}
+
+		// Estimate the smallest eigenvalue left out of the basis. A Ritz
+		// value less its residual is not above some eigenvalue, which may not
+		// be the smallest one left out, so this is no bound. The probe runs
+		// on the complement of the locked vectors and the locked pairs were
+		// found from the smallest up, their largest value less its residual
+		// caps the estimate.
+		double remainderEstimate = Double.POSITIVE_INFINITY;
+		if (lockedCount < n) {
+			final Lanczos probe = new Lanczos(laplacian, locked, lockedCount, randomVector(random, n),
+					Math.min(n - lockedCount, PROBE_STEPS));
+			if (probe.steps > 0) {
+				final TridiagonalEigen eigen = new TridiagonalEigen(probe.alpha, probe.beta, probe.steps);
+				for (int l = 0; l < eigen.size(); l++) {
+					final double residual = probe.lastBeta * Math.abs(eigen.getVector(probe.steps - 1, l));
+					remainderEstimate = Math.min(remainderEstimate, eigen.getValue(l) - residual);
+				}
+			}
+			if (lockedCount > 0) {
+				remainderEstimate = Math.min(remainderEstimate, values[lockedCount - 1] - residuals[lockedCount - 1]);
+			}
+			remainderEstimate = Math.max(0.0, remainderEstimate);
+		}
+		return new SpectralBasis(values, vectors, residuals, remainderEstimate);
+	}
+
+	/**
+	 * @return number of eigenpairs
+	 */
+	public int size() {
+		return values.length;
+	}
+
+	public double getValue(final int j) {
+		return values[j];
+	}
+
+	/**
+	 * @return estimate of the smallest eigenvalue of L not in the basis, at
+	 *         least 0, infinite if the basis is complete. It is not a bound.
+	 */
+	public double getRemainderEstimate() {
+		return remainderEstimate;
+	}
+
+	/**
+	 * @return approximate number of bytes held by this basis
+	 */
+	public long getMemorySize() {
+		final long n = vectors.length == 0 ? 0 : vectors[0].length;
+		return 64L + 16L * values.length + (8L * n + 16L) * vectors.length;
+	}
+
+	/**
+	 * Computes exp(-time L) h for the part of {@code heats} in the span of
+	 * the basis and stores it in {@code result}
+	 *
+	 * @return estimate of the 2-norm of the error, from the part of the
+	 *         heats outside of the basis and the residuals of the pairs
+	 */
+	public double apply(final double[] heats, final double time, final double[] result) {
+		final int n = heats.length;
+		Arrays.fill(result, 0.0);
+		final double[] remainder = heats.clone();
+		double error = 0;
+		for (int j = 0; j < vectors.length; j++) {
+			final double[] v = vectors[j];
+			final double projection = dot(v, heats);
+			final double weight = Math.exp(-time * values[j]) * projection;
+			error += Math.abs(projection) * residuals[j] * (values[j] > 0 ? Math.min(time, 1 / values[j]) : time);
+			for (int i = 0; i < n; i++) {
+				result[i] += weight * v[i];
+				remainder[i] -= projection * v[i];
+			}
+		}
+		final double remainderNorm = Math.sqrt(dot(remainder, remainder));
+		if (remainderNorm > 0) {
+			error += remainderNorm * Math.exp(-time * REMAINDER_MARGIN * remainderEstimate);
+		}
+		return error;
+	}
+
+	private static Integer[] ascending(final TridiagonalEigen eigen) {
+		final Integer[] order = new Integer[eigen.size()];
+		for (int l = 0; l < order.length; l++) {
+			order[l] = l;
+		}
+		Arrays.sort(order, (a, b) -> Double.compare(eigen.getValue(a), eigen.getValue(b)));
+		return order;
+	}
+
+	private static double[] randomVector(final Random random, final int n) {
+		final double[] vector = new double[n];
+		for (int i = 0; i < n; i++) {
+			vector[i] = random.nextGaussian();
+		}
+		return vector;
+	}
+
+	private static double dot(final double[] a, final double[] b) {
+		double sum = 0;
+		for (int i = 0; i < a.length; i++) {
+			sum += a[i] * b[i];
+		}
+		return sum;
+	}
+
+	/**
+	 * Lanczos on the complement of the locked vectors with full
+	 * reorthogonalization, so Ritz vectors stay orthogonal to them
+	 */
+	private static class Lanczos {
+
+		final double[][] basis;
+		final double[] alpha;
+		final double[] beta;
+		int steps;
+		double lastBeta;
+
+		Lanczos(final SparseLaplacian laplacian, final double[][] locked, final int lockedCount,
+				final double[] start, final int m) {
+			final int n = start.length;
+			basis = new double[m][];
+			alpha = new double[m];
+			beta = new double[m];
+
+			double[] v = start.clone();
+			orthogonalize(v, locked, lockedCount);
+			double norm = Math.sqrt(dot(v, v));
+			if (norm == 0) {
+				return;
+			}
+			final double[] p = new double[n];
+			for (int j = 0; j < m; j++) {
+				for (int i = 0; i < n; i++) {
+					v[i] /= norm;
+				}
+				basis[j] = v;
+				steps = j + 1;
+				laplacian.multiply(v, p);
+				alpha[j] = dot(p, v);
+				// twice is enough to keep the basis orthogonal to working precision
+				for (int pass = 0; pass < 2; pass++) {
+					orthogonalize(p, locked, lockedCount);
+					orthogonalize(p, basis, j + 1);
+				}
+				norm = Math.sqrt(dot(p, p));
+				lastBeta = norm;
+				if (j < m - 1) {
+					beta[j] = norm;
+				}
+				if (norm <= Math.ulp(laplacian.getNormBound()) * n) {
+					lastBeta = 0;
+					return;
+				}
+				v = p.clone();
+			}
+		}
+
+		double[] ritzVector(final TridiagonalEigen eigen, final int l) {
+			final int n = basis[0].length;
+			final double[] x = new double[n];
+			for (int j = 0; j < steps; j++) {
+				final double weight = eigen.getVector(j, l);
+				final double[] v = basis[j];
+				for (int i = 0; i < n; i++) {
+					x[i] += weight * v[i];
+				}
+			}
+			final double norm = Math.sqrt(dot(x, x));
+			for (int i = 0; i < n; i++) {
+				x[i] /= norm;
+			}
+			return x;
+		}
+
+		private static void orthogonalize(final double[] p, final double[][] vectors, final int count) {
+			for (int j = 0; j < count; j++) {
+				final double[] v = vectors[j];
+				final double projection = dot(p, v);
+				for (int i = 0; i < p.length; i++) {
+					p[i] -= projection * v[i];
+				}
+			}
+		}
+	}
+}
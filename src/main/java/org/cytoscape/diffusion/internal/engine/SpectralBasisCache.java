@@ -0,0 +1,211 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.cytoscape.diffusion.internal.util.Props;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps a {@link SpectralBasis} per network, so diffusions at new times on
+ * an unchanged network cost O(nk) instead of a full solve. Bases are
+ * computed on a background thread the first time a network is diffused,
+ * until one is ready diffusions are solved as usual. A basis belongs to a
+ * {@link NetworkSnapshot}, a new snapshot of the network makes it stale.
+ * Bounded by bytes, the least recently used bases are evicted first.
+ */
+public class SpectralBasisCache {
+
+	/**
+	 * Property with the number of eigenpairs kept per network, 0 (the
+	 * default) disables the cache
+	 */
+	public static final String RANK_PROP = "diffusion.engine.spectral.rank";
+
+	public static final String MAX_BYTES_PROP = "diffusion.engine.spectral.maxBytes";
+
+	public static final int DEFAULT_RANK = 0;
+	public static final long DEFAULT_MAX_BYTES = 256L * 1024 * 1024;
+
+	/**
+	 * Residual of the eigenpairs relative to the norm of L, well below the
+	 * tolerance of the solvers since it is amplified by the heat projected
+	 * on each pair
+	 */
+	static final double EIGEN_TOLERANCE = 1e-11;
+
+	private final static Logger logger = LoggerFactory.getLogger(SpectralBasisCache.class);
+
+	private static final AtomicInteger threads = new AtomicInteger();
+
+	private final int rank;
+	private final long maxBytes;
+	private final ExecutorService executor;
+
+	// access ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<Long, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+	private long bytes = 0;
+
+	/**
+	 * Creates cache configured from properties, any property not set or not
+	 * parseable falls back to its default
+	 *
+	 * @param props Properties to read, can be {@code null}
+	 */
+	public SpectralBasisCache(final Properties props) {
+		this(Props.getLong(props, RANK_PROP, DEFAULT_RANK), Props.getLong(props, MAX_BYTES_PROP, DEFAULT_MAX_BYTES));
+	}
+
+	SpectralBasisCache(final long rank, final long maxBytes) {
+		this.rank = (int) Math.max(0, Math.min(rank, Integer.MAX_VALUE));
+		this.maxBytes = maxBytes;
+		this.executor = Executors.newSingleThreadExecutor(r -> {
+			final Thread t = new Thread(r, "diffusion-spectral-" + threads.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(Thread.MIN_PRIORITY);
+			return t;
+		});
+	}
+
+	/**
+	 * @return {@code false} if no bases are kept
+	 */
+	public boolean isEnabled() {
+		return rank > 0;
+	}
+
+	/**
+	 * Returns the basis of {@code snapshot}, starting its computation in the
+	 * background if there is none yet
+	 *
+	 * @param suid SUID of the network {@code snapshot} was taken of
+	 * @return basis or {@code null} if it is not ready or would not fit
+	 */
+	public SpectralBasis get(final Long suid, final NetworkSnapshot snapshot) {
+		if (!isEnabled() || 8L * Math.min(rank, snapshot.getNodeCount()) * snapshot.getNodeCount() > maxBytes) {
+			return null;
+		}
+		final Entry entry;
+		synchronized (this) {
+			final Entry current = entries.get(suid);
+			if (current != null && current.snapshot == snapshot) {
+				entry = current;
+			} else {
+				if (current != null) {
+					remove(suid);
+				}
+				entry = new Entry(snapshot);
+				entries.put(suid, entry);
+				entry.future = executor.submit(() -> compute(suid, entry));
+				return null;
+			}
+		}
+		if (!entry.future.isDone() || entry.future.isCancelled()) {
+			return null;
+		}
+		try {
+			return entry.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch (ExecutionException e) {
+			return null;
+		}
+	}
+
+	private SpectralBasis compute(final Long suid, final Entry entry) {
+		final long start = System.currentTimeMillis();
+		final SpectralBasis basis;
+		try {
+			basis = SpectralBasis.compute(new SparseLaplacian(entry.snapshot), rank, EIGEN_TOLERANCE,
+					() -> Thread.currentThread().isInterrupted() || !isCurrent(suid, entry));
+		} catch (RuntimeException e) {
+			logger.warn("Could not compute spectral basis of network " + suid, e);
+			throw e;
+		}
+		synchronized (this) {
+			if (entries.get(suid) != entry) {
+				return basis;
+			}
+			entry.bytes = basis.getMemorySize();
+			bytes += entry.bytes;
+			evict();
+		}
+		logger.info("Computed " + basis.size() + " eigenpairs of network " + suid + " in "
+				+ (System.currentTimeMillis() - start) + " ms, smallest eigenvalue left out about "
+				+ basis.getRemainderEstimate());
+		return basis;
+	}
+
+	private synchronized boolean isCurrent(final Long suid, final Entry entry) {
+		return entries.get(suid) == entry;
+	}
+
+	private void evict() {
+		final Iterator<Map.Entry<Long, Entry>> eldest = entries.entrySet().iterator();
+		while (bytes > maxBytes && eldest.hasNext()) {
+			final Entry entry = eldest.next().getValue();
+			bytes -= entry.bytes;
+			entry.future.cancel(true);
+			eldest.remove();
+		}
+	}
+
+	private void remove(final Long suid) {
+		final Entry entry = entries.remove(suid);
+		if (entry != null) {
+			bytes -= entry.bytes;
+			entry.future.cancel(true);
+		}
+	}
+
+	/**
+	 * Drops the basis of the network with {@code suid} and stops computing it
+	 */
+	public synchronized void invalidate(final Long suid) {
+		remove(suid);
+	}
+
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	public synchronized long getBytes() {
+		return bytes;
+	}
+
+	public synchronized void clear() {
+		for (Entry entry : entries.values()) {
+			entry.future.cancel(true);
+		}
+		entries.clear();
+		bytes = 0;
+	}
+
+	/**
+	 * Drops all bases and stops the background thread
+	 */
+	public void shutdown() {
+		clear();
+		executor.shutdownNow();
+	}
+
+	private static class Entry {
+
+		final NetworkSnapshot snapshot;
+		volatile Future<SpectralBasis> future;
+		long bytes = 0;
+
+		Entry(final NetworkSnapshot snapshot) {
+			this.snapshot = snapshot;
+		}
+	}
+}
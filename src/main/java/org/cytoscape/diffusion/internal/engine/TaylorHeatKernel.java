@@ -0,0 +1,78 @@
+package org.cytoscape.diffusion.internal.engine;
+
+/**
+ * Heat kernel action by a truncated Taylor series with scaling. The time is
+ * split into steps short enough for the series of each step to converge
+ * quickly and without cancellation, each step costs a few sparse
+ * matrix-vector products.
+ */
+public class TaylorHeatKernel implements HeatKernel {
+
+	/**
+	 * Largest step times norm of L a step may span
+	 */
+	private static final double MAX_STEP_NORM = 2.0;
+
+	private static final int MAX_TERMS = 60;
+
+	private final double tolerance;
+
+	public TaylorHeatKernel() {
+		this(1e-12);
+	}
+
+	/**
+	 * @param tolerance relative size of the last Taylor term kept in each step
+	 */
+	public TaylorHeatKernel(final double tolerance) {
+		this.tolerance = tolerance;
+	}
+
+	@Override
+	public double[] apply(final SparseLaplacian laplacian, final double[] heats, final double time) {
+		final int n = laplacian.size();
+		final double[] result = heats.clone();
+		final double norm = laplacian.getNormBound();
+		if (time <= 0 || norm == 0) {
+			return result;
+		}
+		final int steps = (int) Math.ceil(time * norm / MAX_STEP_NORM);
+		final double step = time / steps;
+
+		double[] term = new double[n];
+		double[] next = new double[n];
+		for (int s = 0; s < steps; s++) {
+			System.arraycopy(result, 0, term, 0, n);
+			final double scale = maxAbs(result);
+			if (scale == 0) {
+				break;
+			}
+			for (int k = 1; k <= MAX_TERMS; k++) {
+				// term_k = -step / k * L term_(k-1)
+				laplacian.multiply(term, next);
+				final double factor = -step / k;
+				double size = 0;
+				for (int i = 0; i < n; i++) {
+					next[i] *= factor;
+					result[i] += next[i];
+					size = Math.max(size, Math.abs(next[i]));
+				}
+				final double[] swap = term;
+				term = next;
+				next = swap;
+				if (size <= tolerance * scale) {
+					break;
+				}
+			}
+		}
+		return result;
+	}
+
+	private static double maxAbs(final double[] values) {
+		double max = 0;
+		for (double value : values) {
+			max = Math.max(max, Math.abs(value));
+		}
+		return max;
+	}
+}
@@ -0,0 +1,177 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import java.util.Arrays;
+
+/**
+ * Finds the k hottest nodes of exp(-tL) h in rank order, for callers that
+ * read no other ranks. The Chebyshev expansion of
+ * {@link ChebyshevHeatKernel} is summed term by term, as |T_k(S)| is at
+ * most 1 the partial sum after K terms is within
+ * e_K = |h| sum_(k > K) |c_k| of the output heat at every node. Every
+ * {@value #CHECK_INTERVAL} terms the k + 1 hottest nodes of the partial sum
+ * are selected. Once each of them is more than 2 e_K hotter than the next,
+ * no other node can enter the top k and no two of them can swap, so the
+ * set and its order are certified and the expansion stops. It never runs
+ * more terms than {@link ChebyshevHeatKernel} with the same tolerance.
+ * Equal heats are never certified, they are summed to the tolerance and
+ * keep the order of their nodes like {@link HeatRanking}.
+ */
+public class TopKHeatKernel {
+
+	static final int CHECK_INTERVAL = 4;
+
+	/**
+	 * Rounding of the recurrence added to each bound, relative to the norm
+	 * of the input heat
+	 */
+	private static final double ROUNDING = 1e-12;
+
+	private final double tolerance;
+
+	/**
+	 * @param tolerance error allowed in the output heat relative to the norm
+	 *                  of the input heat when the order is not certified
+	 *                  earlier
+	 */
+	public TopKHeatKernel(final double tolerance) {
+		if (tolerance <= 0) {
+			throw new IllegalArgumentException("Tolerance must be positive: " + tolerance);
+		}
+		this.tolerance = tolerance;
+	}
+
+	/**
+	 * @param k number of nodes, all of them if not below the size of
+	 *          {@code laplacian}
+	 * @return hottest nodes in rank order
+	 */
+	public Top apply(final SparseLaplacian laplacian, final double[] heats, final double time, final int k) {
+		final int n = laplacian.size();
+		final int count = Math.min(k, n);
+		final double bound = laplacian.getNormBound();
+		if (time <= 0 || bound == 0) {
+			return new Top(heats.clone(), HeatRanking.top(heats, count), 0, 0);
+		}
+		final double a = time * bound / 2;
+		final double[] coefficients = ChebyshevHeatKernel.getCoefficients(a, tolerance);
+		final int degree = coefficients.length - 1;
+		final double[] tails = getTails(ChebyshevHeatKernel.scaledBessel(a, tolerance));
+		double norm = 0;
+		for (int i = 0; i < n; i++) {
+			norm += heats[i] * heats[i];
+		}
+		norm = Math.sqrt(norm);
+
+		final double[] result = new double[n];
+		for (int i = 0; i < n; i++) {
+			result[i] = coefficients[0] * heats[i];
+		}
+		// S x = (2 / b) L x - x
+		final double scale = 2.0 / bound;
+		double[] previous = heats.clone();
+		double[] current = new double[n];
+		double[] next = new double[n];
+		for (int j = 1; j <= degree; j++) {
+			if (j == 1) {
+				laplacian.multiply(previous, current);
+				for (int i = 0; i < n; i++) {
+					current[i] = scale * current[i] - previous[i];
+				}
+			} else {
+				laplacian.multiply(current, next);
+				for (int i = 0; i < n; i++) {
+					next[i] = 2 * (scale * next[i] - current[i]) - previous[i];
+				}
+				final double[] swap = previous;
+				previous = current;
+				current = next;
+				next = swap;
+			}
+			final double c = coefficients[j];
+			for (int i = 0; i < n; i++) {
+				result[i] += c * current[i];
+			}
+			if (j % CHECK_INTERVAL == 0 && j < degree) {
+				final double error = norm * (tails[j] + ROUNDING);
+				final int[] nodes = HeatRanking.top(result, Math.min(count + 1, n));
+				if (isCertified(result, nodes, error)) {
+					return new Top(result, count == nodes.length ? nodes : Arrays.copyOf(nodes, count), j, error);
+				}
+			}
+		}
+		return new Top(result, HeatRanking.top(result, count), degree, norm * (tails[degree] + ROUNDING));
+	}
+
+	/**
+	 * @param nodes hottest nodes of {@code heats} in rank order
+	 * @return whether each of {@code nodes} stays hotter than the next one
+	 *         when every heat is off by up to {@code error}
+	 */
+	static boolean isCertified(final double[] heats, final int[] nodes, final double error) {
+		for (int r = 0; r + 1 < nodes.length; r++) {
+			if (!(heats[nodes[r]] - heats[nodes[r + 1]] > 2 * error)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * @param scaled e^-a I_k(a) for each k
+	 * @return sum of the absolute values of the coefficients past each k
+	 */
+	static double[] getTails(final double[] scaled) {
+		final double[] tails = new double[scaled.length];
+		for (int k = scaled.length - 2; k >= 0; k--) {
+			tails[k] = tails[k + 1] + 2 * scaled[k + 1];
+		}
+		return tails;
+	}
+
+	/**
+	 * Hottest nodes in rank order with their heats
+	 */
+	public static class Top {
+
+		private final double[] heats;
+		private final int[] nodes;
+		private final int products;
+		private final double error;
+
+		Top(final double[] heats, final int[] nodes, final int products, final double error) {
+			this.heats = heats;
+			this.nodes = nodes;
+			this.products = products;
+			this.error = error;
+		}
+
+		public int size() {
+			return nodes.length;
+		}
+
+		/**
+		 * @return index of the node ranked {@code r + 1}
+		 */
+		public int getNode(final int r) {
+			return nodes[r];
+		}
+
+		public double getHeat(final int r) {
+			return heats[nodes[r]];
+		}
+
+		/**
+		 * @return number of products with the Laplacian run
+		 */
+		public int getProducts() {
+			return products;
+		}
+
+		/**
+		 * @return bound on the error of each heat
+		 */
+		public double getError() {
+			return error;
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package org.cytoscape.diffusion.internal.engine;
+
+/**
+ * Eigendecomposition T = Q diag(values) Q^T of a small symmetric tridiagonal
+ * matrix by the implicit QL method, after the EISPACK routine tql2.
+ */
+class TridiagonalEigen {
+
+	private final double[] values;
+	private final double[][] vectors;
+
+	/**
+	 * @param diagonal diagonal of T, {@code size} entries are used
+	 * @param offDiagonal entry {@code i} couples rows {@code i} and
+	 *                    {@code i + 1}, {@code size - 1} entries are used
+	 * @param size order of T
+	 */
+	TridiagonalEigen(final double[] diagonal, final double[] offDiagonal, final int size) {
+		final int n = size;
+		final double[] d = new double[n];
+		final double[] e = new double[n];
+		final double[][] q = new double[n][n];
+		for (int i = 0; i < n; i++) {
+			d[i] = diagonal[i];
+			e[i] = i < n - 1 ? offDiagonal[i] : 0.0;
+			q[i][i] = 1.0;
+		}
+
+		final double eps = Math.ulp(1.0);
+		double f = 0.0;
+		double tst1 = 0.0;
+		for (int l = 0; l < n; l++) {
+			// Find small subdiagonal element
+			tst1 = Math.max(tst1, Math.abs(d[l]) + Math.abs(e[l]));
+			int m = l;
+			while (m < n - 1 && Math.abs(e[m]) > eps * tst1) {
+				m++;
+			}
+
+			// If m == l, d[l] is an eigenvalue, otherwise iterate
+			if (m > l) {
+				do {
+					// Compute implicit shift
+					double g = d[l];
+					double p = (d[l + 1] - g) / (2.0 * e[l]);
+					double r = Math.hypot(p, 1.0);
+					if (p < 0) {
+						r = -r;
+					}
+					d[l] = e[l] / (p + r);
+					d[l + 1] = e[l] * (p + r);
+					final double dl1 = d[l + 1];
+					double h = g - d[l];
+					for (int i = l + 2; i < n; i++) {
+						d[i] -= h;
+					}
+					f += h;
+
+					// Implicit QL transformation
+					p = d[m];
+					double c = 1.0;
+					double c2 = c;
+					double c3 = c;
+					final double el1 = e[l + 1];
+					double s = 0.0;
+					double s2 = 0.0;
+					for (int i = m - 1; i >= l; i--) {
+						c3 = c2;
+						c2 = c;
+						s2 = s;
+						g = c * e[i];
+						h = c * p;
+						r = Math.hypot(p, e[i]);
+						e[i + 1] = s * r;
+						s = e[i] / r;
+						c = p / r;
+						p = c * d[i] - s * g;
+						d[i + 1] = h + s * (c * g + s * d[i]);
+						for (int k = 0; k < n; k++) {
+							h = q[k][i + 1];
+							q[k][i + 1] = s * q[k][i] + c * h;
+							q[k][i] = c * q[k][i] - s * h;
+						}
+					}
+					p = -s * s2 * c3 * el1 * e[l] / dl1;
+					e[l] = s * p;
+					d[l] = c * p;
+				} while (Math.abs(e[l]) > eps * tst1);
+			}
+			d[l] += f;
+			e[l] = 0.0;
+		}
+		this.values = d;
+		this.vectors = q;
+	}
+
+	int size() {
+		return values.length;
+	}
+
+	double getValue(final int l) {
+		return values[l];
+	}
+
+	/**
+	 * @return component {@code i} of eigenvector {@code l}
+	 */
+	double getVector(final int i, final int l) {
+		return vectors[i][l];
+	}
+
+	/**
+	 * Computes {@code y = exp(-time T) e1}, the first column of the
+	 * exponential
+	 */
+	void expFirstColumn(final double time, final double[] y) {
+		final int n = values.length;
+		for (int i = 0; i < n; i++) {
+			y[i] = 0.0;
+		}
+		for (int l = 0; l < n; l++) {
+			final double weight = Math.exp(-time * values[l]) * vectors[0][l];
+			for (int i = 0; i < n; i++) {
+				y[i] += vectors[i][l] * weight;
+			}
+		}
+	}
+}
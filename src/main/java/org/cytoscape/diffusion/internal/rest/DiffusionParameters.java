@@ -1,5 +1,7 @@
 package org.cytoscape.diffusion.internal.rest;
 
+import java.util.List;
+
 import org.cytoscape.diffusion.internal.DiffusionDocumentation;
 import org.cytoscape.diffusion.internal.task.DiffuseSelectedTask;
 import io.swagger.annotations.ApiModel;
@@ -17,4 +19,10 @@ public class DiffusionParameters {
 	public String heatColumnName;
 	@ApiModelProperty(value = DiffusionDocumentation.TIME_LONG_DESCRIPTION, example="0.1")
 	public Double time;
+	@ApiModelProperty(value = DiffusionDocumentation.TIMES_LONG_DESCRIPTION, example="[0.1, 1.0, 10.0]")
+	public List<Double> times;
+	@ApiModelProperty(value = DiffusionDocumentation.RESTART_PROBABILITY_LONG_DESCRIPTION, example="0.15")
+	public Double restartProbability;
+	@ApiModelProperty(value = DiffusionDocumentation.TOP_K_LONG_DESCRIPTION, example="200")
+	public Integer topK;
 }
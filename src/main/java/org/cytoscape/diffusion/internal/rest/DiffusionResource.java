@@ -5,8 +5,10 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Collectors;
 
 import javax.ws.rs.Consumes;
+import javax.ws.rs.GET;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -25,6 +27,7 @@ import org.cytoscape.diffusion.internal.DiffusionDocumentation;
 import org.cytoscape.ci.CIErrorFactory;
 import org.cytoscape.ci.CIExceptionFactory;
 import org.cytoscape.ci.CIResponseFactory;
+import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceException;
 
 import org.cytoscape.diffusion.internal.task.DiffusionContextMenuTaskFactory;
@@ -61,6 +64,8 @@ public class DiffusionResource {
 	private final DiffusionContextMenuTaskFactory diffusionTaskFactory;
 	private final DiffusionContextMenuTaskFactory diffusionWithOptionsTaskFactory;
 	
+	private final DiffusionServiceClient client;
+	
 	
 	private final ServiceTracker ciResponseFactoryTracker;
 	
@@ -87,7 +92,7 @@ public class DiffusionResource {
 	public static final String CY_NETWORK_VIEW_NOT_FOUND_CODE = "2";
 	public static final String TASK_EXECUTION_ERROR_CODE= "3";
 
-	public DiffusionResource(final CyApplicationManager cyApplicationManager, final SynchronousTaskManager<Object> taskManager, final CyNetworkManager cyNetworkManager, final CyNetworkViewManager cyNetworkViewManager, final DiffusionContextMenuTaskFactory diffusionTaskFactory, final DiffusionContextMenuTaskFactory diffusionWithOptionsTaskFactory, final ServiceTracker ciResponseFactoryTracker, final ServiceTracker ciExceptionFactoryTracker, final ServiceTracker ciErrorFactoryTracker) {
+	public DiffusionResource(final CyApplicationManager cyApplicationManager, final SynchronousTaskManager<Object> taskManager, final CyNetworkManager cyNetworkManager, final CyNetworkViewManager cyNetworkViewManager, final DiffusionContextMenuTaskFactory diffusionTaskFactory, final DiffusionContextMenuTaskFactory diffusionWithOptionsTaskFactory, final ServiceTracker ciResponseFactoryTracker, final ServiceTracker ciExceptionFactoryTracker, final ServiceTracker ciErrorFactoryTracker, final DiffusionServiceClient client) {
 		this.cyApplicationManager = cyApplicationManager;
 		this.taskManager = taskManager;
 		this.cyNetworkManager = cyNetworkManager;
@@ -97,6 +102,7 @@ public class DiffusionResource {
 		this.ciResponseFactoryTracker = ciResponseFactoryTracker;
 		this.ciExceptionFactoryTracker = ciExceptionFactoryTracker;
 		this.ciErrorFactoryTracker = ciErrorFactoryTracker;
+		this.client = client;
 		
 	}
 
@@ -181,6 +187,32 @@ public class DiffusionResource {
 
 	}
 	
+	@ApiModel(value="Diffusion Sweep Response", description="Diffusion Analysis Results of each time in CI Format", parent=CIResponse.class)
+	public static class DiffusionSweepResponse extends CIResponse<List<DiffusionResultColumns>>{
+
+	}
+	
+	@ApiModel(value="Diffusion Service Status Response", description="Diffusion Service Status in CI Format", parent=CIResponse.class)
+	public static class DiffusionServiceStatusResponse extends CIResponse<DiffusionServiceStatus>{
+
+	}
+	
+	@GET
+	@Produces("application/json")
+	@Path("status")
+	@ApiOperation(value = "Get the State of the Diffusion Service Circuit Breaker",
+	notes = "Diffusions are computed by a web-based REST service. If calls to the service keep failing or are too slow, "
+			+ "a circuit breaker opens and the service is not called for a while. This returns the state of the circuit breaker "
+			+ "and how many diffusions were served by the service, computed locally or rejected.",
+	response = DiffusionServiceStatusResponse.class)
+	public Response getStatus() {
+		CIResponse<DiffusionServiceStatus> response = getCIResponseFactory().getCIResponse(client.getStatus());
+		remoteLogger.logResourceResponse("GET", "/diffusion/v1/status", Response.Status.OK.getStatusCode());
+		return Response.status(Response.Status.OK)
+				.type(MediaType.APPLICATION_JSON)
+				.entity(response).build();
+	}
+	
 	@POST
 	@Produces("application/json")
 	@Consumes("application/json")
@@ -189,6 +221,7 @@ public class DiffusionResource {
 	notes = DiffusionDocumentation.GENERIC_SWAGGER_NOTES,
 	response = DiffusionAppResponse.class)
 	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Columns of each time if times is set", response = DiffusionSweepResponse.class),
 			@ApiResponse(code = 404, message = "Network or Network View does not exist", response = CIResponse.class)
 	})
 	public Response diffuseWithOptions(@ApiParam(value = "Diffusion Parameters", required = true) DiffusionParameters diffusionParameters)
@@ -222,29 +255,15 @@ public class DiffusionResource {
 	notes = DiffusionDocumentation.GENERIC_SWAGGER_NOTES,
 	response = DiffusionAppResponse.class)
 	@ApiResponses(value = { 
+			@ApiResponse(code = 200, message = "Columns of each time if times is set", response = DiffusionSweepResponse.class),
 			@ApiResponse(code = 404, message = "Network does not exist", response = CIResponse.class)
 	})
 	public Response diffuseWithOptions(@ApiParam(value="Network SUID (see GET /v1/networks)") @PathParam("networkSUID") long networkSUID, @ApiParam(value="Network View SUID (see GET /v1/networks/{networkId}/views)") @PathParam("networkViewSUID") long networkViewSUID, @ApiParam(value = "Diffusion Parameters", required = true) DiffusionParameters diffusionParameters) {
 
 		//System.out.println("Accessing Diffusion with options via REST");
-		CyNetworkView cyNetworkView = getCyNetworkView("diffuse_with_options", CY_NETWORK_VIEW_NOT_FOUND_CODE, networkSUID, networkViewSUID);
 		DiffusionTaskObserver taskObserver = new DiffusionTaskObserver(this, "diffuse_with_options", TASK_EXECUTION_ERROR_CODE);
 		
-		Map<String, Object> tunableMap = new HashMap<String, Object>();
-		
-		//This next section is VERY interesting. Since we're accessing DiffusionWithOptionsTaskFactory without the
-		//benefit of interceptors or CommandExecutor, we have the option of literally building tunables from scratch.
-		ListSingleSelection<String> heatColumnName = new ListSingleSelection<String>();
-		List<String> heatColumns = new ArrayList<String>();
-		heatColumns.add(diffusionParameters.heatColumnName);
-		heatColumnName.setPossibleValues(heatColumns);
-		heatColumnName.setSelectedValue(diffusionParameters.heatColumnName);
-		
-		tunableMap.put("heatColumnName", heatColumnName);
-		tunableMap.put("time", diffusionParameters.time);
-		TaskIterator taskIterator = diffusionWithOptionsTaskFactory.createTaskIterator(cyNetworkView);
-		taskManager.setExecutionContext(tunableMap);
-		taskManager.execute(taskIterator, taskObserver);
+		executeDiffuseWithOptions(networkSUID, networkViewSUID, diffusionParameters, taskObserver);
 		
 		logCIResponse("POST", "/diffusion/v1/{networkSUID}/views/{networkViewSUID}/diffuse_with_options", taskObserver.response);
 		
@@ -308,4 +327,34 @@ public class DiffusionResource {
 		TaskIterator taskIterator = diffusionTaskFactory.createTaskIterator(cyNetworkView);
 		taskManager.execute(taskIterator, taskObserver);
 	}
+	
+	public void executeDiffuseWithOptions(long networkSUID, long networkViewSUID, DiffusionParameters diffusionParameters, TaskObserver taskObserver) {
+		CyNetworkView cyNetworkView = getCyNetworkView("diffuse_with_options", CY_NETWORK_VIEW_NOT_FOUND_CODE, networkSUID, networkViewSUID);
+		
+		Map<String, Object> tunableMap = new HashMap<String, Object>();
+		
+		//This next section is VERY interesting. Since we're accessing DiffusionWithOptionsTaskFactory without the
+		//benefit of interceptors or CommandExecutor, we have the option of literally building tunables from scratch.
+		ListSingleSelection<String> heatColumnName = new ListSingleSelection<String>();
+		List<String> heatColumns = new ArrayList<String>();
+		heatColumns.add(diffusionParameters.heatColumnName);
+		heatColumnName.setPossibleValues(heatColumns);
+		heatColumnName.setSelectedValue(diffusionParameters.heatColumnName);
+		
+		tunableMap.put("heatColumnName", heatColumnName);
+		tunableMap.put("time", diffusionParameters.time);
+		if (diffusionParameters.times != null) {
+			tunableMap.put("times", diffusionParameters.times.stream().map(String::valueOf)
+					.collect(Collectors.joining(",")));
+		}
+		if (diffusionParameters.restartProbability != null) {
+			tunableMap.put("restartProbability", diffusionParameters.restartProbability);
+		}
+		if (diffusionParameters.topK != null) {
+			tunableMap.put("topK", diffusionParameters.topK);
+		}
+		TaskIterator taskIterator = diffusionWithOptionsTaskFactory.createTaskIterator(cyNetworkView);
+		taskManager.setExecutionContext(tunableMap);
+		taskManager.execute(taskIterator, taskObserver);
+	}
 }
@@ -0,0 +1,31 @@
+package org.cytoscape.diffusion.internal.rest;
+
+import io.swagger.annotations.ApiModel;
+import io.swagger.annotations.ApiModelProperty;
+
+@ApiModel(value="Diffusion Service Status", description="State of the circuit breaker guarding the diffusion service")
+public class DiffusionServiceStatus {
+
+	@ApiModelProperty(value = "State of the circuit breaker. While OPEN the service is not called and diffusions fail right away or are computed locally.", required=true, allowableValues="CLOSED,OPEN,HALF_OPEN", example="CLOSED")
+	public String state;
+	@ApiModelProperty(value = "Percentage of recent service calls that failed, -1 if there were too few calls.", example="0.0")
+	public float failureRate;
+	@ApiModelProperty(value = "Percentage of recent service calls that were slow, -1 if there were too few calls.", example="0.0")
+	public float slowCallRate;
+	@ApiModelProperty(value = "Number of recent service calls the rates are computed from.", example="20")
+	public int bufferedCalls;
+	@ApiModelProperty(value = "Diffusions served by the remote service.", example="42")
+	public long remoteCalls;
+	@ApiModelProperty(value = "Diffusions computed locally because the circuit breaker was open.", example="0")
+	public long fallbackCalls;
+	@ApiModelProperty(value = "Diffusions rejected because the circuit breaker was open.", example="0")
+	public long rejectedCalls;
+	@ApiModelProperty(value = "Diffusions computed locally because diffusion.engine is set to local.", example="0")
+	public long localCalls;
+	@ApiModelProperty(value = "Path that served the most recent diffusion.", allowableValues="remote,fallback,rejected,local", example="remote")
+	public String lastServedBy;
+	@ApiModelProperty(value = "Number of diffusion outputs currently cached.", example="3")
+	public int cachedOutputs;
+	@ApiModelProperty(value = "Diffusions answered from the cache without calling the service.", example="5")
+	public long cacheHits;
+}
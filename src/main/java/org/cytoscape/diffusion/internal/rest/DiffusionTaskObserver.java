@@ -1,6 +1,7 @@
 package org.cytoscape.diffusion.internal.rest;
 
 import java.util.ArrayList;
+import java.util.List;
 
 import javax.ws.rs.core.Response;
 
@@ -22,6 +23,8 @@ public class DiffusionTaskObserver implements TaskObserver {
 	}
 
 	DiffusionResultColumns diffusionResultColumns;
+	// columns of each time of a times sweep, null otherwise
+	List<DiffusionResultColumns> sweepResultColumns;
 	private String resourcePath;
 	private String errorCode;
 
@@ -36,8 +39,13 @@ public class DiffusionTaskObserver implements TaskObserver {
 	public void allFinished(FinishStatus arg0) {
 
 		if (arg0.getType() == FinishStatus.Type.SUCCEEDED || arg0.getType() == FinishStatus.Type.CANCELLED) {
-			response = new CIResponse<DiffusionResultColumns>();
-			((CIResponse<DiffusionResultColumns>)response).data = diffusionResultColumns;
+			if (sweepResultColumns != null) {
+				response = new CIResponse<List<DiffusionResultColumns>>();
+				((CIResponse<List<DiffusionResultColumns>>)response).data = sweepResultColumns;
+			} else {
+				response = new CIResponse<DiffusionResultColumns>();
+				((CIResponse<DiffusionResultColumns>)response).data = diffusionResultColumns;
+			}
 			response.errors = new ArrayList<CIError>();
 		}
 		else {
@@ -49,5 +57,6 @@ public class DiffusionTaskObserver implements TaskObserver {
 	public void taskFinished(ObservableTask arg0) {
 		DiffusionResultColumns jsonResult = arg0.getResults(DiffusionResultColumns.class);
 		diffusionResultColumns = jsonResult;	
+		sweepResultColumns = arg0.getResults(List.class);
 	}
 }
\ No newline at end of file
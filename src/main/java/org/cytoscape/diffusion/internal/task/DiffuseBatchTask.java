@@ -0,0 +1,92 @@
+package org.cytoscape.diffusion.internal.task;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.application.swing.CySwingApplication;
+import org.cytoscape.diffusion.internal.DiffusionDocumentation;
+import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
+import org.cytoscape.diffusion.internal.rest.DiffusionResultColumns;
+import org.cytoscape.diffusion.internal.ui.OutputPanel;
+import org.cytoscape.diffusion.internal.util.DiffusionTableManager;
+import org.cytoscape.io.write.CyNetworkViewWriterFactory;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.Tunable;
+import org.cytoscape.work.TunableSetter;
+import org.cytoscape.work.TunableValidator;
+import org.cytoscape.work.json.JSONResult;
+import org.cytoscape.work.util.ListMultipleSelection;
+
+/**
+ * Diffuses several input heat columns of one network. The network is
+ * encoded only once and each input heat column gets its own pair of output
+ * heat and rank columns.
+ */
+public class DiffuseBatchTask extends DiffuseSelectedTask implements TunableValidator {
+
+	@Tunable(description = "Time:", longDescription = DiffusionDocumentation.TIME_LONG_DESCRIPTION, exampleStringValue = "0.1")
+	public Double time = DiffuseSelectedWithOptionsTask.DEFAULT_TIME;
+
+	@Tunable(description = "Heat Columns:", longDescription = DiffusionDocumentation.HEAT_COLUMN_NAMES_LONG_DESCRIPTION, exampleStringValue = "seeds_1,seeds_2")
+	public ListMultipleSelection<String> heatColumnNames;
+
+	private List<DiffusionResultColumns> batchResultColumns = null;
+
+	public DiffuseBatchTask(DiffusionTableManager tableManager, CyNetwork network,
+			CyNetworkViewWriterFactory writerFactory, OutputPanel outputPanel, CySwingApplication swingApplication,
+			CyApplicationManager appManager, DiffusionServiceClient client, TunableSetter setter) {
+
+		super(tableManager, network, writerFactory, outputPanel, swingApplication, appManager, client, setter);
+
+		final CyTable localTbl = network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS);
+		final List<String> colNames = localTbl.getColumns().stream().filter(col -> col.getType() == Double.class)
+				.map(col -> col.getName()).collect(Collectors.toList());
+		heatColumnNames = new ListMultipleSelection<>(colNames);
+	}
+
+	@Override
+	public void run(TaskMonitor tm) throws Exception {
+		this.tm = tm;
+		tm.setTitle("Running Heat Diffusion");
+		tm.setStatusMessage("Running heat diffusion service.  Please wait...");
+
+		final List<String> columnNames = new ArrayList<>(heatColumnNames.getSelectedValues());
+		final List<Double> times = Collections.nCopies(columnNames.size(), time);
+		batchResultColumns = diffuseBatch(columnNames, times);
+	}
+
+	@Override
+	public ValidationState getValidationState(Appendable message) {
+		try {
+			if (time < 0) {
+				message.append("Please enter positive value for time parameter.");
+				return TunableValidator.ValidationState.INVALID;
+			}
+			if (heatColumnNames.getSelectedValues().isEmpty()) {
+				message.append("Please select at least one heat column.");
+				return TunableValidator.ValidationState.INVALID;
+			}
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return TunableValidator.ValidationState.OK;
+	}
+
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		return getResults(type, batchResultColumns);
+	}
+
+	@Override
+	public List<Class<?>> getResultClasses() {
+		return Collections.unmodifiableList(Arrays.asList(String.class, List.class, JSONResult.class));
+	}
+}
@@ -5,23 +5,29 @@ import java.awt.Dimension;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.stream.Collectors;
 import javax.swing.SwingUtilities;
 
-import org.cxio.aspects.datamodels.ATTRIBUTE_DATA_TYPE;
-import org.cxio.aspects.datamodels.NodeAttributesElement;
-import org.cxio.core.interfaces.AspectElement;
+import org.apache.http.entity.ContentProducer;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.application.swing.CytoPanel;
 import org.cytoscape.application.swing.CytoPanelComponent2;
 import org.cytoscape.application.swing.CytoPanelName;
 import org.cytoscape.application.swing.CytoPanelState;
+import org.cytoscape.diffusion.internal.client.DiffusionCacheKey;
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
 import org.cytoscape.diffusion.internal.client.DiffusionResultParser;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
-import org.cytoscape.diffusion.internal.client.DiffusionServiceException;
 import org.cytoscape.diffusion.internal.client.NodeAttributes;
+import org.cytoscape.diffusion.internal.engine.LocalDiffusionEngine;
 import org.cytoscape.diffusion.internal.rest.DiffusionResultColumns;
 import org.cytoscape.diffusion.internal.ui.OutputPanel;
 import org.cytoscape.diffusion.internal.util.DiffusionResult;
@@ -54,9 +60,6 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 	private static final String heatSuffix = "_heat";
 	private static final String rankSuffix = "_rank";
 
-	private static final String ORIGINAL_HEAT_ATTR_NAME = "diffusion_output_heat";
-	private static final String ORIGINAL_RANK_ATTR_NAME = "diffusion_output_rank";
-
 	public static final String DIFFUSION_INPUT_COL_NAME = "diffusion_input";
 
 	private static final String DIFFUSION_OUTPUT_COL_NAME = "diffusion_output";
@@ -68,6 +71,7 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 	protected final CyApplicationManager appManager;
 	protected final DiffusionTableManager tableManager;
 	protected TaskMonitor tm;
+	private volatile Runnable cancelHook = null;
 
 	private final static Logger logger = LoggerFactory.getLogger(DiffuseSelectedTask.class);
 
@@ -94,65 +98,292 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 		diffuse(null, null);
 	}
 
+	/**
+	 * @return number of best ranks written, 0 for all of them
+	 */
+	protected int getTopK() {
+		return 0;
+	}
+
 	protected void diffuse(final String columnName, final Double time) throws Exception {
-		String inputCol = columnName;
+		final String inputCol = prepareInputColumn(columnName);
+		final int top = getTopK();
+
+		// An exact repeat of an earlier diffusion is served from the cache,
+		// a full one serves any number of top ranks
+		final DiffusionCacheKey key = createCacheKey(client.getTopology(network), inputCol, time);
+		final DiffusionCacheKey topKey = top > 0 ? key.top(top) : key;
+		DiffusionOutput output = top > 0 ? client.getCachedOutput(key, topKey) : client.getCachedOutput(key);
+		if (output == null && client.isLocalEngine()) {
+			tm.setStatusMessage("Running local diffusion");
+
+			try {
+				output = top > 0 ? client.diffuseTopLocally(network, inputCol, time, top, this)
+						: client.diffuseLocally(network, inputCol, time, this);
+			} catch (CancellationException e) {
+				output = null;
+			}
+			if (this.cancelled == true) {
+				tm.setStatusMessage("User canceled task");
+				return;
+			}
+			client.cacheOutput(topKey, output);
+		} else if (output == null) {
+			// The CX is written straight to the request while it is sent
+			final ContentProducer cx = resultParser.getCxProducer(network, inputCol);
+
+			tm.setStatusMessage("Running diffusion");
+
+			// Call the service, the response is decoded as it arrives
+			output = client.diffuse(cx, columnName, time, this);
+			if (output == null && this.cancelled == true) {
+				tm.setStatusMessage("User canceled task");
+				return;
+			}
+			// While the service is unavailable the local engine answers, its
+			// output must not be served as that of the service later on
+			client.cacheOutput(output == null || output.getEngine() == null ? key
+					: key.engine(output.getEngine(), output.getPrecision()), output);
+		}
+		loadResult(output);
+	}
+
+	/**
+	 * Propagates the input heats by a random walk with restart instead of
+	 * the heat kernel. It is always computed by the local engine, the
+	 * service only runs heat diffusions. The result is written like that of
+	 * a heat diffusion.
+	 * 
+	 * @param columnName existing input heat column or {@code null} to create
+	 *                   one from the selected nodes
+	 * @param restart restart probability, above 0 and at most 1
+	 */
+	protected void diffuseWithRestart(final String columnName, final double restart) throws Exception {
+		final String inputCol = prepareInputColumn(columnName);
+
+		// always computed by the local engine, in double precision
+		final DiffusionCacheKey key = DiffusionCacheKey.create(client.getTopology(network), network, inputCol, null,
+				restart)
+				.engine(DiffusionServiceClient.ENGINE_LOCAL, LocalDiffusionEngine.PRECISION_DOUBLE);
+		DiffusionOutput output = client.getCachedOutput(key);
+		if (output == null) {
+			tm.setStatusMessage("Running random walk with restart");
+
+			try {
+				output = client.diffuseWithRestartLocally(network, inputCol, restart, this);
+			} catch (CancellationException e) {
+				output = null;
+			}
+			if (this.cancelled == true) {
+				tm.setStatusMessage("User canceled task");
+				return;
+			}
+			client.cacheOutput(key, output);
+		}
+		loadResult(output);
+	}
+
+	/**
+	 * @param topology topology of {@code network}, hashed once per run
+	 * @return key of the heat diffusion on the engine and precision the
+	 *         client computes with
+	 */
+	private DiffusionCacheKey createCacheKey(final DiffusionCacheKey.Topology topology, final String inputCol,
+			final Double time) {
+		return DiffusionCacheKey.create(topology, network, inputCol, time, null).engine(client.getEngine(),
+				client.getPrecision());
+	}
+
+	private void loadResult(final DiffusionOutput output) {
+		tm.setStatusMessage("Loading Result");
+
+		diffusionResultColumns = writeResult(output);
+
+		appManager.setCurrentNetwork(network);
+	
+		outputPanel.setColumnName(diffusionResultColumns.rankColumn);
+		outputPanel.setPanelVisible(true);
+		
+		showResult();
+		tm.setStatusMessage("Cleaning up");
+	}
+
+	/**
+	 * @param columnName existing input heat column or {@code null} to create
+	 *                   one from the selected nodes
+	 * @return name of the input heat column
+	 */
+	protected String prepareInputColumn(final String columnName) {
 		tm.setStatusMessage("Creating heat columns");
 		// Case 1: create new input heat column with default values
 		if (columnName == null) {
-			inputCol = DIFFUSION_INPUT_COL_NAME;
-			setInputHeatValues(inputCol);
+			setInputHeatValues(DIFFUSION_INPUT_COL_NAME);
+			return DIFFUSION_INPUT_COL_NAME;
 		}
-
 		// Case 2: Use existing column as-is
-		final String cx = resultParser.encode(network, inputCol);
-
-		// System.out.println("\n\n" + cx);
-		tm.setStatusMessage("Running diffusion");
+		return columnName;
+	}
 
-		// Call the service
-		final String responseJSONString = client.diffuse(cx, columnName, time, this);
-                if (responseJSONString == null && this.cancelled == true){
-                    tm.setStatusMessage("User canceled task");
-                    return;
-                }
-		tm.setStatusMessage("Decoding response");
-		// System.out.println("\n\n" + responseJSONString);
+	/**
+	 * Diffuses one input heat column to several times. The local engine
+	 * steps through all times together, the service gets the network once.
+	 * Each time gets its own pair of heat and rank columns, in the order of
+	 * {@code times}.
+	 * 
+	 * @param columnName existing input heat column or {@code null} to create
+	 *                   one from the selected nodes
+	 * @param times diffusion times
+	 * @return columns written or {@code null} if the task was canceled
+	 */
+	protected List<DiffusionResultColumns> diffuseTimes(final String columnName, final List<Double> times)
+			throws Exception {
+		if (times.isEmpty()) {
+			throw new IllegalArgumentException("No diffusion times.");
+		}
+		final String inputCol = prepareInputColumn(columnName);
+		return diffuseBatch(Collections.nCopies(times.size(), inputCol), times);
+	}
 
-		// Parse the result
-		Map<String, List<AspectElement>> response = null;
+	/**
+	 * Runs one diffusion per input heat column. The network is encoded once
+	 * with all input heat columns and the results are written to a new pair
+	 * of heat and rank columns each, in the order of {@code columnNames}.
+	 * 
+	 * @param columnNames existing input heat columns
+	 * @param times time of each diffusion
+	 * @return columns written or {@code null} if the task was canceled
+	 */
+	protected List<DiffusionResultColumns> diffuseBatch(final List<String> columnNames, final List<Double> times)
+			throws Exception {
+		if (columnNames.isEmpty()) {
+			throw new IllegalArgumentException("No input heat columns to diffuse.");
+		}
+		tm.setStatusMessage("Running " + columnNames.size() + " diffusions");
+
+		// Only diffusions not in the cache are sent to the service. The
+		// topology is hashed once and the heats once per column.
+		final DiffusionCacheKey.Topology topology = client.getTopology(network);
+		final Map<String, DiffusionCacheKey> columnKeys = new HashMap<>();
+		final List<DiffusionCacheKey> keys = new ArrayList<>(columnNames.size());
+		final List<CompletableFuture<DiffusionOutput>> results = new ArrayList<>(columnNames.size());
+		final List<String> missedColumns = new ArrayList<>();
+		final List<Double> missedTimes = new ArrayList<>();
+		for (int i = 0; i < columnNames.size(); i++) {
+			final DiffusionCacheKey key = columnKeys
+					.computeIfAbsent(columnNames.get(i), column -> createCacheKey(topology, column, null))
+					.time(times.get(i));
+			final DiffusionOutput cached = client.getCachedOutput(key);
+			keys.add(key);
+			results.add(cached == null ? null : CompletableFuture.completedFuture(cached));
+			if (cached == null) {
+				missedColumns.add(columnNames.get(i));
+				missedTimes.add(times.get(i));
+			}
+		}
+		if (!missedColumns.isEmpty() && client.isLocalEngine()) {
+			// Distinct columns diffused to the same time run as one block,
+			// times of the same column are computed in one go
+			final boolean distinct = missedColumns.stream().distinct().count() == missedColumns.size();
+			final Map<Object, List<Integer>> groups = new LinkedHashMap<>();
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i) == null) {
+					groups.computeIfAbsent(distinct ? times.get(i) : columnNames.get(i), group -> new ArrayList<>())
+							.add(i);
+				}
+			}
+			for (List<Integer> group : groups.values()) {
+				if (isCanceled()) {
+					break;
+				}
+				final List<DiffusionOutput> outputs;
+				try {
+					if (distinct) {
+						final List<String> groupColumns = new ArrayList<>(group.size());
+						group.forEach(i -> groupColumns.add(columnNames.get(i)));
+						outputs = client.diffuseColumnsLocally(network, groupColumns, times.get(group.get(0)), this);
+					} else {
+						final List<Double> groupTimes = new ArrayList<>(group.size());
+						group.forEach(i -> groupTimes.add(times.get(i)));
+						outputs = client.diffuseLocally(network, columnNames.get(group.get(0)), groupTimes, this);
+					}
+				} catch (CancellationException e) {
+					break;
+				}
+				for (int g = 0; g < group.size(); g++) {
+					results.set(group.get(g), CompletableFuture.completedFuture(outputs.get(g)));
+				}
+			}
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i) == null) {
+					final CompletableFuture<DiffusionOutput> canceled = new CompletableFuture<>();
+					canceled.cancel(true);
+					results.set(i, canceled);
+				}
+			}
+		} else if (!missedColumns.isEmpty()) {
+			final ContentProducer cx = resultParser.getCxProducer(network,
+					missedColumns.stream().distinct().collect(Collectors.toList()));
+			final Iterator<CompletableFuture<DiffusionOutput>> sent = client
+					.diffuseBatch(cx, missedColumns, missedTimes).iterator();
+			for (int i = 0; i < results.size(); i++) {
+				if (results.get(i) == null) {
+					results.set(i, sent.next());
+				}
+			}
+		}
+		setCancelHook(() -> results.forEach(result -> result.cancel(true)));
+		if (isCanceled()) {
+			results.forEach(result -> result.cancel(true));
+		}
 
-		// Parse the result and catch exeption if there is an error in it.
+		final List<DiffusionResultColumns> resultColumns = new ArrayList<>(results.size());
 		try {
-			response = resultParser.decode(responseJSONString);
-		} catch (DiffusionServiceException e) {
-			// If the DiffusionServiceException is thrown, the service returned
-			// some errors.
-			throw e;
+			// Results are written as they arrive while later queries are
+			// still running
+			for (int i = 0; i < results.size(); i++) {
+				final DiffusionOutput output = client.await(results.get(i));
+				if (output == null && this.cancelled == true) {
+					tm.setStatusMessage("User canceled task");
+					return null;
+				}
+				client.cacheOutput(keys.get(i), output);
+				resultColumns.add(writeResult(output));
+				tm.setProgress((double) resultColumns.size() / results.size());
+			}
 		} catch (Exception e) {
-
-			logger.error("Could not parse the following Diffusion service response: " + responseJSONString);
-			throw new IllegalStateException("Could not parse the Diffusion service response", e);
+			results.forEach(result -> result.cancel(true));
+			throw e;
+		} finally {
+			setCancelHook(null);
 		}
-		tm.setStatusMessage("Loading Result");
 
+		diffusionResultColumns = resultColumns.get(resultColumns.size() - 1);
+		appManager.setCurrentNetwork(network);
+
+		outputPanel.setColumnName(diffusionResultColumns.rankColumn);
+		outputPanel.setPanelVisible(true);
+
+		showResult();
+		return resultColumns;
+	}
+
+	/**
+	 * Writes {@code output} to the next available pair of output columns,
+	 * only its best ranks if {@link #getTopK()} is above 0
+	 * 
+	 * @return names of the columns written
+	 */
+	protected DiffusionResultColumns writeResult(final DiffusionOutput output) {
 		final String outputColumnName = getNextAvailableColumnName(DIFFUSION_OUTPUT_COL_NAME);
-		final List<AspectElement> nodeAttributes = response.get(NodeAttributesElement.ASPECT_NAME);
 
 		// Write values to the local table.
-		setResult(outputColumnName, nodeAttributes);
+		setResult(outputColumnName, getTopK() > 0 ? output.top(getTopK()) : output);
 
 		// This is hacky, like the rest of column naming.
-		diffusionResultColumns = new DiffusionResultColumns();
-		diffusionResultColumns.heatColumn = String.format("%s_heat", outputColumnName);
-		diffusionResultColumns.rankColumn = String.format("%s_rank", outputColumnName);
-
-		appManager.setCurrentNetwork(network);
-	
-		outputPanel.setColumnName(String.format("%s_rank", outputColumnName));
-		outputPanel.setPanelVisible(true);
-		
-		showResult();
-		tm.setStatusMessage("Cleaning up");
+		final DiffusionResultColumns columns = new DiffusionResultColumns();
+		columns.heatColumn = formatColumnName(outputColumnName, heatSuffix);
+		columns.rankColumn = formatColumnName(outputColumnName, rankSuffix);
+		return columns;
 	}
 
 	private final void setInputHeatValues(final String columnName) {
@@ -181,7 +412,7 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 		getNodeTable().createColumn(heatName, Double.class, false, 0.0);
 	}
 
-	private final void setResult(final String baseColumnName, final List<AspectElement> nodeAttrs) {
+	private final void setResult(final String baseColumnName, final DiffusionOutput output) {
 		final CyTable table = getNodeTable(); // network.getTable(CyNode.class,
 												// CyRootNetwork.LOCAL_ATTRS);
 		if (table == null) {
@@ -202,42 +433,21 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 		final DiffusionResult result = new DiffusionResult(network, rankColumnName, heatColumnName);
 		diffTable.setDiffusionResult(baseColumnName, result);
 
-		for (final AspectElement attr : nodeAttrs) {
-
-			final NodeAttributesElement nodeAttr = (NodeAttributesElement) attr;
-			final Long suid = nodeAttr.getPropertyOf().get(0);
-			final CyRow row = getNodeTable().getRow(suid);
+		for (int i = 0; i < output.getSize(); i++) {
+			final CyRow row = table.getRow(output.getSUID(i));
 
-			final String attrName = nodeAttr.getName();
-			final String valueStr = nodeAttr.getValue();
-
-			if (attrName.equals(ORIGINAL_HEAT_ATTR_NAME)) {
-				row.set(heatColumnName, parseValue(ATTRIBUTE_DATA_TYPE.DOUBLE, valueStr));
-			} else if (attrName.equals(ORIGINAL_RANK_ATTR_NAME)) {
-				row.set(rankColumnName, parseValue(ATTRIBUTE_DATA_TYPE.INTEGER, valueStr));
-			} else {
-				continue;
+			final double heat = output.getHeat(i);
+			if (!Double.isNaN(heat)) {
+				row.set(heatColumnName, heat);
+			}
+			final int rank = output.getRank(i);
+			if (rank != DiffusionOutput.NO_RANK) {
+				row.set(rankColumnName, rank);
 			}
 		}
 
 	}
 
-	private final Object parseValue(final ATTRIBUTE_DATA_TYPE type, final String valueStr) {
-		if (type.equals(ATTRIBUTE_DATA_TYPE.STRING)) {
-			return valueStr;
-		} else if (type.equals(ATTRIBUTE_DATA_TYPE.INTEGER)) {
-			return Integer.parseInt(valueStr);
-		} else if (type.equals(ATTRIBUTE_DATA_TYPE.LONG)) {
-			return Long.parseLong(valueStr);
-		} else if (type.equals(ATTRIBUTE_DATA_TYPE.DOUBLE) || type.equals(ATTRIBUTE_DATA_TYPE.FLOAT)) {
-			return Double.parseDouble(valueStr);
-		} else if (type.equals(ATTRIBUTE_DATA_TYPE.BOOLEAN)) {
-			return Boolean.parseBoolean(valueStr);
-		} else {
-			throw new IllegalArgumentException("don't know how to deal with type '" + type.toString() + "'");
-		}
-	}
-
 	public void setResults(String base, Map<String, NodeAttributes> nodes) {
 
 		final CyTable table = this.getNodeTable();
@@ -372,6 +582,38 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 		return null;
 	}
 
+	/**
+	 * Results of a task that created several pairs of result columns, as a
+	 * String, the List itself or its JSON
+	 * 
+	 * @return {@code null} for any other type
+	 */
+	protected static <R> R getResults(final Class<? extends R> type, final List<DiffusionResultColumns> resultColumns) {
+		if (type.equals(String.class)) {
+			if (resultColumns == null) {
+				return (R) "No result columns available";
+			}
+			final StringBuilder result = new StringBuilder("Created result columns:");
+			for (DiffusionResultColumns columns : resultColumns) {
+				result.append(" (").append(columns.heatColumn).append("),(").append(columns.rankColumn).append(")");
+			}
+			return (R) result.toString();
+		} else if (type.equals(List.class)) {
+			return (R) resultColumns;
+		} else if (type.equals(JSONResult.class)) {
+			JSONResult res = () -> {
+				try {
+					return new ObjectMapper().writeValueAsString(resultColumns);
+				} catch (JsonProcessingException e) {
+					e.printStackTrace();
+					return null;
+				}
+			};
+			return (R) (res);
+		}
+		return null;
+	}
+
 	public final static String getJson(DiffusionResultColumns diffusionResultColumns) {
 		ObjectMapper mapper = new ObjectMapper();
 		try {
@@ -388,6 +630,13 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
 				.unmodifiableList(Arrays.asList(String.class, DiffusionResultColumns.class, JSONResult.class));
 	}
         
+        /**
+         * @return network this task diffuses
+         */
+        public CyNetwork getNetwork(){
+            return this.network;
+        }
+        
         /**
          * Lets caller know if this task has been canceled
          * @return 
@@ -395,5 +644,23 @@ public class DiffuseSelectedTask extends AbstractNetworkTask implements Observab
         public boolean isCanceled(){
             return this.cancelled;
         }
+        
+        /**
+         * Sets hook run as soon as this task is canceled, used to abort
+         * a diffusion that is in progress
+         * @param cancelHook hook to run or {@code null} to clear it
+         */
+        public void setCancelHook(final Runnable cancelHook){
+            this.cancelHook = cancelHook;
+        }
+        
+        @Override
+        public void cancel() {
+            super.cancel();
+            final Runnable hook = this.cancelHook;
+            if (hook != null) {
+                hook.run();
+            }
+        }
 
 }
@@ -1,7 +1,10 @@
 package org.cytoscape.diffusion.internal.task;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -9,6 +12,7 @@ import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.diffusion.internal.DiffusionDocumentation;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
+import org.cytoscape.diffusion.internal.rest.DiffusionResultColumns;
 import org.cytoscape.diffusion.internal.ui.OutputPanel;
 import org.cytoscape.diffusion.internal.util.DiffusionTableManager;
 import org.cytoscape.io.write.CyNetworkViewWriterFactory;
@@ -21,6 +25,7 @@ import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.Tunable;
 import org.cytoscape.work.TunableSetter;
 import org.cytoscape.work.TunableValidator;
+import org.cytoscape.work.json.JSONResult;
 import org.cytoscape.work.util.ListSingleSelection;
 
 /**
@@ -36,9 +41,20 @@ public class DiffuseSelectedWithOptionsTask extends DiffuseSelectedTask implemen
 	@Tunable(description = "Time:", longDescription=DiffusionDocumentation.TIME_LONG_DESCRIPTION, exampleStringValue="0.1")
 	public Double time = DEFAULT_TIME;
 
+	@Tunable(description = "Times:", longDescription=DiffusionDocumentation.TIMES_LONG_DESCRIPTION, exampleStringValue="0.1,1,10")
+	public String times = "";
+
+	@Tunable(description = "Restart Probability:", longDescription=DiffusionDocumentation.RESTART_PROBABILITY_LONG_DESCRIPTION, exampleStringValue="0.15")
+	public Double restartProbability = 0.0;
+
+	@Tunable(description = "Top Ranks:", longDescription=DiffusionDocumentation.TOP_K_LONG_DESCRIPTION, exampleStringValue="200")
+	public Integer topK = 0;
+
 	@Tunable(description = "Heat Column:", longDescription=DiffusionDocumentation.HEAT_COLUMN_NAME_LONG_DESCRIPTION, exampleStringValue=DIFFUSION_INPUT_COL_NAME)
 	public ListSingleSelection<String> heatColumnName;
 
+	private List<DiffusionResultColumns> sweepResultColumns = null;
+
 	public DiffuseSelectedWithOptionsTask(DiffusionTableManager tableManager, CyNetwork network,
 			CyNetworkViewWriterFactory writerFactory, OutputPanel outputPanel, CySwingApplication swingApplication,
 			CyApplicationManager appManager, DiffusionServiceClient client, TunableSetter setter) {
@@ -72,18 +88,49 @@ public class DiffuseSelectedWithOptionsTask extends DiffuseSelectedTask implemen
 		tm.setStatusMessage("Running heat diffusion service.  Please wait...");
 		
 		final String selectedColumnName = this.heatColumnName.getSelectedValue();
-
 		// Special case: new heat column
-		if (selectedColumnName.equals(FROM_SELECTION_MENU)) {
-			diffuse(null, time);
+		final String columnName = selectedColumnName.equals(FROM_SELECTION_MENU) ? null : selectedColumnName;
+
+		final List<Double> sweep = parseTimes(times);
+		if (restartProbability != null && restartProbability > 0) {
+			tm.setTitle("Running Random Walk with Restart");
+			diffuseWithRestart(columnName, restartProbability);
+		} else if (sweep.isEmpty()) {
+			diffuse(columnName, time);
 		} else {
-			// Initialize the selected column with input heat parameter
-			diffuse(selectedColumnName, time);
+			sweepResultColumns = diffuseTimes(columnName, sweep);
+		}
+	}
+
+	@Override
+	protected int getTopK() {
+		return topK == null ? 0 : topK;
+	}
+
+	/**
+	 * @param times comma separated times, can be {@code null}
+	 * @return times in the order given, empty if none
+	 * @throws NumberFormatException if a time is empty or not a number
+	 */
+	static List<Double> parseTimes(final String times) {
+		final List<Double> parsed = new ArrayList<>();
+		if (times == null || times.trim().isEmpty()) {
+			return parsed;
+		}
+		for (String time : times.split(",", -1)) {
+			parsed.add(Double.valueOf(time.trim()));
 		}
+		return parsed;
 	}
 
 	@Override
 	public ValidationState getValidationState(Appendable message) {
+		List<Double> sweep;
+		try {
+			sweep = parseTimes(times);
+		} catch (NumberFormatException e) {
+			sweep = null;
+		}
 		if (time < 0) {
 			
             try {
@@ -92,8 +139,51 @@ public class DiffuseSelectedWithOptionsTask extends DiffuseSelectedTask implemen
 				e.printStackTrace();
 			}
             return TunableValidator.ValidationState.INVALID;
+        } else if (sweep == null || sweep.stream().anyMatch(t -> t < 0 || t.isNaN())) {
+            try {
+				message.append("Please enter times as a comma separated list of positive numbers.");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+            return TunableValidator.ValidationState.INVALID;
+        } else if (restartProbability != null && !(restartProbability >= 0 && restartProbability <= 1)) {
+            try {
+				message.append("Please enter a restart probability between 0 and 1.");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+            return TunableValidator.ValidationState.INVALID;
+        } else if (restartProbability != null && restartProbability > 0 && !sweep.isEmpty()) {
+            try {
+				message.append("Please enter either times or a restart probability, a random walk with restart has no time.");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+            return TunableValidator.ValidationState.INVALID;
+        } else if (topK != null && topK < 0) {
+            try {
+				message.append("Please enter a number of top ranks of 0 or more.");
+			} catch (IOException e) {
+				e.printStackTrace();
+			}
+            return TunableValidator.ValidationState.INVALID;
         } else {
             return TunableValidator.ValidationState.OK;
         }
 	}
+
+	@Override
+	public <R> R getResults(Class<? extends R> type) {
+		if (sweepResultColumns == null) {
+			return super.getResults(type);
+		}
+		final R result = getResults(type, sweepResultColumns);
+		return result == null ? super.getResults(type) : result;
+	}
+
+	@Override
+	public List<Class<?>> getResultClasses() {
+		return Collections.unmodifiableList(
+				Arrays.asList(String.class, DiffusionResultColumns.class, List.class, JSONResult.class));
+	}
 }
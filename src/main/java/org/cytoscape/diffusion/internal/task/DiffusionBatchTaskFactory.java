@@ -0,0 +1,53 @@
+package org.cytoscape.diffusion.internal.task;
+
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.application.swing.CySwingApplication;
+import org.cytoscape.diffusion.internal.ViewWriterFactoryManager;
+import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
+import org.cytoscape.diffusion.internal.ui.OutputPanel;
+import org.cytoscape.diffusion.internal.util.DiffusionTableManager;
+import org.cytoscape.io.write.CyNetworkViewWriterFactory;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.task.AbstractNetworkTaskFactory;
+import org.cytoscape.work.TaskIterator;
+import org.cytoscape.work.TunableSetter;
+
+/**
+ * Creates {@link DiffuseBatchTask}s diffusing several heat columns of a
+ * network at once
+ */
+public class DiffusionBatchTaskFactory extends AbstractNetworkTaskFactory {
+
+	private final ViewWriterFactoryManager factoryManager;
+	private final OutputPanel outputPanel;
+	private final CySwingApplication swingApplication;
+	private final CyApplicationManager appManager;
+	private final DiffusionServiceClient client;
+	private final TunableSetter setter;
+	private final DiffusionTableManager tableManager;
+
+	public DiffusionBatchTaskFactory(DiffusionTableManager tableManager, OutputPanel outputPanel,
+			final ViewWriterFactoryManager factoryManager, final CySwingApplication swingApplication,
+			final CyApplicationManager appManager, final DiffusionServiceClient client, final TunableSetter setter) {
+		this.outputPanel = outputPanel;
+		this.factoryManager = factoryManager;
+		this.swingApplication = swingApplication;
+		this.appManager = appManager;
+		this.client = client;
+		this.setter = setter;
+		this.tableManager = tableManager;
+	}
+
+	@Override
+	public TaskIterator createTaskIterator(CyNetwork network) {
+		final CyNetworkViewWriterFactory writerFactory = this.factoryManager.getCxFactory();
+
+		if (writerFactory == null) {
+			throw new IllegalStateException(
+					"CXWriterFactory is not available.  " + "Please make sure you have proper dependencies");
+		}
+
+		return new TaskIterator(new DiffuseBatchTask(tableManager, network, writerFactory, outputPanel,
+				swingApplication, appManager, client, setter));
+	}
+}
@@ -3,43 +3,54 @@ package org.cytoscape.diffusion.internal.task;
 import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.Callable;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.StatusLine;
 import org.apache.http.NameValuePair;
-import org.apache.http.client.HttpClient;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.entity.StringEntity;
+import org.apache.http.entity.ContentProducer;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.message.BasicNameValuePair;
 import org.apache.http.util.EntityUtils;
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
+import org.cytoscape.diffusion.internal.client.DiffusionResultParser;
+import org.cytoscape.diffusion.internal.client.DiffusionServiceException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.fasterxml.jackson.core.JsonProcessingException;
+
 /**
  * {@link java.util.concurrent.Callable} task to run Diffusion. 
  * Using a {@link java.util.concurrent.Callable}
  * allows caller to cancel the operation. 
  * @author churas
  */
-public class DiffusionCallable implements Callable {
+public class DiffusionCallable implements Callable<DiffusionOutput> {
 
     public static final String HEAT_COLUMN_PARAM = "input_attribute_name";
     public static final String TIME_PARAM = "time";
+    public static final String CX_CONTENT_TYPE = "application/json";
     
     private final static Logger logger = LoggerFactory.getLogger(DiffusionCallable.class);
 
-    private HttpClient _client = null;
-    private final String _cx;
+    private final ContentProducer _cx;
     private final String _inputHeatCol;
     private final Double _time;
     private final String _diffusionURL;
     private HttpClientFactory _httpClientFactory;
+    private volatile HttpPost _post = null;
+    private volatile boolean _aborted = false;
     
     /**
-     * Constructor
+     * Constructor, uses the shared client of
+     * {@link HttpClientFactoryImpl#getDefault()}
      * @param cx
      * @param inputHeatCol
      * @param time
@@ -47,11 +58,38 @@ public class DiffusionCallable implements Callable {
      */
     public DiffusionCallable(final String cx, final String inputHeatCol, final Double time,
             final String diffusionURL){
+        this(cx, inputHeatCol, time, diffusionURL, HttpClientFactoryImpl.getDefault());
+    }
+    
+    /**
+     * Constructor
+     * @param cx
+     * @param inputHeatCol
+     * @param time
+     * @param diffusionURL
+     * @param clientFactory Factory providing the (shared) client used for the request
+     */
+    public DiffusionCallable(final String cx, final String inputHeatCol, final Double time,
+            final String diffusionURL, final HttpClientFactory clientFactory){
+        this((out) -> out.write(cx.getBytes(StandardCharsets.UTF_8)), inputHeatCol,
+                time, diffusionURL, clientFactory);
+    }
+    
+    /**
+     * Constructor
+     * @param cx Writes the network in CX format to the request body as it is sent
+     * @param inputHeatCol
+     * @param time
+     * @param diffusionURL
+     * @param clientFactory Factory providing the (shared) client used for the request
+     */
+    public DiffusionCallable(final ContentProducer cx, final String inputHeatCol, final Double time,
+            final String diffusionURL, final HttpClientFactory clientFactory){
         _cx = cx;
         _inputHeatCol = inputHeatCol;
         _time = time;
         _diffusionURL = diffusionURL;
-        _httpClientFactory = new HttpClientFactoryImpl();
+        _httpClientFactory = clientFactory;
     }
     
     /**
@@ -64,33 +102,84 @@ public class DiffusionCallable implements Callable {
     }
         
     /**
-     * Call Diffusion service to run diffusion
-     * @return String of result from web request
+     * Call Diffusion service to run diffusion. The response is decoded
+     * while it is read from the connection.
+     * @return Output heat and rank from web request
+     * @throws DiffusionServiceException If the service reported errors
+     * @throws IllegalStateException If the response could not be parsed
      * @throws Exception If there was an error with request
      */
     @Override
-    public String call() throws Exception {
+    public DiffusionOutput call() throws Exception {
         try {
 			final URI uri = getRequestURI(_inputHeatCol, _time);
 			final HttpPost post = new HttpPost(uri.toString());
+			_post = post;
+			if (_aborted) {
+				post.abort();
+			}
 
-			final StringEntity cxEntity = new StringEntity(_cx);
-			post.setEntity(cxEntity);
-			post.setHeader("Content-type", "application/json");
+			// CX is streamed to the connection as it is written, chunked
+			// since its length is not known up front
+			final EntityTemplate cxEntity = new EntityTemplate(_cx);
+			cxEntity.setContentType(CX_CONTENT_TYPE);
+			cxEntity.setChunked(true);
+			final int compressionLevel = _httpClientFactory.getRequestCompressionLevel();
+			if (compressionLevel > 0) {
+				post.setEntity(new GzipRequestEntity(cxEntity, compressionLevel));
+			} else {
+				post.setEntity(cxEntity);
+			}
+			post.setHeader("Content-type", CX_CONTENT_TYPE);
 			final HttpResponse response = _httpClientFactory.getHttpClient().execute(post);
 			final HttpEntity entity = response.getEntity();
 			if (entity == null) {
 				throw new IOException(createConnectionError("Response from diffusion service is null."));
 			}
-			final String result = EntityUtils.toString(entity);
-			return result;
+			final StatusLine status = response.getStatusLine();
+			if (status != null && status.getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR) {
+				// server side failure, the request may succeed if retried
+				EntityUtils.consumeQuietly(entity);
+				throw new IOException("Diffusion service responded with " + status);
+			}
+			try {
+				return DiffusionResultParser.decode(entity.getContent());
+			} finally {
+				// hand the connection back to the pool even if reading failed
+				EntityUtils.consumeQuietly(entity);
+			}
+		} catch (DiffusionServiceException e) {
+			// If the DiffusionServiceException is thrown, the service returned
+			// some errors.
+			throw e;
+		} catch (JsonProcessingException e) {
+			if (_aborted) {
+				throw new IOException("Diffusion request aborted");
+			}
+			logger.error("Could not parse the Diffusion service response", e);
+			throw new IllegalStateException("Could not parse the Diffusion service response", e);
 		} catch (Exception e) {
+			if (_aborted) {
+				throw new IOException("Diffusion request aborted");
+			}
 			logger.error("Connection error contacting the heat diffusions service");
 			logger.error(createConnectionError(e.toString()), new IOException());
 			throw new IOException(createConnectionError(e.toString()));
 		}
     }
     
+    /**
+     * Aborts the request, closing its connection right away if it is in flight
+     * so that {@link #call()} fails immediately. Safe to call from any thread.
+     */
+    public void abort() {
+        _aborted = true;
+        final HttpPost post = _post;
+        if (post != null) {
+            post.abort();
+        }
+    }
+    
     /**
      * Builds request URL
      * @param inputHeatCol
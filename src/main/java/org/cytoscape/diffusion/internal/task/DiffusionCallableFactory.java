@@ -1,11 +1,33 @@
 package org.cytoscape.diffusion.internal.task;
 
+import org.apache.http.entity.ContentProducer;
+
 /**
  * Creates {@link org.cytoscape.diffusion.internal.task.DiffusionCallable} objects
  * @author churas
  */
 public class DiffusionCallableFactory {
     
+    private final HttpClientFactory _httpClientFactory;
+    
+    /**
+     * Constructor, callables use the shared client of
+     * {@link HttpClientFactoryImpl#getDefault()}
+     */
+    public DiffusionCallableFactory(){
+        this(HttpClientFactoryImpl.getDefault());
+    }
+    
+    /**
+     * Constructor
+     * @param httpClientFactory Factory shared by all 
+     *        {@link org.cytoscape.diffusion.internal.task.DiffusionCallable} objects
+     *        created by this factory
+     */
+    public DiffusionCallableFactory(final HttpClientFactory httpClientFactory){
+        _httpClientFactory = httpClientFactory;
+    }
+    
     /**
      * Factory to get  {@link org.cytoscape.diffusion.internal.task.DiffusionCallable}
      * objects. 
@@ -18,6 +40,29 @@ public class DiffusionCallableFactory {
     public DiffusionCallable getDiffusionCallable(final String cx,
             final String inputHeatCol, final Double time,
             final String diffusionURL){
-        return new DiffusionCallable(cx, inputHeatCol, time, diffusionURL);
+        return new DiffusionCallable(cx, inputHeatCol, time, diffusionURL, _httpClientFactory);
+    }
+    
+    /**
+     * Factory to get  {@link org.cytoscape.diffusion.internal.task.DiffusionCallable}
+     * objects that stream the network to the service. 
+     * @param cx writes network in CX format to the request body
+     * @param inputHeatCol input heat column parameter
+     * @param time time parameter for diffusion service
+     * @param diffusionURL URL for diffusion service
+     * @return {@link org.cytoscape.diffusion.internal.task.DiffusionCallable} that can run diffusion
+     */
+    public DiffusionCallable getDiffusionCallable(final ContentProducer cx,
+            final String inputHeatCol, final Double time,
+            final String diffusionURL){
+        return new DiffusionCallable(cx, inputHeatCol, time, diffusionURL, _httpClientFactory);
+    }
+    
+    /**
+     * Releases the resources held by the 
+     * {@link org.cytoscape.diffusion.internal.task.HttpClientFactory}
+     */
+    public void shutdown(){
+        _httpClientFactory.shutdown();
     }
 }
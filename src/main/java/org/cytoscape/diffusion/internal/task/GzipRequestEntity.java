@@ -0,0 +1,81 @@
+package org.cytoscape.diffusion.internal.task;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+import org.apache.http.message.BasicHeader;
+
+/**
+ * Wraps a request {@link org.apache.http.HttpEntity} compressing its content
+ * with gzip at a configurable level while it is written to the connection.
+ * Unlike {@link org.apache.http.client.entity.GzipCompressingEntity} this lets
+ * the caller trade CPU for bandwidth.
+ * @author churas
+ */
+public class GzipRequestEntity extends HttpEntityWrapper {
+
+    public static final String GZIP_CODEC = "gzip";
+    
+    private static final int BUFFER_SIZE = 8192;
+    
+    private final int _level;
+    
+    /**
+     * Constructor
+     * @param entity entity to compress
+     * @param level gzip compression level from 1 (fastest) to 9 (smallest)
+     * @throws IllegalArgumentException if {@code level} is not from 1 to 9
+     */
+    public GzipRequestEntity(final HttpEntity entity, final int level) {
+        super(entity);
+        if (level < 1 || level > 9) {
+            throw new IllegalArgumentException("Invalid gzip level: " + level);
+        }
+        _level = level;
+    }
+
+    @Override
+    public Header getContentEncoding() {
+        return new BasicHeader("Content-Encoding", GZIP_CODEC);
+    }
+
+    /**
+     * @return -1 since the compressed length is not known until written
+     */
+    @Override
+    public long getContentLength() {
+        return -1;
+    }
+
+    @Override
+    public boolean isChunked() {
+        return true;
+    }
+
+    /**
+     * @throws UnsupportedOperationException always, the content is
+     *         compressed while it is written, see {@link #writeTo}
+     */
+    @Override
+    public InputStream getContent() throws IOException {
+        throw new UnsupportedOperationException(
+                "Compressed request entity is streaming only, use writeTo");
+    }
+
+    @Override
+    public void writeTo(final OutputStream outstream) throws IOException {
+        final GZIPOutputStream gzip = new GZIPOutputStream(outstream, BUFFER_SIZE) {
+            {
+                def.setLevel(_level);
+            }
+        };
+        wrappedEntity.writeTo(gzip);
+        // finish() rather than close() as the connection owns outstream
+        gzip.finish();
+    }
+    
+}
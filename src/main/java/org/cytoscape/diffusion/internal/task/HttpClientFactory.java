@@ -14,4 +14,17 @@ public interface HttpClientFactory {
      * @return 
      */
     public HttpClient getHttpClient();
+    
+    /**
+     * Gets gzip level to compress request bodies with 
+     * @return level from 1 to 9 or 0 or less if request bodies should not
+     *         be compressed
+     */
+    public int getRequestCompressionLevel();
+    
+    /**
+     * Releases any resources, such as pooled connections, held by
+     * clients created by this factory
+     */
+    public void shutdown();
 }
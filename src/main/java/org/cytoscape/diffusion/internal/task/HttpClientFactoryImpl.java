@@ -1,34 +1,236 @@
 package org.cytoscape.diffusion.internal.task;
 
+import java.io.IOException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.protocol.HttpContext;
+import org.cytoscape.diffusion.internal.util.Props;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 /**
- *
+ * Creates a single pooled {@link org.apache.http.client.HttpClient} that is
+ * shared by every diffusion request until {@link #shutdown()} is called.
+ * Connections are kept alive between requests, limited per route and
+ * evicted once idle or expired.
  * @author churas
  */
 public class HttpClientFactoryImpl implements HttpClientFactory {
 
-    private RequestConfig _config;
+    public static final String MAX_CONNECTIONS_PROP = "diffusion.http.maxConnections";
+    public static final String MAX_CONNECTIONS_PER_ROUTE_PROP = "diffusion.http.maxConnectionsPerRoute";
+    public static final String CONNECT_TIMEOUT_PROP = "diffusion.http.connectTimeout";
+    public static final String CONNECTION_REQUEST_TIMEOUT_PROP = "diffusion.http.connectionRequestTimeout";
+    public static final String SOCKET_TIMEOUT_PROP = "diffusion.http.socketTimeout";
+    public static final String CONNECTION_TTL_PROP = "diffusion.http.connectionTTL";
+    public static final String IDLE_TIMEOUT_PROP = "diffusion.http.idleTimeout";
+    public static final String KEEP_ALIVE_PROP = "diffusion.http.keepAlive";
+    public static final String GZIP_REQUEST_PROP = "diffusion.http.gzipRequest";
+    public static final String GZIP_LEVEL_PROP = "diffusion.http.gzipLevel";
+    public static final String ACCEPT_GZIP_PROP = "diffusion.http.acceptGzip";
+
+    public static final int DEFAULT_MAX_CONNECTIONS = 20;
+    public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 10;
+    public static final int DEFAULT_CONNECT_TIMEOUT = 30000;
+    public static final int DEFAULT_CONNECTION_REQUEST_TIMEOUT = 30000;
+    /**
+     * Diffusion of large networks can take minutes, so by default
+     * reads never time out
+     */
+    public static final int DEFAULT_SOCKET_TIMEOUT = 0;
+    public static final long DEFAULT_CONNECTION_TTL = 300000;
+    public static final long DEFAULT_IDLE_TIMEOUT = 30000;
+    public static final long DEFAULT_KEEP_ALIVE = 30000;
+    public static final int DEFAULT_GZIP_LEVEL = 6;
+
+    private final static Logger logger = LoggerFactory.getLogger(HttpClientFactoryImpl.class);
+
+    private static HttpClientFactoryImpl _default = null;
+
+    private final PoolingHttpClientConnectionManager _connectionManager;
+    private final CloseableHttpClient _client;
+    private int _requestCompressionLevel = 0;
+
     public HttpClientFactoryImpl(final int connectTimeOutMillis,
             final int connectRequestTimeoutMillis,
             final int socketTimeoutMillis){
-        _config = RequestConfig.custom().setConnectTimeout(connectTimeOutMillis)
+        this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+                connectTimeOutMillis, connectRequestTimeoutMillis,
+                socketTimeoutMillis, DEFAULT_CONNECTION_TTL,
+                DEFAULT_IDLE_TIMEOUT, DEFAULT_KEEP_ALIVE, true);
+    }
+
+    public HttpClientFactoryImpl(){
+        this(DEFAULT_CONNECT_TIMEOUT, DEFAULT_CONNECTION_REQUEST_TIMEOUT,
+                DEFAULT_SOCKET_TIMEOUT);
+    }
+
+    /**
+     * Creates factory configured from properties, any property
+     * not set or not parseable falls back to its default
+     * @param props Properties to read, can be {@code null}
+     */
+    public HttpClientFactoryImpl(final Properties props){
+        this(Props.getInt(props, MAX_CONNECTIONS_PROP, DEFAULT_MAX_CONNECTIONS),
+                Props.getInt(props, MAX_CONNECTIONS_PER_ROUTE_PROP, DEFAULT_MAX_CONNECTIONS_PER_ROUTE),
+                Props.getInt(props, CONNECT_TIMEOUT_PROP, DEFAULT_CONNECT_TIMEOUT),
+                Props.getInt(props, CONNECTION_REQUEST_TIMEOUT_PROP, DEFAULT_CONNECTION_REQUEST_TIMEOUT),
+                Props.getInt(props, SOCKET_TIMEOUT_PROP, DEFAULT_SOCKET_TIMEOUT),
+                Props.getLong(props, CONNECTION_TTL_PROP, DEFAULT_CONNECTION_TTL),
+                Props.getLong(props, IDLE_TIMEOUT_PROP, DEFAULT_IDLE_TIMEOUT),
+                Props.getLong(props, KEEP_ALIVE_PROP, DEFAULT_KEEP_ALIVE),
+                Props.getBoolean(props, ACCEPT_GZIP_PROP, true));
+        if (Props.getBoolean(props, GZIP_REQUEST_PROP, false)){
+            final int level = Props.getInt(props, GZIP_LEVEL_PROP, DEFAULT_GZIP_LEVEL);
+            if (level < 1 || level > 9){
+                logger.warn("Invalid value for " + GZIP_LEVEL_PROP + ": " + level + ", using " + DEFAULT_GZIP_LEVEL);
+                _requestCompressionLevel = DEFAULT_GZIP_LEVEL;
+            } else {
+                _requestCompressionLevel = level;
+            }
+        }
+    }
+
+    /**
+     * Constructor
+     * @param maxConnections Maximum number of pooled connections
+     * @param maxConnectionsPerRoute Maximum number of pooled connections per host
+     * @param connectTimeOutMillis Timeout to establish a connection
+     * @param connectRequestTimeoutMillis Timeout to lease a connection from the pool
+     * @param socketTimeoutMillis Timeout waiting for data, 0 means no timeout
+     * @param connectionTTLMillis Total time a connection may live, 0 or less means forever
+     * @param idleTimeoutMillis Time after which idle connections are evicted
+     * @param keepAliveMillis Keep alive used when server does not send a Keep-Alive header
+     * @param acceptGzip If {@code true} ask for gzip compressed responses
+     */
+    public HttpClientFactoryImpl(final int maxConnections,
+            final int maxConnectionsPerRoute,
+            final int connectTimeOutMillis,
+            final int connectRequestTimeoutMillis,
+            final int socketTimeoutMillis,
+            final long connectionTTLMillis,
+            final long idleTimeoutMillis,
+            final long keepAliveMillis,
+            final boolean acceptGzip){
+        _connectionManager = new PoolingHttpClientConnectionManager(connectionTTLMillis,
+                TimeUnit.MILLISECONDS);
+        _connectionManager.setMaxTotal(maxConnections);
+        _connectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+        RequestConfig config = RequestConfig.custom().setConnectTimeout(connectTimeOutMillis)
                 .setConnectionRequestTimeout(connectRequestTimeoutMillis)
                 .setSocketTimeout(socketTimeoutMillis).build();
+
+        HttpClientBuilder builder = HttpClientBuilder.create()
+                .setConnectionManager(_connectionManager)
+                .setDefaultRequestConfig(config)
+                .setKeepAliveStrategy(getKeepAliveStrategy(keepAliveMillis))
+                .evictExpiredConnections();
+        if (!acceptGzip){
+            // otherwise Accept-Encoding: gzip,deflate is sent and
+            // compressed responses are transparently decompressed
+            builder.disableContentCompression();
+        }
+        if (idleTimeoutMillis > 0){
+            builder.evictIdleConnections(idleTimeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        _client = builder.build();
     }
-    
-    public HttpClientFactoryImpl(){
-        _config = null;
+
+    /**
+     * Gets the factory used by callables and factories created without
+     * one, so they share one connection pool instead of leaking one each.
+     * It is created on first use and closed by {@link #shutdownDefault()}.
+     * @return shared factory with the default configuration
+     */
+    public static synchronized HttpClientFactoryImpl getDefault(){
+        if (_default == null){
+            _default = new HttpClientFactoryImpl();
+        }
+        return _default;
+    }
+
+    /**
+     * Closes the shared factory of {@link #getDefault()}, if it was
+     * created. Called when the bundle is stopped.
+     */
+    public static void shutdownDefault(){
+        final HttpClientFactoryImpl factory;
+        synchronized (HttpClientFactoryImpl.class){
+            factory = _default;
+        }
+        if (factory != null){
+            factory.shutdown();
+        }
     }
-    
+
     @Override
     public HttpClient getHttpClient() {
-	if (_config == null){
-	    return HttpClientBuilder.create().build();
-	}
-	return HttpClientBuilder.create().setDefaultRequestConfig(_config).build();
+        return _client;
+    }
+
+    @Override
+    public int getRequestCompressionLevel() {
+        return _requestCompressionLevel;
     }
-    
+
+    /**
+     * Enables gzip compression of request bodies
+     * @param level gzip level from 1 to 9 or 0 to disable compression
+     * @throws IllegalArgumentException if {@code level} is not from 0 to 9
+     */
+    public void setRequestCompressionLevel(final int level) {
+        if (level < 0 || level > 9){
+            throw new IllegalArgumentException("Invalid gzip level: " + level);
+        }
+        _requestCompressionLevel = level;
+    }
+
+    /**
+     * Closes the shared client and all pooled connections. If this is the
+     * factory of {@link #getDefault()} the next call creates a new one.
+     */
+    @Override
+    public void shutdown() {
+        synchronized (HttpClientFactoryImpl.class){
+            if (_default == this){
+                _default = null;
+            }
+        }
+        try {
+            _client.close();
+        } catch(IOException io){
+            logger.warn("Error closing diffusion http client", io);
+        }
+        _connectionManager.shutdown();
+    }
+
+    /**
+     * Uses the Keep-Alive header sent by the server, falling back
+     * to {@code keepAliveMillis} if none was sent
+     * @param keepAliveMillis
+     * @return
+     */
+    private ConnectionKeepAliveStrategy getKeepAliveStrategy(final long keepAliveMillis){
+        return new DefaultConnectionKeepAliveStrategy(){
+            @Override
+            public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+                long duration = super.getKeepAliveDuration(response, context);
+                if (duration > 0){
+                    return duration;
+                }
+                return keepAliveMillis;
+            }
+        };
+    }
+
 }
@@ -0,0 +1,318 @@
+package org.cytoscape.diffusion.internal.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+import org.cytoscape.diffusion.internal.engine.ColumnStorage;
+import org.cytoscape.diffusion.internal.engine.NetworkSnapshot;
+import org.cytoscape.diffusion.internal.engine.SnapshotEditor;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.events.AboutToRemoveEdgesEvent;
+import org.cytoscape.model.events.AboutToRemoveEdgesListener;
+import org.cytoscape.model.events.AboutToRemoveNodesEvent;
+import org.cytoscape.model.events.AboutToRemoveNodesListener;
+import org.cytoscape.model.events.AddedEdgesEvent;
+import org.cytoscape.model.events.AddedEdgesListener;
+import org.cytoscape.model.events.AddedNodesEvent;
+import org.cytoscape.model.events.AddedNodesListener;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedListener;
+import org.cytoscape.model.events.RemovedEdgesEvent;
+import org.cytoscape.model.events.RemovedEdgesListener;
+import org.cytoscape.model.events.RemovedNodesEvent;
+import org.cytoscape.model.events.RemovedNodesListener;
+
+/**
+ * Keeps the {@link NetworkSnapshot} of each network by SUID, so repeated
+ * diffusions on an unchanged network do not walk its nodes and edges again.
+ * Nodes and edges added or about to be removed are applied to the snapshot
+ * of their network by a {@link SnapshotEditor}, the next diffusion does not
+ * walk the network either. Removals are applied from the about to remove
+ * events, which carry the nodes and edges while they are still connected.
+ * The removed events that follow only check the node count and drop a
+ * snapshot that does not match, it is rebuilt on the next diffusion.
+ */
+public class NetworkSnapshotCache implements AddedEdgesListener, AddedNodesListener, AboutToRemoveEdgesListener,
+		AboutToRemoveNodesListener, RemovedEdgesListener, RemovedNodesListener, NetworkAboutToBeDestroyedListener {
+
+	private final Map<Long, SnapshotEditor> editors = new HashMap<>();
+
+	/**
+	 * Snapshots being built per network, a snapshot built while its network
+	 * changed is not kept. Entries are removed once their builds finish, so
+	 * destroyed networks leave nothing behind.
+	 */
+	private final Map<Long, Pending> pending = new HashMap<>();
+
+	private final List<Consumer<Long>> destroyListeners = new CopyOnWriteArrayList<>();
+
+	private long builds = 0;
+
+	private final ColumnStorage storage;
+
+	/**
+	 * Creates cache keeping the neighbor lists of large networks off the
+	 * heap with the default settings of {@link ColumnStorage}
+	 */
+	public NetworkSnapshotCache() {
+		this(new ColumnStorage(null));
+	}
+
+	public NetworkSnapshotCache(final ColumnStorage storage) {
+		this.storage = storage;
+	}
+
+	/**
+	 * @return snapshot of the current topology of {@code network}, built if
+	 *         there is none yet
+	 */
+	public NetworkSnapshot get(final CyNetwork network) {
+		final Long suid = network.getSUID();
+		final Pending build;
+		final long version;
+		synchronized (this) {
+			final SnapshotEditor editor = editors.get(suid);
+			if (editor != null) {
+				return editor.getSnapshot();
+			}
+			build = pending.computeIfAbsent(suid, k -> new Pending());
+			build.builders++;
+			version = build.changes;
+			builds++;
+		}
+		NetworkSnapshot snapshot = null;
+		try {
+			// Built without holding the lock, events are not held up by it
+			snapshot = NetworkSnapshot.create(network, storage);
+			return snapshot;
+		} finally {
+			synchronized (this) {
+				if (snapshot != null && build.changes == version) {
+					editors.put(suid, new SnapshotEditor(snapshot, storage));
+				}
+				if (--build.builders == 0 && pending.get(suid) == build) {
+					pending.remove(suid);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return snapshot of the current topology of {@code network}, or
+	 *         {@code null} if there is none, one is not built
+	 */
+	public synchronized NetworkSnapshot find(final CyNetwork network) {
+		final SnapshotEditor editor = editors.get(network.getSUID());
+		return editor == null ? null : editor.getSnapshot();
+	}
+
+	/**
+	 * Drops the snapshot of the network with {@code suid}
+	 */
+	public synchronized void invalidate(final Long suid) {
+		editors.remove(suid);
+		final Pending build = pending.get(suid);
+		if (build != null) {
+			build.changes++;
+		}
+	}
+
+	/**
+	 * Calls {@code listener} with the SUID of each network about to be
+	 * destroyed, so what is kept for the snapshot of a network elsewhere is
+	 * dropped with it
+	 */
+	public void addDestroyListener(final Consumer<Long> listener) {
+		destroyListeners.add(listener);
+	}
+
+	/**
+	 * @return number of networks with a snapshot
+	 */
+	public synchronized int size() {
+		return editors.size();
+	}
+
+	/**
+	 * @return number of snapshots built so far
+	 */
+	public synchronized long getBuilds() {
+		return builds;
+	}
+
+	public synchronized void clear() {
+		editors.clear();
+		for (Pending build : pending.values()) {
+			build.changes++;
+		}
+	}
+
+	/**
+	 * @return editor of the snapshot of the network with {@code suid}, or
+	 *         {@code null} after dropping a snapshot being built
+	 */
+	private SnapshotEditor edit(final Long suid) {
+		final SnapshotEditor editor = editors.get(suid);
+		if (editor == null) {
+			invalidate(suid);
+		}
+		return editor;
+	}
+
+	/**
+	 * @return whether the network with {@code suid} has a snapshot or one is
+	 *         being built, events of other networks are not read further
+	 */
+	private synchronized boolean isTracked(final Long suid) {
+		return editors.containsKey(suid) || pending.containsKey(suid);
+	}
+
+	// The network is read before taking the lock, so an event fired while
+	// the network is locked never waits for a thread holding the lock that
+	// waits for the network. Networks without a snapshot return first, the
+	// payload is not walked for them.
+
+	@Override
+	public void handleEvent(final AddedEdgesEvent e) {
+		final CyNetwork network = e.getSource();
+		if (!isTracked(network.getSUID())) {
+			return;
+		}
+		final List<CyEdge> added = new ArrayList<>();
+		for (CyEdge edge : e.getPayloadCollection()) {
+			// Added events are delivered late, the edge may be gone already
+			if (network.containsEdge(edge)) {
+				added.add(edge);
+			}
+		}
+		synchronized (this) {
+			final SnapshotEditor editor = edit(network.getSUID());
+			if (editor != null) {
+				for (CyEdge edge : added) {
+					final long source = edge.getSource().getSUID();
+					final long target = edge.getTarget().getSUID();
+					editor.addNode(source);
+					editor.addNode(target);
+					editor.addEdge(source, target);
+				}
+			}
+		}
+	}
+
+	@Override
+	public void handleEvent(final AddedNodesEvent e) {
+		final CyNetwork network = e.getSource();
+		if (!isTracked(network.getSUID())) {
+			return;
+		}
+		final List<CyNode> added = new ArrayList<>();
+		for (CyNode node : e.getPayloadCollection()) {
+			if (network.containsNode(node)) {
+				added.add(node);
+			}
+		}
+		synchronized (this) {
+			final SnapshotEditor editor = edit(network.getSUID());
+			if (editor != null) {
+				for (CyNode node : added) {
+					editor.addNode(node.getSUID());
+				}
+			}
+		}
+	}
+
+	@Override
+	public void handleEvent(final AboutToRemoveEdgesEvent e) {
+		final CyNetwork network = e.getSource();
+		if (!isTracked(network.getSUID())) {
+			return;
+		}
+		final Collection<CyEdge> edges = e.getEdges();
+		final Set<CyEdge> removed = new HashSet<>(edges);
+		final List<CyEdge> separated = new ArrayList<>();
+		for (CyEdge edge : edges) {
+			// Parallel edges are one, its nodes stay neighbors if one is left
+			boolean left = false;
+			for (CyEdge other : network.getConnectingEdgeList(edge.getSource(), edge.getTarget(), CyEdge.Type.ANY)) {
+				left |= !removed.contains(other);
+			}
+			if (!left) {
+				separated.add(edge);
+			}
+		}
+		synchronized (this) {
+			final SnapshotEditor editor = edit(network.getSUID());
+			if (editor != null) {
+				for (CyEdge edge : separated) {
+					editor.removeEdge(edge.getSource().getSUID(), edge.getTarget().getSUID());
+				}
+			}
+		}
+	}
+
+	@Override
+	public void handleEvent(final AboutToRemoveNodesEvent e) {
+		final CyNetwork network = e.getSource();
+		if (!isTracked(network.getSUID())) {
+			return;
+		}
+		synchronized (this) {
+			final SnapshotEditor editor = edit(network.getSUID());
+			if (editor != null) {
+				for (CyNode node : e.getNodes()) {
+					editor.removeNode(node.getSUID());
+				}
+			}
+		}
+	}
+
+	@Override
+	public void handleEvent(final RemovedEdgesEvent e) {
+		checkNodeCount(e.getSource());
+	}
+
+	@Override
+	public void handleEvent(final RemovedNodesEvent e) {
+		checkNodeCount(e.getSource());
+	}
+
+	/**
+	 * Drops the snapshot of {@code network} unless it has as many nodes
+	 */
+	private void checkNodeCount(final CyNetwork network) {
+		if (!isTracked(network.getSUID())) {
+			return;
+		}
+		final int count = network.getNodeCount();
+		synchronized (this) {
+			final SnapshotEditor editor = edit(network.getSUID());
+			if (editor != null && editor.getNodeCount() != count) {
+				invalidate(network.getSUID());
+			}
+		}
+	}
+
+	@Override
+	public void handleEvent(final NetworkAboutToBeDestroyedEvent e) {
+		final Long suid = e.getNetwork().getSUID();
+		invalidate(suid);
+		for (Consumer<Long> listener : destroyListeners) {
+			listener.accept(suid);
+		}
+	}
+
+	private static class Pending {
+
+		int builders = 0;
+		long changes = 0;
+	}
+}
@@ -0,0 +1,66 @@
+package org.cytoscape.diffusion.internal.util;
+
+import java.util.Properties;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Reads typed settings from the app properties. A missing key or missing
+ * properties give the default, a value that does not parse gives the
+ * default and a warning.
+ */
+public final class Props {
+
+	private final static Logger logger = LoggerFactory.getLogger(Props.class);
+
+	private Props() {
+	}
+
+	public static int getInt(final Properties props, final String key, final int defaultValue) {
+		return (int) getLong(props, key, defaultValue);
+	}
+
+	public static long getLong(final Properties props, final String key, final long defaultValue) {
+		final String value = get(props, key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException nfe) {
+			logger.warn("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public static double getDouble(final Properties props, final String key, final double defaultValue) {
+		final String value = get(props, key);
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException nfe) {
+			logger.warn("Invalid value for " + key + ": " + value + ", using " + defaultValue);
+			return defaultValue;
+		}
+	}
+
+	public static String getString(final Properties props, final String key, final String defaultValue) {
+		final String value = get(props, key);
+		return value == null ? defaultValue : value;
+	}
+
+	public static boolean getBoolean(final Properties props, final String key, final boolean defaultValue) {
+		final String value = get(props, key);
+		if (value == null) {
+			return defaultValue;
+		}
+		return Boolean.parseBoolean(value.trim());
+	}
+
+	private static String get(final Properties props, final String key) {
+		return props == null ? null : props.getProperty(key);
+	}
+}
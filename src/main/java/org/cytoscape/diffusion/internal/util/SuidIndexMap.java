@@ -0,0 +1,145 @@
+package org.cytoscape.diffusion.internal.util;
+
+import java.util.Arrays;
+
+/**
+ * Maps SUIDs to dense int indices without boxing. Open addressing with
+ * linear probing, so a lookup touches only two primitive arrays.
+ */
+public class SuidIndexMap {
+
+	public static final int NOT_FOUND = -1;
+
+	private static final long EMPTY = Long.MIN_VALUE;
+
+	private long[] keys;
+	private int[] values;
+	private int size;
+	private int mask;
+
+	public SuidIndexMap() {
+		this(16);
+	}
+
+	public SuidIndexMap(final int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+		allocate(capacity);
+	}
+
+	/**
+	 * Creates a copy of {@code other}
+	 */
+	public SuidIndexMap(final SuidIndexMap other) {
+		keys = other.keys.clone();
+		values = other.values.clone();
+		size = other.size;
+		mask = other.mask;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return index stored for {@code suid} or {@link #NOT_FOUND}
+	 */
+	public int get(final long suid) {
+		int slot = slot(suid);
+		while (true) {
+			final long key = keys[slot];
+			if (key == suid) {
+				return values[slot];
+			}
+			if (key == EMPTY) {
+				return NOT_FOUND;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Stores {@code index} for {@code suid}
+	 *
+	 * @return previous index or {@link #NOT_FOUND}
+	 */
+	public int put(final long suid, final int index) {
+		if (suid == EMPTY) {
+			throw new IllegalArgumentException("Invalid SUID: " + suid);
+		}
+		if ((size + 1) * 2 > keys.length) {
+			rehash(keys.length << 1);
+		}
+		int slot = slot(suid);
+		while (true) {
+			final long key = keys[slot];
+			if (key == suid) {
+				final int old = values[slot];
+				values[slot] = index;
+				return old;
+			}
+			if (key == EMPTY) {
+				keys[slot] = suid;
+				values[slot] = index;
+				size++;
+				return NOT_FOUND;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Removes {@code suid}
+	 *
+	 * @return index that was stored or {@link #NOT_FOUND}
+	 */
+	public int remove(final long suid) {
+		int slot = slot(suid);
+		while (keys[slot] != suid) {
+			if (keys[slot] == EMPTY) {
+				return NOT_FOUND;
+			}
+			slot = (slot + 1) & mask;
+		}
+		final int old = values[slot];
+		// Shift following entries of the probe run back so lookups
+		// never stop early at the freed slot
+		int gap = slot;
+		int next = (gap + 1) & mask;
+		while (keys[next] != EMPTY) {
+			final int home = slot(keys[next]);
+			if (((next - home) & mask) >= ((next - gap) & mask)) {
+				keys[gap] = keys[next];
+				values[gap] = values[next];
+				gap = next;
+			}
+			next = (next + 1) & mask;
+		}
+		keys[gap] = EMPTY;
+		size--;
+		return old;
+	}
+
+	private int slot(final long suid) {
+		long h = suid * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32)) & mask;
+	}
+
+	private void allocate(final int capacity) {
+		keys = new long[capacity];
+		Arrays.fill(keys, EMPTY);
+		values = new int[capacity];
+		mask = capacity - 1;
+		size = 0;
+	}
+
+	private void rehash(final int capacity) {
+		final long[] oldKeys = keys;
+		final int[] oldValues = values;
+		allocate(capacity);
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+}
@@ -2,16 +2,23 @@ package org.cytoscape.diffusion;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doAnswer;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
+import java.io.ByteArrayInputStream;
 import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+
+import org.apache.http.entity.ContentProducer;
 
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.CySwingApplication;
@@ -22,9 +29,13 @@ import org.cytoscape.diffusion.internal.ViewWriterFactoryManager;
 import org.cytoscape.ci.CIErrorFactory;
 import org.cytoscape.ci.CIExceptionFactory;
 import org.cytoscape.ci.CIResponseFactory;
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
+import org.cytoscape.diffusion.internal.client.DiffusionResultParser;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceException;
+import org.cytoscape.diffusion.internal.rest.DiffusionParameters;
 import org.cytoscape.diffusion.internal.rest.DiffusionResource;
+import org.cytoscape.diffusion.internal.rest.DiffusionResultColumns;
 import org.cytoscape.diffusion.internal.rest.DiffusionTaskObserver;
 import org.cytoscape.diffusion.internal.task.DiffuseSelectedTask;
 import org.cytoscape.diffusion.internal.task.DiffusionContextMenuTaskFactory;
@@ -51,6 +62,7 @@ import org.cytoscape.work.TunableSetter;
 import org.cytoscape.work.util.ListMultipleSelection;
 import org.junit.Before;
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
 import org.osgi.util.tracker.ServiceTracker;
@@ -150,7 +162,11 @@ public class DiffusionResourceTest {
 
 		DiffusionServiceClient client = mock(DiffusionServiceClient.class);
 
-		when(client.diffuse(any(String.class), any(String.class), any(Double.class), any(DiffuseSelectedTask.class))).thenReturn(errorServiceResponse);
+		when(client.diffuse(any(ContentProducer.class), any(String.class), any(Double.class), any(DiffuseSelectedTask.class))).thenAnswer(new Answer<DiffusionOutput>() {
+			public DiffusionOutput answer(InvocationOnMock invocation) throws Exception {
+				return DiffusionResultParser.decode(new ByteArrayInputStream(errorServiceResponse.getBytes(StandardCharsets.UTF_8)));
+			}
+		});
 
 		TunableSetter tunableSetter = mock(TunableSetter.class);
 
@@ -232,7 +248,8 @@ public class DiffusionResourceTest {
 				null,
 				ciResponseFactoryTracker,
 				ciExceptionFactoryTracker, 
-				ciErrorFactoryTracker);
+				ciErrorFactoryTracker,
+				null);
 
 		DiffusionTaskObserver taskObserver = new DiffusionTaskObserver(diffusionResource, "dummy_urn", "dummy_error_code");
 	
@@ -244,4 +261,65 @@ public class DiffusionResourceTest {
 		assertEquals("service error", taskObserver.getResponse().errors.get(0).message);
 		assertEquals("dummy failure", taskObserver.getResponse().errors.get(1).message);
 	}
+
+	@Test
+	public void testResourceTimes() throws Exception {
+
+		CyNetworkManager cyNetworkManager = mock(CyNetworkManager.class);
+		when(cyNetworkManager.getNetwork(any(Long.class))).thenReturn(cyNetwork);
+
+		CyNetworkViewManager cyNetworkViewManager = mock(CyNetworkViewManager.class);
+		when(cyNetworkViewManager.getNetworkViews(cyNetwork)).thenReturn(Arrays.asList(cyNetworkView));
+
+		DiffusionContextMenuTaskFactory diffusionWithOptionsTaskFactory = mock(DiffusionContextMenuTaskFactory.class);
+		when(diffusionWithOptionsTaskFactory.createTaskIterator(cyNetworkView)).thenReturn(new TaskIterator());
+
+		// a times sweep creates a pair of columns for each time
+		List<DiffusionResultColumns> sweepResultColumns = new ArrayList<DiffusionResultColumns>();
+		for (int i = 0; i < 3; i++) {
+			sweepResultColumns.add(new DiffusionResultColumns("diffusion_output_" + i + "_heat", "diffusion_output_" + i + "_rank"));
+		}
+		ObservableTask sweepTask = mock(ObservableTask.class);
+		when(sweepTask.getResults(DiffusionResultColumns.class)).thenReturn(sweepResultColumns.get(2));
+		when(sweepTask.getResults(List.class)).thenReturn(sweepResultColumns);
+
+		SynchronousTaskManager<Object> syncTaskManager = mock(SynchronousTaskManager.class);
+		doAnswer(new Answer<Void>() {
+			public Void answer(InvocationOnMock invocation) {
+				TaskObserver taskObserver = (TaskObserver) invocation.getArguments()[1];
+				taskObserver.taskFinished(sweepTask);
+				taskObserver.allFinished(FinishStatus.getSucceeded());
+				return null;
+			}
+		}).when(syncTaskManager).execute(any(TaskIterator.class), any(TaskObserver.class));
+
+		DiffusionResource diffusionResource = new DiffusionResource(
+				cyApplicationManager, 
+				syncTaskManager, 
+				cyNetworkManager, 
+				cyNetworkViewManager, 
+				null, 
+				diffusionWithOptionsTaskFactory,
+				mock(ServiceTracker.class),
+				mock(ServiceTracker.class), 
+				mock(ServiceTracker.class),
+				null);
+
+		DiffusionParameters diffusionParameters = new DiffusionParameters();
+		diffusionParameters.heatColumnName = columnName;
+		diffusionParameters.time = 0.1;
+		diffusionParameters.times = Arrays.asList(0.1, 1.0, 10.0);
+
+		DiffusionTaskObserver taskObserver = new DiffusionTaskObserver(diffusionResource, "dummy_urn", "dummy_error_code");
+
+		diffusionResource.executeDiffuseWithOptions(cyNetworkSUID, cyNetworkViewSUID, diffusionParameters, taskObserver);
+
+		ArgumentCaptor<Map> tunableMap = ArgumentCaptor.forClass(Map.class);
+		verify(syncTaskManager).setExecutionContext(tunableMap.capture());
+		assertEquals("0.1,1.0,10.0", tunableMap.getValue().get("times"));
+
+		CIResponse<?> response = taskObserver.getResponse();
+		assertEquals(0, response.errors.size());
+		assertSame(sweepResultColumns, response.data);
+	}
 }
@@ -1,11 +1,76 @@
 package org.cytoscape.diffusion;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+
+import org.cytoscape.ci.model.CIError;
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
+import org.cytoscape.diffusion.internal.client.DiffusionResultParser;
+import org.cytoscape.diffusion.internal.client.DiffusionServiceException;
 import org.junit.Test;
 
 public class DiffusionResultParserTest {
 
+	public static final String SERVICE_RESPONSE = "{"
+			+ " \"data\": ["
+			+ "  {\"numberVerification\": [{\"longNumber\": 281474976710655}]},"
+			+ "  {\"nodes\": [{\"@id\": 52}, {\"@id\": 53}]},"
+			+ "  {\"nodeAttributes\": ["
+			+ "    {\"po\": [52], \"n\": \"diffusion_output_heat\", \"v\": \"0.75\", \"d\": \"double\"},"
+			+ "    {\"po\": [52], \"n\": \"diffusion_output_rank\", \"v\": \"1\", \"d\": \"integer\"},"
+			+ "    {\"po\": [52], \"n\": \"name\", \"v\": \"A\"},"
+			+ "    {\"po\": 53, \"n\": \"diffusion_output_rank\", \"v\": 2, \"d\": \"integer\"},"
+			+ "    {\"po\": [53], \"n\": \"diffusion_output_heat\", \"v\": 0.25, \"d\": \"double\"}"
+			+ "  ]},"
+			+ "  {\"status\": [{\"error\": \"\", \"success\": true}]}"
+			+ " ],"
+			+ " \"errors\": []"
+			+ "}";
+
+	private static InputStream stream(final String json) {
+		return new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8));
+	}
+
+	@Test
+	public void testResultParser() throws Exception {
+		final DiffusionOutput output = DiffusionResultParser.decode(stream(SERVICE_RESPONSE));
+		assertEquals(2, output.getSize());
+
+		assertEquals(52L, output.getSUID(0));
+		assertEquals(0.75, output.getHeat(0), 0.0);
+		assertEquals(1, output.getRank(0));
+
+		assertEquals(53L, output.getSUID(1));
+		assertEquals(0.25, output.getHeat(1), 0.0);
+		assertEquals(2, output.getRank(1));
+	}
+
 	@Test
-	public void testResultParser() {
+	public void testErrorsReported() throws Exception {
+		try {
+			DiffusionResultParser.decode(stream(DiffusionTaskTest.errorServiceResponse));
+			fail("Expected DiffusionServiceException");
+		} catch (DiffusionServiceException e) {
+			assertEquals(1, e.getCIErrors().size());
+			final CIError ciError = e.getCIErrors().get(0);
+			assertEquals("DUMMY_TYPE", ciError.type);
+			assertEquals("DUMMY_MESSAGE", ciError.message);
+		}
 	}
 
+	@Test
+	public void testInvalidResponse() throws Exception {
+		try {
+			DiffusionResultParser.decode(stream("<html>Bad Gateway</html>"));
+			fail("Expected IOException");
+		} catch (IOException e) {
+			assertTrue(e.getMessage() != null);
+		}
+	}
 }
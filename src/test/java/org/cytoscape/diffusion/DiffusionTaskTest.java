@@ -1,11 +1,14 @@
 package org.cytoscape.diffusion;
 
+import org.apache.http.entity.ContentProducer;
 import org.cytoscape.application.CyApplicationManager;
 import org.cytoscape.application.swing.CySwingApplication;
 import org.cytoscape.ci.model.CIError;
+import org.cytoscape.diffusion.internal.client.DiffusionCacheKey;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceClient;
 import org.cytoscape.diffusion.internal.client.DiffusionServiceException;
 import org.cytoscape.diffusion.internal.task.DiffuseSelectedTask;
+import org.cytoscape.diffusion.internal.task.DiffuseSelectedWithOptionsTask;
 import org.cytoscape.diffusion.internal.ui.OutputPanel;
 import org.cytoscape.diffusion.internal.util.DiffusionTable;
 import org.cytoscape.diffusion.internal.util.DiffusionTableManager;
@@ -17,6 +20,7 @@ import org.cytoscape.model.CyRow;
 import org.cytoscape.model.CyTable;
 import org.cytoscape.work.TaskMonitor;
 import org.cytoscape.work.TunableSetter;
+import org.cytoscape.work.TunableValidator.ValidationState;
 import org.cytoscape.work.util.ListMultipleSelection;
 import org.junit.Before;
 import org.junit.Test;
@@ -117,8 +121,13 @@ public class DiffusionTaskTest {
 	public void testClientError() throws Exception {
 		
 		DiffusionServiceClient client = mock(DiffusionServiceClient.class);
+		when(client.getTopology(cyNetwork)).thenReturn(new DiffusionCacheKey.Topology(0, 0, 0));
 		
-		when(client.diffuse(any(String.class), any(String.class), any(Double.class), any(DiffuseSelectedTask.class))).thenReturn(errorServiceResponse);
+		CIError error = new CIError();
+		error.type = "DUMMY_TYPE";
+		error.message = "DUMMY_MESSAGE";
+		when(client.diffuse(any(ContentProducer.class), any(String.class), any(Double.class), any(DiffuseSelectedTask.class)))
+				.thenThrow(new DiffusionServiceException("Diffusion Service returned errors", Arrays.asList(error)));
 		
 		TunableSetter tunableSetter = mock(TunableSetter.class);
 		DiffuseSelectedTask task = new DiffuseSelectedTask(
@@ -142,4 +151,38 @@ public class DiffusionTaskTest {
 			assertEquals("DUMMY_MESSAGE", ciError.message);
 		}
 	}
+
+	@Test
+	public void testTimesValidation() throws Exception {
+		DiffuseSelectedWithOptionsTask task = new DiffuseSelectedWithOptionsTask(
+				diffusionTableManager, 
+				cyNetwork,
+				cyNetworkViewWriterFactory, 
+				outputPanel, 
+				cySwingApplication, 
+				cyApplicationManager, 
+				mock(DiffusionServiceClient.class), 
+				mock(TunableSetter.class));
+		
+		for (String times : new String[] {"", " ", "0.1", "0.1, 1,10"}) {
+			task.times = times;
+			assertEquals(times, ValidationState.OK, task.getValidationState(new StringBuilder()));
+		}
+		for (String times : new String[] {"0.1,,1", "0.1,", "-1", "0.1,x", "NaN"}) {
+			task.times = times;
+			StringBuilder message = new StringBuilder();
+			assertEquals(times, ValidationState.INVALID, task.getValidationState(message));
+			assertEquals("Please enter times as a comma separated list of positive numbers.", message.toString());
+		}
+
+		// a random walk with restart has no time to sweep
+		task.restartProbability = 0.15;
+		task.times = "";
+		assertEquals(ValidationState.OK, task.getValidationState(new StringBuilder()));
+		task.times = "0.1,1";
+		StringBuilder message = new StringBuilder();
+		assertEquals(ValidationState.INVALID, task.getValidationState(message));
+		assertEquals("Please enter either times or a restart probability, a random walk with restart has no time.",
+				message.toString());
+	}
 }
@@ -0,0 +1,135 @@
+package org.cytoscape.diffusion.internal.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.junit.Test;
+
+public class CircuitBreakerTest {
+
+	private final AtomicLong now = new AtomicLong(1000);
+
+	private CircuitBreaker getBreaker() {
+		return new CircuitBreaker(true, 10, 4, 50, 100, 5000, 30000, 2, now::get);
+	}
+
+	private void call(CircuitBreaker breaker, boolean fail) {
+		assertTrue(breaker.tryAcquire());
+		if (fail) {
+			breaker.onFailure();
+		} else {
+			breaker.onSuccess(10);
+		}
+	}
+
+	@Test
+	public void testStaysClosedBelowMinimumCalls() {
+		CircuitBreaker breaker = getBreaker();
+		for (int i = 0; i < 3; i++) {
+			call(breaker, true);
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(-1f, breaker.getFailureRate(), 0f);
+	}
+
+	@Test
+	public void testOpensOnFailureRate() {
+		CircuitBreaker breaker = getBreaker();
+		call(breaker, false);
+		call(breaker, false);
+		call(breaker, true);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		call(breaker, true);
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+
+	@Test
+	public void testOpensOnSlowCalls() {
+		CircuitBreaker breaker = getBreaker();
+		for (int i = 0; i < 4; i++) {
+			assertTrue(breaker.tryAcquire());
+			breaker.onSuccess(6000);
+		}
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+	}
+
+	@Test
+	public void testHalfOpenProbesClose() {
+		CircuitBreaker breaker = getBreaker();
+		for (int i = 0; i < 4; i++) {
+			call(breaker, true);
+		}
+		assertFalse(breaker.tryAcquire());
+		now.addAndGet(30000);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+
+		// two probes allowed, a third has to wait
+		assertTrue(breaker.tryAcquire());
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+
+		breaker.onSuccess(10);
+		assertEquals(CircuitBreaker.State.HALF_OPEN, breaker.getState());
+		breaker.onSuccess(10);
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(0, breaker.getBufferedCalls());
+	}
+
+	@Test
+	public void testHalfOpenProbeFailureReopens() {
+		CircuitBreaker breaker = getBreaker();
+		for (int i = 0; i < 4; i++) {
+			call(breaker, true);
+		}
+		now.addAndGet(30000);
+		assertTrue(breaker.tryAcquire());
+		breaker.onFailure();
+		assertEquals(CircuitBreaker.State.OPEN, breaker.getState());
+		assertFalse(breaker.tryAcquire());
+	}
+
+	@Test
+	public void testIgnoredProbeIsReleased() {
+		CircuitBreaker breaker = new CircuitBreaker(true, 10, 4, 50, 100, 5000, 30000, 1, now::get);
+		for (int i = 0; i < 4; i++) {
+			call(breaker, true);
+		}
+		now.addAndGet(30000);
+		assertTrue(breaker.tryAcquire());
+		assertFalse(breaker.tryAcquire());
+		breaker.onIgnored();
+		assertTrue(breaker.tryAcquire());
+	}
+
+	@Test
+	public void testDisabledNeverOpens() {
+		Properties props = new Properties();
+		props.setProperty(CircuitBreaker.ENABLED_PROP, "false");
+		CircuitBreaker breaker = new CircuitBreaker(props);
+		for (int i = 0; i < 50; i++) {
+			call(breaker, true);
+		}
+		assertEquals(CircuitBreaker.State.CLOSED, breaker.getState());
+		assertEquals(100f, breaker.getFailureRate(), 0f);
+	}
+
+	@Test
+	public void testWindowSlides() {
+		CircuitBreaker breaker = new CircuitBreaker(true, 4, 4, 75, 100, 5000, 30000, 1, now::get);
+		call(breaker, true);
+		call(breaker, true);
+		call(breaker, false);
+		call(breaker, false);
+		assertEquals(50f, breaker.getFailureRate(), 0f);
+		// oldest failures drop out of the window
+		call(breaker, false);
+		call(breaker, false);
+		assertEquals(0f, breaker.getFailureRate(), 0f);
+		assertEquals(4, breaker.getBufferedCalls());
+	}
+}
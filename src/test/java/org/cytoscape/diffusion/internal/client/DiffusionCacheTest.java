@@ -0,0 +1,112 @@
+package org.cytoscape.diffusion.internal.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class DiffusionCacheTest {
+
+	private static DiffusionCacheKey key(final long heatHash) {
+		return new DiffusionCacheKey(1L, heatHash, 3, 2, 0.1);
+	}
+
+	private static DiffusionOutput output(final int size) {
+		return new DiffusionOutput(new long[size], new double[size], new int[size], size);
+	}
+
+	@Test
+	public void testHitAndMiss() {
+		DiffusionCache cache = new DiffusionCache(4, Long.MAX_VALUE);
+		DiffusionOutput output = output(3);
+		cache.put(key(1), output);
+
+		assertSame(output, cache.get(key(1)));
+		assertNull(cache.get(key(2)));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testOneCountPerLookup() {
+		DiffusionCache cache = new DiffusionCache(4, Long.MAX_VALUE);
+		DiffusionOutput output = output(3);
+		cache.put(key(1).top(10), output);
+
+		assertNull(cache.get(key(2), key(2).top(10)));
+		assertEquals(0, cache.getHits());
+		assertEquals(1, cache.getMisses());
+		assertSame(output, cache.get(key(1), key(1).top(10)));
+		assertEquals(1, cache.getHits());
+		assertEquals(1, cache.getMisses());
+	}
+
+	@Test
+	public void testLeastRecentlyUsedEvicted() {
+		DiffusionCache cache = new DiffusionCache(2, Long.MAX_VALUE);
+		cache.put(key(1), output(3));
+		cache.put(key(2), output(3));
+		cache.get(key(1));
+		cache.put(key(3), output(3));
+
+		assertEquals(2, cache.size());
+		assertNull(cache.get(key(2)));
+		assertEquals(3, cache.get(key(1)).getSize());
+		assertEquals(3, cache.get(key(3)).getSize());
+	}
+
+	@Test
+	public void testBoundedByBytes() {
+		final long size = output(100).getMemorySize();
+		DiffusionCache cache = new DiffusionCache(10, 2 * size);
+		cache.put(key(1), output(100));
+		cache.put(key(2), output(100));
+		cache.put(key(3), output(100));
+
+		assertEquals(2, cache.size());
+		assertEquals(2 * size, cache.getBytes());
+		assertNull(cache.get(key(1)));
+
+		// larger than the whole cache, not kept
+		cache.put(key(4), output(1000));
+		assertNull(cache.get(key(4)));
+		assertEquals(2, cache.size());
+	}
+
+	@Test
+	public void testDisabled() {
+		Properties props = new Properties();
+		props.setProperty(DiffusionCache.MAX_ENTRIES_PROP, "0");
+		DiffusionCache cache = new DiffusionCache(props);
+		cache.put(key(1), output(3));
+
+		assertEquals(0, cache.size());
+		assertNull(cache.get(key(1)));
+	}
+
+	@Test
+	public void testKeyEquality() {
+		assertEquals(key(1), key(1));
+		assertEquals(key(1).hashCode(), key(1).hashCode());
+		assertFalse(key(1).equals(key(2)));
+		assertFalse(key(1).equals(new DiffusionCacheKey(1L, 1L, 3, 2, 0.2)));
+		assertEquals(new DiffusionCacheKey(1L, 1L, 3, 2, null), new DiffusionCacheKey(1L, 1L, 3, 2, null));
+		assertFalse(new DiffusionCacheKey(1L, 1L, 3, 2, null)
+				.equals(new DiffusionCacheKey(1L, 1L, 3, 2, null, 0.15)));
+		assertEquals(new DiffusionCacheKey(1L, 1L, 3, 2, null, 0.15), new DiffusionCacheKey(1L, 1L, 3, 2, null, 0.15));
+		assertFalse(key(1).equals(key(1).top(200)));
+		assertEquals(key(1).top(200), key(1).top(200));
+		assertEquals(key(1).top(200).hashCode(), key(1).top(200).hashCode());
+		assertFalse(key(1).top(200).equals(key(1).top(100)));
+		assertEquals(key(1), key(1).top(0));
+		assertEquals(key(1).engine("local", "single"), key(1).engine("local", "single"));
+		assertEquals(key(1).engine("local", "single").hashCode(), key(1).engine("local", "single").hashCode());
+		assertFalse(key(1).engine("local", "single").equals(key(1).engine("local", "double")));
+		assertFalse(key(1).engine("remote", null).equals(key(1).engine("local", "double")));
+		assertEquals(key(1).engine("local", "single").top(10), key(1).top(10).engine("local", "single"));
+	}
+}
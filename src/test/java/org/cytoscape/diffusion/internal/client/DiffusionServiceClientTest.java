@@ -0,0 +1,515 @@
+package org.cytoscape.diffusion.internal.client;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+import javax.swing.JPanel;
+import org.apache.http.entity.ContentProducer;
+import org.cytoscape.application.CyApplicationManager;
+import org.cytoscape.application.swing.CySwingApplication;
+import org.cytoscape.application.swing.CytoPanel;
+import org.cytoscape.application.swing.CytoPanelName;
+import org.cytoscape.diffusion.internal.engine.LocalDiffusionEngine;
+import org.cytoscape.diffusion.internal.rest.DiffusionServiceStatus;
+import org.cytoscape.diffusion.internal.task.DiffuseSelectedTask;
+import org.cytoscape.diffusion.internal.task.DiffusionCallable;
+import org.cytoscape.diffusion.internal.task.DiffusionCallableFactory;
+import org.cytoscape.diffusion.internal.ui.OutputPanel;
+import org.cytoscape.diffusion.internal.util.DiffusionTable;
+import org.cytoscape.diffusion.internal.util.DiffusionTableManager;
+import org.cytoscape.io.write.CyNetworkViewWriterFactory;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.property.CyProperty;
+import org.cytoscape.work.TaskMonitor;
+import org.cytoscape.work.TunableSetter;
+import org.junit.Test;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.junit.Assert.*;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.*;
+
+/**
+ *
+ * @author churas
+ */
+public class DiffusionServiceClientTest {
+    
+    private static final ContentProducer CX = (out) -> out.write("cx".getBytes());
+    
+    private DiffusionServiceClient getClient(DiffusionCallable callable){
+        return getClient(callable, new Properties());
+    }
+    
+    private DiffusionServiceClient getClient(DiffusionCallable callable, Properties properties){
+        CyProperty<Properties> props = mock(CyProperty.class);
+        when(props.getProperties()).thenReturn(properties);
+        DiffusionCallableFactory fac = mock(DiffusionCallableFactory.class);
+        when(fac.getDiffusionCallable(any(ContentProducer.class), anyString(),
+                any(Double.class), anyString())).thenReturn(callable);
+        DiffusionServiceClient client = new DiffusionServiceClient(props);
+        client.setAlternateDiffusionCallableFactory(fac);
+        return client;
+    }
+    
+    private DiffusionServiceClient getClient(DiffusionCallable first, DiffusionCallable second,
+            Properties properties){
+        properties.setProperty(DiffusionServiceClient.URL_PROP, "http://a/, http://b/");
+        CyProperty<Properties> props = mock(CyProperty.class);
+        when(props.getProperties()).thenReturn(properties);
+        DiffusionCallableFactory fac = mock(DiffusionCallableFactory.class);
+        when(fac.getDiffusionCallable(any(ContentProducer.class), anyString(),
+                any(Double.class), eq("http://a/"))).thenReturn(first);
+        when(fac.getDiffusionCallable(any(ContentProducer.class), anyString(),
+                any(Double.class), eq("http://b/"))).thenReturn(second);
+        DiffusionServiceClient client = new DiffusionServiceClient(props);
+        client.setAlternateDiffusionCallableFactory(fac);
+        return client;
+    }
+    
+    private DiffuseSelectedTask getTask(){
+        return new DiffuseSelectedTask(mock(DiffusionTableManager.class),
+                mock(CyNetwork.class), mock(CyNetworkViewWriterFactory.class),
+                mock(OutputPanel.class), mock(CySwingApplication.class),
+                mock(CyApplicationManager.class), null, mock(TunableSetter.class));
+    }
+    
+    @Test
+    public void testWithoutProperties() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+        when(callable.call()).thenReturn(output);
+        DiffusionServiceClient client = getClient(callable, null);
+        try {
+            assertFalse(client.isLocalEngine());
+            assertEquals(DiffusionServiceClient.ENGINE_REMOTE, client.getEngine());
+            assertSame(output, client.diffuse(CX, "col", 0.1, getTask()));
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseReturnsAsSoonAsDone() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+        when(callable.call()).thenReturn(output);
+        DiffusionServiceClient client = getClient(callable);
+        try {
+            long start = System.currentTimeMillis();
+            assertSame(output, client.diffuse(CX, "col", 0.1, getTask()));
+            assertTrue(System.currentTimeMillis() - start < 500);
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseCanceled() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenAnswer(new Answer<DiffusionOutput>() {
+            @Override
+            public DiffusionOutput answer(InvocationOnMock invocation) throws Throwable {
+                started.countDown();
+                Thread.sleep(60000);
+                return null;
+            }
+        });
+        DiffusionServiceClient client = getClient(callable);
+        final DiffuseSelectedTask task = getTask();
+        try {
+            new Thread(() -> {
+                try {
+                    started.await(10, TimeUnit.SECONDS);
+                } catch(InterruptedException ie){
+                    // do nothing
+                }
+                task.cancel();
+            }).start();
+            long start = System.currentTimeMillis();
+            assertNull(client.diffuse(CX, "col", 0.1, task));
+            assertTrue(System.currentTimeMillis() - start < 10000);
+            // the request is aborted by the canceling thread, after diffuse may have returned
+            verify(callable, timeout(5000)).abort();
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseAsync() throws Exception {
+        final CountDownLatch release = new CountDownLatch(1);
+        final DiffusionOutput output = new DiffusionOutput.Builder().setRank(1L, 1).build();
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenAnswer(new Answer<DiffusionOutput>() {
+            @Override
+            public DiffusionOutput answer(InvocationOnMock invocation) throws Throwable {
+                release.await();
+                return output;
+            }
+        });
+        DiffusionServiceClient client = getClient(callable);
+        try {
+            CompletableFuture<DiffusionOutput> result = client.diffuseAsync(CX, "col", 0.1);
+            assertFalse(result.isDone());
+            release.countDown();
+            assertSame(output, result.get(10, TimeUnit.SECONDS));
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseAsyncTimeout() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenAnswer(new Answer<DiffusionOutput>() {
+            @Override
+            public DiffusionOutput answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(60000);
+                return null;
+            }
+        });
+        DiffusionServiceClient client = getClient(callable);
+        try {
+            CompletableFuture<DiffusionOutput> result = client.diffuseAsync(CX, "col", 0.1, 100);
+            try {
+                result.get(10, TimeUnit.SECONDS);
+                fail("Expected timeout");
+            } catch(ExecutionException ee){
+                assertTrue(ee.getCause() instanceof TimeoutException);
+            }
+            verify(callable, timeout(5000)).abort();
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseTimeoutProperty() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenAnswer(new Answer<DiffusionOutput>() {
+            @Override
+            public DiffusionOutput answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(60000);
+                return null;
+            }
+        });
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.TIMEOUT_PROP, "100");
+        DiffusionServiceClient client = getClient(callable, properties);
+        try {
+            client.diffuse(CX, "col", 0.1, null);
+            fail("Expected exception");
+        } catch(java.io.IOException io){
+            assertTrue(io.getMessage().contains("timed out"));
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseBatchEncodesOnce() throws Exception {
+        final AtomicInteger encodes = new AtomicInteger();
+        ContentProducer cx = (out) -> {
+            encodes.incrementAndGet();
+            out.write("cx".getBytes());
+        };
+        DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenReturn(output);
+        DiffusionServiceClient client = getClient(callable);
+        try {
+            List<CompletableFuture<DiffusionOutput>> results = client.diffuseBatch(cx,
+                    Arrays.asList("a", "b", "c"), Arrays.asList(0.1, 0.2, 0.3));
+            assertEquals(3, results.size());
+            for (CompletableFuture<DiffusionOutput> result : results){
+                assertSame(output, client.await(result));
+            }
+            assertEquals(1, encodes.get());
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testSpooledBatchDeletedOnShutdown() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenAnswer(new Answer<DiffusionOutput>() {
+            @Override
+            public DiffusionOutput answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(60000);
+                return null;
+            }
+        });
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.BATCH_MEMORY_PROP, "1");
+        DiffusionServiceClient client = getClient(callable, properties);
+        final long before = countSpools();
+        try {
+            client.diffuseBatch(CX, Arrays.asList("a", "b"), Arrays.asList(0.1, 0.2));
+            assertEquals(before + 1, countSpools());
+        } finally {
+            client.shutdown();
+        }
+        assertEquals(before, countSpools());
+    }
+    
+    private static long countSpools() throws java.io.IOException {
+        try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+            return files.filter(file -> file.getFileName().toString().startsWith("diffusion-batch")).count();
+        }
+    }
+    
+    @Test
+    public void testRetryOnNextEndpoint() throws Exception {
+        DiffusionCallable failing = mock(DiffusionCallable.class);
+        when(failing.call()).thenThrow(new java.io.IOException("connection refused"));
+        DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+        DiffusionCallable working = mock(DiffusionCallable.class);
+        when(working.call()).thenReturn(output);
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.RETRY_BACKOFF_PROP, "1");
+        DiffusionServiceClient client = getClient(failing, working, properties);
+        try {
+            assertSame(output, client.diffuse(CX, "col", 0.1, null));
+            verify(failing, times(1)).call();
+            verify(working, times(1)).call();
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testRetriesExhausted() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new java.io.IOException("bad"));
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.RETRY_BACKOFF_PROP, "1");
+        properties.setProperty(DiffusionServiceClient.RETRIES_PROP, "3");
+        DiffusionServiceClient client = getClient(callable, properties);
+        try {
+            client.diffuse(CX, "col", 0.1, null);
+            fail("Expected exception");
+        } catch(java.io.IOException io){
+            assertTrue(io.getMessage().contains("bad"));
+            verify(callable, times(4)).call();
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testNoRetryOnServiceError() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new DiffusionServiceException("errors",
+                new ArrayList<>()));
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.RETRY_BACKOFF_PROP, "1");
+        DiffusionServiceClient client = getClient(callable, properties);
+        try {
+            client.diffuse(CX, "col", 0.1, null);
+            fail("Expected exception");
+        } catch(DiffusionServiceException dse){
+            verify(callable, times(1)).call();
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testHedgedRequest() throws Exception {
+        DiffusionCallable slow = mock(DiffusionCallable.class);
+        when(slow.call()).thenAnswer(new Answer<DiffusionOutput>() {
+            @Override
+            public DiffusionOutput answer(InvocationOnMock invocation) throws Throwable {
+                Thread.sleep(60000);
+                return null;
+            }
+        });
+        DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+        DiffusionCallable fast = mock(DiffusionCallable.class);
+        when(fast.call()).thenReturn(output);
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.HEDGE_PERCENTILE_PROP, "95");
+        properties.setProperty(DiffusionServiceClient.HEDGE_MIN_DELAY_PROP, "0");
+        DiffusionServiceClient client = getClient(slow, fast, properties);
+        for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++){
+            client.getLatencyTracker().record(50);
+        }
+        try {
+            CompletableFuture<DiffusionOutput> result = client.diffuseAsync(CX, "col", 0.1);
+            assertSame(output, result.get(10, TimeUnit.SECONDS));
+            verify(slow, timeout(5000)).abort();
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testCircuitBreakerFallback() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new java.io.IOException("connection refused"));
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.RETRIES_PROP, "0");
+        properties.setProperty(CircuitBreaker.MINIMUM_CALLS_PROP, "1");
+        DiffusionServiceClient client = getClient(callable, properties);
+        try {
+            try {
+                client.diffuse(CX, "col", 0.1, null);
+                fail("Expected exception");
+            } catch(java.io.IOException io){
+                assertTrue(io.getMessage().contains("connection refused"));
+            }
+            assertEquals("OPEN", client.getStatus().state);
+
+            // fails fast without calling the service
+            try {
+                client.diffuse(CX, "col", 0.1, null);
+                fail("Expected exception");
+            } catch(CircuitBreakerOpenException cboe){
+            }
+            
+            final DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+            assertSame(output, client.diffuseAsync(CX, "col", 0.1, 0, () -> output)
+                    .get(10, TimeUnit.SECONDS));
+            verify(callable, times(1)).call();
+            
+            DiffusionServiceStatus status = client.getStatus();
+            assertEquals(0, status.remoteCalls);
+            assertEquals(1, status.rejectedCalls);
+            assertEquals(1, status.fallbackCalls);
+            assertEquals(DiffusionServiceClient.SERVED_BY_FALLBACK, status.lastServedBy);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerFallbackNotCachedAsRemote() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new java.io.IOException("connection refused"));
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.RETRIES_PROP, "0");
+        properties.setProperty(CircuitBreaker.MINIMUM_CALLS_PROP, "1");
+        DiffusionServiceClient client = getClient(callable, properties);
+        try {
+            try {
+                client.diffuse(CX, "col", 0.1, null);
+                fail("Expected exception");
+            } catch(java.io.IOException io){
+            }
+            assertEquals("OPEN", client.getStatus().state);
+
+            // one node whose input heat is set by the task
+            CyNetwork network = mock(CyNetwork.class);
+            CyTable table = mock(CyTable.class);
+            CyColumn column = mock(CyColumn.class);
+            when(column.getType()).thenReturn((Class) Double.class);
+            when(table.getColumn(DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME)).thenReturn(column);
+            when(network.getDefaultNodeTable()).thenReturn(table);
+            when(network.getTable(CyNode.class, CyNetwork.LOCAL_ATTRS)).thenReturn(table);
+            CyNode node = mock(CyNode.class);
+            when(node.getSUID()).thenReturn(1L);
+            CyRow row = mock(CyRow.class);
+            when(row.get(DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME, Double.class)).thenReturn(1.0);
+            when(table.getRow(1L)).thenReturn(row);
+            when(network.getRow(node)).thenReturn(row);
+            when(network.getNodeList()).thenReturn(Arrays.asList(node));
+            DiffusionTableManager tableManager = mock(DiffusionTableManager.class);
+            when(tableManager.createTable(network)).thenReturn(mock(DiffusionTable.class));
+            CytoPanel panel = mock(CytoPanel.class);
+            when(panel.getThisComponent()).thenReturn(new JPanel());
+            CySwingApplication swingApplication = mock(CySwingApplication.class);
+            when(swingApplication.getCytoPanel(CytoPanelName.EAST)).thenReturn(panel);
+
+            // the local engine answers for the service
+            new DiffuseSelectedTask(tableManager, network, mock(CyNetworkViewWriterFactory.class),
+                    mock(OutputPanel.class), swingApplication, mock(CyApplicationManager.class),
+                    client, mock(TunableSetter.class)).run(mock(TaskMonitor.class));
+            verify(row).set("diffusion_output_heat", 1.0);
+            assertEquals(1, client.getStatus().fallbackCalls);
+
+            DiffusionCacheKey key = DiffusionCacheKey.create(network, DiffuseSelectedTask.DIFFUSION_INPUT_COL_NAME,
+                    null);
+            assertNull(client.getCachedOutput(key.engine(DiffusionServiceClient.ENGINE_REMOTE, null)));
+            DiffusionOutput local = client.getCachedOutput(key.engine(DiffusionServiceClient.ENGINE_LOCAL,
+                    LocalDiffusionEngine.PRECISION_DOUBLE));
+            assertNotNull(local);
+            assertEquals(DiffusionServiceClient.ENGINE_LOCAL, local.getEngine());
+            assertEquals(1.0, local.getHeat(0), 1e-12);
+        } finally {
+            client.shutdown();
+        }
+    }
+
+    @Test
+    public void testCircuitBreakerOpenSkipsRetry() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new java.io.IOException("connection refused"));
+        Properties properties = new Properties();
+        properties.setProperty(DiffusionServiceClient.RETRIES_PROP, "3");
+        properties.setProperty(DiffusionServiceClient.RETRY_BACKOFF_PROP, "600000");
+        properties.setProperty(DiffusionServiceClient.RETRY_MAX_BACKOFF_PROP, "600000");
+        properties.setProperty(CircuitBreaker.MINIMUM_CALLS_PROP, "1");
+        DiffusionServiceClient client = getClient(callable, properties);
+        try {
+            // the failure opens the breaker, the fallback runs without the backoff
+            final DiffusionOutput output = new DiffusionOutput.Builder().setHeat(1L, 0.5).build();
+            assertSame(output, client.diffuseAsync(CX, "col", 0.1, 0, () -> output)
+                    .get(10, TimeUnit.SECONDS));
+            verify(callable, times(1)).call();
+            assertEquals(1, client.getStatus().fallbackCalls);
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseServiceError() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new DiffusionServiceException("errors",
+                new ArrayList<>()));
+        DiffusionServiceClient client = getClient(callable);
+        try {
+            client.diffuse(CX, "col", 0.1, null);
+            fail("Expected exception");
+        } catch(DiffusionServiceException dse){
+            assertEquals("errors", dse.getMessage());
+        } finally {
+            client.shutdown();
+        }
+    }
+    
+    @Test
+    public void testDiffuseError() throws Exception {
+        DiffusionCallable callable = mock(DiffusionCallable.class);
+        when(callable.call()).thenThrow(new java.io.IOException("bad"));
+        DiffusionServiceClient client = getClient(callable);
+        try {
+            client.diffuse(CX, "col", 0.1, null);
+            fail("Expected exception");
+        } catch(java.io.IOException io){
+            assertTrue(io.getMessage().contains("bad"));
+        } finally {
+            client.shutdown();
+        }
+    }
+}
@@ -0,0 +1,42 @@
+package org.cytoscape.diffusion.internal.client;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+public class LatencyTrackerTest {
+
+	@Test
+	public void testTooFewSamples() {
+		LatencyTracker tracker = new LatencyTracker(100);
+		for (int i = 1; i < LatencyTracker.MIN_SAMPLES; i++) {
+			tracker.record(i);
+		}
+		assertEquals(-1, tracker.getPercentile(95));
+	}
+
+	@Test
+	public void testPercentile() {
+		LatencyTracker tracker = new LatencyTracker(100);
+		for (int i = 100; i >= 1; i--) {
+			tracker.record(i);
+		}
+		assertEquals(100, tracker.getCount());
+		assertEquals(50, tracker.getPercentile(50));
+		assertEquals(95, tracker.getPercentile(95));
+		assertEquals(100, tracker.getPercentile(100));
+	}
+
+	@Test
+	public void testKeepsMostRecent() {
+		LatencyTracker tracker = new LatencyTracker(LatencyTracker.MIN_SAMPLES);
+		for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++) {
+			tracker.record(1000);
+		}
+		for (int i = 0; i < LatencyTracker.MIN_SAMPLES; i++) {
+			tracker.record(10);
+		}
+		assertEquals(LatencyTracker.MIN_SAMPLES, tracker.getCount());
+		assertEquals(10, tracker.getPercentile(99));
+	}
+}
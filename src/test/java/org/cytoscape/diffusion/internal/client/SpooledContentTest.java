@@ -0,0 +1,73 @@
+package org.cytoscape.diffusion.internal.client;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.stream.Stream;
+
+import org.apache.http.entity.ContentProducer;
+import org.junit.Test;
+
+public class SpooledContentTest {
+
+	private static final byte[] CX = "[{\"nodes\":[]},{\"edges\":[]}]".getBytes();
+
+	private static final ContentProducer PRODUCER = (out) -> {
+		out.write(CX, 0, 10);
+		out.write(CX[10]);
+		out.write(CX, 11, CX.length - 11);
+	};
+
+	private static byte[] read(final SpooledContent content) throws IOException {
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		content.writeTo(out);
+		return out.toByteArray();
+	}
+
+	private static long countSpools() throws IOException {
+		try (Stream<Path> files = Files.list(Paths.get(System.getProperty("java.io.tmpdir")))) {
+			return files.filter(file -> file.getFileName().toString().startsWith("diffusion-batch")).count();
+		}
+	}
+
+	@Test
+	public void testInMemory() throws Exception {
+		final SpooledContent content = SpooledContent.write(PRODUCER, CX.length);
+		assertFalse(content.isSpooled());
+		assertArrayEquals(CX, read(content));
+		assertArrayEquals(CX, read(content));
+	}
+
+	@Test
+	public void testSpooled() throws Exception {
+		final long before = countSpools();
+		final SpooledContent content = SpooledContent.write(PRODUCER, 10);
+		assertTrue(content.isSpooled());
+		assertArrayEquals(CX, read(content));
+		assertArrayEquals(CX, read(content));
+		content.delete();
+		assertTrue(countSpools() <= before);
+	}
+
+	@Test
+	public void testDeletedOnError() throws Exception {
+		final long before = countSpools();
+		try {
+			SpooledContent.write((out) -> {
+				out.write(CX);
+				throw new IOException("network changed");
+			}, 10);
+			fail("Expected exception");
+		} catch (IOException e) {
+			// expected
+		}
+		assertTrue(countSpools() <= before);
+	}
+}
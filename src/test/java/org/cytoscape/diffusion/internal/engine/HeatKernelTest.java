@@ -0,0 +1,124 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.path;
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.ring;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class HeatKernelTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testTwoNodes() {
+		final SparseLaplacian laplacian = SparseLaplacian.create(new long[] { 1, 2 }, new int[] { 0, 1 },
+				new int[] { 1, 0 }, 2);
+		for (double time : new double[] { 0.0, 0.1, 1.0, 5.0 }) {
+			final double[] heats = new TaylorHeatKernel().apply(laplacian, new double[] { 1, 0 }, time);
+			final double decay = Math.exp(-2 * time);
+			assertEquals((1 + decay) / 2, heats[0], DELTA);
+			assertEquals((1 - decay) / 2, heats[1], DELTA);
+		}
+	}
+
+	@Test
+	public void testHeatConservedAndSpread() {
+		final SparseLaplacian laplacian = path();
+		final HeatKernel kernel = new TaylorHeatKernel();
+		final double[] heats = kernel.apply(laplacian, new double[] { 1, 0, 0, 0 }, 0.5);
+		assertEquals(1.0, Arrays.stream(heats).sum(), DELTA);
+		for (int i = 1; i < heats.length; i++) {
+			assertTrue(heats[i] < heats[i - 1]);
+		}
+
+		// reaches equilibrium on a connected network
+		final double[] equilibrium = kernel.apply(laplacian, new double[] { 1, 0, 0, 0 }, 100.0);
+		assertArrayEquals(new double[] { 0.25, 0.25, 0.25, 0.25 }, equilibrium, 1e-8);
+	}
+
+	@Test
+	public void testKrylovMatchesTaylor() {
+		final SparseLaplacian laplacian = ring();
+		final int n = laplacian.size();
+		final double[] input = new double[n];
+		input[3] = 1.0;
+		input[17] = 0.5;
+		for (double time : new double[] { 0.1, 1.0, 20.0 }) {
+			final double[] expected = new TaylorHeatKernel(1e-15).apply(laplacian, input, time);
+			final double[] actual = new KrylovHeatKernel(1e-10, 10).apply(laplacian, input, time);
+			assertArrayEquals(expected, actual, 1e-9);
+			final double[] chebyshev = new ChebyshevHeatKernel(1e-10).apply(laplacian, input, time);
+			assertArrayEquals(expected, chebyshev, 1e-9);
+		}
+	}
+
+	@Test
+	public void testTimeSweep() {
+		final SparseLaplacian laplacian = ring();
+		final double[] input = new double[laplacian.size()];
+		input[3] = 1.0;
+		input[17] = 0.5;
+		// unsorted, with a repeat and 0
+		final double[] times = { 5.0, 0.1, 0.0, 20.0, 0.1, 1.0 };
+		for (HeatKernel kernel : new HeatKernel[] { new KrylovHeatKernel(1e-10, 10), new ChebyshevHeatKernel(1e-10),
+				new TaylorHeatKernel(1e-12) }) {
+			final double[][] sweep = kernel.apply(laplacian, input, times);
+			assertEquals(times.length, sweep.length);
+			for (int t = 0; t < times.length; t++) {
+				final double[] expected = new TaylorHeatKernel(1e-15).apply(laplacian, input, times[t]);
+				assertArrayEquals(kernel.getClass().getSimpleName() + " at " + times[t], expected, sweep[t], 1e-9);
+			}
+			assertTrue(sweep[1] != sweep[4]);
+		}
+	}
+
+	@Test
+	public void testBlock() {
+		final SparseLaplacian laplacian = ring();
+		final int n = laplacian.size();
+		// widths cover the groups of 8, 4, 2 and 1 vectors
+		for (int width : new int[] { 1, 7, 11 }) {
+			final double[] block = new double[n * width];
+			for (int j = 0; j < width; j++) {
+				block[((5 * j) % n) * width + j] = 1.0;
+				block[((3 * j + 1) % n) * width + j] = 0.5;
+			}
+			final double[] product = new double[block.length];
+			laplacian.multiply(block, product, width);
+			for (HeatKernel kernel : new HeatKernel[] { new KrylovHeatKernel(1e-10, 10),
+					new ChebyshevHeatKernel(1e-10), new TaylorHeatKernel(1e-12) }) {
+				final double[] diffused = kernel.applyBlock(laplacian, block, width, 2.0);
+				for (int j = 0; j < width; j++) {
+					final double[] input = new double[n];
+					for (int i = 0; i < n; i++) {
+						input[i] = block[i * width + j];
+					}
+					final double[] expectedProduct = new double[n];
+					laplacian.multiply(input, expectedProduct);
+					final double[] expected = new TaylorHeatKernel(1e-15).apply(laplacian, input, 2.0);
+					for (int i = 0; i < n; i++) {
+						assertEquals(expectedProduct[i], product[i * width + j], 0);
+						assertEquals(expected[i], diffused[i * width + j], 1e-9);
+					}
+				}
+			}
+		}
+	}
+
+	@Test
+	public void testChebyshevDegree() {
+		final SparseLaplacian laplacian = path();
+		final int shortTime = new ChebyshevHeatKernel(1e-6).getDegree(laplacian, 0.1);
+		assertTrue(shortTime > 0);
+		assertTrue(new ChebyshevHeatKernel(1e-6).getDegree(laplacian, 10.0) > shortTime);
+		assertTrue(new ChebyshevHeatKernel(1e-12).getDegree(laplacian, 0.1) > shortTime);
+
+		// e^-1 I_0(1)
+		assertEquals(0.4657596075936404, ChebyshevHeatKernel.scaledBessel(1.0, 1e-8)[0], 1e-14);
+	}
+}
@@ -0,0 +1,33 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+public class HeatRankingTest {
+
+	@Test
+	public void testRanking() {
+		assertArrayEquals(new int[] { 2, 1, 4, 3, 5 },
+				HeatRanking.rank(new double[] { 0.2, 0.5, 0.1, 0.2, Double.NaN }));
+		assertArrayEquals(new int[] { 1, 0, 3 }, HeatRanking.top(new double[] { 0.2, 0.5, 0.1, 0.2, Double.NaN }, 3));
+
+		// the top of a ranking with many ties and NaN is its first ranks
+		final Random random = new Random(5);
+		final double[] heats = new double[1000];
+		for (int i = 0; i < heats.length; i++) {
+			heats[i] = random.nextInt(10) == 0 ? Double.NaN : random.nextInt(50);
+		}
+		final int[] ranks = HeatRanking.rank(heats);
+		for (int k : new int[] { 1, 7, 100, 1000, 2000 }) {
+			final int[] top = HeatRanking.top(heats, k);
+			assertEquals(Math.min(k, heats.length), top.length);
+			for (int r = 0; r < top.length; r++) {
+				assertEquals(r + 1, ranks[top[r]]);
+			}
+		}
+	}
+}
@@ -0,0 +1,50 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.ring;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Test;
+
+public class IncrementalDiffusionTest {
+
+	@Test
+	public void testIncrementalDiffusion() {
+		final SparseLaplacian laplacian = ring();
+		final HeatKernel kernel = new KrylovHeatKernel(1e-12, 30);
+		final IncrementalDiffusion incremental = new IncrementalDiffusion(kernel, null, 1L << 20, 2);
+		final Long suid = 1L;
+		final double[] input = new double[laplacian.size()];
+		input[3] = 1.0;
+		input[20] = 1.0;
+		assertNull(incremental.apply(suid, laplacian, input, 0.5, () -> false));
+		incremental.record(suid, laplacian, input, 0.5, kernel.apply(laplacian, input, 0.5));
+
+		// unchanged, one seed added, one removed and added back
+		final double[][] edits = { input.clone(), input.clone(), input.clone(), input.clone() };
+		edits[1][7] = 1.0;
+		edits[2][7] = 1.0;
+		edits[2][3] = 0.0;
+		edits[3][7] = 1.0;
+		for (double[] edit : edits) {
+			final double[] heats = incremental.apply(suid, laplacian, edit, 0.5, () -> false);
+			assertArrayEquals(kernel.apply(laplacian, edit, 0.5), heats, 1e-10);
+		}
+		// columns of nodes 3 and 7 and the last run
+		assertEquals(3, incremental.size());
+
+		// too many changes, another time or a new snapshot are solved in full
+		final double[] many = edits[3].clone();
+		many[10] = many[11] = many[12] = 1.0;
+		assertNull(incremental.apply(suid, laplacian, many, 0.5, () -> false));
+		assertNull(incremental.apply(suid, laplacian, edits[3], 1.0, () -> false));
+		assertNull(incremental.apply(suid, ring(), edits[3], 0.5, () -> false));
+
+		// bounded by bytes, no room for the last run
+		final IncrementalDiffusion small = new IncrementalDiffusion(kernel, null, 8L * laplacian.size(), 2);
+		small.record(suid, laplacian, input, 0.5, kernel.apply(laplacian, input, 0.5));
+		assertEquals(0, small.size());
+		assertEquals(0, small.getBytes());
+	}
+}
@@ -0,0 +1,142 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+import org.cytoscape.diffusion.internal.client.DiffusionCacheKey;
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
+import org.cytoscape.diffusion.internal.util.NetworkSnapshotCache;
+import org.cytoscape.model.CyColumn;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNetworkManager;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.CyRow;
+import org.cytoscape.model.CyTable;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
+import org.junit.Test;
+
+public class LocalDiffusionEngineTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testSolverProperty() {
+		final Properties props = new Properties();
+		assertTrue(LocalDiffusionEngine.createKernel(props) instanceof KrylovHeatKernel);
+		props.setProperty(LocalDiffusionEngine.SOLVER_PROP, "Taylor");
+		assertTrue(LocalDiffusionEngine.createKernel(props) instanceof TaylorHeatKernel);
+		props.setProperty(LocalDiffusionEngine.SOLVER_PROP, " chebyshev");
+		assertTrue(LocalDiffusionEngine.createKernel(props) instanceof ChebyshevHeatKernel);
+		props.setProperty(LocalDiffusionEngine.SOLVER_PROP, "unknown");
+		assertTrue(LocalDiffusionEngine.createKernel(props) instanceof KrylovHeatKernel);
+	}
+
+	@Test
+	public void testIncrementalDroppedWithNetwork() {
+		final CyNetwork network = network(new Double[] { 1.0, 0.0 }, new int[] { 0, 1 });
+
+		// off unless configured
+		final LocalDiffusionEngine defaults = new LocalDiffusionEngine(new Properties(), new NetworkSnapshotCache());
+		assertFalse(defaults.getIncremental().isEnabled());
+		defaults.shutdown();
+
+		final NetworkSnapshotCache snapshots = new NetworkSnapshotCache();
+		final LocalDiffusionEngine engine = new LocalDiffusionEngine(new KrylovHeatKernel(), snapshots, null,
+				LocalDiffusionEngine.DEFAULT_TOLERANCE, 1, 1, 0, 0, 1L << 20, 2);
+		engine.diffuse(network, "heat", 0.5);
+		assertTrue(engine.getIncremental().size() > 0);
+
+		snapshots.handleEvent(new NetworkAboutToBeDestroyedEvent(mock(CyNetworkManager.class), network));
+		assertEquals(0, engine.getIncremental().size());
+		assertEquals(0, engine.getIncremental().getBytes());
+	}
+
+	@Test
+	public void testDiffuseNetwork() {
+		final CyNetwork network = network(new Double[] { 1.0, null, 0.0 }, new int[] { 1, 0 });
+
+		// a snapshot hashes the topology like a walk of the network
+		assertEquals(DiffusionCacheKey.create(network, null, null), DiffusionCacheKey
+				.create(DiffusionCacheKey.Topology.of(NetworkSnapshot.create(network)), network, null, null, null));
+
+		final DiffusionOutput output = new LocalDiffusionEngine().diffuse(network, "heat", (Double) null);
+		final double decay = Math.exp(-2 * LocalDiffusionEngine.DEFAULT_TIME);
+		assertEquals(3, output.getSize());
+		assertEquals(1L, output.getSUID(0));
+		assertEquals((1 + decay) / 2, output.getHeat(0), DELTA);
+		assertEquals((1 - decay) / 2, output.getHeat(1), DELTA);
+		assertEquals(0.0, output.getHeat(2), DELTA);
+		assertEquals(1, output.getRank(0));
+		assertEquals(2, output.getRank(1));
+		assertEquals(3, output.getRank(2));
+
+		final List<DiffusionOutput> sweep = new LocalDiffusionEngine().diffuse(network, "heat",
+				Arrays.asList(1.0, null), () -> false);
+		assertEquals(2, sweep.size());
+		assertEquals((1 + Math.exp(-2.0)) / 2, sweep.get(0).getHeat(0), DELTA);
+		assertEquals(output.getHeat(1), sweep.get(1).getHeat(1), DELTA);
+
+		final DiffusionOutput top = new LocalDiffusionEngine().diffuseTop(network, "heat", null, 2, () -> false);
+		assertEquals(2, top.getSize());
+		assertEquals(1L, top.getSUID(0));
+		assertEquals(output.getHeat(0), top.getHeat(0), 1e-6);
+		assertEquals(1, top.getRank(0));
+		assertEquals(2L, top.getSUID(1));
+		assertEquals(2, top.getRank(1));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testMissingColumn() {
+		final CyNetwork network = mock(CyNetwork.class);
+		when(network.getDefaultNodeTable()).thenReturn(mock(CyTable.class));
+		new LocalDiffusionEngine().diffuse(network, "heat", 0.1);
+	}
+
+	/**
+	 * Network with SUID 100 and nodes with SUIDs 1, 2, ... whose input heats
+	 * are in column "heat"
+	 *
+	 * @param edges indices of the source and target node of each edge
+	 */
+	private static CyNetwork network(final Double[] heats, final int[]... edges) {
+		final CyNetwork network = mock(CyNetwork.class);
+		final CyTable table = mock(CyTable.class);
+		final CyColumn column = mock(CyColumn.class);
+		when(network.getSUID()).thenReturn(100L);
+		when(network.getDefaultNodeTable()).thenReturn(table);
+		when(table.getColumn("heat")).thenReturn(column);
+		when(column.getType()).thenReturn((Class) Double.class);
+		final List<CyNode> nodes = new ArrayList<>();
+		for (int i = 0; i < heats.length; i++) {
+			nodes.add(node(i + 1, table, heats[i]));
+		}
+		final List<CyEdge> edgeList = new ArrayList<>();
+		for (int[] ends : edges) {
+			final CyEdge edge = mock(CyEdge.class);
+			when(edge.getSource()).thenReturn(nodes.get(ends[0]));
+			when(edge.getTarget()).thenReturn(nodes.get(ends[1]));
+			edgeList.add(edge);
+		}
+		when(network.getNodeList()).thenReturn(nodes);
+		when(network.getEdgeList()).thenReturn(edgeList);
+		return network;
+	}
+
+	private static CyNode node(final long suid, final CyTable table, final Double heat) {
+		final CyNode node = mock(CyNode.class);
+		when(node.getSUID()).thenReturn(suid);
+		final CyRow row = mock(CyRow.class);
+		when(row.get("heat", Double.class)).thenReturn(heat);
+		when(table.getRow(suid)).thenReturn(row);
+		return node;
+	}
+}
@@ -0,0 +1,103 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class LocalHeatKernelTest {
+
+	@Test
+	public void testLocalHeatKernel() {
+		// Ring of 100000 nodes with chords of length 7
+		final int n = 100000;
+		final long[] suids = new long[n];
+		final int[] sources = new int[4 * n];
+		final int[] targets = new int[4 * n];
+		for (int i = 0; i < n; i++) {
+			suids[i] = i + 1;
+			final int[] ends = { (i + 1) % n, (i + 7) % n };
+			for (int e = 0; e < 2; e++) {
+				sources[4 * i + 2 * e] = i;
+				targets[4 * i + 2 * e] = ends[e];
+				sources[4 * i + 2 * e + 1] = ends[e];
+				targets[4 * i + 2 * e + 1] = i;
+			}
+		}
+		final NetworkSnapshot snapshot = NetworkSnapshot.create(suids, sources, targets, sources.length);
+		final SparseLaplacian laplacian = new SparseLaplacian(snapshot);
+		final double[] input = new double[n];
+		input[3] = 1.0;
+		input[5000] = 2.0;
+		final double epsilon = 1e-6;
+		final HeatKernel kernel = new KrylovHeatKernel(1e-12, 30);
+		final LocalHeatKernel local = new LocalHeatKernel(kernel, epsilon);
+		for (double time : new double[] { 0.1, 1.0 }) {
+			final LocalHeatKernel.Region region = local.apply(snapshot, input, time, () -> false);
+			assertTrue(region.size() < 2000);
+			assertTrue(region.getLost() <= epsilon * 3.0);
+
+			// below the exact heats by at most the heat lost
+			final double[] expected = kernel.apply(laplacian, input, time);
+			double error = 0;
+			double outside = 0;
+			final boolean[] inRegion = new boolean[n];
+			for (int r = 0; r < region.size(); r++) {
+				final double difference = expected[region.getNode(r)] - region.getHeat(r);
+				assertTrue(difference > -1e-9);
+				error += difference;
+				inRegion[region.getNode(r)] = true;
+			}
+			for (int i = 0; i < n; i++) {
+				if (!inRegion[i]) {
+					outside += expected[i];
+				}
+			}
+			assertEquals(region.getLost(), error + outside, 1e-8);
+		}
+
+		// seeds read with the input give the same region, too many give none
+		final LocalHeatKernel.Seeds seeds = new LocalHeatKernel.Seeds(2);
+		seeds.add(3, 1.0);
+		seeds.add(5000, 2.0);
+		assertEquals(local.apply(snapshot, input, 1.0, () -> false).getLost(),
+				local.apply(snapshot, seeds, 1.0, () -> false).getLost(), 0);
+		seeds.add(7, 1.0);
+		assertFalse(seeds.isComplete());
+		assertNull(local.apply(snapshot, seeds, 1.0, () -> false));
+
+		// negative heats are diffused over the whole network
+		input[10] = -1.0;
+		assertNull(local.apply(snapshot, input, 1.0, () -> false));
+	}
+
+	@Test
+	public void testLocalHeatKernelRounds() {
+		// Path of 100000 nodes, the boundary of any region is 2 nodes
+		final int n = 100000;
+		final long[] suids = new long[n];
+		final int[] sources = new int[2 * n];
+		final int[] targets = new int[2 * n];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			suids[i] = i + 1;
+			if (i + 1 < n) {
+				sources[count] = i;
+				targets[count++] = i + 1;
+				sources[count] = i + 1;
+				targets[count++] = i;
+			}
+		}
+		final NetworkSnapshot snapshot = NetworkSnapshot.create(suids, sources, targets, count);
+		final LocalHeatKernel.Seeds seeds = new LocalHeatKernel.Seeds(1);
+		seeds.add(n / 2, 1.0);
+		final LocalHeatKernel local = new LocalHeatKernel(new KrylovHeatKernel(1e-12, 30), 1e-8);
+		final LocalHeatKernel.Region region = local.apply(snapshot, seeds, 20.0, () -> false);
+		assertTrue(region.getLost() <= 1e-8);
+
+		// the region at least doubles each round
+		assertTrue(region.getRounds() <= 1 + 32 - Integer.numberOfLeadingZeros(region.size()));
+	}
+}
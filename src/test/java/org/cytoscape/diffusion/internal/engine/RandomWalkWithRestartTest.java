@@ -0,0 +1,55 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.ring;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class RandomWalkWithRestartTest {
+
+	private static final double DELTA = 1e-9;
+
+	@Test
+	public void testRandomWalkWithRestart() {
+		// two linked nodes and one without neighbors
+		final SparseLaplacian laplacian = SparseLaplacian.create(new long[] { 1, 2, 3 }, new int[] { 0, 1 },
+				new int[] { 1, 0 }, 2);
+		final RandomWalkWithRestart walk = new RandomWalkWithRestart(1e-12);
+		for (double restart : new double[] { 0.05, 0.15, 0.5, 1.0 }) {
+			final double[] heats = walk.apply(laplacian, new double[] { 1, 0, 0.5 }, restart);
+			assertEquals(1 / (2 - restart), heats[0], DELTA);
+			assertEquals((1 - restart) / (2 - restart), heats[1], DELTA);
+			assertEquals(0.5, heats[2], DELTA);
+		}
+
+		// stationary and conserving heat on a larger network
+		final SparseLaplacian ring = ring();
+		final int n = ring.size();
+		final double[] input = new double[n];
+		input[3] = 1.0;
+		input[17] = 0.5;
+		final double[] heats = walk.apply(ring, input, 0.15);
+		assertEquals(1.5, Arrays.stream(heats).sum(), DELTA);
+		final double[] x = new double[n];
+		for (int i = 0; i < n; i++) {
+			x[i] = heats[i] / ring.getDegree(i);
+		}
+		final double[] y = new double[n];
+		ring.multiply(x, y);
+		for (int i = 0; i < n; i++) {
+			assertEquals(heats[i], 0.15 * input[i] + 0.85 * (heats[i] - y[i]), DELTA);
+		}
+		assertTrue(walk.getIterations(0.15) < 200);
+
+		try {
+			walk.apply(ring, input, 0.0);
+			fail("Restart probability 0 accepted");
+		} catch (IllegalArgumentException e) {
+			// expected
+		}
+	}
+}
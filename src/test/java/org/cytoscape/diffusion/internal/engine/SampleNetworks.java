@@ -0,0 +1,65 @@
+package org.cytoscape.diffusion.internal.engine;
+
+/**
+ * Networks shared by the tests of the engine
+ */
+final class SampleNetworks {
+
+	private SampleNetworks() {
+	}
+
+	/**
+	 * Path 0 - 1 - 2 - 3 with a duplicate edge and a self loop, which are ignored
+	 */
+	static SparseLaplacian path() {
+		final int[] sources = { 0, 1, 1, 2, 2, 3, 1, 0, 2 };
+		final int[] targets = { 1, 0, 2, 1, 3, 2, 0, 1, 2 };
+		return SparseLaplacian.create(new long[] { 10, 11, 12, 13 }, sources, targets, sources.length);
+	}
+
+	/**
+	 * Ring of 50 nodes with chords, larger than the Krylov spaces used
+	 */
+	static SparseLaplacian ring() {
+		final int n = 50;
+		final long[] suids = new long[n];
+		final int[] sources = new int[4 * n];
+		final int[] targets = new int[4 * n];
+		for (int i = 0; i < n; i++) {
+			suids[i] = i + 1;
+			final int[] ends = { (i + 1) % n, (i * 7) % n };
+			for (int e = 0; e < 2; e++) {
+				sources[4 * i + 2 * e] = i;
+				targets[4 * i + 2 * e] = ends[e];
+				sources[4 * i + 2 * e + 1] = ends[e];
+				targets[4 * i + 2 * e + 1] = i;
+			}
+		}
+		return SparseLaplacian.create(suids, sources, targets, sources.length);
+	}
+
+	/**
+	 * Ring of 30000 nodes with a hub linked to every third node
+	 */
+	static NetworkSnapshot ringWithHub(final ColumnStorage storage) {
+		final int n = 30000;
+		final long[] suids = new long[n];
+		final int[] sources = new int[2 * n + 2 * (n / 3)];
+		final int[] targets = new int[sources.length];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			suids[i] = i + 1;
+			sources[count] = i;
+			targets[count++] = (i + 1) % n;
+			sources[count] = (i + 1) % n;
+			targets[count++] = i;
+			if (i % 3 == 0 && i != 100) {
+				sources[count] = 100;
+				targets[count++] = i;
+				sources[count] = i;
+				targets[count++] = 100;
+			}
+		}
+		return NetworkSnapshot.create(suids, sources, targets, count, storage);
+	}
+}
@@ -0,0 +1,64 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.ring;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class SinglePrecisionHeatKernelTest {
+
+	@Test
+	public void testSinglePrecision() {
+		final SparseLaplacian laplacian = ring();
+		final double[] input = new double[laplacian.size()];
+		input[3] = 1.0;
+		input[17] = 0.5;
+		final double[] times = { 0.1, 1.0, 20.0 };
+		final HeatKernel reference = new KrylovHeatKernel(1e-10, 10);
+		final double[][] expected = reference.apply(laplacian, input, times);
+
+		// the error bound holds and is below the threshold
+		final SinglePrecisionHeatKernel kernel = new SinglePrecisionHeatKernel(reference, 1e-8, 1e-4);
+		final double[][] single = kernel.apply(laplacian, input, times);
+		final double norm = Math.sqrt(1.0 + 0.25);
+		double error = 0;
+		for (int t = 0; t < times.length; t++) {
+			double sum = 0;
+			for (int i = 0; i < input.length; i++) {
+				sum += (single[t][i] - expected[t][i]) * (single[t][i] - expected[t][i]);
+			}
+			error = Math.max(error, Math.sqrt(sum) / norm);
+		}
+		assertTrue(error > 0);
+		assertTrue(error <= kernel.getLastError());
+		assertTrue(kernel.getLastError() < 1e-4);
+		assertFalse(kernel.isFallenBack(laplacian.getSnapshot(), 0));
+
+		// a bound above the threshold solves in double precision, so do
+		// diffusions of at least that degree on the same snapshot
+		final SinglePrecisionHeatKernel strict = new SinglePrecisionHeatKernel(reference, 1e-8, 1e-12);
+		final double[][] fallenBack = strict.apply(laplacian, input, times);
+		for (int t = 0; t < times.length; t++) {
+			assertArrayEquals(expected[t], fallenBack[t], 0);
+		}
+		final int degree = new ChebyshevHeatKernel(SinglePrecisionHeatKernel.FLOAT_TOLERANCE).getDegree(laplacian,
+				times[2]);
+		assertTrue(strict.isFallenBack(laplacian.getSnapshot(), degree));
+		assertFalse(strict.isFallenBack(laplacian.getSnapshot(), degree - 1));
+		assertArrayEquals(expected[2], strict.apply(laplacian, input, times[2]), 1e-12);
+
+		// a new snapshot tries single precision again
+		final SparseLaplacian changed = ring();
+		assertFalse(strict.isFallenBack(changed.getSnapshot(), degree));
+
+		final Properties props = new Properties();
+		props.setProperty(LocalDiffusionEngine.PRECISION_PROP, "single");
+		final HeatKernel configured = LocalDiffusionEngine.createKernel(props);
+		assertTrue(configured instanceof SinglePrecisionHeatKernel);
+		assertTrue(((SinglePrecisionHeatKernel) configured).getReference() instanceof KrylovHeatKernel);
+	}
+}
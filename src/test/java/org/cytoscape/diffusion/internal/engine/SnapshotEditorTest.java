@@ -0,0 +1,114 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class SnapshotEditorTest {
+
+	@Test
+	public void testSnapshotEditor() {
+		final Random random = new Random(5);
+		final List<Long> nodes = new ArrayList<>();
+		final Set<List<Long>> edges = new HashSet<>();
+		for (long suid = 1; suid <= 2000; suid++) {
+			nodes.add(suid);
+		}
+		while (edges.size() < 4000) {
+			addEdge(edges, nodes.get(random.nextInt(nodes.size())), nodes.get(random.nextInt(nodes.size())));
+		}
+		// off the heap, so patched rows split the chunks of shared ones
+		final ColumnStorage storage = new ColumnStorage(0, null);
+		final SnapshotEditor editor = new SnapshotEditor(create(nodes, edges, storage), storage);
+		long nextSuid = 2001;
+		boolean patched = false;
+		for (int batch = 0; batch < 40; batch++) {
+			for (int edit = 0; edit < 20; edit++) {
+				final long source = nodes.get(random.nextInt(nodes.size()));
+				final long target = nodes.get(random.nextInt(nodes.size()));
+				switch (random.nextInt(5)) {
+				case 0:
+					editor.addNode(nextSuid);
+					nodes.add(nextSuid++);
+					break;
+				case 1:
+					assertTrue(editor.removeNode(source));
+					nodes.remove(source);
+					edges.removeIf(edge -> edge.contains(source));
+					break;
+				case 2:
+					final List<Long> edge = edges.iterator().next();
+					assertTrue(editor.removeEdge(edge.get(1), edge.get(0)));
+					edges.remove(edge);
+					break;
+				default:
+					assertEquals(source != target && addEdge(edges, source, target), editor.addEdge(source, target));
+				}
+			}
+			final NetworkSnapshot edited = editor.getSnapshot();
+			patched |= editor.getPatchedCount() > 0;
+			final NetworkSnapshot expected = create(nodes, edges, ColumnStorage.HEAP);
+			assertEquals(expected.getNodeCount(), edited.getNodeCount());
+			assertEquals(expected.getEntryCount(), edited.getEntryCount());
+			assertEquals(expected.getTopologyHash(), edited.getTopologyHash());
+
+			// same product, node by node
+			final int n = edited.getNodeCount();
+			final double[] x = new double[n];
+			for (int i = 0; i < n; i++) {
+				x[i] = Math.sin(edited.getSUID(i));
+			}
+			final double[] y = new double[n];
+			new SparseLaplacian(edited).multiply(x, y);
+			final double[] xExpected = new double[n];
+			for (int i = 0; i < n; i++) {
+				xExpected[i] = Math.sin(expected.getSUID(i));
+			}
+			final double[] yExpected = new double[n];
+			new SparseLaplacian(expected).multiply(xExpected, yExpected);
+			for (int i = 0; i < n; i++) {
+				final int j = expected.getIndex(edited.getSUID(i));
+				assertEquals(yExpected[j], y[i], 1e-12);
+				assertEquals(expected.getDegree(j), edited.getDegree(i), 0);
+			}
+		}
+		assertTrue(editor.getCompactions() > 0);
+		assertTrue(patched);
+	}
+
+	private static boolean addEdge(final Set<List<Long>> edges, final long source, final long target) {
+		if (source == target || edges.contains(Arrays.asList(target, source))) {
+			return false;
+		}
+		return edges.add(Arrays.asList(source, target));
+	}
+
+	private static NetworkSnapshot create(final List<Long> nodes, final Set<List<Long>> edges,
+			final ColumnStorage storage) {
+		final long[] suids = new long[nodes.size()];
+		final Map<Long, Integer> index = new HashMap<>();
+		for (int i = 0; i < suids.length; i++) {
+			suids[i] = nodes.get(i);
+			index.put(suids[i], i);
+		}
+		final int[] sources = new int[2 * edges.size()];
+		final int[] targets = new int[sources.length];
+		int count = 0;
+		for (List<Long> edge : edges) {
+			sources[count] = targets[count + 1] = index.get(edge.get(0));
+			targets[count] = sources[count + 1] = index.get(edge.get(1));
+			count += 2;
+		}
+		return NetworkSnapshot.create(suids, sources, targets, count, storage);
+	}
+}
@@ -0,0 +1,109 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.path;
+import static org.cytoscape.diffusion.internal.engine.SampleNetworks.ringWithHub;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.Test;
+
+public class SparseLaplacianTest {
+
+	@Test
+	public void testLaplacian() {
+		final SparseLaplacian laplacian = path();
+		assertEquals(4, laplacian.size());
+		assertEquals(1.0, laplacian.getDegree(0), 0);
+		assertEquals(2.0, laplacian.getDegree(1), 0);
+		assertEquals(2.0, laplacian.getDegree(2), 0);
+		assertEquals(4.0, laplacian.getNormBound(), 0);
+
+		final double[] y = new double[4];
+		laplacian.multiply(new double[] { 1, 0, 0, 0 }, y);
+		assertArrayEquals(new double[] { 1, -1, 0, 0 }, y, 0);
+	}
+
+	@Test
+	public void testParallelMultiply() throws Exception {
+		final NetworkSnapshot snapshot = ringWithHub(ColumnStorage.HEAP);
+		final int n = snapshot.getNodeCount();
+		final SparseLaplacian sequential = new SparseLaplacian(snapshot);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			final boolean[] canceled = { false };
+			final SparseLaplacian parallel = new SparseLaplacian(snapshot, pool, () -> canceled[0]);
+
+			// parts are ordered and aligned
+			final int[] parts = parallel.getPartition();
+			assertTrue(parts.length > 2);
+			assertEquals(0, parts[0]);
+			assertEquals(n, parts[parts.length - 1]);
+			for (int p = 1; p < parts.length - 1; p++) {
+				assertTrue(parts[p] > parts[p - 1]);
+				assertEquals(0, parts[p] % SparseLaplacian.ALIGN_ROWS);
+			}
+
+			for (int width : new int[] { 1, 3 }) {
+				final double[] x = new double[n * width];
+				for (int i = 0; i < x.length; i++) {
+					x[i] = Math.sin(i);
+				}
+				final double[] expected = new double[x.length];
+				final double[] actual = new double[x.length];
+				sequential.multiply(x, expected, width);
+				parallel.multiply(x, actual, width);
+				assertArrayEquals(expected, actual, 0);
+			}
+
+			canceled[0] = true;
+			try {
+				new ChebyshevHeatKernel().apply(parallel, new double[n], 1.0);
+				fail("Canceled diffusion completed");
+			} catch (CancellationException e) {
+				// expected
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	@Test
+	public void testOffHeap() throws Exception {
+		final NetworkSnapshot heap = ringWithHub(ColumnStorage.HEAP);
+		final NetworkSnapshot direct = ringWithHub(new ColumnStorage(0, null));
+		final NetworkSnapshot mapped = ringWithHub(
+				new ColumnStorage(0, new File(System.getProperty("java.io.tmpdir"))));
+		assertTrue(!heap.isOffHeap() && direct.isOffHeap() && mapped.isOffHeap());
+		assertEquals(heap.getEntryCount(), direct.getEntryCount());
+		assertEquals(heap.getEntryCount(), mapped.getEntryCount());
+
+		final int n = heap.getNodeCount();
+		final SparseLaplacian expected = new SparseLaplacian(heap);
+		final ForkJoinPool pool = new ForkJoinPool(4);
+		try {
+			// the hub has more entries than a chunk
+			for (SparseLaplacian laplacian : new SparseLaplacian[] { new SparseLaplacian(direct),
+					new SparseLaplacian(mapped), new SparseLaplacian(direct, pool, () -> false) }) {
+				for (int width : new int[] { 1, 5 }) {
+					final double[] x = new double[n * width];
+					for (int i = 0; i < x.length; i++) {
+						x[i] = Math.cos(i);
+					}
+					final double[] y = new double[x.length];
+					final double[] actual = new double[x.length];
+					expected.multiply(x, y, width);
+					laplacian.multiply(x, actual, width);
+					assertArrayEquals(y, actual, 0);
+				}
+			}
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import org.cytoscape.diffusion.internal.util.NetworkSnapshotCache;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNetworkManager;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
+import org.junit.Test;
+
+public class SpectralBasisTest {
+
+	/**
+	 * Two components: a ring of 40 nodes with chords and a star of 20 leaves,
+	 * the star has eigenvalue 1 with multiplicity 19
+	 */
+	private static NetworkSnapshot twoComponents() {
+		final int ring = 40;
+		final int leaves = 20;
+		final int n = ring + 1 + leaves;
+		final long[] suids = new long[n];
+		final int[] sources = new int[4 * ring + 2 * leaves];
+		final int[] targets = new int[sources.length];
+		int count = 0;
+		for (int i = 0; i < n; i++) {
+			suids[i] = 100 + i;
+		}
+		for (int i = 0; i < ring; i++) {
+			for (int step : new int[] { 1, 7 }) {
+				sources[count] = i;
+				targets[count++] = (i + step) % ring;
+				sources[count] = (i + step) % ring;
+				targets[count++] = i;
+			}
+		}
+		for (int i = ring + 1; i < n; i++) {
+			sources[count] = ring;
+			targets[count++] = i;
+			sources[count] = i;
+			targets[count++] = ring;
+		}
+		return NetworkSnapshot.create(suids, sources, targets, count);
+	}
+
+	private static double[] heats(final int n) {
+		final double[] heats = new double[n];
+		heats[0] = 1.0;
+		heats[3] = 0.5;
+		heats[42] = 2.0;
+		return heats;
+	}
+
+	@Test
+	public void testEstimateBoundsError() {
+		final SparseLaplacian laplacian = new SparseLaplacian(twoComponents());
+		final SpectralBasis basis = SpectralBasis.compute(laplacian, 10, SpectralBasisCache.EIGEN_TOLERANCE,
+				() -> false);
+		assertEquals(10, basis.size());
+		// both components give eigenvalue 0
+		assertEquals(0.0, basis.getValue(0), 1e-9);
+		assertEquals(0.0, basis.getValue(1), 1e-9);
+		// only some copies of the eigenvalue 1 of the star fit in the basis
+		assertEquals(1.0, basis.getRemainderEstimate(), 1e-6);
+
+		final double[] input = heats(laplacian.size());
+		final double[] result = new double[input.length];
+		for (double time : new double[] { 0.1, 1.0, 10.0, 100.0 }) {
+			final double estimate = basis.apply(input, time, result);
+			final double[] expected = new TaylorHeatKernel(1e-14).apply(laplacian, input, time);
+			double error = 0;
+			for (int i = 0; i < input.length; i++) {
+				error += (result[i] - expected[i]) * (result[i] - expected[i]);
+			}
+			assertTrue("time " + time, Math.sqrt(error) <= estimate + 1e-12);
+		}
+		// at a large time only the smallest eigenvalues matter
+		assertTrue(basis.apply(input, 100.0, result) < 1e-8);
+	}
+
+	@Test
+	public void testCompleteBasisIsExact() {
+		final SparseLaplacian laplacian = new SparseLaplacian(twoComponents());
+		final SpectralBasis basis = SpectralBasis.compute(laplacian, laplacian.size(),
+				SpectralBasisCache.EIGEN_TOLERANCE, () -> false);
+		assertEquals(laplacian.size(), basis.size());
+
+		final double[] input = heats(laplacian.size());
+		final double[] result = new double[input.length];
+		final double estimate = basis.apply(input, 0.5, result);
+		final double[] expected = new TaylorHeatKernel(1e-14).apply(laplacian, input, 0.5);
+		for (int i = 0; i < input.length; i++) {
+			assertEquals(expected[i], result[i], 1e-8);
+		}
+		assertTrue(estimate < 1e-8);
+	}
+
+	@Test
+	public void testCache() throws Exception {
+		final NetworkSnapshot snapshot = twoComponents();
+		final SpectralBasisCache cache = new SpectralBasisCache(8, 1L << 20);
+		try {
+			assertNull(cache.get(1L, snapshot));
+			SpectralBasis basis = null;
+			for (int i = 0; i < 500 && basis == null; i++) {
+				Thread.sleep(10);
+				basis = cache.get(1L, snapshot);
+			}
+			assertNotNull(basis);
+			assertEquals(8, basis.size());
+			assertEquals(basis.getMemorySize(), cache.getBytes());
+
+			// a new snapshot of the network makes the basis stale
+			assertNull(cache.get(1L, twoComponents()));
+			assertEquals(1, cache.size());
+
+			// destroying the network drops its basis
+			final NetworkSnapshotCache snapshots = new NetworkSnapshotCache();
+			new LocalDiffusionEngine(new KrylovHeatKernel(), snapshots, cache, LocalDiffusionEngine.DEFAULT_TOLERANCE,
+					1, 1, 0, 0, 0, 0);
+			final CyNetwork network = mock(CyNetwork.class);
+			when(network.getSUID()).thenReturn(1L);
+			snapshots.handleEvent(new NetworkAboutToBeDestroyedEvent(mock(CyNetworkManager.class), network));
+			assertEquals(0, cache.size());
+			assertEquals(0, cache.getBytes());
+
+			// bases that do not fit are not computed
+			final SpectralBasisCache small = new SpectralBasisCache(8, 1000);
+			assertNull(small.get(1L, snapshot));
+			assertEquals(0, small.size());
+			small.shutdown();
+		} finally {
+			cache.shutdown();
+		}
+	}
+}
@@ -0,0 +1,61 @@
+package org.cytoscape.diffusion.internal.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class TopKHeatKernelTest {
+
+	@Test
+	public void testTopK() {
+		// Ring of 2000 nodes with random chords and random input heats
+		final int n = 2000;
+		final Random random = new Random(11);
+		final long[] suids = new long[n];
+		final int[] sources = new int[4 * n];
+		final int[] targets = new int[4 * n];
+		final double[] input = new double[n];
+		for (int i = 0; i < n; i++) {
+			suids[i] = i + 1;
+			final int[] ends = { (i + 1) % n, random.nextInt(n) };
+			for (int e = 0; e < 2; e++) {
+				sources[4 * i + 2 * e] = i;
+				targets[4 * i + 2 * e] = ends[e];
+				sources[4 * i + 2 * e + 1] = ends[e];
+				targets[4 * i + 2 * e + 1] = i;
+			}
+			input[i] = random.nextInt(20) == 0 ? random.nextDouble() : 0;
+		}
+		final SparseLaplacian laplacian = SparseLaplacian.create(suids, sources, targets, sources.length);
+		final TopKHeatKernel kernel = new TopKHeatKernel(1e-8);
+		for (double time : new double[] { 0.1, 1.0 }) {
+			final double[] exact = new ChebyshevHeatKernel(1e-14).apply(laplacian, input, time);
+			final int full = new ChebyshevHeatKernel(1e-8).getDegree(laplacian, time);
+			for (int k : new int[] { 1, 10, 200 }) {
+				final TopKHeatKernel.Top top = kernel.apply(laplacian, input, time, k);
+				final int[] expected = HeatRanking.top(exact, k);
+				assertEquals(k, top.size());
+				for (int r = 0; r < k; r++) {
+					assertEquals(expected[r], top.getNode(r));
+					assertEquals(exact[expected[r]], top.getHeat(r), top.getError() + 1e-12);
+				}
+				assertTrue(top.getProducts() <= full);
+			}
+			// a few distinct heats are certified long before the tolerance
+			assertTrue(kernel.apply(laplacian, input, time, 1).getProducts() < full);
+		}
+
+		// equal heats are summed to the tolerance and keep the order of their nodes
+		final double[] uniform = new double[n];
+		Arrays.fill(uniform, 1.0);
+		final TopKHeatKernel.Top tied = kernel.apply(laplacian, uniform, 1.0, 3);
+		assertEquals(new ChebyshevHeatKernel(1e-8).getDegree(laplacian, 1.0), tied.getProducts());
+		assertEquals(0, tied.getNode(0));
+		assertEquals(1, tied.getNode(1));
+		assertEquals(2, tied.getNode(2));
+	}
+}
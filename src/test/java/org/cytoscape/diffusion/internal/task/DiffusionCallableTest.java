@@ -1,9 +1,14 @@
 package org.cytoscape.diffusion.internal.task;
 
+import java.io.BufferedReader;
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.zip.GZIPInputStream;
 import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
@@ -13,6 +18,8 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpUriRequest;
 import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.message.BasicNameValuePair;
+import org.cytoscape.diffusion.internal.client.DiffusionOutput;
+import org.mockito.ArgumentCaptor;
 
 import static org.mockito.Mockito.*;
 import static org.junit.Assert.*;
@@ -24,6 +31,11 @@ import org.junit.Test;
  */
 public class DiffusionCallableTest {
     
+    private static final String RESPONSE = "{\"data\": [{\"nodeAttributes\": ["
+            + "{\"po\": [1], \"n\": \"diffusion_output_heat\", \"v\": \"0.5\"},"
+            + "{\"po\": [1], \"n\": \"diffusion_output_rank\", \"v\": \"1\"}]}],"
+            + " \"errors\": []}";
+    
     @Test
     public void testCallNullEntity() throws Exception {
         HttpClientFactory mockFac = mock(HttpClientFactory.class);
@@ -48,6 +60,31 @@ public class DiffusionCallableTest {
 
     }
     
+    @Test
+    public void testCallServerError() throws Exception {
+        HttpClientFactory mockFac = mock(HttpClientFactory.class);
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse mockRes = mock(HttpResponse.class);
+        StatusLine mockStatus = mock(StatusLine.class);
+        HttpEntity mockEntity = mock(HttpEntity.class);
+
+        when(mockStatus.getStatusCode()).thenReturn(503);
+        when(mockRes.getStatusLine()).thenReturn(mockStatus);
+        when(mockRes.getEntity()).thenReturn(mockEntity);
+        when(mockFac.getHttpClient()).thenReturn(mockClient);
+        when(mockClient.execute(any(HttpUriRequest.class))).thenReturn(mockRes);
+        DiffusionCallable diffy = new DiffusionCallable("cx", "inputHeatCol", 0.1,
+                "http://foo", mockFac);
+
+        try {
+            diffy.call();
+            fail("Expected exception");
+        } catch(IOException io){
+            assertTrue(io.getMessage().contains("Diffusion service responded with"));
+        }
+        verify(mockEntity, never()).getContent();
+    }
+    
     @Test
     public void testCallSuccessful() throws Exception {
         HttpClientFactory mockFac = mock(HttpClientFactory.class);
@@ -57,7 +94,7 @@ public class DiffusionCallableTest {
 
         HttpEntity mockEntity = mock(HttpEntity.class);
         
-        InputStream iStream = new ByteArrayInputStream("Hello".getBytes());
+        InputStream iStream = new ByteArrayInputStream(RESPONSE.getBytes());
         when(mockEntity.getContent()).thenReturn(iStream);
         when(mockRes.getEntity()).thenReturn(mockEntity);
         when(mockFac.getHttpClient()).thenReturn(mockClient);
@@ -70,7 +107,39 @@ public class DiffusionCallableTest {
         DiffusionCallable diffy = new DiffusionCallable("cx", "inputHeatCol", 0.1,
                 "http://foo");
         diffy.setAlternateHttpClientFactory(mockFac);
-        assertEquals("Hello", diffy.call());
+        DiffusionOutput output = diffy.call();
+        assertEquals(1, output.getSize());
+        assertEquals(1L, output.getSUID(0));
+        assertEquals(0.5, output.getHeat(0), 0.0);
+        assertEquals(1, output.getRank(0));
+    }
+    
+    @Test
+    public void testCallGzipRequest() throws Exception {
+        HttpClientFactory mockFac = mock(HttpClientFactory.class);
+        HttpClient mockClient = mock(HttpClient.class);
+        HttpResponse mockRes = mock(HttpResponse.class);
+        HttpEntity mockEntity = mock(HttpEntity.class);
+        
+        when(mockEntity.getContent()).thenReturn(new ByteArrayInputStream(RESPONSE.getBytes()));
+        when(mockRes.getEntity()).thenReturn(mockEntity);
+        when(mockFac.getHttpClient()).thenReturn(mockClient);
+        when(mockFac.getRequestCompressionLevel()).thenReturn(6);
+        when(mockClient.execute(any(HttpPost.class))).thenReturn(mockRes);
+        
+        DiffusionCallable diffy = new DiffusionCallable("cx", "inputHeatCol", 0.1,
+                "http://foo", mockFac);
+        assertEquals(1, diffy.call().getSize());
+        
+        ArgumentCaptor<HttpPost> captor = ArgumentCaptor.forClass(HttpPost.class);
+        verify(mockClient).execute(captor.capture());
+        HttpEntity sent = captor.getValue().getEntity();
+        assertEquals("gzip", sent.getContentEncoding().getValue());
+        
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        sent.writeTo(out);
+        GZIPInputStream gzip = new GZIPInputStream(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals("cx", new BufferedReader(new InputStreamReader(gzip)).readLine());
     }
     
 }
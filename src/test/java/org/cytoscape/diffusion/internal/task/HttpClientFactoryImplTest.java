@@ -1,5 +1,6 @@
 package org.cytoscape.diffusion.internal.task;
 
+import java.util.Properties;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.config.RequestConfig;
 import org.junit.Test;
@@ -16,5 +17,59 @@ public class HttpClientFactoryImplTest {
         HttpClientFactoryImpl fac = new HttpClientFactoryImpl();
         HttpClient client = fac.getHttpClient();
         assertNotNull("client is null", client);
+        fac.shutdown();
+    }
+    
+    @Test
+    public void testClientIsShared(){
+        HttpClientFactoryImpl fac = new HttpClientFactoryImpl();
+        assertSame(fac.getHttpClient(), fac.getHttpClient());
+        fac.shutdown();
+    }
+    
+    @Test
+    public void testDefaultIsShared(){
+        HttpClientFactoryImpl fac = HttpClientFactoryImpl.getDefault();
+        assertSame(fac, HttpClientFactoryImpl.getDefault());
+        HttpClientFactoryImpl.shutdownDefault();
+        assertNotSame(fac, HttpClientFactoryImpl.getDefault());
+        HttpClientFactoryImpl.shutdownDefault();
+    }
+    
+    @Test
+    public void testGetClientFromProperties(){
+        Properties props = new Properties();
+        props.setProperty(HttpClientFactoryImpl.MAX_CONNECTIONS_PROP, "4");
+        props.setProperty(HttpClientFactoryImpl.MAX_CONNECTIONS_PER_ROUTE_PROP, "2");
+        props.setProperty(HttpClientFactoryImpl.SOCKET_TIMEOUT_PROP, "notanumber");
+        HttpClientFactoryImpl fac = new HttpClientFactoryImpl(props);
+        assertNotNull("client is null", fac.getHttpClient());
+        fac.shutdown();
+        
+        fac = new HttpClientFactoryImpl((Properties)null);
+        assertNotNull("client is null", fac.getHttpClient());
+        fac.shutdown();
+    }
+    
+    @Test
+    public void testGzipLevel(){
+        Properties props = new Properties();
+        props.setProperty(HttpClientFactoryImpl.GZIP_REQUEST_PROP, "true");
+        props.setProperty(HttpClientFactoryImpl.GZIP_LEVEL_PROP, "9");
+        HttpClientFactoryImpl fac = new HttpClientFactoryImpl(props);
+        assertEquals(9, fac.getRequestCompressionLevel());
+        fac.shutdown();
+        
+        for (String level : new String[] {"0", "-1", "10"}){
+            props.setProperty(HttpClientFactoryImpl.GZIP_LEVEL_PROP, level);
+            fac = new HttpClientFactoryImpl(props);
+            assertEquals(level, HttpClientFactoryImpl.DEFAULT_GZIP_LEVEL, fac.getRequestCompressionLevel());
+            fac.shutdown();
+        }
+        
+        props.setProperty(HttpClientFactoryImpl.GZIP_REQUEST_PROP, "false");
+        fac = new HttpClientFactoryImpl(props);
+        assertEquals(0, fac.getRequestCompressionLevel());
+        fac.shutdown();
     }
 }
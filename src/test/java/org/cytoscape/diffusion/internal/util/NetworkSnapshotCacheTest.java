@@ -0,0 +1,155 @@
+package org.cytoscape.diffusion.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.cytoscape.diffusion.internal.engine.NetworkSnapshot;
+import org.cytoscape.model.CyEdge;
+import org.cytoscape.model.CyNetwork;
+import org.cytoscape.model.CyNetworkManager;
+import org.cytoscape.model.CyNode;
+import org.cytoscape.model.events.AboutToRemoveEdgesEvent;
+import org.cytoscape.model.events.AboutToRemoveNodesEvent;
+import org.cytoscape.model.events.AddedEdgesEvent;
+import org.cytoscape.model.events.AddedNodesEvent;
+import org.cytoscape.model.events.NetworkAboutToBeDestroyedEvent;
+import org.cytoscape.model.events.RemovedNodesEvent;
+import org.junit.Test;
+
+public class NetworkSnapshotCacheTest {
+
+	private static CyNode node(final long suid) {
+		final CyNode node = mock(CyNode.class);
+		when(node.getSUID()).thenReturn(suid);
+		return node;
+	}
+
+	private static CyEdge edge(final CyNode source, final CyNode target) {
+		final CyEdge edge = mock(CyEdge.class);
+		when(edge.getSource()).thenReturn(source);
+		when(edge.getTarget()).thenReturn(target);
+		return edge;
+	}
+
+	private static CyNetwork network(final long suid) {
+		final CyNode a = node(1L);
+		final CyNode b = node(2L);
+		final CyNode c = node(3L);
+		final CyEdge edge = edge(a, c);
+		final CyNetwork network = mock(CyNetwork.class);
+		when(network.getSUID()).thenReturn(suid);
+		when(network.getNodeList()).thenReturn(Arrays.asList(a, b, c));
+		when(network.getEdgeList()).thenReturn(Arrays.asList(edge));
+		return network;
+	}
+
+	@Test
+	public void testSnapshot() {
+		final NetworkSnapshot snapshot = NetworkSnapshot.create(network(100L));
+		assertEquals(3, snapshot.getNodeCount());
+		assertEquals(2, snapshot.getEntryCount());
+		assertEquals(2, snapshot.getIndex(3L));
+		assertEquals(SuidIndexMap.NOT_FOUND, snapshot.getIndex(4L));
+		assertEquals(1.0, snapshot.getDegree(0), 0);
+		assertEquals(0.0, snapshot.getDegree(1), 0);
+	}
+
+	@Test
+	public void testReusedUntilChanged() {
+		final NetworkSnapshotCache cache = new NetworkSnapshotCache();
+		final CyNetwork network = network(100L);
+		final CyNetwork other = network(200L);
+		final NetworkSnapshot snapshot = cache.get(network);
+		final NetworkSnapshot otherSnapshot = cache.get(other);
+		assertSame(snapshot, cache.get(network));
+		assertEquals(2, cache.getBuilds());
+
+		// edited, not built again
+		final CyEdge added = edge(network.getNodeList().get(1), network.getNodeList().get(2));
+		when(network.containsEdge(added)).thenReturn(true);
+		cache.handleEvent(new AddedEdgesEvent(network, Collections.singletonList(added)));
+		assertEquals(2, cache.size());
+		assertSame(otherSnapshot, cache.get(other));
+		final NetworkSnapshot edited = cache.get(network);
+		assertNotSame(snapshot, edited);
+		assertEquals(4, edited.getEntryCount());
+		assertEquals(1.0, edited.getDegree(edited.getIndex(2L)), 0);
+		assertEquals(2, cache.getBuilds());
+
+		// a node count that does not match drops the snapshot
+
+		cache.handleEvent(new RemovedNodesEvent(other));
+		assertNotSame(otherSnapshot, cache.get(other));
+
+		cache.handleEvent(new NetworkAboutToBeDestroyedEvent(mock(CyNetworkManager.class), network));
+		assertEquals(1, cache.size());
+	}
+
+	@Test
+	public void testEditedInPlace() {
+		final NetworkSnapshotCache cache = new NetworkSnapshotCache();
+		final CyNetwork network = network(100L);
+		final CyNode a = network.getNodeList().get(0);
+		final CyNode b = network.getNodeList().get(1);
+		final CyNode c = network.getNodeList().get(2);
+		final CyEdge ac = network.getEdgeList().get(0);
+		cache.get(network);
+
+		// parallel edge left, still neighbors
+		final CyEdge parallel = edge(c, a);
+		when(network.getConnectingEdgeList(a, c, CyEdge.Type.ANY)).thenReturn(Arrays.asList(ac, parallel));
+		cache.handleEvent(new AboutToRemoveEdgesEvent(network, Collections.singletonList(ac)));
+		assertEquals(2, cache.get(network).getEntryCount());
+
+		final CyNode d = node(4L);
+		final CyEdge bd = edge(b, d);
+		when(network.containsNode(d)).thenReturn(true);
+		when(network.containsEdge(bd)).thenReturn(true);
+		cache.handleEvent(new AddedNodesEvent(network, Collections.singletonList(d)));
+		cache.handleEvent(new AddedEdgesEvent(network, Collections.singletonList(bd)));
+		NetworkSnapshot snapshot = cache.get(network);
+		assertEquals(4, snapshot.getNodeCount());
+		assertEquals(4, snapshot.getEntryCount());
+
+		// the last node takes the index of the removed one
+		cache.handleEvent(new AboutToRemoveNodesEvent(network, Collections.singletonList(a)));
+		when(network.getNodeCount()).thenReturn(3);
+		cache.handleEvent(new RemovedNodesEvent(network));
+		snapshot = cache.get(network);
+		assertEquals(3, snapshot.getNodeCount());
+		assertEquals(2, snapshot.getEntryCount());
+		assertEquals(SuidIndexMap.NOT_FOUND, snapshot.getIndex(1L));
+		assertEquals(0, snapshot.getIndex(4L));
+		assertEquals(1.0, snapshot.getDegree(snapshot.getIndex(2L)), 0);
+		assertEquals(0.0, snapshot.getDegree(snapshot.getIndex(3L)), 0);
+		assertEquals(1, cache.getBuilds());
+	}
+
+	@Test
+	public void testUntrackedNetworkNotRead() {
+		final NetworkSnapshotCache cache = new NetworkSnapshotCache();
+		final CyNetwork network = network(100L);
+		final CyNode a = network.getNodeList().get(0);
+		final CyEdge ac = network.getEdgeList().get(0);
+		cache.handleEvent(new AddedNodesEvent(network, Collections.singletonList(a)));
+		cache.handleEvent(new AddedEdgesEvent(network, Collections.singletonList(ac)));
+		cache.handleEvent(new AboutToRemoveEdgesEvent(network, Collections.singletonList(ac)));
+		cache.handleEvent(new RemovedNodesEvent(network));
+
+		verify(network, never()).containsNode(any(CyNode.class));
+		verify(network, never()).containsEdge(any(CyEdge.class));
+		verify(network, never()).getConnectingEdgeList(any(CyNode.class), any(CyNode.class), any(CyEdge.Type.class));
+		verify(network, never()).getNodeCount();
+		assertEquals(0, cache.size());
+		assertEquals(0, cache.getBuilds());
+	}
+}
@@ -0,0 +1,41 @@
+package org.cytoscape.diffusion.internal.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Properties;
+
+import org.junit.Test;
+
+public class PropsTest {
+
+	@Test
+	public void testParsed() {
+		final Properties props = new Properties();
+		props.setProperty("long", " 42 ");
+		props.setProperty("double", "0.25");
+		props.setProperty("boolean", "TRUE");
+
+		assertEquals(42L, Props.getLong(props, "long", 7));
+		assertEquals(42, Props.getInt(props, "long", 7));
+		assertEquals(0.25, Props.getDouble(props, "double", 1), 0);
+		assertTrue(Props.getBoolean(props, "boolean", false));
+	}
+
+	@Test
+	public void testDefaults() {
+		final Properties props = new Properties();
+		props.setProperty("long", "notanumber");
+		props.setProperty("double", "");
+
+		assertEquals(7L, Props.getLong(props, "long", 7));
+		assertEquals(1, Props.getDouble(props, "double", 1), 0);
+		assertEquals(7L, Props.getLong(props, "missing", 7));
+		assertFalse(Props.getBoolean(props, "missing", false));
+		assertEquals(7L, Props.getLong(null, "long", 7));
+		assertTrue(Props.getBoolean(null, "boolean", true));
+		assertEquals("x", Props.getString(null, "string", "x"));
+		assertEquals("", Props.getString(props, "double", "x"));
+	}
+}